@@ -0,0 +1,106 @@
+package me.saket.dank.ui.submission;
+
+import static org.junit.Assert.assertEquals;
+
+import android.arch.persistence.room.Room;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.dean.jraw.models.CommentSort;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import me.saket.dank.data.AppDatabase;
+import me.saket.dank.utils.DankSubmissionRequest;
+
+@RunWith(AndroidJUnit4.class)
+public class CachedSubmissionDaoTest {
+
+  private static final String SUBMISSION_ID = "submission";
+  private static final String PARENT_ROW_ID = "t1_parent";
+  private static final String MORE_ROW_ID = CommentTreeRows.INSTANCE.moreRowIdFor(PARENT_ROW_ID);
+
+  private AppDatabase database;
+  private CachedSubmissionDao dao;
+  private DankSubmissionRequest request;
+
+  @Before
+  public void setUp() {
+    database = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getTargetContext(), AppDatabase.class).build();
+    dao = database.submissionDao();
+    request = DankSubmissionRequest.builder(SUBMISSION_ID)
+        .commentSort(CommentSort.TOP, AuditedCommentSort.SelectedBy.DEFAULT)
+        .build();
+  }
+
+  @After
+  public void tearDown() {
+    database.close();
+  }
+
+  @Test
+  public void loadingMoreRepliesTwice_shouldReplaceLoadMoreRow() {
+    dao.saveCommentsAndRows(comments(), Arrays.asList(
+        row(PARENT_ROW_ID, "t3_" + SUBMISSION_ID, 1, 0, "parent"),
+        row("t1_a", PARENT_ROW_ID, 2, 0, "a"),
+        row(MORE_ROW_ID, PARENT_ROW_ID, 2, 1, "more [b, c]")));
+
+    // First page: the "load more" row moves after the new reply and holds the remaining ids.
+    dao.saveMoreCommentRows(comments(), PARENT_ROW_ID, Arrays.asList(
+        row("t1_a", PARENT_ROW_ID, 2, 0, "a"),
+        row("t1_b", PARENT_ROW_ID, 2, 1, "b"),
+        row(MORE_ROW_ID, PARENT_ROW_ID, 2, 2, "more [c]")));
+
+    assertEquals(Arrays.asList("t1_a", "t1_b", MORE_ROW_ID), childRowIdsOf(PARENT_ROW_ID));
+    assertEquals("more [c]", bodyOf(MORE_ROW_ID));
+
+    // Second page: all replies are loaded.
+    dao.saveMoreCommentRows(comments(), PARENT_ROW_ID, Arrays.asList(
+        row("t1_a", PARENT_ROW_ID, 2, 0, "a"),
+        row("t1_b", PARENT_ROW_ID, 2, 1, "b"),
+        row("t1_c", PARENT_ROW_ID, 2, 2, "c")));
+
+    assertEquals(Arrays.asList("t1_a", "t1_b", "t1_c"), childRowIdsOf(PARENT_ROW_ID));
+  }
+
+  private CachedSubmissionComments comments() {
+    return new CachedSubmissionComments(SUBMISSION_ID, "{}", request, System.currentTimeMillis());
+  }
+
+  private CachedComment row(String rowId, String parentRowId, int depth, int sortPosition, String body) {
+    return new CachedComment(request, rowId, parentRowId, depth, sortPosition, 0, body.getBytes());
+  }
+
+  private List<String> childRowIdsOf(String parentRowId) {
+    List<CachedComment> children = new ArrayList<>();
+    for (CachedComment row : dao.commentRows(request, Integer.MAX_VALUE)) {
+      if (row.getParentRowId().equals(parentRowId)) {
+        children.add(row);
+      }
+    }
+    Collections.sort(children, (first, second) -> Integer.compare(first.getSortPosition(), second.getSortPosition()));
+
+    List<String> childRowIds = new ArrayList<>(children.size());
+    for (CachedComment child : children) {
+      childRowIds.add(child.getRowId());
+    }
+    return childRowIds;
+  }
+
+  private String bodyOf(String rowId) {
+    for (CachedComment row : dao.commentRows(request, Integer.MAX_VALUE)) {
+      if (row.getRowId().equals(rowId)) {
+        return new String(row.getBody());
+      }
+    }
+    throw new AssertionError("Row not found: " + rowId);
+  }
+}
@@ -47,6 +47,8 @@ public abstract class DankJobService extends JobService {
 
   protected static final int ID_RECYCLE_OLD_SUBMISSIONS = 10;
 
+  protected static final int ID_RESUME_MEDIA_DOWNLOADS = 11;
+
   private CompositeDisposable onDestroyDisposables;
   private Relay<Object> onDestroyStream = PublishRelay.create();
 
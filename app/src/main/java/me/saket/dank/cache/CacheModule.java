@@ -5,32 +5,37 @@ import android.app.Application;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
 import com.danikula.videocache.HttpProxyCacheServer;
-import com.jakewharton.disklrucache.DiskLruCache;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 import com.nytimes.android.external.cache3.Cache;
 import com.nytimes.android.external.cache3.CacheBuilder;
+import com.nytimes.android.external.cache3.RemovalListener;
 import com.nytimes.android.external.fs3.filesystem.FileSystem;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.concurrent.Executors;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import io.reactivex.Completable;
 import io.reactivex.Scheduler;
-import io.reactivex.exceptions.Exceptions;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.BuildConfig;
-import me.saket.dank.data.AppInfo;
 import me.saket.dank.data.FileSize;
 import me.saket.dank.urlparser.Link;
+import me.saket.dank.urlparser.UrlParserCacheStats;
 import me.saket.dank.utils.DeviceInfo;
 import me.saket.dank.utils.FileSizeUnit;
+import timber.log.Timber;
 
 @Module
 public class CacheModule {
 
+  private static final long URL_PARSER_CACHE_MAX_WEIGHT = 500_000;
+  private static final int URL_PARSER_LINK_WEIGHT = 100;
+
   @Provides
   @Singleton
   FileSystem provideCacheFileSystem(StoreLruFileSystem lruFileSystem) {
@@ -38,15 +43,35 @@ public class CacheModule {
   }
 
   @Provides
-  DiskLruCache diskLruCache(Application appContext, AppInfo appInfo) {
+  @Singleton
+  SegmentedRecordLog provideCacheRecordLog(Application appContext) {
     FileSize maxCacheSize = FileSize.create(100, FileSizeUnit.MB);
-    File cacheDirectory = new File(appContext.getCacheDir(), "disk_lru_cache");
-    try {
-      int valuesPerCacheEntry = 1;  // No idea what this means. Glide uses 1.
-      return DiskLruCache.open(cacheDirectory, appInfo.appVersionCode(), valuesPerCacheEntry, (long) maxCacheSize.bytes());
-    } catch (IOException e) {
-      throw Exceptions.propagate(e);
-    }
+    FileSize segmentSize = FileSize.create(4, FileSizeUnit.MB);
+    File cacheDirectory = new File(appContext.getCacheDir(), "record_log");
+    deleteLegacyDiskLruCache(appContext);
+    return new SegmentedRecordLog(cacheDirectory, (long) maxCacheSize.bytes(), (int) segmentSize.bytes());
+  }
+
+  /**
+   * Records used to be stored in one file per record, before {@link SegmentedRecordLog}.
+   */
+  private static void deleteLegacyDiskLruCache(Application appContext) {
+    File legacyDirectory = new File(appContext.getCacheDir(), "disk_lru_cache");
+    Completable
+        .fromAction(() -> {
+          File[] files = legacyDirectory.listFiles();
+          if (files == null) {
+            return;
+          }
+          for (File file : files) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+          }
+          //noinspection ResultOfMethodCallIgnored
+          legacyDirectory.delete();
+        })
+        .subscribeOn(Schedulers.io())
+        .subscribe(() -> {}, error -> Timber.e(error, "Couldn't delete legacy disk cache"));
   }
 
   /**
@@ -58,10 +83,26 @@ public class CacheModule {
     return new HttpProxyCacheServer(appContext);
   }
 
+  /**
+   * Used for caching DASH videos, which can't be cached by {@link HttpProxyCacheServer}.
+   */
+  @Provides
+  @Singleton
+  @Named("dash_videos")
+  com.google.android.exoplayer2.upstream.cache.Cache provideDashVideoCache(Application appContext) {
+    FileSize maxCacheSize = FileSize.create(50, FileSizeUnit.MB);
+    File cacheDirectory = new File(appContext.getCacheDir(), "dash_videos");
+    return new SimpleCache(cacheDirectory, new LeastRecentlyUsedCacheEvictor((long) maxCacheSize.bytes()));
+  }
+
+  /**
+   * Bounded because {@link PrefetchScheduler} limits how many pre-fill tasks run at a time anyway.
+   */
   @Provides
+  @Singleton
   @Named("cache_pre_filling")
   Scheduler cachePreFillingScheduler() {
-    return Schedulers.from(Executors.newCachedThreadPool());
+    return Schedulers.from(Executors.newFixedThreadPool(PrefetchScheduler.MAX_CONCURRENT_TASKS));
   }
 
   @Provides
@@ -71,17 +112,27 @@ public class CacheModule {
     return Glide.get(appContext).getBitmapPool();
   }
 
+  /**
+   * Weighed by URL length, because a parsed {@link Link} mostly holds on to its URL and values
+   * derived from it. Each link's fields are counted as {@link #URL_PARSER_LINK_WEIGHT} chars.
+   */
   @Provides
   @Singleton
   @Named("url_parser")
-  Cache<String, Link> provideUrlParserCache(DeviceInfo deviceInfo) {
+  Cache<String, Link> provideUrlParserCache(DeviceInfo deviceInfo, UrlParserCacheStats stats) {
     if (BuildConfig.DEBUG && deviceInfo.isRunningOnEmulator()) {
       return CacheBuilder.newBuilder()
           .maximumSize(0)
           .build();
     }
     return CacheBuilder.newBuilder()
-        .maximumSize(100)
+        .maximumWeight(URL_PARSER_CACHE_MAX_WEIGHT)
+        .weigher((String url, Link link) -> url.length() + link.unparsedUrl().length() + URL_PARSER_LINK_WEIGHT)
+        .removalListener((RemovalListener<String, Link>) notification -> {
+          if (notification.wasEvicted()) {
+            stats.recordEviction();
+          }
+        })
         .build();
   }
 }
@@ -0,0 +1,253 @@
+package me.saket.dank.cache;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import me.saket.dank.data.CachePreFillThing;
+import me.saket.dank.utils.StatsCounters;
+
+/**
+ * Measures whether pre-filled things get used. {@link CachePreFiller} records every pre-filled resource,
+ * and the image loader and repositories record every resource that's shown. A resource's first use after
+ * it was pre-filled counts as a hit, and the time its pre-fill took counts as time saved for the user.
+ * <p>
+ * Resources are remembered for the last {@link #MAX_TRACKED_RESOURCES} pre-fills and uses. Pre-filled
+ * resources that get forgotten before their first use are counted as unused.
+ */
+@Singleton
+public class CachePreFillStats {
+
+  private static final int MAX_TRACKED_RESOURCES = 2_000;
+  private static final String UNKNOWN_NETWORK = "UNKNOWN";
+
+  private final Map<CachePreFillThing, ThingStats> statsByThing = new EnumMap<>(CachePreFillThing.class);
+  private final ConcurrentHashMap<String, NetworkStats> statsByNetwork = new ConcurrentHashMap<>();
+  private final Map<String, Resource> resources = new LinkedHashMap<String, Resource>(64, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Resource> eldest) {
+      if (size() <= MAX_TRACKED_RESOURCES) {
+        return false;
+      }
+      Resource resource = eldest.getValue();
+      if (resource.wasPreFilled && !resource.wasUsed) {
+        statsByThing.get(resource.thing).unusedForgotten.incrementAndGet();
+      }
+      return true;
+    }
+  };
+
+  @Inject
+  public CachePreFillStats() {
+    for (CachePreFillThing thing : CachePreFillThing.values()) {
+      statsByThing.put(thing, new ThingStats());
+    }
+  }
+
+  public static class ThingStats {
+    private final StatsCounters counters = new StatsCounters(null);
+    private final AtomicLong preFilled = counters.add("preFilled");
+    private final AtomicLong hits = counters.add("hits");
+    private final AtomicLong misses = counters.add("misses");
+    private final AtomicLong unusedForgotten = counters.add("unusedForgotten");
+    private final AtomicLong bytesSpent = counters.add("bytesSpent");
+    private final AtomicLong bytesUsed = counters.add("bytesUsed");
+
+    public long preFilledCount() {
+      return preFilled.get();
+    }
+
+    /**
+     * Pre-filled resources that were used at least once.
+     */
+    public long hitCount() {
+      return hits.get();
+    }
+
+    /**
+     * Resources that were used without being pre-filled first.
+     */
+    public long missCount() {
+      return misses.get();
+    }
+
+    /**
+     * Pre-filled resources that were forgotten before they were used.
+     */
+    public long unusedForgottenCount() {
+      return unusedForgotten.get();
+    }
+
+    /**
+     * Only counts resources whose size could be measured.
+     */
+    public long bytesSpent() {
+      return bytesSpent.get();
+    }
+
+    public long bytesUsed() {
+      return bytesUsed.get();
+    }
+
+    /**
+     * Fraction of pre-filled resources that were used.
+     */
+    public double hitRatio() {
+      long preFilledCount = preFilledCount();
+      return preFilledCount == 0 ? 0 : (double) hitCount() / preFilledCount;
+    }
+
+    @Override
+    public String toString() {
+      return counters.format("hitRatio", hitRatio());
+    }
+  }
+
+  public static class NetworkStats {
+    private final StatsCounters counters = new StatsCounters(null);
+    private final AtomicLong hits = counters.add("hits");
+    private final AtomicLong timeSavedMillis = counters.add("timeSavedMillis");
+
+    public long hitCount() {
+      return hits.get();
+    }
+
+    /**
+     * Sum of the time taken by pre-fills that were later used. This is roughly
+     * how long the user would have waited for them to load otherwise.
+     */
+    public long timeSavedMillis() {
+      return timeSavedMillis.get();
+    }
+
+    @Override
+    public String toString() {
+      return counters.format();
+    }
+  }
+
+  private static class Resource {
+    private final CachePreFillThing thing;
+    private boolean wasPreFilled;
+    private boolean wasUsed;
+    private long bytes;
+    private long durationMillis;
+    private String networkType;
+
+    Resource(CachePreFillThing thing) {
+      this.thing = thing;
+    }
+  }
+
+  /**
+   * @param bytes          Size of the resource, or 0 if it couldn't be measured.
+   * @param durationMillis Time taken for pre-filling the resource.
+   * @param networkType    Type of the network the resource was pre-filled on, like "WIFI".
+   */
+  public void recordPreFilled(CachePreFillThing thing, String key, long bytes, long durationMillis, @Nullable String networkType) {
+    ThingStats stats = statsByThing.get(thing);
+    synchronized (resources) {
+      Resource resource = resources.get(resourceKey(thing, key));
+      if (resource != null && resource.wasPreFilled && !resource.wasUsed) {
+        // Pre-filled again, probably after it got evicted from its cache.
+        stats.unusedForgotten.incrementAndGet();
+      }
+      resource = new Resource(thing);
+      resource.wasPreFilled = true;
+      resource.bytes = Math.max(0, bytes);
+      resource.durationMillis = durationMillis;
+      resource.networkType = networkType == null ? UNKNOWN_NETWORK : networkType;
+      resources.put(resourceKey(thing, key), resource);
+    }
+
+    stats.preFilled.incrementAndGet();
+    stats.bytesSpent.addAndGet(Math.max(0, bytes));
+  }
+
+  /**
+   * Only the first use of a resource is counted, so this can be called every time it's shown.
+   */
+  public void recordUse(CachePreFillThing thing, String key) {
+    ThingStats stats = statsByThing.get(thing);
+    Resource usedPreFill = null;
+
+    synchronized (resources) {
+      String resourceKey = resourceKey(thing, key);
+      Resource resource = resources.get(resourceKey);
+      if (resource == null) {
+        resource = new Resource(thing);
+        resource.wasUsed = true;
+        resources.put(resourceKey, resource);
+        stats.misses.incrementAndGet();
+
+      } else if (!resource.wasUsed) {
+        resource.wasUsed = true;
+        usedPreFill = resource;
+      }
+    }
+
+    if (usedPreFill != null) {
+      stats.hits.incrementAndGet();
+      stats.bytesUsed.addAndGet(usedPreFill.bytes);
+
+      NetworkStats networkStats = statsForNetwork(usedPreFill.networkType);
+      networkStats.hits.incrementAndGet();
+      networkStats.timeSavedMillis.addAndGet(usedPreFill.durationMillis);
+    }
+  }
+
+  private static String resourceKey(CachePreFillThing thing, String key) {
+    return thing.name() + "_" + key;
+  }
+
+  private NetworkStats statsForNetwork(String networkType) {
+    NetworkStats stats = statsByNetwork.get(networkType);
+    if (stats == null) {
+      NetworkStats newStats = new NetworkStats();
+      stats = statsByNetwork.putIfAbsent(networkType, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  public ThingStats forThing(CachePreFillThing thing) {
+    return statsByThing.get(thing);
+  }
+
+  public List<String> networkTypes() {
+    List<String> networkTypes = new ArrayList<>(statsByNetwork.keySet());
+    Collections.sort(networkTypes);
+    return networkTypes;
+  }
+
+  /**
+   * @return Null if nothing pre-filled on <var>networkType</var> was used yet.
+   */
+  @Nullable
+  public NetworkStats forNetwork(String networkType) {
+    return statsByNetwork.get(networkType);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("CachePreFillStats{");
+    for (CachePreFillThing thing : CachePreFillThing.values()) {
+      builder.append("\n  ").append(thing).append(": ").append(statsByThing.get(thing));
+    }
+    for (String networkType : networkTypes()) {
+      builder.append("\n  network ").append(networkType).append(": ").append(statsByNetwork.get(networkType));
+    }
+    return builder.append("\n}").toString();
+  }
+}
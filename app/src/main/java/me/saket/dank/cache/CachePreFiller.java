@@ -1,7 +1,6 @@
 package me.saket.dank.cache;
 
 import android.app.Application;
-import android.graphics.drawable.Drawable;
 import android.support.annotation.CheckResult;
 import android.support.annotation.Px;
 
@@ -12,11 +11,14 @@ import com.f2prateek.rx.preferences2.Preference;
 
 import net.dean.jraw.models.Submission;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -24,9 +26,9 @@ import javax.inject.Singleton;
 import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
-import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.functions.Predicate;
+import me.saket.dank.data.AppDatabase;
 import me.saket.dank.data.CachePreFillThing;
 import me.saket.dank.data.LinkMetadataRepository;
 import me.saket.dank.reddit.Reddit;
@@ -43,19 +45,23 @@ import me.saket.dank.urlparser.ImgurLink;
 import me.saket.dank.urlparser.Link;
 import me.saket.dank.urlparser.MediaLink;
 import me.saket.dank.urlparser.UrlParser;
+import me.saket.dank.utils.AdaptiveMediaQuality;
 import me.saket.dank.utils.DankSubmissionRequest;
 import me.saket.dank.utils.NetworkStateListener;
 import me.saket.dank.utils.Optional;
-import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.RxUtils;
 
 /**
- * Pre-fetches submission content and comments.
+ * Pre-fetches submission content and comments. Tasks are run by {@link PrefetchScheduler},
+ * in the order of their distance from the visible submissions.
  */
 @Singleton
 public class CachePreFiller {
 
-  private static final int SUBMISSION_LIMIT_PER_SUBREDDIT = 30;
+  /**
+   * Pre-filled content is assumed to have been evicted from its cache after this duration.
+   */
+  private static final long PRE_FILL_VALIDITY_MILLIS = TimeUnit.DAYS.toMillis(1);
 
   private final Application appContext;
   private final SubmissionRepository submissionRepository;
@@ -63,13 +69,14 @@ public class CachePreFiller {
   private final MediaHostRepository mediaHostRepository;
   private final LinkMetadataRepository linkMetadataRepository;
 
-  private final Lazy<Scheduler> preFillingScheduler;
+  private final Lazy<PrefetchScheduler> prefetchScheduler;
   private final Lazy<Map<CachePreFillThing, Preference<NetworkStrategy>>> preFillingNetworkStrategies;
   private final Lazy<UrlParser> urlParser;
   private final Lazy<SubmissionImageLoader> submissionImageLoader;
-
-  // Key: <submission-fullname>_<CachePreFillThing>.
-  private Set<String> completedPreFills = new HashSet<>(50);
+  private final Lazy<VideoPreFiller> videoPreFiller;
+  private final Lazy<AdaptiveMediaQuality> mediaQuality;
+  private final Lazy<AppDatabase> database;
+  private final CachePreFillStats preFillStats;
 
   @Inject
   public CachePreFiller(
@@ -80,7 +87,11 @@ public class CachePreFiller {
       LinkMetadataRepository linkMetadataRepository,
       Lazy<UrlParser> urlParser,
       Lazy<SubmissionImageLoader> submissionImageLoader,
-      @Named("cache_pre_filling") Lazy<Scheduler> preFillingScheduler,
+      Lazy<VideoPreFiller> videoPreFiller,
+      Lazy<AdaptiveMediaQuality> mediaQuality,
+      Lazy<PrefetchScheduler> prefetchScheduler,
+      Lazy<AppDatabase> database,
+      CachePreFillStats preFillStats,
       @Named("cache_pre_filling_network_strategies") Lazy<Map<CachePreFillThing, Preference<NetworkStrategy>>> preFillingNetworkStrategies)
   {
     this.appContext = appContext;
@@ -90,25 +101,63 @@ public class CachePreFiller {
     this.linkMetadataRepository = linkMetadataRepository;
     this.urlParser = urlParser;
     this.submissionImageLoader = submissionImageLoader;
+    this.videoPreFiller = videoPreFiller;
+    this.mediaQuality = mediaQuality;
     this.preFillingNetworkStrategies = preFillingNetworkStrategies;
-    this.preFillingScheduler = preFillingScheduler;
+    this.prefetchScheduler = prefetchScheduler;
+    this.database = database;
+    this.preFillStats = preFillStats;
   }
 
   private void log(String message, Object... args) {
     //Timber.d(message, args);
   }
 
+  public CachePreFillStats stats() {
+    return preFillStats;
+  }
+
+  /**
+   * Bytes spent on pre-filling and how much of it was used. Meant for tuning pre-fill limits.
+   */
+  public String report() {
+    return preFillStats
+        + "\nBytes received while pre-filling: " + prefetchScheduler.get().spentBytes();
+  }
+
+  /**
+   * Called when the visible submissions change so that pre-fills for the submissions around them run first.
+   * Positions are indices in the list of submissions passed to {@link #preFillInParallelThreads}, not adapter positions.
+   */
+  public void updateVisibleRange(int firstVisiblePosition, int lastVisiblePosition) {
+    prefetchScheduler.get().updateVisibleRange(firstVisiblePosition, lastVisiblePosition);
+  }
+
   @CheckResult
   public Completable preFillInParallelThreads(List<Submission> submissions, @Px int submissionAlbumLinkThumbnailWidth) {
     log("Pre-filling");
 
+    // Parsed in one go for all streams. Submissions that are present
+    // twice (across pages) are only pre-filled once, at their first position.
+    Single<List<Candidate>> candidates = Single
+        .fromCallable(() -> {
+          List<Link> contentLinks = urlParser.get().parseAll(submissions);
+
+          List<Candidate> candidateList = new ArrayList<>(submissions.size());
+          Set<String> seenFullNames = new HashSet<>(submissions.size());
+          for (int i = 0; i < submissions.size(); i++) {
+            Submission submission = submissions.get(i);
+            if (seenFullNames.add(submission.getFullName())) {
+              candidateList.add(new Candidate(i, submission, contentLinks.get(i)));
+            }
+          }
+          return candidateList;
+        })
+        .cache();
+
     // WARNING: this Observable is intentionally not shared to allow parallel execution of its subscribers.
-    Observable<Pair<Submission, Link>> submissionAndContentLinkStream = Observable.fromIterable(submissions)
-        .take(SUBMISSION_LIMIT_PER_SUBREDDIT)
-        .map(submission -> {
-          Link contentLink = urlParser.get().parse(submission.getUrl(), submission);
-          return Pair.create(submission, contentLink);
-        });
+    Observable<Candidate> candidateStream = candidates
+        .flattenAsObservable(list -> list);
 
     // Images and GIFs that couldn't be converted to videos.
     Observable imageCachePreFillStream = preFillingNetworkStrategies.get().get(CachePreFillThing.IMAGES).asObservable()
@@ -129,17 +178,15 @@ public class CachePreFiller {
 
           log("Pre-filling images for %s submissions", submissions.size());
 
-          return submissionAndContentLinkStream
+          return candidateStream
               .filter(submissionContentAreStaticImages())
-              .concatMap(submissionAndLink -> {
-                Submission submission = submissionAndLink.first();
-                MediaLink mediaLink = (MediaLink) submissionAndLink.second();
-                return preFillImageOrAlbum(submission, mediaLink, submissionAlbumLinkThumbnailWidth)
-                    .subscribeOn(preFillingScheduler.get())
-                    //.doOnSubscribe(d -> log("Caching image: %s", submissionAndLink.first().getTitle()))
-                    //.doOnComplete(() -> log("Cached image: %s", submissionAndLink.first().getTitle()))
-                    .onErrorComplete()
-                    .toObservable();
+              .flatMap(candidate -> {
+                MediaLink mediaLink = (MediaLink) candidate.contentLink;
+                Completable preFill = Completable.defer(() -> preFillImageOrAlbum(candidate.submission, mediaLink, submissionAlbumLinkThumbnailWidth))
+                    //.doOnSubscribe(d -> log("Caching image: %s", candidate.submission.getTitle()))
+                    //.doOnComplete(() -> log("Cached image: %s", candidate.submission.getTitle()))
+                    .onErrorComplete();
+                return schedule(CachePreFillThing.IMAGES, candidate, preFill);
               });
         });
 
@@ -154,15 +201,14 @@ public class CachePreFiller {
 
           //log("Pre-filling links for %s submissions", submissions.size());
 
-          return submissionAndContentLinkStream
+          return candidateStream
               .filter(submissionContentIsExternalLink())
-              .concatMap(
-                  submissionAndLink -> preFillLinkMetadata(submissionAndLink.first(), submissionAndLink.second(), submissionAlbumLinkThumbnailWidth)
-                      .subscribeOn(preFillingScheduler.get())
-                      //.doOnSubscribe(d -> Timber.i("Caching link: %s", submissionAndLink.first().getTitle()))
-                      .toObservable()
-                      .onErrorResumeNext(Observable.empty())
-              );
+              .flatMap(candidate -> {
+                Completable preFill = Completable.defer(() -> preFillLinkMetadata(candidate.submission, candidate.contentLink, submissionAlbumLinkThumbnailWidth))
+                    //.doOnSubscribe(d -> Timber.i("Caching link: %s", candidate.submission.getTitle()))
+                    .onErrorComplete();
+                return schedule(CachePreFillThing.LINK_METADATA, candidate, preFill);
+              });
         });
 
     // Comments.
@@ -176,19 +222,58 @@ public class CachePreFiller {
 
           //log("Pre-filling comments for %s submissions", submissions.size());
 
-          return submissionAndContentLinkStream.concatMap(submissionAndLink -> preFillComment(submissionAndLink.first())
-              .subscribeOn(preFillingScheduler.get())
-              //.doOnSubscribe(d -> Timber.i("Caching comments: %s", submissionAndLink.first().getTitle()))
-              .toObservable())
-              .onErrorResumeNext(Observable.empty());
+          return candidateStream.flatMap(candidate -> {
+            Completable preFill = Completable.defer(() -> preFillComment(candidate.submission))
+                //.doOnSubscribe(d -> Timber.i("Caching comments: %s", candidate.submission.getTitle()))
+                .onErrorComplete();
+            return schedule(CachePreFillThing.COMMENTS, candidate, preFill);
+          });
         });
 
-    return Observable.merge(imageCachePreFillStream, linkCacheFillStream, commentCacheFillStream).ignoreElements();
+    // Beginning of videos.
+    Observable videoCacheFillStream = preFillingNetworkStrategies.get().get(CachePreFillThing.VIDEOS).asObservable()
+        .flatMap(strategy -> networkStateListener.streamNetworkInternetCapability(strategy, Optional.empty()))
+        .switchMap(canPreFill -> {
+          if (!canPreFill) {
+            //Timber.w("Cannot pre-fill videos");
+            return Observable.never();
+          }
+
+          return candidateStream
+              .filter(candidate -> candidate.contentLink.isVideo() && VideoPreFiller.canPreFill((MediaLink) candidate.contentLink))
+              .flatMap(candidate -> {
+                MediaLink mediaLink = (MediaLink) candidate.contentLink;
+                Completable preFill = Completable.defer(() -> preFillVideo(candidate.submission, mediaLink))
+                    //.doOnSubscribe(d -> Timber.i("Caching video: %s", candidate.submission.getTitle()))
+                    .onErrorComplete();
+                return schedule(CachePreFillThing.VIDEOS, candidate, preFill);
+              });
+        });
+
+    return Observable.merge(imageCachePreFillStream, linkCacheFillStream, commentCacheFillStream, videoCacheFillStream).ignoreElements();
+  }
+
+  private Observable<Object> schedule(CachePreFillThing thing, Candidate candidate, Completable preFill) {
+    return prefetchScheduler.get()
+        .schedule(thing, candidate.position, preFill)
+        .toObservable();
+  }
+
+  /**
+   * Deletes records of pre-fills that are no longer valid.
+   *
+   * @return Number of deleted rows.
+   */
+  @CheckResult
+  public Single<Integer> recycleExpiredPreFills() {
+    return Single.fromCallable(() -> database.get()
+        .completedPreFillDao()
+        .deleteAllCompletedBefore(System.currentTimeMillis() - PRE_FILL_VALIDITY_MILLIS));
   }
 
-  private Predicate<Pair<Submission, Link>> submissionContentAreStaticImages() {
+  private Predicate<Candidate> submissionContentAreStaticImages() {
     //noinspection ConstantConditions
-    return submissionAndLink -> submissionAndLink.second().isImage() || submissionAndLink.second().isMediaAlbum();
+    return candidate -> candidate.contentLink.isImage() || candidate.contentLink.isMediaAlbum();
   }
 
   private Completable preFillImageOrAlbum(Submission submission, MediaLink mediaLink, int submissionAlbumLinkThumbnailWidth) {
@@ -203,10 +288,13 @@ public class CachePreFiller {
         .replay()
         .refCount();
 
-    Observable<Object> checks = replayedResolvedLinks
+    long startTimeMillis = System.currentTimeMillis();
+    String networkType = networkStateListener.activeNetworkTypeName();
+
+    Observable<String> checks = replayedResolvedLinks
         .flatMap(resolvedLink -> {
           if (resolvedLink.isImageOrGif() || resolvedLink.isMediaAlbum()) {
-            return Observable.empty();
+            return Observable.<String>empty();
           } else {
             return Observable.error(new AssertionError("Unsupported link for image caching: " + resolvedLink));
           }
@@ -214,20 +302,20 @@ public class CachePreFiller {
 
     RequestOptions imageLoadOptions = RequestOptions.priorityOf(Priority.LOW);
 
-    Observable<Drawable> singleImageLoad = replayedResolvedLinks
+    Observable<String> singleImageLoad = replayedResolvedLinks
         .filter(resolvedLink -> resolvedLink.isImageOrGif())
-        .flatMapSingle(resolvedLink -> submissionImageLoader.get().load(appContext, resolvedLink, submission.getPreview(), imageLoadOptions));
+        .flatMapSingle(resolvedLink -> submissionImageLoader.get().preFill(appContext, resolvedLink, submission.getPreview(), imageLoadOptions));
 
-    Observable<Drawable> albumImagesLoad = replayedResolvedLinks
+    Observable<String> albumImagesLoad = replayedResolvedLinks
         .filter(resolvedLink -> resolvedLink.isMediaAlbum())
         .cast(ImgurAlbumLink.class)
         .flatMap(albumLink -> {
           ImgurLink firstImage = albumLink.images().get(0);
-          Single<Drawable> firstImageLoad = submissionImageLoader.get().load(appContext, firstImage, imageLoadOptions);
+          Single<String> firstImageLoad = submissionImageLoader.get().preFill(appContext, firstImage, null, imageLoadOptions);
 
           ImageWithMultipleVariants redditSuppliedImages = ImageWithMultipleVariants.Companion.of(submission.getPreview());
-          String optimizedCoverImageUrl = redditSuppliedImages.findNearestFor(submissionAlbumLinkThumbnailWidth, albumLink.coverImageUrl());
-          Single<Drawable> coverImageLoad = submissionImageLoader.get().loadImage(appContext, optimizedCoverImageUrl, imageLoadOptions);
+          String optimizedCoverImageUrl = redditSuppliedImages.findNearestFor(submissionAlbumLinkThumbnailWidth, albumLink.coverImageUrl(), mediaQuality.get());
+          Single<String> coverImageLoad = submissionImageLoader.get().preFillImage(appContext, optimizedCoverImageUrl, imageLoadOptions);
 
           return coverImageLoad
               .mergeWith(firstImageLoad)
@@ -235,15 +323,16 @@ public class CachePreFiller {
         });
 
     return Observable.merge(checks, singleImageLoad, albumImagesLoad)
+        .doOnNext(imageUrl -> recordPreFilled(CachePreFillThing.IMAGES, imageUrl, cachedImageBytes(imageUrl), startTimeMillis, networkType))
         .ignoreElements()
         .doOnComplete(() -> log("Image done: %s", submission.getTitle()))
         .doOnComplete(() -> markThingAsPreFilled(submission, CachePreFillThing.IMAGES));
   }
 
-  private Predicate<Pair<Submission, Link>> submissionContentIsExternalLink() {
-    return submissionAndLink -> {
-      Link contentLink = submissionAndLink.second();
-      Submission submission = submissionAndLink.first();
+  private Predicate<Candidate> submissionContentIsExternalLink() {
+    return candidate -> {
+      Link contentLink = candidate.contentLink;
+      Submission submission = candidate.submission;
       //noinspection ConstantConditions
       boolean isAnotherRedditPage = contentLink.isRedditPage() && !submission.isSelfPost();
       //noinspection ConstantConditions
@@ -257,7 +346,10 @@ public class CachePreFiller {
       return Completable.complete();
     }
 
-    return linkMetadataRepository.unfurl(contentLink)
+    long startTimeMillis = System.currentTimeMillis();
+    String networkType = networkStateListener.activeNetworkTypeName();
+
+    return linkMetadataRepository.preFill(contentLink)
         .map(linkMetadata -> {
           List<String> imagesToDownload = new ArrayList<>(2);
           if (linkMetadata.hasFavicon()) {
@@ -267,12 +359,13 @@ public class CachePreFiller {
           if (linkMetadata.hasImage() && !UrlParser.isGifUrl(linkMetadata.imageUrl())) {
             ImageWithMultipleVariants redditSuppliedImages = ImageWithMultipleVariants.Companion.of(submission.getPreview());
             //noinspection ConstantConditions
-            String thumbnailImageUrl = redditSuppliedImages.findNearestFor(submissionAlbumLinkThumbnailWidth, linkMetadata.imageUrl());
+            String thumbnailImageUrl = redditSuppliedImages.findNearestFor(submissionAlbumLinkThumbnailWidth, linkMetadata.imageUrl(), mediaQuality.get());
             imagesToDownload.add(thumbnailImageUrl);
           }
           return imagesToDownload;
         })
         .flatMapCompletable(imageUrls -> Completable.fromAction(() -> {
+          long imageBytes = 0;
           for (String imageUrl : imageUrls) {
             // Glide internally also maintains a queue, but we want to load them sequentially
             // ourselves so that this Rx chain can be canceled later when the subreddit changes.
@@ -280,7 +373,10 @@ public class CachePreFiller {
                 .load(imageUrl)
                 .submit()
                 .get();
+            imageBytes += cachedImageBytes(imageUrl);
           }
+          // The metadata itself is tiny compared to its images, so only the images are counted.
+          recordPreFilled(CachePreFillThing.LINK_METADATA, contentLink.unparsedUrl(), imageBytes, startTimeMillis, networkType);
         }))
         .doOnComplete(() -> log("Link done: %s", submission.getTitle()))
         .doOnComplete(() -> markThingAsPreFilled(submission, CachePreFillThing.LINK_METADATA));
@@ -300,19 +396,87 @@ public class CachePreFiller {
         .commentSort(auditedSort)
         .build();
 
-    return submissionRepository.submissionWithComments(request)
+    long startTimeMillis = System.currentTimeMillis();
+    String networkType = networkStateListener.activeNetworkTypeName();
+
+    return submissionRepository.preFillSubmissionWithComments(request)
         .take(1)
         .ignoreElements()
+        // The size of comments isn't known because JRAW parses them from its own HTTP client.
+        .doOnComplete(() -> recordPreFilled(CachePreFillThing.COMMENTS, request.id(), 0, startTimeMillis, networkType))
         .onErrorComplete()
         //.doOnComplete(() -> Timber.i("Comments done: %s", submission.getTitle()))
         .doOnComplete(() -> markThingAsPreFilled(submission, CachePreFillThing.COMMENTS));
   }
 
+  private Completable preFillVideo(Submission submission, MediaLink mediaLink) {
+    if (isThingAlreadyPreFilled(submission, CachePreFillThing.VIDEOS)) {
+      //Timber.i("Video skipping: %s", submission.getTitle());
+      return Completable.complete();
+    }
+
+    long startTimeMillis = System.currentTimeMillis();
+    String networkType = networkStateListener.activeNetworkTypeName();
+
+    return mediaHostRepository.resolveActualLinkIfNeeded(mediaLink)
+        .firstOrError()
+        .flatMap(resolvedLink -> {
+          if (resolvedLink.isVideo()) {
+            return videoPreFiller.get().videoUrlSuitableForNetwork(resolvedLink);
+          } else {
+            return Single.error(new AssertionError("Unsupported link for video caching: " + resolvedLink));
+          }
+        })
+        .flatMapCompletable(videoUrl -> videoPreFiller.get().preFill(videoUrl)
+            .doOnSuccess(bytes -> recordPreFilled(CachePreFillThing.VIDEOS, videoUrl, bytes, startTimeMillis, networkType))
+            .toCompletable())
+        .doOnComplete(() -> log("Video done: %s", submission.getTitle()))
+        .doOnComplete(() -> markThingAsPreFilled(submission, CachePreFillThing.VIDEOS));
+  }
+
+  private void recordPreFilled(CachePreFillThing thing, String key, long bytes, long startTimeMillis, String networkType) {
+    preFillStats.recordPreFilled(thing, key, bytes, System.currentTimeMillis() - startTimeMillis, networkType);
+  }
+
+  /**
+   * Size of an image's source in Glide's disk cache, as an estimate of the bytes downloaded for it.
+   */
+  private long cachedImageBytes(String imageUrl) {
+    try {
+      File cachedImage = Glide.with(appContext)
+          .downloadOnly()
+          .load(imageUrl)
+          .apply(new RequestOptions().onlyRetrieveFromCache(true))
+          .submit()
+          .get();
+      return cachedImage.length();
+
+    } catch (InterruptedException | ExecutionException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Called on pre-filling threads.
+   */
   private boolean isThingAlreadyPreFilled(Submission submission, CachePreFillThing thing) {
-    return completedPreFills.contains(submission.getFullName() + "_" + thing.name());
+    long completedAfterMillis = System.currentTimeMillis() - PRE_FILL_VALIDITY_MILLIS;
+    return database.get().completedPreFillDao().count(submission.getFullName(), thing, completedAfterMillis) > 0;
   }
 
   private void markThingAsPreFilled(Submission submission, CachePreFillThing thing) {
-    completedPreFills.add(submission.getFullName() + "_" + thing.name());
+    database.get().completedPreFillDao().save(new CompletedPreFill(submission.getFullName(), thing, System.currentTimeMillis()));
+  }
+
+  private static class Candidate {
+    private final int position;
+    private final Submission submission;
+    private final Link contentLink;
+
+    Candidate(int position, Submission submission, Link contentLink) {
+      this.position = position;
+      this.submission = submission;
+      this.contentLink = contentLink;
+    }
   }
 }
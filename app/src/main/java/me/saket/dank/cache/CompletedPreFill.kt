@@ -0,0 +1,46 @@
+package me.saket.dank.cache
+
+import android.arch.persistence.room.Dao
+import android.arch.persistence.room.Entity
+import android.arch.persistence.room.Insert
+import android.arch.persistence.room.OnConflictStrategy
+import android.arch.persistence.room.Query
+import android.arch.persistence.room.TypeConverter
+import me.saket.dank.data.CachePreFillThing
+
+/**
+ * Remembers pre-filled things across process deaths. Rows are recycled
+ * by [DatabaseCacheRecyclerJobService] once they're older than a day.
+ */
+@Entity(primaryKeys = ["submissionFullName", "thing"])
+data class CompletedPreFill(
+    val submissionFullName: String,
+    val thing: CachePreFillThing,
+    val completeTimeMillis: Long
+)
+
+@Dao
+interface CompletedPreFillDao {
+
+  @Query("SELECT COUNT(*) FROM completedprefill WHERE submissionFullName = :submissionFullName AND thing = :thing AND completeTimeMillis > :completedAfterMillis")
+  fun count(submissionFullName: String, thing: CachePreFillThing, completedAfterMillis: Long): Int
+
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun save(completedPreFill: CompletedPreFill)
+
+  @Query("DELETE FROM completedprefill WHERE completeTimeMillis < :completedBeforeMillis")
+  fun deleteAllCompletedBefore(completedBeforeMillis: Long): Int
+}
+
+class CachePreFillThingRoomTypeConverter {
+
+  @TypeConverter
+  fun toName(thing: CachePreFillThing): String {
+    return thing.name
+  }
+
+  @TypeConverter
+  fun fromName(name: String): CachePreFillThing {
+    return CachePreFillThing.valueOf(name)
+  }
+}
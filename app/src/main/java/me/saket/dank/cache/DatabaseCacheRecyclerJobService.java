@@ -23,6 +23,7 @@ import timber.log.Timber;
 public class DatabaseCacheRecyclerJobService extends DankJobService {
 
   @Inject SubmissionRepository submissionRepository;
+  @Inject CachePreFiller cachePreFiller;
 
   public static void schedule(Context context) {
     JobInfo.Builder builder = new JobInfo.Builder(ID_RECYCLE_OLD_SUBMISSIONS, new ComponentName(context, DatabaseCacheRecyclerJobService.class))
@@ -59,6 +60,7 @@ public class DatabaseCacheRecyclerJobService extends DankJobService {
         durationTimeUnit.toDays(durationFromNow));
 
     submissionRepository.recycleAllCachedBefore(durationFromNow, durationTimeUnit)
+        .zipWith(cachePreFiller.recycleExpiredPreFills(), (deletedSubmissionRows, deletedPreFillRows) -> deletedSubmissionRows + deletedPreFillRows)
         .subscribeOn(Schedulers.io())
         .takeUntil(lifecycleOnDestroy().ignoreElements())
         .subscribe(
@@ -0,0 +1,368 @@
+package me.saket.dank.cache;
+
+import android.net.TrafficStats;
+import android.os.Process;
+import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import me.saket.dank.data.CachePreFillThing;
+import me.saket.dank.data.FileSize;
+import me.saket.dank.utils.FileSizeUnit;
+import timber.log.Timber;
+
+/**
+ * Runs pre-fill tasks with a bounded number of tasks per {@link CachePreFillThing}, in the order
+ * of their rows' distance from the rows that are visible on screen:
+ * <p>
+ * - Rows just below the visible ones run first, followed by rows above them.
+ * - Rows too far below the visible ones wait until the user scrolls closer.
+ * - Rows that were scrolled far past are dropped, even if they were already running.
+ * <p>
+ * Pre-filling also stops once {@link #SESSION_BYTE_BUDGET} worth of bytes were received while pre-fill
+ * tasks were running. This is measured using {@link TrafficStats}, so it's an over-estimate if the user
+ * is also loading content at the same time.
+ */
+@Singleton
+public class PrefetchScheduler {
+
+  /**
+   * Pending tasks for rows these many rows below the visible ones aren't started until the user scrolls closer.
+   */
+  static final int LOOKAHEAD_ROWS = 30;
+
+  /**
+   * Tasks for rows these many rows above the visible ones are dropped.
+   */
+  static final int CANCEL_DISTANCE_ROWS = 10;
+
+  /**
+   * Sum of {@link #maxConcurrentTasks(CachePreFillThing)} for all things.
+   */
+  public static final int MAX_CONCURRENT_TASKS = 9;
+
+  private static final long SESSION_BYTE_BUDGET = (long) FileSize.create(100, FileSizeUnit.MB).bytes();
+  private static final long UNSUPPORTED = TrafficStats.UNSUPPORTED;
+
+  private final Scheduler scheduler;
+  private final Callable<Long> receivedBytes;
+  private final Map<CachePreFillThing, Lane> lanes = new EnumMap<>(CachePreFillThing.class);
+
+  private int firstVisiblePosition;
+  private int lastVisiblePosition;
+  private long taskSequence;
+  private int runningTaskCount;
+  private long bytesSpentInPreviousRuns;
+  private long receivedBytesWhenRunStarted;
+
+  @Inject
+  public PrefetchScheduler(@Named("cache_pre_filling") Scheduler scheduler) {
+    this(scheduler, () -> TrafficStats.getUidRxBytes(Process.myUid()));
+  }
+
+  @VisibleForTesting
+  public PrefetchScheduler(Scheduler scheduler, Callable<Long> receivedBytes) {
+    this.scheduler = scheduler;
+    this.receivedBytes = receivedBytes;
+
+    for (CachePreFillThing thing : CachePreFillThing.values()) {
+      lanes.put(thing, new Lane(maxConcurrentTasks(thing)));
+    }
+  }
+
+  private static int maxConcurrentTasks(CachePreFillThing thing) {
+    switch (thing) {
+      case IMAGES:
+        return 3;
+
+      case LINK_METADATA:
+        return 3;
+
+      case COMMENTS:
+        return 2;
+
+      case VIDEOS:
+        return 1;
+
+      default:
+        throw new AssertionError("Unknown thing: " + thing);
+    }
+  }
+
+  /**
+   * @param position Position of the task's row in the list, used for ordering tasks.
+   * @return Completes once <var>task</var> completes or is dropped. Disposing cancels <var>task</var>.
+   */
+  @CheckResult
+  public Completable schedule(CachePreFillThing thing, int position, Completable task) {
+    return Completable.create(emitter -> {
+      Task scheduledTask;
+      synchronized (this) {
+        scheduledTask = new Task(position, taskSequence++, task, emitter);
+        lanes.get(thing).pendingTasks.add(scheduledTask);
+      }
+      emitter.setCancellable(() -> cancel(thing, scheduledTask));
+      drain();
+    });
+  }
+
+  /**
+   * Called when the visible rows change, so that waiting tasks are re-ordered and
+   * tasks for rows that were scrolled far past are dropped.
+   */
+  public void updateVisibleRange(int firstVisiblePosition, int lastVisiblePosition) {
+    List<Task> droppedTasks = new ArrayList<>();
+    synchronized (this) {
+      if (this.firstVisiblePosition == firstVisiblePosition && this.lastVisiblePosition == lastVisiblePosition) {
+        return;
+      }
+      this.firstVisiblePosition = firstVisiblePosition;
+      this.lastVisiblePosition = lastVisiblePosition;
+
+      for (Lane lane : lanes.values()) {
+        for (int i = lane.runningTasks.size() - 1; i >= 0; i--) {
+          Task task = lane.runningTasks.get(i);
+          if (isScrolledPast(task.position)) {
+            lane.runningTasks.remove(i);
+            onTaskStopped();
+            droppedTasks.add(task);
+          }
+        }
+      }
+    }
+
+    for (Task droppedTask : droppedTasks) {
+      droppedTask.drop();
+    }
+    drain();
+  }
+
+  /**
+   * Starts as many waiting tasks as the lanes allow. Tasks are completed
+   * outside the lock so that downstream can schedule more tasks.
+   */
+  private void drain() {
+    List<Task> tasksToStart = new ArrayList<>();
+    List<Task> droppedTasks = new ArrayList<>();
+
+    synchronized (this) {
+      boolean isBudgetSpent = isBudgetSpent();
+      for (Lane lane : lanes.values()) {
+        if (isBudgetSpent) {
+          droppedTasks.addAll(lane.pendingTasks);
+          lane.pendingTasks.clear();
+          continue;
+        }
+
+        while (lane.runningTasks.size() < lane.maxConcurrentTasks) {
+          Task nextTask = lane.pollNextTask(droppedTasks);
+          if (nextTask == null) {
+            break;
+          }
+          lane.runningTasks.add(nextTask);
+          onTaskStarted();
+          tasksToStart.add(nextTask);
+        }
+      }
+    }
+
+    for (Task droppedTask : droppedTasks) {
+      droppedTask.drop();
+    }
+    for (Task task : tasksToStart) {
+      task.start(scheduler, () -> onTaskFinished(task));
+    }
+  }
+
+  private void cancel(CachePreFillThing thing, Task task) {
+    synchronized (this) {
+      Lane lane = lanes.get(thing);
+      if (!lane.pendingTasks.remove(task) && lane.runningTasks.remove(task)) {
+        onTaskStopped();
+      }
+    }
+    task.dispose();
+    drain();
+  }
+
+  private void onTaskFinished(Task task) {
+    synchronized (this) {
+      for (Lane lane : lanes.values()) {
+        if (lane.runningTasks.remove(task)) {
+          onTaskStopped();
+          break;
+        }
+      }
+    }
+    drain();
+  }
+
+// ======== PRIORITIES ======== //
+
+  /**
+   * @return Lower is sooner. Rows below the visible ones are preferred over rows
+   * above them, because users mostly scroll down.
+   */
+  private int priorityOf(int position) {
+    if (position < firstVisiblePosition) {
+      return (firstVisiblePosition - position) * 2;
+    } else if (position > lastVisiblePosition) {
+      return position - lastVisiblePosition;
+    } else {
+      return 0;
+    }
+  }
+
+  private boolean isScrolledPast(int position) {
+    return firstVisiblePosition - position > CANCEL_DISTANCE_ROWS;
+  }
+
+  private boolean isTooFarAhead(int position) {
+    return position - lastVisiblePosition > LOOKAHEAD_ROWS;
+  }
+
+// ======== BYTE BUDGET ======== //
+
+  /**
+   * Bytes are only counted while at least one task is running.
+   */
+  private void onTaskStarted() {
+    if (runningTaskCount++ == 0) {
+      receivedBytesWhenRunStarted = readReceivedBytes();
+    }
+  }
+
+  private void onTaskStopped() {
+    if (--runningTaskCount == 0) {
+      bytesSpentInPreviousRuns += bytesReceivedInCurrentRun();
+    }
+  }
+
+  private boolean isBudgetSpent() {
+    long spentBytes = bytesSpentInPreviousRuns + (runningTaskCount > 0 ? bytesReceivedInCurrentRun() : 0);
+    return spentBytes >= SESSION_BYTE_BUDGET;
+  }
+
+  private long bytesReceivedInCurrentRun() {
+    long currentReceivedBytes = readReceivedBytes();
+    if (currentReceivedBytes == UNSUPPORTED || receivedBytesWhenRunStarted == UNSUPPORTED) {
+      return 0;
+    }
+    return Math.max(0, currentReceivedBytes - receivedBytesWhenRunStarted);
+  }
+
+  private long readReceivedBytes() {
+    try {
+      return receivedBytes.call();
+    } catch (Exception e) {
+      Timber.e(e, "Couldn't read received bytes");
+      return UNSUPPORTED;
+    }
+  }
+
+  public synchronized long spentBytes() {
+    return bytesSpentInPreviousRuns + (runningTaskCount > 0 ? bytesReceivedInCurrentRun() : 0);
+  }
+
+// ======== TASKS ======== //
+
+  private class Lane {
+    private final int maxConcurrentTasks;
+    private final List<Task> pendingTasks = new ArrayList<>();
+    private final List<Task> runningTasks = new ArrayList<>();
+
+    Lane(int maxConcurrentTasks) {
+      this.maxConcurrentTasks = maxConcurrentTasks;
+    }
+
+    /**
+     * Priorities change as the user scrolls, so the queue is searched instead of being kept sorted.
+     * It only holds a page or two worth of rows.
+     *
+     * @param droppedTasks Tasks for rows that were scrolled past get added here.
+     * @return Null if no task can run right now.
+     */
+    @Nullable
+    Task pollNextTask(List<Task> droppedTasks) {
+      Task nextTask = null;
+      int nextTaskPriority = Integer.MAX_VALUE;
+
+      for (int i = pendingTasks.size() - 1; i >= 0; i--) {
+        Task task = pendingTasks.get(i);
+        if (isScrolledPast(task.position)) {
+          pendingTasks.remove(i);
+          droppedTasks.add(task);
+          continue;
+        }
+        if (isTooFarAhead(task.position)) {
+          continue;
+        }
+
+        int priority = priorityOf(task.position);
+        if (nextTask == null || priority < nextTaskPriority || (priority == nextTaskPriority && task.sequence < nextTask.sequence)) {
+          nextTask = task;
+          nextTaskPriority = priority;
+        }
+      }
+
+      if (nextTask != null) {
+        pendingTasks.remove(nextTask);
+      }
+      return nextTask;
+    }
+  }
+
+  private static class Task {
+    private final int position;
+    private final long sequence;
+    private final Completable completable;
+    private final CompletableEmitter emitter;
+    private Disposable disposable;
+    private boolean isDisposed;
+
+    Task(int position, long sequence, Completable completable, CompletableEmitter emitter) {
+      this.position = position;
+      this.sequence = sequence;
+      this.completable = completable;
+      this.emitter = emitter;
+    }
+
+    /**
+     * Does nothing if this task was disposed after it was picked, but before it could start.
+     */
+    synchronized void start(Scheduler scheduler, Runnable onFinish) {
+      if (isDisposed) {
+        return;
+      }
+      disposable = completable
+          .subscribeOn(scheduler)
+          .doFinally(onFinish::run)
+          .subscribe(emitter::onComplete, emitter::tryOnError);
+    }
+
+    void drop() {
+      dispose();
+      emitter.onComplete();
+    }
+
+    synchronized void dispose() {
+      isDisposed = true;
+      if (disposable != null) {
+        disposable.dispose();
+      }
+    }
+  }
+}
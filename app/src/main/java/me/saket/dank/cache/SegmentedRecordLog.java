@@ -0,0 +1,469 @@
+package me.saket.dank.cache;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import timber.log.Timber;
+
+/**
+ * Key-value store for small records, written to append-only log files ("segments") that are
+ * memory-mapped. An in-memory index points to the latest record of every key and is rebuilt by
+ * scanning the segments when the log is opened, so there's no journal to maintain.
+ * <p>
+ * Overwritten and deleted records leave garbage behind, which {@link #compact()} reclaims by
+ * copying the live records of mostly-garbage segments to the end of the log. Once the log grows
+ * beyond its max size, entire segments are evicted in least-recently-used order.
+ * <p>
+ * Record layout: magic, key length, value length (-1 for deletions), write time, key, value and
+ * a CRC32 of everything after the magic. A record with a bad checksum ends its segment, which is
+ * how a write torn by a process death gets discarded.
+ */
+public class SegmentedRecordLog {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int RECORD_MAGIC = 0x444e4b31;
+  private static final int HEADER_SIZE = 20;
+  private static final int TRAILER_SIZE = 4;
+  private static final int TOMBSTONE = -1;
+  private static final int MAX_KEY_LENGTH = 1024;
+  private static final String SEGMENT_FILE_PREFIX = "segment_";
+  private static final String SEGMENT_FILE_SUFFIX = ".log";
+
+  /**
+   * Segments with less than this fraction of live records get compacted.
+   */
+  private static final float COMPACTION_LIVE_FRACTION = 0.5f;
+
+  private final File directory;
+  private final long maxSizeBytes;
+  private final int segmentSizeBytes;
+
+  private final Map<String, RecordLocation> index = new HashMap<>();
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private Segment activeSegment;
+  private long sizeBytes;
+  private boolean isOpen;
+
+  private static class Segment {
+    final int id;
+    final File file;
+    MappedByteBuffer buffer;
+    int endPosition;
+    int liveBytes;
+    long lastAccessTimeMillis;
+
+    Segment(int id, File file) {
+      this.id = id;
+      this.file = file;
+    }
+  }
+
+  private static class RecordLocation {
+    final Segment segment;
+    final int offset;
+    final int recordLength;
+    final int valueOffset;
+    final int valueLength;
+    final long writeTimeMillis;
+
+    RecordLocation(Segment segment, int offset, int recordLength, int valueOffset, int valueLength, long writeTimeMillis) {
+      this.segment = segment;
+      this.offset = offset;
+      this.recordLength = recordLength;
+      this.valueOffset = valueOffset;
+      this.valueLength = valueLength;
+      this.writeTimeMillis = writeTimeMillis;
+    }
+
+    byte[] readValue() {
+      byte[] value = new byte[valueLength];
+      ByteBuffer buffer = segment.buffer.duplicate();
+      buffer.position(valueOffset);
+      buffer.get(value);
+      return value;
+    }
+  }
+
+  /**
+   * @param segmentSizeBytes Also the max size of a single record.
+   */
+  public SegmentedRecordLog(File directory, long maxSizeBytes, int segmentSizeBytes) {
+    if (maxSizeBytes < segmentSizeBytes * 2L) {
+      throw new IllegalArgumentException("Max size should fit at least two segments");
+    }
+    this.directory = directory;
+    this.maxSizeBytes = maxSizeBytes;
+    this.segmentSizeBytes = segmentSizeBytes;
+  }
+
+  @Nullable
+  public synchronized byte[] get(String key) throws IOException {
+    open();
+    RecordLocation location = index.get(key);
+    if (location == null) {
+      return null;
+    }
+
+    byte[] value = location.readValue();
+    location.segment.lastAccessTimeMillis = System.currentTimeMillis();
+    return value;
+  }
+
+  public synchronized void put(String key, byte[] value) throws IOException {
+    open();
+    append(key, value, System.currentTimeMillis());
+    evictIfNeeded();
+  }
+
+  public synchronized void remove(String key) throws IOException {
+    open();
+    if (markAsGarbage(index.remove(key))) {
+      appendTombstone(key);
+      evictIfNeeded();
+    }
+  }
+
+  public synchronized boolean contains(String key) throws IOException {
+    open();
+    return index.containsKey(key);
+  }
+
+  /**
+   * @return -1 if no record exists for <var>key</var>.
+   */
+  public synchronized long writeTimeMillis(String key) throws IOException {
+    open();
+    RecordLocation location = index.get(key);
+    return location == null ? -1 : location.writeTimeMillis;
+  }
+
+  public synchronized List<String> keys(String prefix) throws IOException {
+    open();
+    List<String> keys = new ArrayList<>();
+    for (String key : index.keySet()) {
+      if (key.startsWith(prefix)) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+
+  public synchronized long sizeBytes() throws IOException {
+    open();
+    return sizeBytes;
+  }
+
+  @VisibleForTesting
+  synchronized int segmentCount() throws IOException {
+    open();
+    return segments.size();
+  }
+
+  public synchronized boolean needsCompaction() throws IOException {
+    open();
+    return nextSegmentToCompact() != null;
+  }
+
+  /**
+   * Copies live records out of segments that are mostly garbage and deletes those segments.
+   * Meant to be called on a background thread. Records keep their original write time.
+   */
+  public synchronized void compact() throws IOException {
+    open();
+    Segment segment;
+    while ((segment = nextSegmentToCompact()) != null) {
+      Timber.i("Compacting segment %s with %s live bytes", segment.id, segment.liveBytes);
+      retire(segment, true);
+    }
+  }
+
+  @Nullable
+  private Segment nextSegmentToCompact() {
+    for (Segment segment : segments.values()) {
+      boolean isMostlyGarbage = segment.liveBytes == 0 || segment.liveBytes < segment.endPosition * COMPACTION_LIVE_FRACTION;
+      if (segment != activeSegment && isMostlyGarbage) {
+        return segment;
+      }
+    }
+    return null;
+  }
+
+// ======== OPENING ======== //
+
+  private void open() throws IOException {
+    if (isOpen) {
+      return;
+    }
+
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Couldn't create directory: " + directory);
+    }
+
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        int segmentId = parseSegmentId(file.getName());
+        if (segmentId != -1) {
+          segments.put(segmentId, new Segment(segmentId, file));
+        }
+      }
+    }
+
+    for (Segment segment : segments.values()) {
+      boolean isLastSegment = segment.id == segments.lastKey();
+      segment.buffer = isLastSegment ? mapForWriting(segment.file) : mapForReading(segment.file);
+      segment.lastAccessTimeMillis = segment.file.lastModified();
+      scanAndIndex(segment);
+      sizeBytes += segment.endPosition;
+    }
+
+    if (segments.isEmpty()) {
+      activeSegment = createSegment(0);
+    } else {
+      activeSegment = segments.lastEntry().getValue();
+    }
+    isOpen = true;
+    Timber.i("Opened %s segments with %s records", segments.size(), index.size());
+  }
+
+  private static int parseSegmentId(String fileName) {
+    if (!fileName.startsWith(SEGMENT_FILE_PREFIX) || !fileName.endsWith(SEGMENT_FILE_SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(fileName.substring(SEGMENT_FILE_PREFIX.length(), fileName.length() - SEGMENT_FILE_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void scanAndIndex(Segment segment) {
+    ByteBuffer buffer = segment.buffer.duplicate();
+    int limit = buffer.limit();
+    int position = 0;
+
+    while (position + HEADER_SIZE + TRAILER_SIZE <= limit) {
+      if (buffer.getInt(position) != RECORD_MAGIC) {
+        break;
+      }
+      int keyLength = buffer.getInt(position + 4);
+      int valueLength = buffer.getInt(position + 8);
+      long writeTimeMillis = buffer.getLong(position + 12);
+
+      boolean isSane = keyLength > 0 && keyLength <= MAX_KEY_LENGTH && valueLength >= TOMBSTONE;
+      int recordLength = HEADER_SIZE + keyLength + Math.max(valueLength, 0) + TRAILER_SIZE;
+      if (!isSane || recordLength > limit - position) {
+        break;
+      }
+
+      byte[] recordBytes = new byte[recordLength];
+      buffer.position(position);
+      buffer.get(recordBytes);
+      if (ByteBuffer.wrap(recordBytes).getInt(recordLength - TRAILER_SIZE) != checksum(recordBytes)) {
+        Timber.w("Corrupt record in segment %s at %s", segment.id, position);
+        break;
+      }
+
+      String key = new String(recordBytes, HEADER_SIZE, keyLength, UTF_8);
+      if (valueLength == TOMBSTONE) {
+        markAsGarbage(index.remove(key));
+      } else {
+        markAsGarbage(index.put(key, new RecordLocation(segment, position, recordLength, position + HEADER_SIZE + keyLength, valueLength, writeTimeMillis)));
+        segment.liveBytes += recordLength;
+      }
+      position += recordLength;
+    }
+    segment.endPosition = position;
+  }
+
+  private MappedByteBuffer mapForWriting(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      // The mapping stays valid after the channel is closed.
+      return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSizeBytes);
+    }
+  }
+
+  private static MappedByteBuffer mapForReading(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+    }
+  }
+
+  private Segment createSegment(int id) throws IOException {
+    File file = new File(directory, String.format(Locale.ENGLISH, "%s%08d%s", SEGMENT_FILE_PREFIX, id, SEGMENT_FILE_SUFFIX));
+    Segment segment = new Segment(id, file);
+    segment.buffer = mapForWriting(file);
+    segment.lastAccessTimeMillis = System.currentTimeMillis();
+    segments.put(id, segment);
+    return segment;
+  }
+
+// ======== APPENDING ======== //
+
+  private void append(String key, byte[] value, long writeTimeMillis) throws IOException {
+    byte[] keyBytes = key.getBytes(UTF_8);
+    RecordLocation location = appendRecord(keyBytes, value, writeTimeMillis);
+    location.segment.liveBytes += location.recordLength;
+    markAsGarbage(index.put(key, location));
+  }
+
+  private void appendTombstone(String key) throws IOException {
+    appendRecord(key.getBytes(UTF_8), null, System.currentTimeMillis());
+  }
+
+  private RecordLocation appendRecord(byte[] keyBytes, @Nullable byte[] value, long writeTimeMillis) throws IOException {
+    if (keyBytes.length == 0 || keyBytes.length > MAX_KEY_LENGTH) {
+      throw new IllegalArgumentException("Invalid key length: " + keyBytes.length);
+    }
+
+    int valueLength = value == null ? TOMBSTONE : value.length;
+    int recordLength = HEADER_SIZE + keyBytes.length + (value == null ? 0 : value.length) + TRAILER_SIZE;
+    if (recordLength > segmentSizeBytes) {
+      throw new IOException("Record of " + recordLength + " bytes is larger than a segment");
+    }
+
+    ByteBuffer record = ByteBuffer.allocate(recordLength);
+    record.putInt(RECORD_MAGIC);
+    record.putInt(keyBytes.length);
+    record.putInt(valueLength);
+    record.putLong(writeTimeMillis);
+    record.put(keyBytes);
+    if (value != null) {
+      record.put(value);
+    }
+    record.putInt(checksum(record.array()));
+
+    if (activeSegment.endPosition + recordLength > segmentSizeBytes) {
+      activeSegment.buffer.force();
+      activeSegment = createSegment(activeSegment.id + 1);
+    }
+
+    Segment segment = activeSegment;
+    ByteBuffer buffer = segment.buffer.duplicate();
+    buffer.position(segment.endPosition);
+    buffer.put(record.array());
+
+    int valueOffset = segment.endPosition + HEADER_SIZE + keyBytes.length;
+    RecordLocation location = new RecordLocation(segment, segment.endPosition, recordLength, valueOffset, Math.max(valueLength, 0), writeTimeMillis);
+    segment.endPosition += recordLength;
+    segment.lastAccessTimeMillis = System.currentTimeMillis();
+    sizeBytes += recordLength;
+    return location;
+  }
+
+  /**
+   * Checksum of everything except the magic and the checksum itself.
+   */
+  private static int checksum(byte[] recordBytes) {
+    CRC32 crc = new CRC32();
+    crc.update(recordBytes, 4, recordBytes.length - 4 - TRAILER_SIZE);
+    return (int) crc.getValue();
+  }
+
+  private static boolean markAsGarbage(@Nullable RecordLocation location) {
+    if (location == null) {
+      return false;
+    }
+    location.segment.liveBytes -= location.recordLength;
+    return true;
+  }
+
+// ======== EVICTION AND COMPACTION ======== //
+
+  private void evictIfNeeded() throws IOException {
+    while (sizeBytes > maxSizeBytes && segments.size() > 1) {
+      Segment leastRecentlyUsed = null;
+      for (Segment segment : segments.values()) {
+        if (segment != activeSegment
+            && (leastRecentlyUsed == null || segment.lastAccessTimeMillis < leastRecentlyUsed.lastAccessTimeMillis))
+        {
+          leastRecentlyUsed = segment;
+        }
+      }
+      //noinspection ConstantConditions
+      Timber.i("Evicting segment %s with %s live bytes", leastRecentlyUsed.id, leastRecentlyUsed.liveBytes);
+      retire(leastRecentlyUsed, false);
+    }
+  }
+
+  /**
+   * Deletes <var>segment</var> after either copying its live records to the active segment or
+   * dropping them.
+   * <p>
+   * Older segments can still contain records that were overwritten or deleted by records in this
+   * segment. Those would come back to life when the index is rebuilt, so tombstones are appended
+   * for dropped records and carried forward for deletions, unless this is the oldest segment.
+   */
+  private void retire(Segment segment, boolean keepLiveRecords) throws IOException {
+    boolean isOldestSegment = segment.id == segments.firstKey();
+    ByteBuffer buffer = segment.buffer.duplicate();
+    List<String> keysToTombstone = new ArrayList<>();
+    List<String> keysToCopy = new ArrayList<>();
+
+    int position = 0;
+    while (position < segment.endPosition) {
+      int keyLength = buffer.getInt(position + 4);
+      int valueLength = buffer.getInt(position + 8);
+      int recordLength = HEADER_SIZE + keyLength + Math.max(valueLength, 0) + TRAILER_SIZE;
+
+      byte[] keyBytes = new byte[keyLength];
+      buffer.position(position + HEADER_SIZE);
+      buffer.get(keyBytes);
+      String key = new String(keyBytes, UTF_8);
+
+      RecordLocation location = index.get(key);
+      boolean isLive = location != null && location.segment == segment && location.offset == position;
+      if (isLive) {
+        if (keepLiveRecords) {
+          keysToCopy.add(key);
+        } else {
+          index.remove(key);
+          if (!isOldestSegment) {
+            keysToTombstone.add(key);
+          }
+        }
+      } else if (valueLength == TOMBSTONE && location == null && !isOldestSegment) {
+        keysToTombstone.add(key);
+      }
+      position += recordLength;
+    }
+
+    for (String key : keysToCopy) {
+      RecordLocation location = index.get(key);
+      append(key, location.readValue(), location.writeTimeMillis);
+    }
+    for (String key : keysToTombstone) {
+      appendTombstone(key);
+    }
+
+    segments.remove(segment.id);
+    sizeBytes -= segment.endPosition;
+    segment.buffer = null;
+    if (!segment.file.delete()) {
+      Timber.w("Couldn't delete segment: %s", segment.file);
+    }
+
+    // Nothing should point to the deleted segment anymore.
+    for (Iterator<RecordLocation> iterator = index.values().iterator(); iterator.hasNext(); ) {
+      if (iterator.next().segment == segment) {
+        iterator.remove();
+      }
+    }
+  }
+}
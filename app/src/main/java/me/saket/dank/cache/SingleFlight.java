@@ -0,0 +1,93 @@
+package me.saket.dank.cache;
+
+import android.support.annotation.CheckResult;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.reactivex.Observable;
+import io.reactivex.Single;
+
+/**
+ * Registry of in-flight requests, so that concurrent callers for the same key share one request
+ * instead of each making their own network call and disk write. For example, when a pre-fill
+ * races a user tap on the same link.
+ * <p>
+ * The shared request is cancelled only after its last subscriber leaves. Callers that arrive while
+ * a request is in flight receive its latest value. Once a request terminates, it's removed from the
+ * registry and the next caller issues a fresh one.
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentMap<K, Flight> inFlight = new ConcurrentHashMap<>();
+  private final SingleFlightStats stats;
+
+  public SingleFlight(String name) {
+    this.stats = new SingleFlightStats(name);
+  }
+
+  public SingleFlightStats stats() {
+    return stats;
+  }
+
+  /**
+   * @param request Called for creating the request only if none is in flight for <var>key</var>.
+   */
+  @CheckResult
+  public Observable<V> observable(K key, Callable<Observable<V>> request) {
+    return Observable.defer(() -> {
+      Flight existingFlight = inFlight.get(key);
+      if (existingFlight != null) {
+        stats.recordCoalesced();
+        return existingFlight.stream;
+      }
+
+      Flight flight = new Flight(key, request.call());
+      existingFlight = inFlight.putIfAbsent(key, flight);
+      if (existingFlight != null) {
+        stats.recordCoalesced();
+        return existingFlight.stream;
+      }
+
+      stats.recordIssued();
+      return flight.stream;
+    });
+  }
+
+  /**
+   * See {@link #observable(Object, Callable)}.
+   */
+  @CheckResult
+  public Single<V> single(K key, Callable<Single<V>> request) {
+    return observable(key, () -> request.call().toObservable())
+        .singleOrError();
+  }
+
+  public int inFlightCount() {
+    return inFlight.size();
+  }
+
+  private class Flight {
+    private final Observable<V> stream;
+    private volatile boolean terminated;
+
+    Flight(K key, Observable<V> request) {
+      this.stream = request
+          .doOnTerminate(() -> {
+            // Removed before the terminal event is delivered so that callers
+            // arriving from its subscribers don't join a finished request.
+            terminated = true;
+            inFlight.remove(key, this);
+          })
+          .doOnDispose(() -> {
+            if (!terminated) {
+              stats.recordCancelled();
+            }
+          })
+          .doFinally(() -> inFlight.remove(key, this))
+          .replay(1)
+          .refCount();
+    }
+  }
+}
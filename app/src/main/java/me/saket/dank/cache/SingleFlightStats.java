@@ -0,0 +1,62 @@
+package me.saket.dank.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.saket.dank.utils.StatsCounters;
+
+/**
+ * Counters for a {@link SingleFlight}. A request is "coalesced" when it joined one that was
+ * already in flight instead of being issued, and "cancelled" when all of its subscribers left
+ * before it finished. A request is "promoted" when a caller that needs it sooner than its issuer
+ * joined it.
+ */
+public class SingleFlightStats {
+
+  private final String name;
+  private final StatsCounters counters = new StatsCounters("SingleFlightStats");
+  private final AtomicLong issued = counters.add("issued");
+  private final AtomicLong coalesced = counters.add("coalesced");
+  private final AtomicLong cancelled = counters.add("cancelled");
+  private final AtomicLong promoted = counters.add("promoted");
+
+  public SingleFlightStats(String name) {
+    this.name = name;
+  }
+
+  public void recordIssued() {
+    issued.incrementAndGet();
+  }
+
+  public void recordCoalesced() {
+    coalesced.incrementAndGet();
+  }
+
+  public void recordCancelled() {
+    cancelled.incrementAndGet();
+  }
+
+  public void recordPromoted() {
+    promoted.incrementAndGet();
+  }
+
+  public long issuedCount() {
+    return issued.get();
+  }
+
+  public long coalescedCount() {
+    return coalesced.get();
+  }
+
+  public long cancelledCount() {
+    return cancelled.get();
+  }
+
+  public long promotedCount() {
+    return promoted.get();
+  }
+
+  @Override
+  public String toString() {
+    return counters.format("name", name);
+  }
+}
@@ -0,0 +1,51 @@
+package me.saket.dank.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.saket.dank.utils.StatsCounters;
+
+/**
+ * Counters for reads from a {@link StoreFilePersister}. Stale reads are served
+ * while Store refreshes them in the background, so they aren't counted as hits.
+ */
+public class StoreCacheStats {
+
+  private final String name;
+  private final StatsCounters counters = new StatsCounters("StoreCacheStats");
+  private final AtomicLong hits = counters.add("hits");
+  private final AtomicLong staleHits = counters.add("staleHits");
+  private final AtomicLong misses = counters.add("misses");
+
+  public StoreCacheStats(String name) {
+    this.name = name;
+  }
+
+  public void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  public void recordStaleHit() {
+    staleHits.incrementAndGet();
+  }
+
+  public void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  public long hitCount() {
+    return hits.get();
+  }
+
+  public long staleHitCount() {
+    return staleHits.get();
+  }
+
+  public long missCount() {
+    return misses.get();
+  }
+
+  @Override
+  public String toString() {
+    return counters.format("name", name);
+  }
+}
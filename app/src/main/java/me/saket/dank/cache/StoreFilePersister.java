@@ -10,6 +10,8 @@ import com.nytimes.android.external.fs3.filesystem.FileSystem;
 import com.nytimes.android.external.store3.base.Clearable;
 import com.nytimes.android.external.store3.base.Parser;
 import com.nytimes.android.external.store3.base.Persister;
+import com.nytimes.android.external.store3.base.RecordProvider;
+import com.nytimes.android.external.store3.base.RecordState;
 import com.nytimes.android.external.store3.util.ParserException;
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
@@ -19,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 
@@ -33,14 +36,21 @@ import timber.log.Timber;
  * which can be stored directly into the file-system.
  * <p>
  * For usecases where a fetcher returns parsed Objects instead of BufferedSource, this persister can be used.
+ * <p>
+ * When created with an expiry, records older than that are reported as {@link RecordState#STALE}.
+ * Stores built with <code>refreshOnStale()</code> will then serve the stale record and refresh it
+ * in the background.
  */
-public class StoreFilePersister<KEY, VALUE> implements Persister<VALUE, KEY>, Clearable<KEY> {
+public class StoreFilePersister<KEY, VALUE> implements Persister<VALUE, KEY>, Clearable<KEY>, RecordProvider<KEY> {
 
   private final FSReader<KEY> fileReader;
   private final FSWriter<KEY> fileWriter;
   private final FileSystem fileSystem;
   private final PathResolver<KEY> pathResolver;
   private final JsonParser<VALUE> jsonParser;
+  private final long expireAfterWrite;
+  private final TimeUnit expireAfterTimeUnit;
+  private final StoreCacheStats stats;
 
   /**
    * This exists because {@link Parser} only provides reading from JSON and not writing.
@@ -51,11 +61,27 @@ public class StoreFilePersister<KEY, VALUE> implements Persister<VALUE, KEY>, Cl
     String toJson(VALUE raw);
   }
 
+  /**
+   * Records never go stale.
+   */
   public StoreFilePersister(FileSystem fileSystem, DiskLruCachePathResolver<KEY> pathResolver, JsonParser<VALUE> jsonParser) {
+    this(fileSystem, pathResolver, jsonParser, Long.MAX_VALUE, TimeUnit.MILLISECONDS, new StoreCacheStats("unnamed"));
+  }
+
+  public StoreFilePersister(
+      FileSystem fileSystem,
+      DiskLruCachePathResolver<KEY> pathResolver,
+      JsonParser<VALUE> jsonParser,
+      long expireAfterWrite,
+      TimeUnit expireAfterTimeUnit,
+      StoreCacheStats stats)
+  {
     this.fileSystem = fileSystem;
     this.pathResolver = pathResolver;
-
     this.jsonParser = jsonParser;
+    this.expireAfterWrite = expireAfterWrite;
+    this.expireAfterTimeUnit = expireAfterTimeUnit;
+    this.stats = stats;
     this.fileReader = new FSReader<>(fileSystem, pathResolver);
     this.fileWriter = new FSWriter<>(fileSystem, pathResolver);
   }
@@ -63,9 +89,31 @@ public class StoreFilePersister<KEY, VALUE> implements Persister<VALUE, KEY>, Cl
   @Nonnull
   @Override
   public Maybe<VALUE> read(@Nonnull KEY key) {
-    return fileReader
-        .read(key)
-        .map(bufferedSource -> jsonParser.fromJson(bufferedSource));
+    return Maybe.defer(() -> {
+      switch (getRecordState(key)) {
+        case MISSING:
+          stats.recordMiss();
+          return Maybe.empty();
+
+        case STALE:
+          stats.recordStaleHit();
+          break;
+
+        case FRESH:
+          stats.recordHit();
+          break;
+      }
+
+      return fileReader
+          .read(key)
+          .map(bufferedSource -> jsonParser.fromJson(bufferedSource));
+    });
+  }
+
+  @Nonnull
+  @Override
+  public RecordState getRecordState(@Nonnull KEY key) {
+    return fileSystem.getRecordState(expireAfterTimeUnit, expireAfterWrite, pathResolver.resolve(key));
   }
 
   @Nonnull
@@ -1,41 +1,45 @@
 package me.saket.dank.cache;
 
-import com.jakewharton.disklrucache.DiskLruCache;
 import com.nytimes.android.external.fs3.filesystem.FileSystem;
 import com.nytimes.android.external.store3.base.RecordState;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Collection;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 
+import io.reactivex.Completable;
 import io.reactivex.exceptions.Exceptions;
-import okio.BufferedSink;
+import io.reactivex.schedulers.Schedulers;
+import okio.Buffer;
 import okio.BufferedSource;
-import okio.Okio;
 import timber.log.Timber;
 
+/**
+ * Stores Store's records in a {@link SegmentedRecordLog} instead of one file per record.
+ */
 public class StoreLruFileSystem implements FileSystem {
 
-  private final DiskLruCache lruCache;
+  private final SegmentedRecordLog recordLog;
+  private final AtomicBoolean isCompactionScheduled = new AtomicBoolean();
 
   @Inject
-  public StoreLruFileSystem(DiskLruCache lruCache) {
-    this.lruCache = lruCache;
+  public StoreLruFileSystem(SegmentedRecordLog recordLog) {
+    this.recordLog = recordLog;
   }
 
   @Nonnull
   @Override
   public BufferedSource read(String path) {
     try {
-      DiskLruCache.Snapshot snapshot = lruCache.get(path);
-      if (snapshot == null) {
+      byte[] value = recordLog.get(key(path));
+      if (value == null) {
         throw new FileNotFoundException(path);
       }
-      return Okio.buffer(Okio.source(snapshot.getInputStream(0)));
+      return new Buffer().write(value);
 
     } catch (IOException e) {
       throw Exceptions.propagate(e);
@@ -44,52 +48,84 @@ public class StoreLruFileSystem implements FileSystem {
 
   @Override
   public void write(String path, BufferedSource source) throws IOException {
-    DiskLruCache.Editor editor = lruCache.edit(path);
     try {
-      if (editor == null) {
-        Timber.i("Another edit to the same path is already in progress: %s", path);
-        return;
-      }
-
-      OutputStream outputStream = editor.newOutputStream(0);
-      try (BufferedSink sink = Okio.buffer(Okio.sink(outputStream))) {
-        sink.writeAll(source);
-      }
-      editor.commit();
-
+      recordLog.put(key(path), source.readByteArray());
     } catch (Exception e) {
-      //noinspection ConstantConditions
-      editor.abortUnlessCommitted();
+      Timber.e(e, "Couldn't write record: %s", path);
+      return;
     }
+    compactInBackgroundIfNeeded();
   }
 
   @Override
   public void delete(String path) throws IOException {
-    lruCache.remove(path);
+    recordLog.remove(key(path));
   }
 
   @Override
   public void deleteAll(String path) throws IOException {
-    lruCache.delete();
+    for (String key : recordLog.keys(key(path))) {
+      recordLog.remove(key);
+    }
+    compactInBackgroundIfNeeded();
   }
 
   @Override
   public boolean exists(String path) {
     try {
-      return lruCache.get(path) != null;
+      return recordLog.contains(key(path));
     } catch (IOException e) {
       throw Exceptions.propagate(e);
     }
   }
 
+  /**
+   * Records are stored flat, so this lists every record whose path starts with <var>path</var>.
+   */
   @Nonnull
   @Override
   public Collection<String> list(String path) throws FileNotFoundException {
-    throw new UnsupportedOperationException();
+    try {
+      return recordLog.keys(key(path));
+    } catch (IOException e) {
+      throw Exceptions.propagate(e);
+    }
   }
 
   @Override
   public RecordState getRecordState(@Nonnull TimeUnit expirationUnit, long expirationDuration, @Nonnull String path) {
-    throw new UnsupportedOperationException();
+    long writeTimeMillis;
+    try {
+      writeTimeMillis = recordLog.writeTimeMillis(key(path));
+    } catch (IOException e) {
+      throw Exceptions.propagate(e);
+    }
+
+    if (writeTimeMillis == -1) {
+      return RecordState.MISSING;
+    }
+    // Same as Store's own FileSystem, which uses the file's last-modified time.
+    long expirationTimeMillis = System.currentTimeMillis() - expirationUnit.toMillis(expirationDuration);
+    return writeTimeMillis < expirationTimeMillis
+        ? RecordState.STALE
+        : RecordState.FRESH;
+  }
+
+  private void compactInBackgroundIfNeeded() throws IOException {
+    if (!recordLog.needsCompaction() || !isCompactionScheduled.compareAndSet(false, true)) {
+      return;
+    }
+
+    Completable.fromAction(() -> recordLog.compact())
+        .doFinally(() -> isCompactionScheduled.set(false))
+        .subscribeOn(Schedulers.io())
+        .subscribe(() -> {}, error -> Timber.e(error, "Couldn't compact cache"));
+  }
+
+  /**
+   * Leading '/' is dropped so that listing or deleting "/" covers every record.
+   */
+  private static String key(String path) {
+    return path.startsWith("/") ? path.substring(1) : path;
   }
 }
@@ -0,0 +1,301 @@
+package me.saket.dank.cache;
+
+import android.app.Application;
+import android.net.Uri;
+import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.danikula.videocache.HttpProxyCacheServer;
+import com.f2prateek.rx.preferences2.Preference;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer2.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import dagger.Lazy;
+import io.reactivex.Single;
+import me.saket.dank.data.FileSize;
+import me.saket.dank.ui.preferences.NetworkStrategy;
+import me.saket.dank.urlparser.MediaLink;
+import me.saket.dank.urlparser.UnresolvedMediaLink;
+import me.saket.dank.utils.BandwidthEstimator;
+import me.saket.dank.utils.FileSizeUnit;
+import me.saket.dank.utils.NetworkStateListener;
+import me.saket.dank.utils.Optional;
+import me.saket.dank.utils.VideoFormat;
+
+/**
+ * Downloads the beginning of videos so that they start playing instantly:
+ * <p>
+ * - Direct videos (Streamable, Gfycat, mp4s) are read through {@link HttpProxyCacheServer}, which keeps
+ * the partially downloaded file and resumes from it when the video is played.
+ * - DASH videos (hosted by Reddit) get their manifest, initialization segment and first segment read
+ * into the DASH video cache, which {@link me.saket.dank.utils.ExoPlayerManager} also plays from.
+ */
+@Singleton
+public class VideoPreFiller {
+
+  private static final long DIRECT_VIDEO_PRE_FILL_BYTES = (long) FileSize.create(1, FileSizeUnit.MB).bytes();
+
+  /**
+   * DASH segments are usually a few seconds long, but Reddit serves some videos as a single
+   * segment, in which case only its beginning is downloaded.
+   */
+  private static final long DASH_SEGMENT_PRE_FILL_BYTES = (long) FileSize.create(512, FileSizeUnit.KB).bytes();
+
+  /**
+   * ExoPlayer's adaptive track selection starts with the best video track under this bitrate,
+   * until it has measured the bandwidth. Pre-filling the same track lets playback start from cache.
+   */
+  private static final int PLAYER_MAX_INITIAL_BITRATE = 800_000;
+
+  private static final int NO_MAX_BYTES = -1;
+
+  private final Application appContext;
+  private final Lazy<HttpProxyCacheServer> httpProxyCacheServer;
+  private final Lazy<Cache> dashVideoCache;
+  private final Lazy<NetworkStateListener> networkStateListener;
+  private final Lazy<Preference<NetworkStrategy>> hdMediaNetworkStrategyPref;
+  private final Lazy<BandwidthEstimator> bandwidthEstimator;
+
+  @Inject
+  public VideoPreFiller(
+      Application appContext,
+      Lazy<HttpProxyCacheServer> httpProxyCacheServer,
+      @Named("dash_videos") Lazy<Cache> dashVideoCache,
+      Lazy<NetworkStateListener> networkStateListener,
+      @Named("hd_media_in_submissions") Lazy<Preference<NetworkStrategy>> hdMediaNetworkStrategyPref,
+      Lazy<BandwidthEstimator> bandwidthEstimator)
+  {
+    this.appContext = appContext;
+    this.httpProxyCacheServer = httpProxyCacheServer;
+    this.dashVideoCache = dashVideoCache;
+    this.networkStateListener = networkStateListener;
+    this.hdMediaNetworkStrategyPref = hdMediaNetworkStrategyPref;
+    this.bandwidthEstimator = bandwidthEstimator;
+  }
+
+  /**
+   * Same quality that {@link me.saket.dank.ui.submission.SubmissionVideoHolder} will play.
+   */
+  @CheckResult
+  public Single<String> videoUrlSuitableForNetwork(MediaLink videoLink) {
+    return hdMediaNetworkStrategyPref.get().asObservable()
+        .switchMap(strategy -> networkStateListener.get().streamNetworkInternetCapability(strategy, Optional.empty()))
+        .firstOrError()
+        .map(canLoadHighQuality -> canLoadHighQuality ? videoLink.highQualityUrl() : videoLink.lowQualityUrl());
+  }
+
+  /**
+   * Only direct and DASH videos can be pre-filled. Unresolved links (Streamable and Gfycat) always
+   * resolve to direct videos.
+   */
+  public static boolean canPreFill(MediaLink videoLink) {
+    if (videoLink instanceof UnresolvedMediaLink) {
+      return true;
+    }
+    return canPreFill(VideoFormat.parse(videoLink.highQualityUrl())) && canPreFill(VideoFormat.parse(videoLink.lowQualityUrl()));
+  }
+
+  private static boolean canPreFill(VideoFormat videoFormat) {
+    return videoFormat == VideoFormat.OTHER || videoFormat == VideoFormat.DASH;
+  }
+
+  /**
+   * Blocks the calling thread.
+   *
+   * @return Bytes downloaded, or 0 if the video was already cached or can't be pre-filled.
+   */
+  @CheckResult
+  public Single<Long> preFill(String videoUrl) {
+    return Single.fromCallable(() -> {
+      VideoFormat videoFormat = VideoFormat.parse(videoUrl);
+      switch (videoFormat) {
+        case OTHER:
+          return preFillDirectVideo(videoUrl);
+
+        case DASH:
+          return preFillDashVideo(videoUrl);
+
+        default:
+          // Callers are expected to skip these using canPreFill().
+          return 0L;
+      }
+    });
+  }
+
+  private long preFillDirectVideo(String videoUrl) throws IOException {
+    HttpProxyCacheServer cacheServer = httpProxyCacheServer.get();
+    if (cacheServer.isCached(videoUrl)) {
+      return 0;
+    }
+
+    HttpURLConnection connection = (HttpURLConnection) new URL(cacheServer.getProxyUrl(videoUrl)).openConnection();
+    try (InputStream stream = connection.getInputStream()) {
+      long startTimeMillis = System.currentTimeMillis();
+      byte[] buffer = new byte[8 * 1024];
+      long bytesRead = 0;
+      int read;
+      while (bytesRead < DIRECT_VIDEO_PRE_FILL_BYTES && (read = stream.read(buffer)) != -1) {
+        bytesRead += read;
+      }
+      bandwidthEstimator.get().addSample(bytesRead, System.currentTimeMillis() - startTimeMillis);
+      return bytesRead;
+
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  private long preFillDashVideo(String manifestUrl) throws IOException {
+    DataSource dataSource = new CacheDataSource(dashVideoCache.get(), createUpstreamDataSource());
+    Uri manifestUri = Uri.parse(manifestUrl);
+
+    ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+    long bytesRead = read(dataSource, new DataSpec(manifestUri), NO_MAX_BYTES, manifestBytes);
+    DashManifest manifest = dashManifestParser(manifestUrl).parse(manifestUri, new ByteArrayInputStream(manifestBytes.toByteArray()));
+
+    long startTimeMillis = System.currentTimeMillis();
+    long segmentBytesRead = 0;
+
+    for (Representation representation : representationsToPreFill(manifest, PLAYER_MAX_INITIAL_BITRATE)) {
+      RangedUri initializationUri = representation.getInitializationUri();
+      if (initializationUri != null) {
+        segmentBytesRead += read(dataSource, dataSpec(representation, initializationUri), NO_MAX_BYTES, null);
+      }
+
+      DashSegmentIndex index = representation.getIndex();
+      RangedUri firstSegmentUri = index != null
+          ? index.getSegmentUrl(index.getFirstSegmentNum())
+          : new RangedUri(null, 0, C.LENGTH_UNSET);
+      segmentBytesRead += read(dataSource, dataSpec(representation, firstSegmentUri), DASH_SEGMENT_PRE_FILL_BYTES, null);
+    }
+
+    // Includes segments that were already cached, which makes the sample look faster
+    // than the network. They're rare though, because pre-fills are done only once.
+    bandwidthEstimator.get().addSample(segmentBytesRead, System.currentTimeMillis() - startTimeMillis);
+    return bytesRead + segmentBytesRead;
+  }
+
+  /**
+   * Cache keys of segments are derived from the manifest's URL, so that videos that use the
+   * same track IDs don't overwrite each other's segments. Also used by the player.
+   */
+  public static DashManifestParser dashManifestParser(String manifestUrl) {
+    return new DashManifestParser(manifestUrl);
+  }
+
+  /**
+   * The video track that the player will start with and all audio tracks, which are usually just one.
+   * The bandwidth estimate isn't used here because the player doesn't use it for its initial track.
+   */
+  @VisibleForTesting
+  static List<Representation> representationsToPreFill(DashManifest manifest, int maxVideoBitrate) {
+    List<Representation> representations = new ArrayList<>();
+    if (manifest.getPeriodCount() == 0) {
+      return representations;
+    }
+
+    for (AdaptationSet adaptationSet : manifest.getPeriod(0).adaptationSets) {
+      if (adaptationSet.type == C.TRACK_TYPE_AUDIO) {
+        representations.addAll(adaptationSet.representations);
+
+      } else if (adaptationSet.type == C.TRACK_TYPE_VIDEO) {
+        Representation initialVideoTrack = initialVideoTrack(adaptationSet.representations, maxVideoBitrate);
+        if (initialVideoTrack != null) {
+          representations.add(initialVideoTrack);
+        }
+      }
+    }
+    return representations;
+  }
+
+  /**
+   * Highest bitrate under <var>maxBitrate</var>, or the lowest one if all of them are higher.
+   */
+  @Nullable
+  @VisibleForTesting
+  static Representation initialVideoTrack(List<Representation> videoTracks, int maxBitrate) {
+    Representation bestUnderLimit = null;
+    Representation lowest = null;
+    for (Representation track : videoTracks) {
+      int bitrate = track.format.bitrate;
+      if (bitrate <= maxBitrate && (bestUnderLimit == null || bitrate > bestUnderLimit.format.bitrate)) {
+        bestUnderLimit = track;
+      }
+      if (lowest == null || bitrate < lowest.format.bitrate) {
+        lowest = track;
+      }
+    }
+    return bestUnderLimit != null ? bestUnderLimit : lowest;
+  }
+
+  private static DataSpec dataSpec(Representation representation, RangedUri rangedUri) {
+    Uri uri = rangedUri.resolveUri(representation.baseUrl);
+    return new DataSpec(uri, rangedUri.start, rangedUri.length, representation.getCacheKey());
+  }
+
+  /**
+   * Reading through a {@link CacheDataSource} writes to the cache as a side effect.
+   *
+   * @param maxBytes    Stops reading after these many bytes, or {@link #NO_MAX_BYTES} to read everything.
+   * @param destination Optional. Receives the read bytes.
+   * @return Bytes read.
+   */
+  private static long read(DataSource dataSource, DataSpec dataSpec, long maxBytes, @Nullable ByteArrayOutputStream destination)
+      throws IOException
+  {
+    long readLength;
+    if (maxBytes == NO_MAX_BYTES) {
+      readLength = dataSpec.length;
+    } else if (dataSpec.length == C.LENGTH_UNSET) {
+      readLength = maxBytes;
+    } else {
+      readLength = Math.min(dataSpec.length, maxBytes);
+    }
+    DataSpec limitedDataSpec = new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition, readLength, dataSpec.key);
+
+    try {
+      dataSource.open(limitedDataSpec);
+      byte[] buffer = new byte[8 * 1024];
+      long bytesRead = 0;
+      int read;
+      while ((read = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+        if (destination != null) {
+          destination.write(buffer, 0, read);
+        }
+        bytesRead += read;
+      }
+      return bytesRead;
+
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  private DataSource createUpstreamDataSource() {
+    return new DefaultDataSourceFactory(appContext, Util.getUserAgent(appContext, appContext.getPackageName())).createDataSource();
+  }
+}
@@ -3,28 +3,47 @@ package me.saket.dank.data
 import android.arch.persistence.room.Database
 import android.arch.persistence.room.RoomDatabase
 import android.arch.persistence.room.TypeConverters
+import me.saket.dank.cache.CachePreFillThingRoomTypeConverter
+import me.saket.dank.cache.CompletedPreFill
+import me.saket.dank.cache.CompletedPreFillDao
+import me.saket.dank.notifs.PendingMediaDownload
+import me.saket.dank.notifs.PendingMediaDownloadDao
+import me.saket.dank.ui.submission.CachedComment
 import me.saket.dank.ui.submission.CachedSubmission
 import me.saket.dank.ui.submission.CachedSubmissionComments
 import me.saket.dank.ui.submission.CachedSubmissionDao
 import me.saket.dank.ui.submission.CachedSubmissionId2
 import me.saket.dank.ui.submission.DankSubmissionRequestRoomTypeConverter
-import me.saket.dank.ui.submission.RepliesRoomTypeConverter
 import me.saket.dank.ui.submission.SortingAndTimePeriodRoomTypeConverter
 import me.saket.dank.ui.submission.SubmissionRoomTypeConverter
+import me.saket.dank.vote.PendingVote
+import me.saket.dank.vote.PendingVoteDao
+import me.saket.dank.vote.VoteDirectionRoomTypeConverter
 
 @Database(
     entities = [
       CachedSubmission::class,
       CachedSubmissionComments::class,
-      CachedSubmissionId2::class],
-    version = 2,
+      CachedSubmissionId2::class,
+      CachedComment::class,
+      PendingVote::class,
+      CompletedPreFill::class,
+      PendingMediaDownload::class],
+    version = 9,
     exportSchema = false)
 @TypeConverters(
     SubmissionRoomTypeConverter::class,
-    RepliesRoomTypeConverter::class,
     DankSubmissionRequestRoomTypeConverter::class,
-    SortingAndTimePeriodRoomTypeConverter::class)
+    SortingAndTimePeriodRoomTypeConverter::class,
+    VoteDirectionRoomTypeConverter::class,
+    CachePreFillThingRoomTypeConverter::class)
 abstract class AppDatabase : RoomDatabase() {
 
   abstract fun submissionDao(): CachedSubmissionDao
+
+  abstract fun pendingVoteDao(): PendingVoteDao
+
+  abstract fun completedPreFillDao(): CompletedPreFillDao
+
+  abstract fun pendingMediaDownloadDao(): PendingMediaDownloadDao
 }
@@ -0,0 +1,328 @@
+package me.saket.dank.data;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, versioned binary encoding of JSON value trees: maps with string keys, lists, strings, numbers,
+ * booleans and nulls, i.e., the form produced by Moshi's <code>JsonAdapter#toJsonValue()</code>. Compared
+ * to JSON text:
+ * <p>
+ * - Short strings, which includes every key, are written once and referenced by their index afterwards.
+ * Reddit models repeat the same keys, authors and subreddit names many times.
+ * - Integers and lengths are written as varints.
+ * - Nulls take a single byte. They aren't omitted because JRAW maps some of them to defaults (e.g.,
+ * "distinguished") and fails if their keys are missing.
+ * <p>
+ * Encoded values start with a byte that can never appear in UTF-8 text, so that they can be told apart
+ * from rows that were stored as JSON before this existed.
+ */
+public final class BinaryJson {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final byte MAGIC = (byte) 0xFE;
+  static final byte VERSION = 1;
+
+  /**
+   * Longer strings are unlikely to repeat (e.g., comment bodies), so they're not added to the string table.
+   */
+  private static final int MAX_TABLE_STRING_LENGTH = 64;
+
+  private static final int TAG_NULL = 0;
+  private static final int TAG_FALSE = 1;
+  private static final int TAG_TRUE = 2;
+  private static final int TAG_LONG = 3;
+  private static final int TAG_INTEGRAL_DOUBLE = 4;
+  private static final int TAG_DOUBLE = 5;
+  private static final int TAG_STRING = 6;
+  private static final int TAG_TABLE_STRING = 7;
+  private static final int TAG_TABLE_STRING_REFERENCE = 8;
+  private static final int TAG_LIST = 9;
+  private static final int TAG_MAP = 10;
+
+  private BinaryJson() {
+  }
+
+  public static boolean isBinary(byte[] bytes) {
+    return bytes.length >= 2 && bytes[0] == MAGIC;
+  }
+
+  public static byte[] encode(Object jsonValue) {
+    Encoder encoder = new Encoder();
+    encoder.writeByte(MAGIC);
+    encoder.writeByte(VERSION);
+    encoder.writeValue(jsonValue);
+    return encoder.toByteArray();
+  }
+
+  /**
+   * @throws IOException if <var>bytes</var> weren't produced by {@link #encode(Object)} or by a newer version of it.
+   */
+  public static Object decode(byte[] bytes) throws IOException {
+    if (!isBinary(bytes)) {
+      throw new IOException("Not binary JSON");
+    }
+    if (bytes[1] != VERSION) {
+      throw new IOException("Unknown binary JSON version: " + bytes[1]);
+    }
+
+    Decoder decoder = new Decoder(bytes, 2);
+    try {
+      Object value = decoder.readValue();
+      if (decoder.position != bytes.length) {
+        throw new IOException("Trailing bytes after binary JSON: " + (bytes.length - decoder.position));
+      }
+      return value;
+
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Truncated binary JSON", e);
+    }
+  }
+
+  private static class Encoder {
+    private final Map<String, Integer> stringTable = new HashMap<>();
+    private byte[] buffer = new byte[1024];
+    private int size;
+
+    void writeValue(Object value) {
+      if (value == null) {
+        writeByte(TAG_NULL);
+
+      } else if (value instanceof String) {
+        writeString((String) value);
+
+      } else if (value instanceof Boolean) {
+        writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+
+      } else if (value instanceof Double || value instanceof Float) {
+        writeDouble(((Number) value).doubleValue());
+
+      } else if (value instanceof Number) {
+        writeByte(TAG_LONG);
+        writeSignedVarint(((Number) value).longValue());
+
+      } else if (value instanceof Map) {
+        writeMap((Map<?, ?>) value);
+
+      } else if (value instanceof List) {
+        List<?> list = (List<?>) value;
+        writeByte(TAG_LIST);
+        writeVarint(list.size());
+        for (int i = 0; i < list.size(); i++) {
+          writeValue(list.get(i));
+        }
+
+      } else {
+        throw new IllegalArgumentException("Not a JSON value: " + value.getClass());
+      }
+    }
+
+    private void writeDouble(double value) {
+      long longValue = (long) value;
+      boolean isNegativeZero = value == 0 && Double.doubleToRawLongBits(value) != 0;
+      if (longValue == value && !isNegativeZero) {
+        writeByte(TAG_INTEGRAL_DOUBLE);
+        writeSignedVarint(longValue);
+
+      } else {
+        writeByte(TAG_DOUBLE);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+          writeByte((int) (bits >>> shift));
+        }
+      }
+    }
+
+    private void writeMap(Map<?, ?> map) {
+      writeByte(TAG_MAP);
+      writeVarint(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        if (!(entry.getKey() instanceof String)) {
+          throw new IllegalArgumentException("Map keys must be strings: " + entry.getKey());
+        }
+        writeString((String) entry.getKey());
+        writeValue(entry.getValue());
+      }
+    }
+
+    private void writeString(String string) {
+      if (string.length() > MAX_TABLE_STRING_LENGTH) {
+        writeByte(TAG_STRING);
+        writeUtf8(string);
+        return;
+      }
+
+      Integer index = stringTable.get(string);
+      if (index != null) {
+        writeByte(TAG_TABLE_STRING_REFERENCE);
+        writeVarint(index);
+      } else {
+        stringTable.put(string, stringTable.size());
+        writeByte(TAG_TABLE_STRING);
+        writeUtf8(string);
+      }
+    }
+
+    private void writeUtf8(String string) {
+      byte[] utf8 = string.getBytes(UTF_8);
+      writeVarint(utf8.length);
+      ensureCapacity(utf8.length);
+      System.arraycopy(utf8, 0, buffer, size, utf8.length);
+      size += utf8.length;
+    }
+
+    private void writeSignedVarint(long value) {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      writeByte((int) value);
+    }
+
+    void writeByte(int value) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extraBytes) {
+      if (size + extraBytes > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extraBytes));
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+  }
+
+  private static class Decoder {
+    private final List<String> stringTable = new ArrayList<>();
+    private final byte[] bytes;
+    private int position;
+
+    Decoder(byte[] bytes, int position) {
+      this.bytes = bytes;
+      this.position = position;
+    }
+
+    Object readValue() throws IOException {
+      int tag = bytes[position++];
+      switch (tag) {
+        case TAG_NULL:
+          return null;
+
+        case TAG_FALSE:
+          return Boolean.FALSE;
+
+        case TAG_TRUE:
+          return Boolean.TRUE;
+
+        case TAG_LONG:
+          return readSignedVarint();
+
+        case TAG_INTEGRAL_DOUBLE:
+          return (double) readSignedVarint();
+
+        case TAG_DOUBLE: {
+          long bits = 0;
+          for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (bytes[position++] & 0xFF);
+          }
+          return Double.longBitsToDouble(bits);
+        }
+
+        case TAG_STRING:
+        case TAG_TABLE_STRING:
+        case TAG_TABLE_STRING_REFERENCE:
+          return readString(tag);
+
+        case TAG_LIST: {
+          int count = readLength();
+          List<Object> list = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            list.add(readValue());
+          }
+          return list;
+        }
+
+        case TAG_MAP: {
+          int count = readLength();
+          Map<String, Object> map = new LinkedHashMap<>(count * 4 / 3 + 1);
+          for (int i = 0; i < count; i++) {
+            String key = readString(bytes[position++]);
+            map.put(key, readValue());
+          }
+          return map;
+        }
+
+        default:
+          throw new IOException("Unknown tag " + tag + " at " + (position - 1));
+      }
+    }
+
+    private String readString(int tag) throws IOException {
+      switch (tag) {
+        case TAG_STRING:
+          return readUtf8();
+
+        case TAG_TABLE_STRING: {
+          String string = readUtf8();
+          stringTable.add(string);
+          return string;
+        }
+
+        case TAG_TABLE_STRING_REFERENCE:
+          return stringTable.get(readLength());
+
+        default:
+          throw new IOException("Expected a string but found tag " + tag + " at " + (position - 1));
+      }
+    }
+
+    private String readUtf8() throws IOException {
+      int length = readLength();
+      if (position + length > bytes.length) {
+        throw new IOException("Truncated string at " + position);
+      }
+      String string = new String(bytes, position, length, UTF_8);
+      position += length;
+      return string;
+    }
+
+    private int readLength() throws IOException {
+      long length = readVarint();
+      if (length < 0 || length > bytes.length) {
+        throw new IOException("Invalid length " + length + " at " + position);
+      }
+      return (int) length;
+    }
+
+    private long readSignedVarint() throws IOException {
+      long value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = bytes[position++];
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Malformed varint at " + position);
+    }
+  }
+}
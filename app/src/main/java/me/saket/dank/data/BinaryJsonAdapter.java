@@ -0,0 +1,44 @@
+package me.saket.dank.data;
+
+import com.squareup.moshi.JsonAdapter;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Persists models as {@link BinaryJson} using their Moshi adapter, and reads back models that were
+ * persisted as JSON text before.
+ */
+public class BinaryJsonAdapter<T> {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final JsonAdapter<T> adapter;
+
+  public BinaryJsonAdapter(JsonAdapter<T> adapter) {
+    this.adapter = adapter;
+  }
+
+  public byte[] toBytes(T value) {
+    return BinaryJson.encode(adapter.toJsonValue(value));
+  }
+
+  public T fromBytes(byte[] bytes) throws IOException {
+    if (BinaryJson.isBinary(bytes)) {
+      return adapter.fromJsonValue(BinaryJson.decode(bytes));
+    } else {
+      return adapter.fromJson(legacyJson(bytes));
+    }
+  }
+
+  /**
+   * SQLite returns TEXT values read as blobs with a trailing null character.
+   */
+  public static String legacyJson(byte[] bytes) {
+    int length = bytes.length;
+    while (length > 0 && bytes[length - 1] == 0) {
+      length--;
+    }
+    return new String(bytes, 0, length, UTF_8);
+  }
+}
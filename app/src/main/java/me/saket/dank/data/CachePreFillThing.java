@@ -6,5 +6,6 @@ package me.saket.dank.data;
 public enum CachePreFillThing {
   COMMENTS,
   IMAGES,
-  LINK_METADATA
+  LINK_METADATA,
+  VIDEOS
 }
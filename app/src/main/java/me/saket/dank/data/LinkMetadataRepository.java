@@ -17,8 +17,12 @@ import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.Single;
 import me.saket.dank.BuildConfig;
+import me.saket.dank.cache.CachePreFillStats;
 import me.saket.dank.cache.DiskLruCachePathResolver;
 import me.saket.dank.cache.MoshiStoreJsonParser;
+import me.saket.dank.cache.SingleFlight;
+import me.saket.dank.cache.SingleFlightStats;
+import me.saket.dank.cache.StoreCacheStats;
 import me.saket.dank.cache.StoreFilePersister;
 import me.saket.dank.di.DankApi;
 import me.saket.dank.urlparser.Link;
@@ -30,12 +34,27 @@ import timber.log.Timber;
 @Singleton
 public class LinkMetadataRepository {
 
+  /**
+   * Cached metadata older than this is still shown, but gets refreshed in the background.
+   */
+  private static final long REFRESH_AFTER_DAYS = 7;
+
   private final Store<LinkMetadata, Link> linkMetadataStore;
+  private final StoreCacheStats cacheStats = new StoreCacheStats("link_metadata");
+  private final SingleFlight<Link, LinkMetadata> unfurlFlights = new SingleFlight<>("link_metadata");
   private final Lazy<ErrorResolver> errorResolver;
+  private final CachePreFillStats preFillStats;
 
   @Inject
-  public LinkMetadataRepository(Lazy<DankApi> dankApi, FileSystem cacheFileSystem, Moshi moshi, Lazy<ErrorResolver> errorResolver) {
+  public LinkMetadataRepository(
+      Lazy<DankApi> dankApi,
+      FileSystem cacheFileSystem,
+      Moshi moshi,
+      Lazy<ErrorResolver> errorResolver,
+      CachePreFillStats preFillStats)
+  {
     this.errorResolver = errorResolver;
+    this.preFillStats = preFillStats;
 
     DiskLruCachePathResolver<Link> pathResolver = new DiskLruCachePathResolver<Link>() {
       @Override
@@ -53,13 +72,30 @@ public class LinkMetadataRepository {
             .setExpireAfterWrite(24)
             .setExpireAfterTimeUnit(TimeUnit.HOURS)
             .build())
-        .persister(new StoreFilePersister<>(cacheFileSystem, pathResolver, jsonParser))
+        .persister(new StoreFilePersister<>(cacheFileSystem, pathResolver, jsonParser, REFRESH_AFTER_DAYS, TimeUnit.DAYS, cacheStats))
+        .refreshOnStale()
         .open();
   }
 
+  /**
+   * Concurrent calls for the same link share one request.
+   */
   @CheckResult
   public Single<LinkMetadata> unfurl(Link link) {
-    return linkMetadataStore.get(link)
+    return unfurlShared(link)
+        .doOnSubscribe(o -> preFillStats.recordUse(CachePreFillThing.LINK_METADATA, link.unparsedUrl()));
+  }
+
+  /**
+   * Like {@link #unfurl(Link)}, but for pre-filling the cache. Isn't counted as a use in {@link CachePreFillStats}.
+   */
+  @CheckResult
+  public Single<LinkMetadata> preFill(Link link) {
+    return unfurlShared(link);
+  }
+
+  private Single<LinkMetadata> unfurlShared(Link link) {
+    return unfurlFlights.single(link, () -> linkMetadataStore.get(link))
         .doOnError(e -> {
           if (e instanceof NoSuchElementException) {
             Timber.e("'MaybeSource is empty' for %s", link);
@@ -72,6 +108,14 @@ public class LinkMetadataRepository {
         });
   }
 
+  public StoreCacheStats cacheStats() {
+    return cacheStats;
+  }
+
+  public SingleFlightStats inFlightStats() {
+    return unfurlFlights.stats();
+  }
+
   @CheckResult
   public Completable clearAll() {
     if (!BuildConfig.DEBUG) {
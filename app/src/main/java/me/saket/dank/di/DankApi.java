@@ -103,7 +103,11 @@ public interface DankApi {
 
 // ======== GFYCAT ======== //
 
+  /**
+   * Never cached, because tokens expire.
+   */
   @CheckResult
+  @Headers("Cache-Control: no-store")
   @GET("https://api.gfycat.com/v1/oauth/token?grant_type=client_credentials")
   Single<GfycatOauthResponse> gfycatOAuth(
       @Query("client_id") String clientId,
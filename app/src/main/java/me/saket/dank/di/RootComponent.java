@@ -47,6 +47,7 @@ import me.saket.dank.ui.user.UserProfilePopup;
 import me.saket.dank.ui.user.messages.InboxActivity;
 import me.saket.dank.ui.user.messages.InboxFolderFragment;
 import me.saket.dank.ui.user.messages.PrivateMessageThreadActivity;
+import me.saket.dank.utils.BandwidthEstimator;
 import me.saket.dank.utils.NestedOptionsPopupMenu;
 import me.saket.dank.utils.markdown.MarkdownModule;
 import me.saket.dank.vote.VoteJobService;
@@ -84,6 +85,8 @@ public interface RootComponent {
 
   CrashReporter crashReporter();
 
+  BandwidthEstimator bandwidthEstimator();
+
   void inject(MediaAlbumViewerActivity target);
 
   void inject(MediaVideoFragment target);
@@ -17,6 +17,9 @@ import com.squareup.moshi.Moshi;
 import com.squareup.sqlbrite2.BriteDatabase;
 import com.squareup.sqlbrite2.SqlBrite;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -35,8 +38,17 @@ import me.saket.dank.ui.submission.DraftStore;
 import me.saket.dank.urlparser.Link;
 import me.saket.dank.urlparser.RedditUserLink;
 import me.saket.dank.urlparser.UrlParser;
+import me.saket.dank.utils.BandwidthEstimator;
 import me.saket.dank.utils.DankLinkMovementMethod;
+import me.saket.dank.utils.DefaultMediaQualityPolicy;
+import me.saket.dank.utils.MediaQualityPolicy;
 import me.saket.dank.utils.OkHttpWholesomeAuthIntercepter;
+import me.saket.dank.utils.okhttp.HttpCacheStats;
+import me.saket.dank.utils.okhttp.OkHttpBandwidthSamplingInterceptor;
+import me.saket.dank.utils.okhttp.OkHttpCacheStatsInterceptor;
+import me.saket.dank.utils.okhttp.OkHttpMaxAgeOverrideInterceptor;
+import me.saket.dank.utils.okhttp.OkHttpStaleIfErrorInterceptor;
+import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
@@ -49,6 +61,7 @@ public class RootModule {
 
   public static final int NETWORK_CONNECT_TIMEOUT_SECONDS = 15;
   public static final int NETWORK_READ_TIMEOUT_SECONDS = 10;
+  private static final long HTTP_CACHE_SIZE_BYTES = 10 * 1024 * 1024;
   private Application appContext;
 
   public RootModule(Application appContext) {
@@ -85,10 +98,25 @@ public class RootModule {
 
   @Provides
   @Singleton
-  OkHttpClient provideOkHttpClient() {
+  OkHttpClient provideOkHttpClient(HttpCacheStats httpCacheStats, BandwidthEstimator bandwidthEstimator) {
+    // For APIs that don't send any caching headers. Responses are revalidated
+    // after these durations if they came with an ETag or a Last-Modified date.
+    Map<String, Integer> maxAgeSecondsByHost = new HashMap<>();
+    maxAgeSecondsByHost.put("imgur-apiv3.p.mashape.com", (int) TimeUnit.DAYS.toSeconds(1));
+    maxAgeSecondsByHost.put("api.gfycat.com", (int) TimeUnit.DAYS.toSeconds(1));
+    maxAgeSecondsByHost.put(DankApi.WHOLESOME_API_HOST, (int) TimeUnit.DAYS.toSeconds(1));
+    // Streamable videos can still be processing and Giphy's trending list changes often.
+    maxAgeSecondsByHost.put("api.streamable.com", (int) TimeUnit.MINUTES.toSeconds(10));
+    maxAgeSecondsByHost.put("api.giphy.com", (int) TimeUnit.MINUTES.toSeconds(10));
+
     OkHttpClient.Builder builder = new OkHttpClient.Builder()
         .connectTimeout(NETWORK_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
-        .readTimeout(NETWORK_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        .readTimeout(NETWORK_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        .cache(new Cache(new File(appContext.getCacheDir(), "http_cache"), HTTP_CACHE_SIZE_BYTES))
+        .addInterceptor(new OkHttpCacheStatsInterceptor(httpCacheStats))
+        .addInterceptor(new OkHttpStaleIfErrorInterceptor())
+        .addNetworkInterceptor(new OkHttpMaxAgeOverrideInterceptor(maxAgeSecondsByHost))
+        .addNetworkInterceptor(new OkHttpBandwidthSamplingInterceptor(bandwidthEstimator));
 
     if (BuildConfig.DEBUG) {
       HttpLoggingInterceptor logging = new HttpLoggingInterceptor(message -> Timber.tag("OkHttp").d(message));
@@ -101,6 +129,11 @@ public class RootModule {
     return builder.build();
   }
 
+  @Provides
+  MediaQualityPolicy provideMediaQualityPolicy(DefaultMediaQualityPolicy policy) {
+    return policy;
+  }
+
   @Provides
   @Singleton
   Retrofit provideRetrofit(OkHttpClient okHttpClient, Moshi moshi) {
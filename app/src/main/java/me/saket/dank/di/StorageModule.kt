@@ -1,7 +1,9 @@
 package me.saket.dank.di
 
 import android.app.Application
+import android.arch.persistence.db.SupportSQLiteDatabase
 import android.arch.persistence.room.Room
+import android.arch.persistence.room.migration.Migration
 import com.squareup.moshi.Moshi
 import dagger.Module
 import dagger.Provides
@@ -27,7 +29,60 @@ class StorageModule {
   @Provides
   fun appDatabase(appContext: Application): AppDatabase {
     return Room.databaseBuilder(appContext, AppDatabase::class.java, "Dank-room")
-        .fallbackToDestructiveMigrationFrom(1)
+        .fallbackToDestructiveMigrationFrom(1, 2, 3, 4)
+        .addMigrations(MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9)
         .build()
   }
+
+  companion object {
+
+    /**
+     * Submissions and comment rows are stored as [me.saket.dank.data.BinaryJson] blobs from now on.
+     * SQLite can't change a column's type, so the tables are rebuilt. Existing JSON text is copied
+     * as-is and is still readable.
+     */
+    val MIGRATION_5_6 = object : Migration(5, 6) {
+      override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("DROP INDEX IF EXISTS `index_CachedSubmission_id_saveTimeMillis`")
+        database.execSQL("CREATE TABLE `CachedSubmission_new` (`id` TEXT NOT NULL, `submission` BLOB NOT NULL, `subredditName` TEXT NOT NULL, `saveTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`id`))")
+        database.execSQL("INSERT INTO `CachedSubmission_new` SELECT `id`, `submission`, `subredditName`, `saveTimeMillis` FROM `CachedSubmission`")
+        database.execSQL("DROP TABLE `CachedSubmission`")
+        database.execSQL("ALTER TABLE `CachedSubmission_new` RENAME TO `CachedSubmission`")
+        database.execSQL("CREATE INDEX `index_CachedSubmission_id_saveTimeMillis` ON `CachedSubmission` (`id`, `saveTimeMillis`)")
+
+        database.execSQL("DROP INDEX IF EXISTS `index_CachedComment_request_parentRowId_sortPosition`")
+        database.execSQL("DROP INDEX IF EXISTS `index_CachedComment_request_rootSortPosition`")
+        database.execSQL("CREATE TABLE `CachedComment_new` (`request` TEXT NOT NULL, `rowId` TEXT NOT NULL, `parentRowId` TEXT NOT NULL, `depth` INTEGER NOT NULL, `sortPosition` INTEGER NOT NULL, `rootSortPosition` INTEGER NOT NULL, `body` BLOB NOT NULL, PRIMARY KEY(`request`, `rowId`))")
+        database.execSQL("INSERT INTO `CachedComment_new` SELECT `request`, `rowId`, `parentRowId`, `depth`, `sortPosition`, `rootSortPosition`, `body` FROM `CachedComment`")
+        database.execSQL("DROP TABLE `CachedComment`")
+        database.execSQL("ALTER TABLE `CachedComment_new` RENAME TO `CachedComment`")
+        database.execSQL("CREATE INDEX `index_CachedComment_request_parentRowId_sortPosition` ON `CachedComment` (`request`, `parentRowId`, `sortPosition`)")
+        database.execSQL("CREATE INDEX `index_CachedComment_request_rootSortPosition` ON `CachedComment` (`request`, `rootSortPosition`)")
+      }
+    }
+
+    /**
+     * Pending votes are stored in [me.saket.dank.vote.PendingVote] rows from now on.
+     */
+    val MIGRATION_6_7 = object : Migration(6, 7) {
+      override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS `PendingVote` (`fullName` TEXT NOT NULL, `direction` TEXT NOT NULL, `syncedDirection` TEXT, `updateTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`fullName`))")
+      }
+    }
+
+    /**
+     * Completed pre-fills are stored in [me.saket.dank.cache.CompletedPreFill] rows from now on.
+     */
+    val MIGRATION_7_8 = object : Migration(7, 8) {
+      override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS `CompletedPreFill` (`submissionFullName` TEXT NOT NULL, `thing` TEXT NOT NULL, `completeTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`submissionFullName`, `thing`))")
+      }
+    }
+
+    val MIGRATION_8_9 = object : Migration(8, 9) {
+      override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("CREATE TABLE IF NOT EXISTS `PendingMediaDownload` (`unparsedUrl` TEXT NOT NULL, `mediaLinkJson` TEXT, `contentLength` INTEGER NOT NULL, `validator` TEXT, `chunkCount` INTEGER NOT NULL, `queueTimeMillis` INTEGER NOT NULL, PRIMARY KEY(`unparsedUrl`))")
+      }
+    }
+  }
 }
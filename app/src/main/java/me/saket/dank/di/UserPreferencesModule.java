@@ -181,6 +181,18 @@ public class UserPreferencesModule {
     return rxPrefs.getObject("images_prefetch_network_strategy", NetworkStrategy.WIFI_ONLY, strategyTypeAdapter);
   }
 
+  /**
+   * Same preference that {@link #cachePreFillingNetworkStrategies(RxSharedPreferences, RxPreferencesEnumTypeAdapter)}
+   * provides for videos, so that changing it affects pre-filling.
+   */
+  @Provides
+  @Named("videos_prefetch")
+  Preference<NetworkStrategy> videosPreFetchStrategyPref(
+      @Named("cache_pre_filling_network_strategies") Map<CachePreFillThing, Preference<NetworkStrategy>> strategies)
+  {
+    return strategies.get(CachePreFillThing.VIDEOS);
+  }
+
 // ======== MISC ======== //
 
   @Provides
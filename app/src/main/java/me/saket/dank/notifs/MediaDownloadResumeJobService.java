@@ -0,0 +1,41 @@
+package me.saket.dank.notifs;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import me.saket.dank.DankJobService;
+
+/**
+ * Resumes downloads that failed because of a network error, once the device is online again.
+ * {@link MediaDownloadService} does the actual work as a foreground service, so this job finishes immediately.
+ */
+public class MediaDownloadResumeJobService extends DankJobService {
+
+  public static void schedule(Context context) {
+    JobInfo resumeJobInfo = new JobInfo.Builder(ID_RESUME_MEDIA_DOWNLOADS, new ComponentName(context, MediaDownloadResumeJobService.class))
+        .setMinimumLatency(30 * DateUtils.SECOND_IN_MILLIS)
+        .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+        .setBackoffCriteria(DateUtils.MINUTE_IN_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+        .setPersisted(true)
+        .build();
+
+    JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    //noinspection ConstantConditions
+    jobScheduler.schedule(resumeJobInfo);
+  }
+
+  @Override
+  public JobStartCallback onStartJob2(JobParameters params) {
+    MediaDownloadService.resumePendingDownloads(this);
+    return JobStartCallback.finished();
+  }
+
+  @Override
+  public JobStopCallback onStopJob2() {
+    return JobStopCallback.drop();
+  }
+}
@@ -11,8 +11,9 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.drawable.Drawable;
 import android.media.session.MediaSession;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Build;
 import android.os.IBinder;
@@ -24,29 +25,37 @@ import android.support.v4.content.FileProvider;
 import android.support.v4.media.session.MediaSessionCompat;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.SimpleTarget;
-import com.bumptech.glide.request.target.Target;
 import com.bumptech.glide.request.transition.Transition;
 import com.danikula.videocache.HttpProxyCacheServer;
 import com.jakewharton.rxrelay2.PublishRelay;
 import com.jakewharton.rxrelay2.Relay;
+import com.squareup.moshi.Moshi;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 
+import dagger.Lazy;
+import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.functions.Function;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.R;
+import me.saket.dank.data.AppDatabase;
 import me.saket.dank.di.Dank;
 import me.saket.dank.ui.media.MediaDownloadJob;
 import me.saket.dank.ui.media.MediaHostRepository;
@@ -55,23 +64,17 @@ import me.saket.dank.urlparser.MediaLink;
 import me.saket.dank.urlparser.RedditHostedVideoLink;
 import me.saket.dank.utils.Files2;
 import me.saket.dank.utils.Intents;
+import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.RxUtils;
 import me.saket.dank.utils.Strings;
 import me.saket.dank.utils.Urls;
 import me.saket.dank.utils.VideoFormat;
-import me.saket.dank.utils.glide.GlideProgressTarget;
-import me.saket.dank.utils.okhttp.OkHttpResponseBodyWithProgress;
-import okhttp3.Call;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-import okio.BufferedSink;
-import okio.BufferedSource;
-import okio.Okio;
 import timber.log.Timber;
 
 /**
- * Downloads images and videos to disk.
+ * Downloads images and videos to disk. Downloads are done by {@link ResumableDownloader} and are
+ * persisted as {@link PendingMediaDownload}s until they finish, so that they can be resumed after
+ * the process dies or the device goes offline.
  * FIXME: Move all logic to a separate testable class.
  * FIXME: Use a single source of truth for notifications.
  */
@@ -87,6 +90,9 @@ public class MediaDownloadService extends Service {
   private static final String REQUESTCODE_DELETE_IMAGE_PREFIX_ = "302";
   private static final String REQUESTCODE_OPEN_IMAGE_PREFIX_ = "303";
   private static final String REQUESTCODE_CANCEL_DOWNLOAD_PREFIX_ = "304";
+  private static final String REQUESTCODE_DISMISS_ERROR_PREFIX_ = "305";
+  private static final int MAX_CONCURRENT_DOWNLOADS = 2;
+  private static final String DOWNLOADS_DIRECTORY = "media_downloads";
 
   /**
    * Starting from Nougat, Android has a rate limiter in place which puts a certain
@@ -95,8 +101,10 @@ public class MediaDownloadService extends Service {
   private static final int MINIMUM_GAP_BETWEEN_NOTIFICATION_UPDATEs = 201;
 
   @Inject HttpProxyCacheServer videoCacheServer;
-  @Inject OkHttpClient okHttpClient;
   @Inject MediaHostRepository mediaHostRepository;
+  @Inject Lazy<ResumableDownloader> resumableDownloader;
+  @Inject Lazy<AppDatabase> database;
+  @Inject Lazy<Moshi> moshi;
 
   private CompositeDisposable disposables = new CompositeDisposable();
   private final Set<MediaLink> ongoingDownloadLinks = new HashSet<>();
@@ -108,6 +116,7 @@ public class MediaDownloadService extends Service {
     ENQUEUE_DOWNLOAD,
     CANCEL_DOWNLOAD,
     CANCEL_NOTIFICATION,  // Canceled programmatically.
+    RESUME_PENDING_DOWNLOADS,
   }
 
   public static void enqueueDownload(Context context, MediaLink mediaLink) {
@@ -121,6 +130,17 @@ public class MediaDownloadService extends Service {
     context.startService(intent);
   }
 
+  /**
+   * Resumes downloads that didn't finish earlier. See {@link MediaDownloadResumeJobService}.
+   * Started as a foreground service, because the app is usually in the background when this
+   * gets called and background services can't be started then on O and above.
+   */
+  public static void resumePendingDownloads(Context context) {
+    Intent intent = new Intent(context, MediaDownloadService.class);
+    intent.putExtra(KEY_ACTION, Action.RESUME_PENDING_DOWNLOADS);
+    ContextCompat.startForegroundService(context, intent);
+  }
+
   private static Intent cancelDownloadIntent(Context context, MediaLink mediaLink) {
     Intent intent = new Intent(context, MediaDownloadService.class);
     intent.putExtra(KEY_MEDIA_LINK_TO_CANCEL_DOWNLOAD, mediaLink);
@@ -170,12 +190,18 @@ public class MediaDownloadService extends Service {
         downloadCancellationStream.subscribe(mediaLinkToCancel -> {
           ongoingDownloadLinks.remove(mediaLinkToCancel);
           NotificationManagerCompat.from(this).cancel(createNotificationIdFor(mediaLinkToCancel));
+
+          Completable.fromAction(() -> deletePendingDownload(mediaLinkToCancel))
+              .subscribeOn(Schedulers.io())
+              .subscribe(RxUtils.doNothingCompletable(), RxUtils.logError("Couldn't delete canceled download"));
+
+          downloadJobsWithVisibleNotif.remove(mediaLinkToCancel);
+          activeDownloadsProgressChangeStream.accept(downloadJobsWithVisibleNotif.values());
         })
     );
 
     disposables.add(
         downloadRequestStream
-            .sample(MINIMUM_GAP_BETWEEN_NOTIFICATION_UPDATEs, TimeUnit.MILLISECONDS, AndroidSchedulers.mainThread())
             .doOnNext(link -> Timber.i("Recvd request for %s", link))
             .doOnNext(linkToQueue -> {
               Timber.i("Showing queued notif");
@@ -183,24 +209,23 @@ public class MediaDownloadService extends Service {
               downloadJobsWithVisibleNotif.put(downloadJobToQueue.mediaLink(), downloadJobToQueue);
               updateIndividualProgressNotification(downloadJobToQueue, createNotificationIdFor(linkToQueue));
             })
-            .concatMap(linkToDownload -> {
+            // Saved before waiting in the queue so that queued downloads also survive process death.
+            .observeOn(Schedulers.io())
+            .doOnNext(linkToQueue -> savePendingDownloadIfNew(linkToQueue))
+            .flatMap(linkToDownload -> {
               Timber.i("Downloading %s", linkToDownload);
-              Observable<MediaDownloadJob> downloadStream;
-              if (linkToDownload.isVideo()) {
-                downloadStream = downloadVideoAndStreamProgress(linkToDownload).compose(RxUtils.applySchedulers());
-              } else {
-                downloadStream = downloadImageAndStreamProgress(linkToDownload);
-              }
-
-              return downloadStream
-                  .unsubscribeOn(Schedulers.io())
+              return downloadAndStreamProgress(linkToDownload)
                   .map(moveFileToUserSpaceOnDownload())
-                  .doOnTerminate(() -> ongoingDownloadLinks.remove(linkToDownload))
                   .doOnError(e -> Timber.e(e, "Couldn't download media"))
+                  .doOnError(e -> handleDownloadError(linkToDownload, e))
+                  .subscribeOn(Schedulers.io())
+                  .unsubscribeOn(Schedulers.io())
                   .onErrorReturnItem(MediaDownloadJob.failed(linkToDownload, System.currentTimeMillis()))
+                  .observeOn(AndroidSchedulers.mainThread())
+                  .doOnTerminate(() -> ongoingDownloadLinks.remove(linkToDownload))
                   .takeUntil(downloadCancellationStream.filter(linkToCancel -> linkToCancel.equals(linkToDownload)))
                   .sample(MINIMUM_GAP_BETWEEN_NOTIFICATION_UPDATEs, TimeUnit.MILLISECONDS, AndroidSchedulers.mainThread(), true);
-            })
+            }, MAX_CONCURRENT_DOWNLOADS)
             .subscribe(downloadJob -> {
               int notificationId = createNotificationIdFor(downloadJob.mediaLink());
 
@@ -242,18 +267,17 @@ public class MediaDownloadService extends Service {
 
   @Override
   public int onStartCommand(Intent intent, int flags, int startId) {
+    if (intent == null) {
+      // Restarted by Android after the process was killed.
+      resumePendingDownloads();
+      return START_STICKY;
+    }
+
     Action serviceAction = (Action) intent.getSerializableExtra(KEY_ACTION);
     switch (serviceAction) {
       case ENQUEUE_DOWNLOAD:
         MediaLink mediaLinkToDownload = intent.getParcelableExtra(KEY_MEDIA_LINK_TO_DOWNLOAD);
-        boolean isDownloadAlreadyOngoing = ongoingDownloadLinks.contains(mediaLinkToDownload);
-        if (!isDownloadAlreadyOngoing) {
-          Timber.i("Enqueuing %s", mediaLinkToDownload);
-          ongoingDownloadLinks.add(mediaLinkToDownload);
-          downloadRequestStream.accept(mediaLinkToDownload);
-        } else {
-          Timber.w("Ignoring ongoing download");
-        }
+        enqueueDownload(mediaLinkToDownload);
         break;
 
       case CANCEL_DOWNLOAD:
@@ -266,10 +290,58 @@ public class MediaDownloadService extends Service {
         downloadCancellationStream.accept(mediaLinkToCancelNotif);
         break;
 
+      case RESUME_PENDING_DOWNLOADS:
+        // Required within a few seconds of startForegroundService(). Removed when the service stops.
+        startForeground(NotificationConstants.ID_MEDIA_DOWNLOAD_RESUME, createResumeNotification());
+        resumePendingDownloads();
+        break;
+
       default:
         throw new UnsupportedOperationException("Unknown action: " + serviceAction);
     }
-    return START_NOT_STICKY;
+    return START_STICKY;
+  }
+
+  private void enqueueDownload(MediaLink mediaLinkToDownload) {
+    boolean isDownloadAlreadyOngoing = ongoingDownloadLinks.contains(mediaLinkToDownload);
+    if (!isDownloadAlreadyOngoing) {
+      Timber.i("Enqueuing %s", mediaLinkToDownload);
+      ongoingDownloadLinks.add(mediaLinkToDownload);
+      downloadRequestStream.accept(mediaLinkToDownload);
+    } else {
+      Timber.w("Ignoring ongoing download");
+    }
+  }
+
+  private void resumePendingDownloads() {
+    disposables.add(
+        Single.fromCallable(() -> readPendingDownloadLinks())
+            .subscribeOn(Schedulers.io())
+            .observeOn(AndroidSchedulers.mainThread())
+            .subscribe(
+                pendingDownloadLinks -> {
+                  Timber.i("Resuming %s downloads", pendingDownloadLinks.size());
+                  for (MediaLink pendingDownloadLink : pendingDownloadLinks) {
+                    enqueueDownload(pendingDownloadLink);
+                  }
+                  if (ongoingDownloadLinks.isEmpty()) {
+                    stopSelf();
+                  }
+                },
+                error -> Timber.e(error, "Couldn't resume downloads"))
+    );
+  }
+
+  private Notification createResumeNotification() {
+    return new NotificationCompat.Builder(this, getString(R.string.notification_channel_media_downloads_id))
+        .setContentTitle(getString(R.string.mediadownloadnotification_resuming_title))
+        .setSmallIcon(android.R.drawable.stat_sys_download)
+        .setOngoing(true)
+        .setLocalOnly(true)   // Hide from wearables.
+        .setGroup(NotificationConstants.MEDIA_DOWNLOAD_GROUP)
+        .setColor(ContextCompat.getColor(this, R.color.notification_icon_color))
+        .setPriority(Notification.PRIORITY_LOW)
+        .build();
   }
 
   private void updateIndividualProgressNotification(MediaDownloadJob mediaDownloadJob, int notificationId) {
@@ -343,6 +415,11 @@ public class MediaDownloadService extends Service {
         .setWhen(failedDownloadJob.timestamp())
         .setColor(ContextCompat.getColor(this, R.color.notification_icon_color))
         .setContentIntent(retryPendingIntent)
+        .setDeleteIntent(PendingIntent.getService(this,
+            createPendingIntentRequestId(REQUESTCODE_DISMISS_ERROR_PREFIX_, notificationId),
+            cancelDownloadIntent(this, failedDownloadJob.mediaLink()),
+            PendingIntent.FLAG_UPDATE_CURRENT
+        ))
         .setAutoCancel(false)
         .build();
     NotificationManagerCompat.from(this).notify(notificationId, errorNotification);
@@ -444,135 +521,163 @@ public class MediaDownloadService extends Service {
   }
 
   /**
-   * Download an image and streams progress updates.
+   * Download an image or a video and streams progress updates.
    */
-  private Observable<MediaDownloadJob> downloadImageAndStreamProgress(MediaLink mediaLink) {
-    long downloadStartTimeMillis = System.currentTimeMillis();
-
-    return Observable.create(emitter -> {
-      Target<File> fileTarget = new SimpleTarget<File>() {
-        @Override
-        public void onResourceReady(File downloadedFile, @Nullable Transition<? super File> transition) {
-          long downloadCompleteTimeMillis = System.currentTimeMillis();
-          emitter.onNext(MediaDownloadJob.downloaded(mediaLink, downloadedFile, downloadCompleteTimeMillis));
-          emitter.onComplete();
-        }
+  private Observable<MediaDownloadJob> downloadAndStreamProgress(MediaLink linkToDownload) {
+    return Observable.defer(() -> {
+      long downloadStartTimeMillis = System.currentTimeMillis();
 
-        @Override
-        public void onLoadFailed(@Nullable Drawable errorDrawable) {
-          long downloadFailTimeMillis = System.currentTimeMillis();
-          emitter.onNext(MediaDownloadJob.failed(mediaLink, downloadFailTimeMillis));
-          emitter.onComplete();
-        }
-      };
+      Optional<File> cachedFile = findCachedFile(linkToDownload);
+      if (cachedFile.isPresent()) {
+        return Observable.just(MediaDownloadJob.downloaded(linkToDownload, cachedFile.get(), System.currentTimeMillis()));
+      }
 
-      GlideProgressTarget<String, File> progressTarget = new GlideProgressTarget<String, File>(fileTarget) {
-        @Override
-        public float getGranularityPercentage() {
-          return 1f;
-        }
+      PendingMediaDownloadDao pendingDownloadDao = database.get().pendingMediaDownloadDao();
+      PendingMediaDownload pendingDownload = pendingDownloadDao.download(linkToDownload.unparsedUrl());
+      if (pendingDownload == null) {
+        Timber.w("Download was canceled while it was queued");
+        return Observable.empty();
+      }
 
-        @Override
-        protected void onConnecting() {
-          emitter.onNext(MediaDownloadJob.connecting(mediaLink, downloadStartTimeMillis));
-        }
+      File downloadFile = downloadFileFor(linkToDownload);
+      return resumableDownloader.get()
+          .download(downloadUrlFor(linkToDownload), pendingDownload, downloadFile, pendingDownloadDao::update)
+          .map(progress -> MediaDownloadJob.progress(linkToDownload, progress, downloadStartTimeMillis))
+          .startWith(MediaDownloadJob.connecting(linkToDownload, downloadStartTimeMillis))
+          .concatWith(Observable.fromCallable(() -> MediaDownloadJob.downloaded(linkToDownload, downloadFile, System.currentTimeMillis())));
+    });
+  }
 
-        @Override
-        protected void onDownloading(long bytesRead, long expectedBytes) {
-          int progress = (int) (100 * (float) bytesRead / expectedBytes);
-          emitter.onNext(MediaDownloadJob.progress(mediaLink, progress, downloadStartTimeMillis));
-        }
+  /**
+   * Images that were seen are usually present in Glide's cache and videos that were watched
+   * completely in the video cache.
+   */
+  private Optional<File> findCachedFile(MediaLink mediaLink) throws InterruptedException {
+    String highQualityUrl = mediaLink.highQualityUrl();
 
-        @Override
-        protected void onDownloaded() {}
+    if (mediaLink.isVideo()) {
+      if (VideoFormat.parse(highQualityUrl).canBeCached() && videoCacheServer.isCached(highQualityUrl)) {
+        String cachedVideoFileUrl = videoCacheServer.getProxyUrl(highQualityUrl);
+        return Optional.of(new File(Uri.parse(cachedVideoFileUrl).getPath()));
+      }
+      return Optional.empty();
+    }
 
-        @Override
-        protected void onDelivered() {}
-      };
+    try {
+      File cachedImageFile = Glide.with(this)
+          .download(highQualityUrl)
+          .apply(RequestOptions.onlyRetrieveFromCache(true))
+          .submit()
+          .get();
+      return Optional.of(cachedImageFile);
+    } catch (ExecutionException e) {
+      return Optional.empty();
+    }
+  }
 
-      String imageUrl = mediaLink.highQualityUrl();
-      progressTarget.setModel(this, imageUrl);
-      Glide.with(this).download(imageUrl).into(progressTarget);
+  private static String downloadUrlFor(MediaLink mediaLink) {
+    if (mediaLink instanceof RedditHostedVideoLink) {
+      String directUrlWithoutAudio = ((RedditHostedVideoLink) mediaLink).directUrlWithoutAudio();
+      if (directUrlWithoutAudio == null) {
+        throw new UnsupportedOperationException("Video has no direct url: " + mediaLink);
+      }
+      return directUrlWithoutAudio;
+    }
 
-      emitter.setCancellable(() -> Glide.with(this).clear(progressTarget));
-    });
+    if (mediaLink.isVideo() && !VideoFormat.parse(mediaLink.highQualityUrl()).canBeCached()) {
+      throw new UnsupportedOperationException("Couldn't figure out the video url for " + mediaLink);
+    }
+    return mediaLink.highQualityUrl();
   }
 
   /**
-   * Download a video and streams progress updates.
+   * Temporary file that gets copied by moveFileToUserSpaceOnDownload().
    */
-  private Observable<MediaDownloadJob> downloadVideoAndStreamProgress(MediaLink linkToDownload) {
-    return Observable.create(emitter -> {
-      long downloadStartTimeMillis = System.currentTimeMillis();
+  private File downloadFileFor(MediaLink mediaLink) {
+    File downloadsDirectory = new File(getCacheDir(), DOWNLOADS_DIRECTORY);
+    //noinspection ResultOfMethodCallIgnored
+    downloadsDirectory.mkdirs();
+
+    String fileName = Urls.parseFileNameWithExtension(mediaLink.highQualityUrl());
+    return new File(downloadsDirectory, Integer.toHexString(mediaLink.unparsedUrl().hashCode()) + "_" + fileName);
+  }
 
-      String highQualityUrl = linkToDownload.highQualityUrl();
-      VideoFormat videoFormat = VideoFormat.parse(highQualityUrl);
+// ======== PERSISTENCE ======== //
 
-      if (videoFormat.canBeCached() && videoCacheServer.isCached(highQualityUrl)) {
-        String cachedVideoFileUrl = videoCacheServer.getProxyUrl(highQualityUrl);
-        File cachedVideoFile = new File(Uri.parse(cachedVideoFileUrl).getPath());
-        emitter.onNext(MediaDownloadJob.downloaded(linkToDownload, cachedVideoFile, System.currentTimeMillis()));
+  private void savePendingDownloadIfNew(MediaLink mediaLink) {
+    PendingMediaDownload pendingDownload = PendingMediaDownload.create(mediaLink.unparsedUrl(), toJson(mediaLink), System.currentTimeMillis());
+    database.get().pendingMediaDownloadDao().saveIfNew(pendingDownload);
+  }
 
+  private List<MediaLink> readPendingDownloadLinks() {
+    PendingMediaDownloadDao pendingDownloadDao = database.get().pendingMediaDownloadDao();
+    List<MediaLink> pendingDownloadLinks = new ArrayList<>();
+
+    for (PendingMediaDownload pendingDownload : pendingDownloadDao.downloads()) {
+      MediaLink mediaLink = fromJson(pendingDownload.getMediaLinkJson());
+      if (mediaLink != null) {
+        pendingDownloadLinks.add(mediaLink);
       } else {
-        String videoUrlToDownload;
-        if (linkToDownload instanceof RedditHostedVideoLink) {
-          videoUrlToDownload = ((RedditHostedVideoLink) linkToDownload).directUrlWithoutAudio();
-        } else if (videoFormat.canBeCached()) {
-          // Proxy through VideoCacheServer so that the downloaded video also gets saved to cache.
-          videoUrlToDownload = videoCacheServer.getProxyUrl(highQualityUrl, false);
-        } else {
-          throw new UnsupportedOperationException("Couldn't figure out the video url for " + linkToDownload);
-        }
+        Timber.w("Discarding unreadable download: %s", pendingDownload.getUnparsedUrl());
+        pendingDownloadDao.delete(pendingDownload.getUnparsedUrl());
+      }
+    }
+    return pendingDownloadLinks;
+  }
 
-        if (videoUrlToDownload == null) {
-          emitter.onNext(MediaDownloadJob.failed(linkToDownload, System.currentTimeMillis()));
-        } else {
-          emitter.onNext(MediaDownloadJob.connecting(linkToDownload, downloadStartTimeMillis));
-
-          // Emit progress updates while reading the video's input stream.
-          Request downloadRequest = new Request.Builder()
-              .url(videoUrlToDownload)
-              .get()
-              .build();
-          Call networkCall = okHttpClient.newCall(downloadRequest);
-          Response response = networkCall.execute();
-          Response responseWithProgressListener = response.newBuilder()
-              .body(OkHttpResponseBodyWithProgress.wrap(
-                  downloadRequest,
-                  response,
-                  (url, bytesRead, expectedContentLength) -> {
-                    if (bytesRead < expectedContentLength) {
-                      int progress = (int) (100 * (float) bytesRead / expectedContentLength);
-                      emitter.onNext(MediaDownloadJob.progress(linkToDownload, progress, downloadStartTimeMillis));
-                    }
-                  }
-              ))
-              .build();
+  /**
+   * Deletes the partially downloaded file too. Files from Glide's or the video cache are left alone.
+   */
+  private void deletePendingDownload(MediaLink mediaLink) {
+    database.get().pendingMediaDownloadDao().delete(mediaLink.unparsedUrl());
+    ResumableDownloader.deleteFiles(downloadFileFor(mediaLink));
+  }
 
-          if (!responseWithProgressListener.isSuccessful()) {
-            throw new IOException("Unexpected code: " + responseWithProgressListener);
-          }
+  /**
+   * Failed downloads are kept so that they can be resumed, unless retrying won't help. Downloads
+   * that failed because the device went offline get resumed automatically once it's back online.
+   */
+  private void handleDownloadError(MediaLink mediaLink, Throwable error) {
+    boolean isResumable = error instanceof IOException
+        && (!(error instanceof ResumableDownloader.HttpStatusException) || ((ResumableDownloader.HttpStatusException) error).isRetryable());
 
-          // Write to a temporary file, that will later get replaced by moveFileToUserSpaceOnDownload().
-          File videoTempFile = new File(getCacheDir(), Urls.parseFileNameWithExtension(highQualityUrl));
-          //noinspection ConstantConditions
-          try (BufferedSource bufferedSource = responseWithProgressListener.body().source()) {
-            BufferedSink bufferedSink = Okio.buffer(Okio.sink(videoTempFile));
-            bufferedSink.writeAll(bufferedSource);
-            bufferedSink.close();
-          }
+    if (!isResumable) {
+      deletePendingDownload(mediaLink);
 
-          long downloadCompleteTimeMillis = System.currentTimeMillis();
-          emitter.onNext(MediaDownloadJob.downloaded(linkToDownload, videoTempFile, downloadCompleteTimeMillis));
-          emitter.onComplete();
+    } else if (isOffline()) {
+      MediaDownloadResumeJobService.schedule(this);
+    }
+  }
 
-          emitter.setCancellable(() -> {
-            // Note: BufferedSink#writeAll() will also receive a thread interruption so file copy will stop.
-            networkCall.cancel();
-          });
-        }
-      }
-    });
+  private boolean isOffline() {
+    ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+    //noinspection ConstantConditions
+    NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
+    return activeNetwork == null || !activeNetwork.isConnected();
+  }
+
+  @Nullable
+  private String toJson(MediaLink mediaLink) {
+    try {
+      return moshi.get().adapter(PendingMediaDownloadLink.class).toJson(PendingMediaDownloadLink.wrap(mediaLink));
+    } catch (IllegalArgumentException e) {
+      Timber.w("Download can't be resumed after process death: %s", mediaLink);
+      return null;
+    }
+  }
+
+  @Nullable
+  private MediaLink fromJson(@Nullable String json) {
+    if (json == null) {
+      return null;
+    }
+    try {
+      //noinspection ConstantConditions
+      return moshi.get().adapter(PendingMediaDownloadLink.class).fromJson(json).unwrap();
+    } catch (IOException | RuntimeException e) {
+      // The link's class was probably changed in an app update.
+      return null;
+    }
   }
 
   private Function<MediaDownloadJob, MediaDownloadJob> moveFileToUserSpaceOnDownload() {
@@ -588,6 +693,7 @@ public class MediaDownloadService extends Service {
         String mediaFileName = Urls.parseFileNameWithExtension(downloadedMediaLink.highQualityUrl());
         //noinspection LambdaParameterTypeCanBeSpecified,ConstantConditions
         File userAccessibleFile = Files2.INSTANCE.copyFileToPicturesDirectory(getResources(), downloadJobUpdate.downloadedFile(), mediaFileName);
+        deletePendingDownload(downloadedMediaLink);
         return MediaDownloadJob.downloaded(downloadedMediaLink, userAccessibleFile, downloadJobUpdate.timestamp());
 
       } else {
@@ -0,0 +1,78 @@
+package me.saket.dank.notifs
+
+import android.arch.persistence.room.Dao
+import android.arch.persistence.room.Entity
+import android.arch.persistence.room.Insert
+import android.arch.persistence.room.OnConflictStrategy
+import android.arch.persistence.room.PrimaryKey
+import android.arch.persistence.room.Query
+import android.arch.persistence.room.Update
+
+/**
+ * A download that [MediaDownloadService] hasn't finished yet. Kept across process deaths so that
+ * the download can be resumed from its partially downloaded file by [ResumableDownloader].
+ *
+ * [mediaLinkJson] is a [PendingMediaDownloadLink] serialized with Moshi. It's null for links
+ * that can't be serialized, which can't be resumed after the process dies. Rows whose link
+ * can't be read anymore are discarded.
+ *
+ * [contentLength] and [validator] (an ETag or a Last-Modified date) are remembered from the first
+ * response, so that a resumed download can confirm that the file didn't change on the server.
+ */
+@Entity
+data class PendingMediaDownload(
+    @PrimaryKey
+    val unparsedUrl: String,
+    val mediaLinkJson: String?,
+    val contentLength: Long,
+    val validator: String?,
+    val chunkCount: Int,
+    val queueTimeMillis: Long
+) {
+
+  fun isDownloadingInChunks(): Boolean {
+    return chunkCount > 1
+  }
+
+  fun withResponseInfo(contentLength: Long, validator: String?, chunkCount: Int): PendingMediaDownload {
+    return copy(contentLength = contentLength, validator = validator, chunkCount = chunkCount)
+  }
+
+  fun withoutResponseInfo(): PendingMediaDownload {
+    return withResponseInfo(UNKNOWN_LENGTH, null, 1)
+  }
+
+  companion object {
+    const val UNKNOWN_LENGTH = -1L
+
+    @JvmStatic
+    fun create(unparsedUrl: String, mediaLinkJson: String?, queueTimeMillis: Long): PendingMediaDownload {
+      return PendingMediaDownload(unparsedUrl, mediaLinkJson, UNKNOWN_LENGTH, null, 1, queueTimeMillis)
+    }
+  }
+}
+
+@Dao
+interface PendingMediaDownloadDao {
+
+  @Query("SELECT * FROM pendingmediadownload ORDER BY queueTimeMillis ASC")
+  fun downloads(): List<PendingMediaDownload>
+
+  @Query("SELECT * FROM pendingmediadownload WHERE unparsedUrl = :unparsedUrl")
+  fun download(unparsedUrl: String): PendingMediaDownload?
+
+  /**
+   * Retrying a failed download keeps its progress.
+   */
+  @Insert(onConflict = OnConflictStrategy.IGNORE)
+  fun saveIfNew(download: PendingMediaDownload)
+
+  /**
+   * Does nothing if the download was canceled in the meantime.
+   */
+  @Update
+  fun update(download: PendingMediaDownload)
+
+  @Query("DELETE FROM pendingmediadownload WHERE unparsedUrl = :unparsedUrl")
+  fun delete(unparsedUrl: String)
+}
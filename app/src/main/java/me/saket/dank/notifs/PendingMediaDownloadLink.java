@@ -0,0 +1,85 @@
+package me.saket.dank.notifs;
+
+import android.support.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.JsonDataException;
+import com.squareup.moshi.Moshi;
+
+import me.saket.dank.urlparser.GenericMediaLink;
+import me.saket.dank.urlparser.GfycatLink;
+import me.saket.dank.urlparser.GiphyLink;
+import me.saket.dank.urlparser.ImgurLink;
+import me.saket.dank.urlparser.MediaLink;
+import me.saket.dank.urlparser.RedditHostedVideoLink;
+import me.saket.dank.urlparser.StreamableLink;
+
+/**
+ * Used by {@link MediaDownloadService} to figure out the wrapped class type for deserializing the
+ * link of a {@link PendingMediaDownload}. Only covers links that can be downloaded.
+ */
+@AutoValue
+public abstract class PendingMediaDownloadLink {
+
+  @Nullable
+  public abstract GenericMediaLink genericMediaLink();
+
+  @Nullable
+  public abstract ImgurLink imgurLink();
+
+  @Nullable
+  public abstract GfycatLink gfycatLink();
+
+  @Nullable
+  public abstract StreamableLink streamableLink();
+
+  @Nullable
+  public abstract GiphyLink giphyLink();
+
+  @Nullable
+  public abstract RedditHostedVideoLink redditHostedVideoLink();
+
+  /**
+   * @throws IllegalArgumentException for links that can't be downloaded.
+   */
+  public static PendingMediaDownloadLink wrap(MediaLink mediaLink) {
+    if (mediaLink instanceof GenericMediaLink) {
+      return new AutoValue_PendingMediaDownloadLink((GenericMediaLink) mediaLink, null, null, null, null, null);
+    } else if (mediaLink instanceof ImgurLink) {
+      return new AutoValue_PendingMediaDownloadLink(null, (ImgurLink) mediaLink, null, null, null, null);
+    } else if (mediaLink instanceof GfycatLink) {
+      return new AutoValue_PendingMediaDownloadLink(null, null, (GfycatLink) mediaLink, null, null, null);
+    } else if (mediaLink instanceof StreamableLink) {
+      return new AutoValue_PendingMediaDownloadLink(null, null, null, (StreamableLink) mediaLink, null, null);
+    } else if (mediaLink instanceof GiphyLink) {
+      return new AutoValue_PendingMediaDownloadLink(null, null, null, null, (GiphyLink) mediaLink, null);
+    } else if (mediaLink instanceof RedditHostedVideoLink) {
+      return new AutoValue_PendingMediaDownloadLink(null, null, null, null, null, (RedditHostedVideoLink) mediaLink);
+    } else {
+      throw new IllegalArgumentException("Unknown type: " + mediaLink);
+    }
+  }
+
+  public MediaLink unwrap() {
+    if (genericMediaLink() != null) {
+      return genericMediaLink();
+    } else if (imgurLink() != null) {
+      return imgurLink();
+    } else if (gfycatLink() != null) {
+      return gfycatLink();
+    } else if (streamableLink() != null) {
+      return streamableLink();
+    } else if (giphyLink() != null) {
+      return giphyLink();
+    } else if (redditHostedVideoLink() != null) {
+      return redditHostedVideoLink();
+    } else {
+      throw new JsonDataException("Empty link: " + this);
+    }
+  }
+
+  public static JsonAdapter<PendingMediaDownloadLink> jsonAdapter(Moshi moshi) {
+    return new AutoValue_PendingMediaDownloadLink.MoshiJsonAdapter(moshi);
+  }
+}
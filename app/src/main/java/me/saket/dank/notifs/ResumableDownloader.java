@@ -0,0 +1,441 @@
+package me.saket.dank.notifs;
+
+import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.inject.Inject;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import me.saket.dank.data.FileSize;
+import me.saket.dank.utils.FileSizeUnit;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Downloads files using HTTP range requests, so that downloads can continue from where they
+ * stopped instead of starting over. Large files are downloaded as parallel byte-range chunks
+ * into separate part files, which get joined once all of them finish.
+ * <p>
+ * State that's needed for resuming is handed back as a {@link PendingMediaDownload}.
+ */
+public class ResumableDownloader {
+
+  @VisibleForTesting static final long MIN_BYTES_FOR_CHUNKS = (long) FileSize.create(8, FileSizeUnit.MB).bytes();
+  @VisibleForTesting static final long MIN_BYTES_PER_CHUNK = (long) FileSize.create(4, FileSizeUnit.MB).bytes();
+  @VisibleForTesting static final int MAX_CHUNKS = 3;
+
+  private static final long READ_BUFFER_BYTES = 64 * 1024;
+  private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+  private static final String PART_FILE_SUFFIX = ".part";
+
+  // Downloads are saved to the gallery and would only evict API responses from the HTTP cache.
+  private static final CacheControl NO_STORE = new CacheControl.Builder().noStore().build();
+
+  private final OkHttpClient okHttpClient;
+
+  @Inject
+  public ResumableDownloader(OkHttpClient okHttpClient) {
+    this.okHttpClient = okHttpClient;
+  }
+
+  /**
+   * @param stateSaver Receives <var>download</var> whenever its state changes. Called on a background thread.
+   * @return Progress in percent, which gets emitted only when it changes and only if the file's
+   * size is known. Completes once <var>destination</var> contains the whole file.
+   */
+  @CheckResult
+  public Observable<Integer> download(String url, PendingMediaDownload download, File destination, Consumer<PendingMediaDownload> stateSaver) {
+    return Observable.defer(() -> {
+      if (download.isDownloadingInChunks()) {
+        if (destination.length() == download.getContentLength()) {
+          // Parts were joined, but the process died before the download was marked as complete.
+          return Observable.empty();
+        }
+        return downloadInChunks(url, download, destination, stateSaver);
+      }
+
+      // The first response decides whether the file is large enough for chunks.
+      AtomicReference<PendingMediaDownload> chunkedDownload = new AtomicReference<>();
+      return downloadInSingleStream(url, download, destination, stateSaver, chunkedDownload)
+          .concatWith(Observable.defer(() -> chunkedDownload.get() != null
+              ? downloadInChunks(url, chunkedDownload.get(), destination, stateSaver)
+              : Observable.empty()));
+    });
+  }
+
+  /**
+   * Deletes the file and its part files, if any.
+   */
+  public static void deleteFiles(File destination) {
+    //noinspection ResultOfMethodCallIgnored
+    destination.delete();
+
+    File[] partFiles = destination.getParentFile().listFiles((dir, name) -> name.startsWith(destination.getName() + PART_FILE_SUFFIX));
+    if (partFiles != null) {
+      for (File partFile : partFiles) {
+        //noinspection ResultOfMethodCallIgnored
+        partFile.delete();
+      }
+    }
+  }
+
+// ======== SINGLE STREAM ======== //
+
+  private Observable<Integer> downloadInSingleStream(
+      String url,
+      PendingMediaDownload download,
+      File destination,
+      Consumer<PendingMediaDownload> stateSaver,
+      AtomicReference<PendingMediaDownload> chunkedDownloadReceiver)
+  {
+    return Observable.<Integer>create(emitter -> {
+      long offset = destination.length();
+
+      // Without a validator, a 206 can't be trusted to continue the same version
+      // of the file. Appending it could silently corrupt the file, so start over.
+      if (offset > 0 && download.getValidator() == null) {
+        deleteFiles(destination);
+        offset = 0;
+      }
+
+      // The range is requested from 0 too, so that the response tells whether the server supports ranges.
+      Request.Builder requestBuilder = new Request.Builder()
+          .url(url)
+          .cacheControl(NO_STORE)
+          .header("Range", "bytes=" + offset + "-");
+      if (offset > 0) {
+        //noinspection ConstantConditions
+        requestBuilder.header("If-Range", download.getValidator());
+      }
+
+      Call call = okHttpClient.newCall(requestBuilder.build());
+      emitter.setCancellable(call::cancel);
+
+      try (Response response = call.execute()) {
+        long contentLength;
+        boolean append;
+
+        if (response.code() == 206) {
+          ContentRange contentRange = ContentRange.parse(response.header("Content-Range"));
+          if (contentRange == null || contentRange.start() != offset) {
+            throw new IOException("Unexpected Content-Range: " + response.header("Content-Range"));
+          }
+          contentLength = contentRange.totalLength();
+          append = true;
+
+        } else if (response.code() == 200) {
+          // The server either doesn't support ranges or the file changed. Start over.
+          //noinspection ConstantConditions
+          contentLength = response.body().contentLength();
+          append = false;
+          offset = 0;
+
+        } else if (response.code() == 416 && offset > 0 && offset == download.getContentLength()) {
+          // Already downloaded. The process probably died right after.
+          emitter.onComplete();
+          return;
+
+        } else {
+          if (response.code() == 416) {
+            deleteFiles(destination);
+            stateSaver.accept(download.withoutResponseInfo());
+          }
+          throw new HttpStatusException(response);
+        }
+
+        String validator = validator(response);
+        boolean canBeResumed = response.code() == 206 && validator != null;
+        int chunkCount = offset == 0 && canBeResumed ? chunkCountFor(contentLength) : 1;
+
+        if (chunkCount > 1) {
+          PendingMediaDownload chunkedDownload = download.withResponseInfo(contentLength, validator, chunkCount);
+          stateSaver.accept(chunkedDownload);
+          chunkedDownloadReceiver.set(chunkedDownload);
+          emitter.onComplete();
+          return;
+        }
+
+        stateSaver.accept(download.withResponseInfo(contentLength, canBeResumed ? validator : null, 1));
+
+        long startOffset = offset;
+        ProgressCoalescer progress = new ProgressCoalescer(emitter, contentLength);
+        //noinspection ConstantConditions
+        readIntoFile(response.body(), destination, append, emitter, bytesRead -> progress.onBytesDownloaded(startOffset + bytesRead));
+        emitter.onComplete();
+      }
+    });
+  }
+
+// ======== CHUNKS ======== //
+
+  private Observable<Integer> downloadInChunks(
+      String url,
+      PendingMediaDownload download,
+      File destination,
+      Consumer<PendingMediaDownload> stateSaver)
+  {
+    List<ContentRange> chunks = chunkRanges(download.getContentLength(), download.getChunkCount());
+    List<Observable<Long>> chunkStreams = new ArrayList<>(chunks.size());
+    long bytesAlreadyDownloaded = 0;
+
+    for (int i = 0; i < chunks.size(); i++) {
+      File partFile = partFile(destination, i);
+      bytesAlreadyDownloaded += partFile.length();
+      chunkStreams.add(downloadChunk(url, download, chunks.get(i), partFile, destination, stateSaver).subscribeOn(Schedulers.io()));
+    }
+
+    long contentLength = download.getContentLength();
+    Completable joinParts = Completable.fromAction(() -> joinPartFiles(destination, chunks.size()));
+
+    return Observable.merge(chunkStreams)
+        .scan(bytesAlreadyDownloaded, (total, bytesRead) -> total + bytesRead)
+        .map(totalBytes -> percent(totalBytes, contentLength))
+        .distinctUntilChanged()
+        .concatWith(joinParts.<Integer>toObservable());
+  }
+
+  /**
+   * @return Stream of bytes read since the last emission.
+   */
+  private Observable<Long> downloadChunk(
+      String url,
+      PendingMediaDownload download,
+      ContentRange chunk,
+      File partFile,
+      File destination,
+      Consumer<PendingMediaDownload> stateSaver)
+  {
+    return Observable.create(emitter -> {
+      long offset = chunk.start() + partFile.length();
+      if (offset > chunk.end()) {
+        emitter.onComplete();
+        return;
+      }
+
+      //noinspection ConstantConditions
+      Request request = new Request.Builder()
+          .url(url)
+          .cacheControl(NO_STORE)
+          .header("Range", "bytes=" + offset + "-" + chunk.end())
+          .header("If-Range", download.getValidator())
+          .build();
+
+      Call call = okHttpClient.newCall(request);
+      emitter.setCancellable(call::cancel);
+
+      try (Response response = call.execute()) {
+        if (response.code() == 200) {
+          // If-Range didn't match, so the file changed on the server. The parts can't be joined anymore.
+          deleteFiles(destination);
+          stateSaver.accept(download.withoutResponseInfo());
+          throw new IOException("File changed on the server: " + url);
+        }
+        if (response.code() != 206) {
+          throw new HttpStatusException(response);
+        }
+
+        ContentRange contentRange = ContentRange.parse(response.header("Content-Range"));
+        if (contentRange == null || contentRange.start() != offset) {
+          throw new IOException("Unexpected Content-Range: " + response.header("Content-Range"));
+        }
+
+        //noinspection ConstantConditions
+        readIntoFile(response.body(), partFile, true, emitter, new Consumer<Long>() {
+          private long lastBytesRead;
+
+          @Override
+          public void accept(Long bytesRead) {
+            emitter.onNext(bytesRead - lastBytesRead);
+            lastBytesRead = bytesRead;
+          }
+        });
+        emitter.onComplete();
+      }
+    });
+  }
+
+  private static void joinPartFiles(File destination, int chunkCount) throws IOException {
+    try (BufferedSink sink = Okio.buffer(Okio.sink(destination))) {
+      for (int i = 0; i < chunkCount; i++) {
+        try (BufferedSource partSource = Okio.buffer(Okio.source(partFile(destination, i)))) {
+          sink.writeAll(partSource);
+        }
+      }
+    }
+
+    for (int i = 0; i < chunkCount; i++) {
+      //noinspection ResultOfMethodCallIgnored
+      partFile(destination, i).delete();
+    }
+  }
+
+  private static File partFile(File destination, int chunkIndex) {
+    return new File(destination.getParentFile(), destination.getName() + PART_FILE_SUFFIX + chunkIndex);
+  }
+
+// ======== UTILS ======== //
+
+  /**
+   * @param onRead Receives the total bytes read so far.
+   */
+  private static void readIntoFile(ResponseBody body, File file, boolean append, ObservableEmitter<?> emitter, Consumer<Long> onRead)
+      throws Exception
+  {
+    try (BufferedSource source = body.source(); BufferedSink sink = Okio.buffer(Okio.sink(new FileOutputStream(file, append)))) {
+      long totalBytesRead = 0;
+      long read;
+      while (!emitter.isDisposed() && (read = source.read(sink.buffer(), READ_BUFFER_BYTES)) != -1) {
+        sink.emitCompleteSegments();
+        totalBytesRead += read;
+        onRead.accept(totalBytesRead);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static int chunkCountFor(long contentLength) {
+    if (contentLength < MIN_BYTES_FOR_CHUNKS) {
+      return 1;
+    }
+    return (int) Math.max(1, Math.min(MAX_CHUNKS, contentLength / MIN_BYTES_PER_CHUNK));
+  }
+
+  /**
+   * Splits <var>contentLength</var> into <var>chunkCount</var> ranges. The last one takes the remainder.
+   */
+  @VisibleForTesting
+  static List<ContentRange> chunkRanges(long contentLength, int chunkCount) {
+    List<ContentRange> ranges = new ArrayList<>(chunkCount);
+    long chunkLength = contentLength / chunkCount;
+    for (int i = 0; i < chunkCount; i++) {
+      long start = i * chunkLength;
+      long end = i == chunkCount - 1 ? contentLength - 1 : start + chunkLength - 1;
+      ranges.add(new ContentRange(start, end, contentLength));
+    }
+    return ranges;
+  }
+
+  /**
+   * Weak ETags can't be used with If-Range.
+   */
+  @Nullable
+  @VisibleForTesting
+  static String validator(Response response) {
+    String eTag = response.header("ETag");
+    if (eTag != null && !eTag.startsWith("W/")) {
+      return eTag;
+    }
+    return response.header("Last-Modified");
+  }
+
+  private static int percent(long bytesDownloaded, long contentLength) {
+    return (int) (100 * bytesDownloaded / contentLength);
+  }
+
+  /**
+   * Progress is reported for every read, but notifications only need to change with the percentage.
+   */
+  private static class ProgressCoalescer {
+    private final ObservableEmitter<Integer> emitter;
+    private final long contentLength;
+    private int lastPercent = -1;
+
+    ProgressCoalescer(ObservableEmitter<Integer> emitter, long contentLength) {
+      this.emitter = emitter;
+      this.contentLength = contentLength;
+    }
+
+    void onBytesDownloaded(long bytesDownloaded) {
+      if (contentLength <= 0) {
+        return;
+      }
+      int percent = percent(bytesDownloaded, contentLength);
+      if (percent != lastPercent) {
+        lastPercent = percent;
+        emitter.onNext(percent);
+      }
+    }
+  }
+
+  /**
+   * Value of a Content-Range header, or a chunk's byte range. Both ends are inclusive.
+   */
+  @VisibleForTesting
+  static class ContentRange {
+    private final long start;
+    private final long end;
+    private final long totalLength;
+
+    ContentRange(long start, long end, long totalLength) {
+      this.start = start;
+      this.end = end;
+      this.totalLength = totalLength;
+    }
+
+    long start() {
+      return start;
+    }
+
+    long end() {
+      return end;
+    }
+
+    /**
+     * {@link PendingMediaDownload#UNKNOWN_LENGTH} if the server didn't send it.
+     */
+    long totalLength() {
+      return totalLength;
+    }
+
+    @Nullable
+    static ContentRange parse(@Nullable String header) {
+      if (header == null) {
+        return null;
+      }
+      Matcher matcher = CONTENT_RANGE_PATTERN.matcher(header.trim());
+      if (!matcher.matches()) {
+        return null;
+      }
+      long totalLength = matcher.group(3).equals("*")
+          ? PendingMediaDownload.UNKNOWN_LENGTH
+          : Long.parseLong(matcher.group(3));
+      return new ContentRange(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)), totalLength);
+    }
+  }
+
+  /**
+   * Thrown for responses that retrying won't fix, like a 404.
+   */
+  public static class HttpStatusException extends IOException {
+    private final int code;
+
+    HttpStatusException(Response response) {
+      super("Unexpected response: " + response);
+      this.code = response.code();
+    }
+
+    public boolean isRetryable() {
+      return code >= 500 || code == 408 || code == 416 || code == 429;
+    }
+  }
+}
@@ -13,11 +13,9 @@ import me.saket.dank.reddit.Reddit
 import me.saket.dank.ui.user.messages.InboxFolder
 import net.dean.jraw.RedditClient
 import net.dean.jraw.models.Account
-import net.dean.jraw.models.Comment
 import net.dean.jraw.models.Identifiable
 import net.dean.jraw.models.Listing
 import net.dean.jraw.models.Message
-import net.dean.jraw.models.Submission
 import net.dean.jraw.models.VoteDirection
 import net.dean.jraw.oauth.AccountHelper
 
@@ -63,9 +61,11 @@ class JrawLoggedInUser(private val clients: Observable<RedditClient>, private va
         .firstOrError()
         .flatMapCompletable {
           Completable.fromAction {
-            when (thing) {
-              is Comment -> it.comment(thing.id).setVote(voteDirection)
-              is Submission -> it.submission(thing.id).setVote(voteDirection)
+            // Queued votes only have a full-name, so the type is read from it.
+            val fullNameType = parse(thing.fullName)
+            when (fullNameType) {
+              COMMENT -> it.comment(thing.id).setVote(voteDirection)
+              SUBMISSION -> it.submission(thing.id).setVote(voteDirection)
               else -> throw AssertionError("Unknown contribution for vote: $thing")
             }
           }
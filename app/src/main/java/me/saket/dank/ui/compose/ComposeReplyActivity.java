@@ -1,6 +1,7 @@
 package me.saket.dank.ui.compose;
 
 import static io.reactivex.android.schedulers.AndroidSchedulers.mainThread;
+import static io.reactivex.schedulers.Schedulers.computation;
 import static io.reactivex.schedulers.Schedulers.io;
 import static me.saket.dank.utils.Preconditions.checkNotNull;
 
@@ -56,6 +57,7 @@ public class ComposeReplyActivity extends DankPullCollapsibleActivity
   private static final String KEY_COMPOSE_RESULT = "composeResult";
   private static final int REQUEST_CODE_PICK_IMAGE = 98;
   private static final int REQUEST_CODE_PICK_GIF = 99;
+  private static final long MARKDOWN_HINTS_DEBOUNCE_MILLIS = 100;
 
   @BindView(R.id.composereply_root) IndependentExpandablePageLayout pageLayout;
   @BindView(R.id.toolbar) Toolbar toolbar;
@@ -118,7 +120,10 @@ public class ComposeReplyActivity extends DankPullCollapsibleActivity
 
     // Highlight markdown syntax.
     // Note: We'll have to remove MarkdownHintOptions from Dagger graph when we introduce a light theme.
-    replyField.addTextChangedListener(new MarkdownHints(replyField, markdownHintOptions.get(), markdownSpanPool.get()));
+    // Full-screen replies can get long, so parsing is moved off the main thread.
+    MarkdownHints markdownHints = new MarkdownHints(replyField, markdownHintOptions.get(), markdownSpanPool.get())
+        .parseInBackground(runnable -> computation().scheduleDirect(runnable), MARKDOWN_HINTS_DEBOUNCE_MILLIS);
+    replyField.addTextChangedListener(markdownHints);
 
     // Callers never send any pre-filled text. Drafts are used as the single
     // source of truth for both inline and full-screen replies.
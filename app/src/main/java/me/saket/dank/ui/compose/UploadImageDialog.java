@@ -39,6 +39,8 @@ import io.reactivex.functions.Function;
 import me.saket.dank.R;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.data.FileUploadProgressEvent;
+import me.saket.dank.ui.media.ImageUpload;
+import me.saket.dank.ui.media.ImageUploadCompressor;
 import me.saket.dank.ui.media.ImgurUploadResponse;
 import me.saket.dank.data.ResolvedError;
 import me.saket.dank.di.Dank;
@@ -67,6 +69,7 @@ public class UploadImageDialog extends DankDialogFragment {
   @Inject MediaHostRepository mediaHostRepository;
   @Inject ErrorResolver errorResolver;
   @Inject Moshi moshi;
+  @Inject ImageUploadCompressor imageUploadCompressor;
 
   private enum UploadState {
     IN_FLIGHT,
@@ -136,18 +139,20 @@ public class UploadImageDialog extends DankDialogFragment {
 
     Single<File> imageFileStream = copyImageToTempFile(imageContentUri)
         .subscribeOn(io())
+        .cache();
+
+    // Compressed only once. Retries upload the same image.
+    Single<ImageUpload> imageUploadStream = imageFileStream
+        .flatMap(tempFile -> imageUploadCompressor.compress(tempFile, imageMimeType))
         .observeOn(mainThread())
-        .doOnSuccess(tempFile -> {
-          fileSizeView.setVisibility(View.VISIBLE);
-          fileSizeView.setText(FileSizeUnit.formatForDisplay(fileSizeView.getResources(), tempFile.length(), FileSizeUnit.BYTES));
-        })
+        .doOnSuccess(imageUpload -> displayFileSize(imageUpload))
         .cache();
 
     // Start upload.
-    imageFileStream
-        .flatMapObservable(file -> RxView.clicks(errorView).map(o -> file).startWith(file))
+    imageUploadStream
+        .flatMapObservable(imageUpload -> RxView.clicks(errorView).map(o -> imageUpload).startWith(imageUpload))
         .doOnNext(o -> showUiState(UploadState.IN_FLIGHT))
-        .flatMap(fileToUpload -> mediaHostRepository.uploadImage(fileToUpload, imageMimeType)
+        .flatMap(imageToUpload -> mediaHostRepository.uploadImage(imageToUpload)
             .subscribeOn(io())
             .observeOn(mainThread())
             .onErrorResumeNext(handleImageUploadError())
@@ -155,16 +160,35 @@ public class UploadImageDialog extends DankDialogFragment {
         .takeUntil(lifecycle().onDestroy())
         .subscribe(handleImageUploadUpdate());
 
-    // Delete the temporary file on dialog exit.
+    // Delete the temporary files on dialog exit.
     lifecycle().onDestroy()
         .withLatestFrom(imageFileStream.toObservable(), (o, tempFile) -> tempFile)
-        .subscribe(tempFile -> {
-          Timber.i("Deleting temp file: %s", tempFile);
-          boolean deleted = tempFile.delete();
-          if (!deleted) {
-            Timber.e(new AssertionError(), "Couldn't delete temporary file for upload");
-          }
-        });
+        .subscribe(tempFile -> deleteTempFile(tempFile));
+
+    lifecycle().onDestroy()
+        .withLatestFrom(imageUploadStream.toObservable(), (o, imageUpload) -> imageUpload.file())
+        .filter(uploadFile -> uploadFile.exists())
+        .subscribe(uploadFile -> deleteTempFile(uploadFile));
+  }
+
+  private static void deleteTempFile(File tempFile) {
+    Timber.i("Deleting temp file: %s", tempFile);
+    boolean deleted = tempFile.delete();
+    if (!deleted) {
+      Timber.e(new AssertionError(), "Couldn't delete temporary file for upload");
+    }
+  }
+
+  private void displayFileSize(ImageUpload imageUpload) {
+    String uploadSize = FileSizeUnit.formatForDisplay(getResources(), imageUpload.uploadSizeBytes(), FileSizeUnit.BYTES);
+    fileSizeView.setVisibility(View.VISIBLE);
+
+    if (imageUpload.wasCompressed()) {
+      String originalSize = FileSizeUnit.formatForDisplay(getResources(), imageUpload.originalSizeBytes(), FileSizeUnit.BYTES);
+      fileSizeView.setText(getString(R.string.composereply_uploadimage_compressed_file_size, originalSize, uploadSize));
+    } else {
+      fileSizeView.setText(uploadSize);
+    }
   }
 
   @CheckResult
@@ -0,0 +1,36 @@
+package me.saket.dank.ui.media;
+
+import com.google.auto.value.AutoValue;
+
+import java.io.File;
+
+import okhttp3.RequestBody;
+
+/**
+ * An image that's ready to be uploaded by {@link ImgurRepository#uploadImage(ImageUpload)}.
+ * Created by {@link ImageUploadCompressor}.
+ */
+@AutoValue
+public abstract class ImageUpload {
+
+  public abstract RequestBody requestBody();
+
+  /**
+   * The file that {@link #requestBody()} reads. Either the original image or its compressed copy.
+   */
+  public abstract File file();
+
+  public abstract String fileName();
+
+  public abstract long originalSizeBytes();
+
+  public abstract long uploadSizeBytes();
+
+  public boolean wasCompressed() {
+    return uploadSizeBytes() != originalSizeBytes();
+  }
+
+  public static ImageUpload create(RequestBody requestBody, File file, String fileName, long originalSizeBytes, long uploadSizeBytes) {
+    return new AutoValue_ImageUpload(requestBody, file, fileName, originalSizeBytes, uploadSizeBytes);
+  }
+}
@@ -0,0 +1,244 @@
+package me.saket.dank.ui.media;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.media.ExifInterface;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.inject.Inject;
+
+import dagger.Lazy;
+import io.reactivex.Single;
+import me.saket.dank.ui.preferences.NetworkStrategy;
+import me.saket.dank.utils.NetworkStateListener;
+import me.saket.dank.utils.Optional;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import timber.log.Timber;
+
+/**
+ * Shrinks images before they're uploaded, because photos from cameras are usually several
+ * megabytes. Images are downscaled while decoding and re-encoded with a resolution and quality
+ * that depend on whether the device is on Wi-Fi. Re-encoding also drops EXIF data.
+ * <p>
+ * The re-encoded image is written once to a file next to the original, which gets streamed
+ * to the upload. Callers are responsible for deleting {@link ImageUpload#file()}.
+ * <p>
+ * JPEGs and PNGs are only re-encoded if they're too large, and the original is uploaded if
+ * re-encoding doesn't make it smaller. JPEGs that aren't re-encoded are uploaded without their
+ * metadata by {@link JpegMetadataStripper}. Everything else, including GIFs that could be
+ * animated, is uploaded as-is.
+ */
+public class ImageUploadCompressor {
+
+  enum Quality {
+    WIFI(2560, 90),
+    MOBILE_DATA(1600, 80);
+
+    final int maxDimension;
+    final int jpegQuality;
+
+    Quality(int maxDimension, int jpegQuality) {
+      this.maxDimension = maxDimension;
+      this.jpegQuality = jpegQuality;
+    }
+  }
+
+  private final Lazy<NetworkStateListener> networkStateListener;
+
+  @Inject
+  public ImageUploadCompressor(Lazy<NetworkStateListener> networkStateListener) {
+    this.networkStateListener = networkStateListener;
+  }
+
+  /**
+   * Decoding happens on the calling thread.
+   */
+  @CheckResult
+  public Single<ImageUpload> compress(File imageFile, @Nullable String mimeType) {
+    return networkStateListener.get()
+        .streamNetworkInternetCapability(NetworkStrategy.WIFI_ONLY, Optional.empty())
+        .firstOrError()
+        .map(isOnWifi -> isOnWifi ? Quality.WIFI : Quality.MOBILE_DATA)
+        .map(quality -> compress(imageFile, mimeType, quality))
+        .doOnSuccess(upload -> Timber.i("Uploading %s bytes instead of %s", upload.uploadSizeBytes(), upload.originalSizeBytes()));
+  }
+
+  private ImageUpload compress(File imageFile, @Nullable String mimeType, Quality quality) {
+    BitmapFactory.Options boundsOptions = new BitmapFactory.Options();
+    boundsOptions.inJustDecodeBounds = true;
+    BitmapFactory.decodeFile(imageFile.getPath(), boundsOptions);
+
+    boolean isJpeg = "image/jpeg".equals(mimeType);
+    boolean isPng = "image/png".equals(mimeType);
+    boolean isTooLarge = Math.max(boundsOptions.outWidth, boundsOptions.outHeight) > quality.maxDimension;
+
+    if (boundsOptions.outWidth <= 0 || !(isJpeg || isPng) || (isPng && !isTooLarge)) {
+      return uncompressed(imageFile, mimeType);
+    }
+
+    // Re-encoding a small JPEG rarely makes it smaller. Re-encoding is
+    // only used for removing its metadata if that can't be done otherwise.
+    if (isJpeg && !isTooLarge) {
+      File strippedFile = withoutMetadata(imageFile);
+      if (strippedFile != null) {
+        return upload(imageFile, strippedFile, mimeType);
+      }
+    }
+
+    Bitmap bitmap;
+    try {
+      BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+      decodeOptions.inSampleSize = inSampleSize(boundsOptions.outWidth, boundsOptions.outHeight, quality.maxDimension);
+      Bitmap sampledBitmap = BitmapFactory.decodeFile(imageFile.getPath(), decodeOptions);
+      if (sampledBitmap == null) {
+        return uncompressed(imageFile, mimeType);
+      }
+      bitmap = scaleAndRotate(sampledBitmap, quality.maxDimension, exifRotationDegrees(imageFile));
+
+    } catch (OutOfMemoryError e) {
+      Timber.w("Not enough memory for compressing %sx%s image", boundsOptions.outWidth, boundsOptions.outHeight);
+      return uncompressed(imageFile, mimeType);
+    }
+
+    Bitmap.CompressFormat format = isJpeg ? Bitmap.CompressFormat.JPEG : Bitmap.CompressFormat.PNG;
+    File compressedFile = new File(imageFile.getParentFile(), imageFile.getName() + "-compressed");
+    try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(compressedFile))) {
+      if (!bitmap.compress(format, quality.jpegQuality, outputStream)) {
+        throw new IOException("Couldn't compress bitmap");
+      }
+    } catch (IOException e) {
+      Timber.w(e, "Couldn't write compressed image");
+      //noinspection ResultOfMethodCallIgnored
+      compressedFile.delete();
+      return uncompressed(imageFile, mimeType);
+
+    } finally {
+      bitmap.recycle();
+    }
+
+    if (compressedFile.length() >= imageFile.length()) {
+      // The re-encoded JPEG has no metadata, so it's still uploaded if the original's can't be removed.
+      File originalFile = isJpeg ? withoutMetadata(imageFile) : imageFile;
+      if (originalFile != null) {
+        //noinspection ResultOfMethodCallIgnored
+        compressedFile.delete();
+        return upload(imageFile, originalFile, mimeType);
+      }
+    }
+
+    return upload(imageFile, compressedFile, mimeType);
+  }
+
+  /**
+   * JPEGs are uploaded without their metadata, unless it can't be removed.
+   */
+  private static ImageUpload uncompressed(File imageFile, @Nullable String mimeType) {
+    if ("image/jpeg".equals(mimeType)) {
+      File strippedFile = withoutMetadata(imageFile);
+      if (strippedFile != null) {
+        return upload(imageFile, strippedFile, mimeType);
+      }
+    }
+    return upload(imageFile, imageFile, mimeType);
+  }
+
+  private static ImageUpload upload(File imageFile, File uploadFile, @Nullable String mimeType) {
+    return ImageUpload.create(toRequestBody(uploadFile, mimeType), uploadFile, imageFile.getName(), imageFile.length(), uploadFile.length());
+  }
+
+  private static RequestBody toRequestBody(File file, @Nullable String mimeType) {
+    return RequestBody.create(mimeType != null ? MediaType.parse(mimeType) : null, file);
+  }
+
+  /**
+   * Largest power of 2 that keeps the decoded image's longer side at or above <var>maxDimension</var>.
+   * Decoders can only subsample by powers of 2, so the rest of the downscaling is done by {@link #scaleAndRotate}.
+   */
+  @VisibleForTesting
+  static int inSampleSize(int width, int height, int maxDimension) {
+    int longerSide = Math.max(width, height);
+    int inSampleSize = 1;
+    while (longerSide / (inSampleSize * 2) >= maxDimension) {
+      inSampleSize *= 2;
+    }
+    return inSampleSize;
+  }
+
+  @VisibleForTesting
+  static float scaleToFit(int width, int height, int maxDimension) {
+    int longerSide = Math.max(width, height);
+    return longerSide > maxDimension ? (float) maxDimension / longerSide : 1f;
+  }
+
+  /**
+   * EXIF data is lost when re-encoding, so its orientation gets applied to the pixels.
+   */
+  private static Bitmap scaleAndRotate(Bitmap bitmap, int maxDimension, int rotationDegrees) {
+    float scale = scaleToFit(bitmap.getWidth(), bitmap.getHeight(), maxDimension);
+    if (scale == 1f && rotationDegrees == 0) {
+      return bitmap;
+    }
+
+    Matrix matrix = new Matrix();
+    matrix.postScale(scale, scale);
+    matrix.postRotate(rotationDegrees);
+    Bitmap transformedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    if (transformedBitmap != bitmap) {
+      bitmap.recycle();
+    }
+    return transformedBitmap;
+  }
+
+  /**
+   * @return A copy of <var>jpegFile</var> without its metadata, or null if it couldn't be parsed.
+   */
+  @Nullable
+  private static File withoutMetadata(File jpegFile) {
+    File strippedFile = new File(jpegFile.getParentFile(), jpegFile.getName() + "-stripped");
+    try (InputStream inputStream = new BufferedInputStream(new FileInputStream(jpegFile));
+         OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(strippedFile)))
+    {
+      JpegMetadataStripper.strip(inputStream, outputStream, exifOrientation(jpegFile));
+    } catch (IOException e) {
+      Timber.w(e, "Couldn't remove metadata from image");
+      //noinspection ResultOfMethodCallIgnored
+      strippedFile.delete();
+      return null;
+    }
+    return strippedFile;
+  }
+
+  private static int exifOrientation(File imageFile) {
+    try {
+      ExifInterface exif = new ExifInterface(imageFile.getPath());
+      return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+    } catch (IOException e) {
+      return ExifInterface.ORIENTATION_NORMAL;
+    }
+  }
+
+  private static int exifRotationDegrees(File imageFile) {
+    switch (exifOrientation(imageFile)) {
+      case ExifInterface.ORIENTATION_ROTATE_90:
+        return 90;
+      case ExifInterface.ORIENTATION_ROTATE_180:
+        return 180;
+      case ExifInterface.ORIENTATION_ROTATE_270:
+        return 270;
+      default:
+        return 0;
+    }
+  }
+}
@@ -10,7 +10,6 @@ import android.support.annotation.CheckResult;
 import com.jakewharton.rxrelay2.BehaviorRelay;
 import com.jakewharton.rxrelay2.Relay;
 
-import java.io.File;
 import java.util.TimeZone;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -29,7 +28,6 @@ import me.saket.dank.di.DankApi;
 import me.saket.dank.utils.okhttp.OkHttpRequestBodyWithProgress;
 import me.saket.dank.utils.okhttp.OkHttpRequestWriteProgressListener;
 import okhttp3.Headers;
-import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.RequestBody;
 import retrofit2.HttpException;
@@ -115,16 +113,16 @@ public class ImgurRepository {
    * Remember to handle {@link ImgurApiUploadRateLimitReachedException}.
    */
   @CheckResult
-  public Observable<FileUploadProgressEvent<ImgurUploadResponse>> uploadImage(File imageFile, String mimeType) {
+  public Observable<FileUploadProgressEvent<ImgurUploadResponse>> uploadImage(ImageUpload image) {
     Relay<Float> uploadProgressStream = BehaviorRelay.createDefault(0f);
 
-    RequestBody requestBody = RequestBody.create(MediaType.parse(mimeType), imageFile);
+    RequestBody requestBody = image.requestBody();
     OkHttpRequestWriteProgressListener uploadProgressListener = (bytesRead, totalBytes) -> {
       float progress = (float) bytesRead / totalBytes;
       uploadProgressStream.accept(progress);
     };
     RequestBody requestBodyWithProgress = OkHttpRequestBodyWithProgress.wrap(requestBody, uploadProgressListener);
-    MultipartBody.Part multipartBodyPart = MultipartBody.Part.createFormData("image", imageFile.getName(), requestBodyWithProgress);
+    MultipartBody.Part multipartBodyPart = MultipartBody.Part.createFormData("image", image.fileName(), requestBodyWithProgress);
 
     Observable<FileUploadProgressEvent<ImgurUploadResponse>> uploadStream = dankApi.uploadToImgur(multipartBodyPart, "file")
         .map(throwIfHttpError())
@@ -0,0 +1,193 @@
+package me.saket.dank.ui.media;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Copies a JPEG without its metadata, so that small JPEGs can be uploaded without re-encoding them.
+ * EXIF, XMP, IPTC, comments and embedded thumbnails are dropped. Color profiles are kept, and the
+ * EXIF orientation is written back on its own because it affects how the image gets displayed.
+ * <p>
+ * The compressed image data is copied byte for byte.
+ */
+class JpegMetadataStripper {
+
+  private static final int MARKER_START = 0xFF;
+  private static final int SOI = 0xD8;
+  private static final int EOI = 0xD9;
+  private static final int SOS = 0xDA;
+  private static final int TEM = 0x01;
+  private static final int RST0 = 0xD0;
+  private static final int RST7 = 0xD7;
+  private static final int APP0 = 0xE0;
+  private static final int APP1 = 0xE1;
+  private static final int APP2 = 0xE2;
+  private static final int APP14 = 0xEE;
+  private static final int APP15 = 0xEF;
+  private static final int COM = 0xFE;
+
+  private static final byte[] JFIF_IDENTIFIER = "JFIF\0".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ICC_PROFILE_IDENTIFIER = "ICC_PROFILE\0".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] EXIF_IDENTIFIER = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+
+  /** Identifier, version, units, densities and thumbnail dimensions. The thumbnail's pixels follow these. */
+  private static final int JFIF_HEADER_LENGTH = 14;
+  private static final int TAG_ORIENTATION = 0x0112;
+  private static final int TYPE_SHORT = 3;
+
+  private JpegMetadataStripper() {
+  }
+
+  /**
+   * @param input           Read one byte at a time after the headers, so it should be buffered.
+   * @param exifOrientation One of ExifInterface's ORIENTATION_* values. Nothing gets written
+   *                        for ORIENTATION_UNDEFINED (0) and ORIENTATION_NORMAL (1).
+   * @throws IOException If <var>input</var> isn't a JPEG.
+   */
+  static void strip(InputStream input, OutputStream output, int exifOrientation) throws IOException {
+    DataInputStream in = new DataInputStream(input);
+    DataOutputStream out = new DataOutputStream(output);
+
+    if (in.readUnsignedByte() != MARKER_START || in.readUnsignedByte() != SOI) {
+      throw new IOException("Not a JPEG");
+    }
+    writeMarker(out, SOI);
+
+    boolean isOrientationWritten = false;
+    while (true) {
+      int marker = readMarker(in);
+
+      // EXIF is expected to be the first segment, or the one after JFIF's.
+      if (!isOrientationWritten && marker != APP0) {
+        writeOrientation(out, exifOrientation);
+        isOrientationWritten = true;
+      }
+
+      if (marker == SOS) {
+        writeMarker(out, SOS);
+        copyUntilEndOfImage(in, out);
+        out.flush();
+        return;
+      }
+
+      if (marker == EOI) {
+        writeMarker(out, EOI);
+        out.flush();
+        return;
+      }
+
+      if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+        writeMarker(out, marker);
+        continue;
+      }
+
+      int length = in.readUnsignedShort();
+      if (length < 2) {
+        throw new IOException("Invalid segment length: " + length);
+      }
+      byte[] payload = new byte[length - 2];
+      in.readFully(payload);
+
+      if (marker == APP0 && startsWith(payload, JFIF_IDENTIFIER) && payload.length >= JFIF_HEADER_LENGTH) {
+        // JFIF's thumbnail is dropped by clearing its dimensions.
+        payload[JFIF_HEADER_LENGTH - 2] = 0;
+        payload[JFIF_HEADER_LENGTH - 1] = 0;
+        writeSegment(out, APP0, payload, JFIF_HEADER_LENGTH);
+      } else if (!isMetadata(marker, payload)) {
+        writeSegment(out, marker, payload, payload.length);
+      }
+    }
+  }
+
+  /**
+   * Entropy-coded data has no lengths, so it's copied until the end of the image. Markers can't
+   * appear inside it, so the first EOI is the image's. Later scans are copied along with it.
+   * Anything after EOI is dropped, like the extra images and vendor data that cameras append.
+   */
+  private static void copyUntilEndOfImage(InputStream in, OutputStream out) throws IOException {
+    int previousByte = -1;
+    int currentByte;
+    while ((currentByte = in.read()) != -1) {
+      out.write(currentByte);
+      if (previousByte == MARKER_START && currentByte == EOI) {
+        return;
+      }
+      previousByte = currentByte;
+    }
+  }
+
+  private static boolean isMetadata(int marker, byte[] payload) {
+    if (marker == COM) {
+      return true;
+    }
+    if (marker >= APP0 && marker <= APP15) {
+      boolean isColorProfile = marker == APP2 && startsWith(payload, ICC_PROFILE_IDENTIFIER);
+      boolean isAdobeColorTransform = marker == APP14;
+      return !isColorProfile && !isAdobeColorTransform;
+    }
+    return false;
+  }
+
+  /**
+   * Writes a big-endian TIFF structure with a single IFD that only contains the orientation.
+   */
+  private static void writeOrientation(DataOutputStream out, int exifOrientation) throws IOException {
+    if (exifOrientation <= 1) {
+      return;
+    }
+    writeMarker(out, APP1);
+    out.writeShort(2 + EXIF_IDENTIFIER.length + 26);
+    out.write(EXIF_IDENTIFIER);
+    out.writeShort(0x4D4D);       // "MM", big endian.
+    out.writeShort(42);           // TIFF magic number.
+    out.writeInt(8);              // Offset of the first IFD.
+    out.writeShort(1);            // Number of entries.
+    out.writeShort(TAG_ORIENTATION);
+    out.writeShort(TYPE_SHORT);
+    out.writeInt(1);              // Number of values.
+    out.writeShort(exifOrientation);
+    out.writeShort(0);            // Padding for the 4-byte value field.
+    out.writeInt(0);              // No more IFDs.
+  }
+
+  /**
+   * Skips the fill bytes that can precede a marker.
+   */
+  private static int readMarker(DataInputStream in) throws IOException {
+    if (in.readUnsignedByte() != MARKER_START) {
+      throw new IOException("Expected a marker");
+    }
+    int marker;
+    do {
+      marker = in.readUnsignedByte();
+    } while (marker == MARKER_START);
+    return marker;
+  }
+
+  private static void writeMarker(DataOutputStream out, int marker) throws IOException {
+    out.write(MARKER_START);
+    out.write(marker);
+  }
+
+  private static void writeSegment(DataOutputStream out, int marker, byte[] payload, int payloadLength) throws IOException {
+    writeMarker(out, marker);
+    out.writeShort(payloadLength + 2);
+    out.write(payload, 0, payloadLength);
+  }
+
+  private static boolean startsWith(byte[] payload, byte[] prefix) {
+    if (payload.length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (payload[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,178 @@
+package me.saket.dank.ui.media;
+
+import android.support.annotation.MainThread;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.request.RequestOptions;
+import com.bumptech.glide.request.target.Target;
+
+import net.dean.jraw.models.SubmissionPreview;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import me.saket.dank.urlparser.MediaLink;
+import me.saket.dank.utils.AdaptiveMediaQuality;
+import me.saket.dank.utils.Optional;
+
+/**
+ * Warms up images of album pages that are a few pages away from the current page, so that they're
+ * ready by the time the user pages to them. Pages that the ViewPager keeps alive load their own images.
+ * <p>
+ * Pages closer to the current page get a higher priority. Images are decoded at screen resolution
+ * with the same options as {@link MediaImageFragment}, so that they're picked up from Glide's memory
+ * cache. Decoded images are held until their pages move out of range, but only until they fill
+ * <var>maxDecodedBytes</var>. Images beyond that are only downloaded to the disk cache.
+ * <p>
+ * When the user is flinging through pages, the decoded images are released and images are only
+ * downloaded. High-definition images are never prefetched. {@link MediaImageFragment} loads them
+ * once the user settles on a page.
+ * <p>
+ * Glide clears the prefetches when the Activity of the {@link RequestManager} gets destroyed.
+ */
+public class MediaAlbumPrefetcher {
+
+  private final RequestManager glide;
+  private final AdaptiveMediaQuality mediaQuality;
+  private final RequestOptions displayOptions;
+  private final int deviceDisplayWidth;
+  private final long decodedImageBytes;
+  private final int pagesKeptAlive;
+  private final int prefetchDistance;
+  private final long maxDecodedBytes;
+
+  private final Map<String, Target<?>> decodeTargets = new HashMap<>();
+  private final Map<String, Target<?>> downloadTargets = new HashMap<>();
+
+  /**
+   * @param pagesKeptAlive   The ViewPager's offscreen page limit.
+   * @param prefetchDistance Number of pages prefetched after and before the pages kept alive.
+   */
+  public MediaAlbumPrefetcher(
+      RequestManager glide,
+      AdaptiveMediaQuality mediaQuality,
+      RequestOptions displayOptions,
+      int deviceDisplayWidth,
+      int deviceDisplayHeight,
+      int pagesKeptAlive,
+      int prefetchDistance,
+      long maxDecodedBytes)
+  {
+    this.glide = glide;
+    this.mediaQuality = mediaQuality;
+    this.displayOptions = displayOptions;
+    this.deviceDisplayWidth = deviceDisplayWidth;
+    this.pagesKeptAlive = pagesKeptAlive;
+    this.prefetchDistance = prefetchDistance;
+    this.maxDecodedBytes = maxDecodedBytes;
+
+    // Images decoded at screen resolution are rarely larger than the screen.
+    this.decodedImageBytes = (long) deviceDisplayWidth * deviceDisplayHeight * 4;
+  }
+
+  /**
+   * Called when the user settles on <var>currentPosition</var>.
+   */
+  @MainThread
+  public void prefetchAround(List<MediaAlbumItem> albumItems, int currentPosition, Optional<SubmissionPreview> redditImages) {
+    prefetchAround(albumItems, currentPosition, redditImages, true);
+  }
+
+  /**
+   * Called when pages are getting selected in quick succession. Decoding images that'll be
+   * scrolled past is wasted work, so they're only downloaded.
+   */
+  @MainThread
+  public void prefetchAroundWhileFlinging(List<MediaAlbumItem> albumItems, int currentPosition, Optional<SubmissionPreview> redditImages) {
+    prefetchAround(albumItems, currentPosition, redditImages, false);
+  }
+
+  private void prefetchAround(
+      List<MediaAlbumItem> albumItems,
+      int currentPosition,
+      Optional<SubmissionPreview> redditImages,
+      boolean decodeEnabled)
+  {
+    Map<String, Priority> urlsToDecode = new HashMap<>();
+    Map<String, Priority> urlsToDownload = new HashMap<>();
+    long decodedBytes = 0;
+
+    for (int distance = 1; distance <= prefetchDistance; distance++) {
+      Priority priority = priorityForDistance(distance);
+      int pageOffset = pagesKeptAlive + distance;
+
+      for (int position : new int[] { currentPosition + pageOffset, currentPosition - pageOffset }) {
+        if (position < 0 || position >= albumItems.size()) {
+          continue;
+        }
+
+        MediaLink mediaLink = albumItems.get(position).mediaLink();
+        if (mediaLink.isVideo()) {
+          continue;
+        }
+
+        String imageUrl = MediaImageFragment.imageUrl(mediaLink, false, redditImages, deviceDisplayWidth, mediaQuality);
+
+        // Decoded GIFs hold all of their frames, so they're only downloaded.
+        boolean canDecode = decodeEnabled && !mediaLink.isGif() && decodedBytes + decodedImageBytes <= maxDecodedBytes;
+        if (canDecode) {
+          decodedBytes += decodedImageBytes;
+          urlsToDecode.put(imageUrl, priority);
+        } else {
+          urlsToDownload.put(imageUrl, priority);
+        }
+      }
+    }
+
+    // Prefetches that are still required are left running.
+    cancelAllExcept(decodeTargets, urlsToDecode);
+    cancelAllExcept(downloadTargets, urlsToDownload);
+
+    for (Map.Entry<String, Priority> entry : urlsToDecode.entrySet()) {
+      if (!decodeTargets.containsKey(entry.getKey())) {
+        Target<?> target = glide
+            .load(entry.getKey())
+            .apply(displayOptions)
+            .apply(RequestOptions.priorityOf(entry.getValue()))
+            .submit();
+        decodeTargets.put(entry.getKey(), target);
+      }
+    }
+
+    for (Map.Entry<String, Priority> entry : urlsToDownload.entrySet()) {
+      if (!downloadTargets.containsKey(entry.getKey())) {
+        Target<?> target = glide
+            .download(entry.getKey())
+            .apply(RequestOptions.priorityOf(entry.getValue()))
+            .submit();
+        downloadTargets.put(entry.getKey(), target);
+      }
+    }
+  }
+
+  private void cancelAllExcept(Map<String, Target<?>> targets, Map<String, Priority> urlsToKeep) {
+    Iterator<Map.Entry<String, Target<?>>> iterator = targets.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Target<?>> entry = iterator.next();
+      if (!urlsToKeep.containsKey(entry.getKey())) {
+        // Finished images move to Glide's memory cache when they're released.
+        glide.clear(entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  private static Priority priorityForDistance(int distance) {
+    switch (distance) {
+      case 1:
+        return Priority.HIGH;
+      case 2:
+        return Priority.NORMAL;
+      default:
+        return Priority.LOW;
+    }
+  }
+}
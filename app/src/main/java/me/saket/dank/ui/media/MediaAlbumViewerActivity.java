@@ -17,7 +17,9 @@ import android.support.annotation.CheckResult;
 import android.support.annotation.FloatRange;
 import android.support.annotation.Nullable;
 import android.support.v4.content.FileProvider;
+import android.support.v4.view.ViewPager;
 import android.support.v7.widget.PopupMenu;
+import android.util.DisplayMetrics;
 import android.view.Gravity;
 import android.view.MenuItem;
 import android.view.View;
@@ -72,6 +74,7 @@ import me.saket.dank.ui.preferences.NetworkStrategy;
 import me.saket.dank.ui.submission.adapter.ImageWithMultipleVariants;
 import me.saket.dank.urlparser.ImgurAlbumLink;
 import me.saket.dank.urlparser.MediaLink;
+import me.saket.dank.utils.AdaptiveMediaQuality;
 import me.saket.dank.utils.Animations;
 import me.saket.dank.utils.Files2;
 import me.saket.dank.utils.Intents;
@@ -95,6 +98,8 @@ public class MediaAlbumViewerActivity extends DankActivity implements MediaFragm
 
   private static final String KEY_MEDIA_LINK_TO_SHOW = "mediaLinkToShow";
   private static final String KEY_REDDIT_SUPPLIED_IMAGE = "redditSuppliedImage";
+  private static final int ALBUM_PREFETCH_DISTANCE = 3;
+  private static final long FAST_PAGING_INTERVAL_MILLIS = 300;
 
   @BindView(R.id.mediaalbumviewer_root) ViewGroup rootLayout;
   @BindView(R.id.mediaalbumviewer_pager) ScrollInterceptibleViewPager mediaAlbumPager;
@@ -116,6 +121,7 @@ public class MediaAlbumViewerActivity extends DankActivity implements MediaFragm
   @Inject ErrorResolver errorResolver;
   @Inject UserPreferences userPreferences;
   @Inject NetworkStateListener networkStateListener;
+  @Inject Lazy<AdaptiveMediaQuality> mediaQuality;
 
   @Inject @Named("hd_media_in_gallery")
   Lazy<Preference<NetworkStrategy>> highResolutionMediaNetworkStrategyPref;
@@ -250,7 +256,8 @@ public class MediaAlbumViewerActivity extends DankActivity implements MediaFragm
             ImageWithMultipleVariants imageVariants = ImageWithMultipleVariants.Companion.of(redditSuppliedImages);
             optimizedQualityUrl = imageVariants.findNearestFor(
                 getResources().getDisplayMetrics().widthPixels,
-                activeMediaItem.mediaLink().lowQualityUrl() /* defaultValue */
+                activeMediaItem.mediaLink().lowQualityUrl() /* defaultValue */,
+                mediaQuality.get()
             );
           }
 
@@ -383,6 +390,54 @@ public class MediaAlbumViewerActivity extends DankActivity implements MediaFragm
         .doOnNext(activeMediaItem -> updateMediaDisplayPosition())
         .takeUntil(lifecycle().onDestroy())
         .subscribe(viewpagerPageChangeStream);
+
+    startPrefetchingAlbumPages();
+  }
+
+  private void startPrefetchingAlbumPages() {
+    DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+    // Glide's own memory cache is sized separately.
+    long maxPrefetchedBytes = Runtime.getRuntime().maxMemory() / 8;
+    MediaAlbumPrefetcher prefetcher = new MediaAlbumPrefetcher(
+        Glide.with(this),
+        mediaQuality.get(),
+        MediaImageFragment.displayOptions(this),
+        displayMetrics.widthPixels,
+        displayMetrics.heightPixels,
+        mediaAlbumPager.getOffscreenPageLimit(),
+        ALBUM_PREFETCH_DISTANCE,
+        maxPrefetchedBytes);
+
+    Observable<Boolean> pageSettles = RxViewPager.pageScrollStateChanges(mediaAlbumPager)
+        .filter(scrollState -> scrollState == ViewPager.SCROLL_STATE_IDLE)
+        .startWith(ViewPager.SCROLL_STATE_IDLE)
+        .map(o -> false);
+
+    // Pages that get selected in quick succession are being flung through.
+    Observable<Boolean> fastPageSelections = RxViewPager.pageSelections(mediaAlbumPager)
+        .skip(1)  // Initial value.
+        .timeInterval()
+        .filter(interval -> interval.time(TimeUnit.MILLISECONDS) < FAST_PAGING_INTERVAL_MILLIS)
+        .map(o -> true);
+
+    getRedditSuppliedImages()
+        .observeOn(mainThread())
+        .flatMapObservable(redditImages -> Observable.merge(pageSettles, fastPageSelections)
+            .map(isFlinging -> Pair.create(isFlinging, redditImages)))
+        .takeUntil(lifecycle().onDestroy())
+        .subscribe(
+            pair -> {
+              List<MediaAlbumItem> albumItems = mediaAlbumAdapter.getDataSet();
+              int currentPosition = mediaAlbumPager.getCurrentItem();
+              if (pair.first()) {
+                prefetcher.prefetchAroundWhileFlinging(albumItems, currentPosition, pair.second());
+              } else {
+                prefetcher.prefetchAround(albumItems, currentPosition, pair.second());
+              }
+            }, error -> {
+              ResolvedError resolvedError = errorResolver.resolve(error);
+              resolvedError.ifUnknown(() -> Timber.e(error, "Error while prefetching album pages"));
+            });
   }
 
   private void updateMediaDisplayPosition() {
@@ -651,7 +706,7 @@ public class MediaAlbumViewerActivity extends DankActivity implements MediaFragm
     Observable<File> optimizedResImageFileStream = getRedditSuppliedImages()
         .flatMapObservable(redditImages -> Observable.create(emitter -> {
           ImageWithMultipleVariants imageVariants = ImageWithMultipleVariants.Companion.of(redditImages);
-          String optimizedQualityImageForDevice = imageVariants.findNearestFor(getDeviceDisplayWidth(), albumItem.mediaLink().lowQualityUrl());
+          String optimizedQualityImageForDevice = imageVariants.findNearestFor(getDeviceDisplayWidth(), albumItem.mediaLink().lowQualityUrl(), mediaQuality.get());
 
           FutureTarget<File> optimizedResolutionImageTarget = Glide.with(this)
               .download(optimizedQualityImageForDevice)
@@ -11,7 +11,6 @@ import com.nytimes.android.external.store3.base.impl.StoreBuilder;
 import com.squareup.moshi.JsonDataException;
 import com.squareup.moshi.Moshi;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -25,6 +24,9 @@ import io.reactivex.Single;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.BuildConfig;
 import me.saket.dank.cache.DiskLruCachePathResolver;
+import me.saket.dank.cache.SingleFlight;
+import me.saket.dank.cache.SingleFlightStats;
+import me.saket.dank.cache.StoreCacheStats;
 import me.saket.dank.cache.StoreFilePersister;
 import me.saket.dank.data.CachedResolvedLinkInfo;
 import me.saket.dank.data.FileUploadProgressEvent;
@@ -53,6 +55,12 @@ import timber.log.Timber;
 @Singleton
 public class MediaHostRepository {
 
+  /**
+   * Resolved links can go bad when a host moves its files around. Older resolved
+   * links are still used, but get resolved again in the background.
+   */
+  private static final long REFRESH_AFTER_DAYS = 3;
+
   private final StreamableRepository streamableRepository;
   private final ImgurRepository imgurRepository;
   private final GiphyRepository giphyRepository;
@@ -60,6 +68,8 @@ public class MediaHostRepository {
   private final Lazy<UrlParser> urlParser;
   private final Lazy<GfycatRepository> gfycatRepository;
   private final Lazy<IncorrectMediaUrlParsingData> incorrectMediaUrlParsingData;
+  private final StoreCacheStats cacheStats = new StoreCacheStats("media_host");
+  private final SingleFlight<MediaLink, MediaLink> resolveFlights = new SingleFlight<>("media_host");
 
   @Inject
   public MediaHostRepository(
@@ -94,7 +104,8 @@ public class MediaHostRepository {
             .setExpireAfterWrite(24)
             .setExpireAfterTimeUnit(TimeUnit.HOURS)
             .build())
-        .persister(new StoreFilePersister<>(cacheFileSystem, pathResolver, jsonParser))
+        .persister(new StoreFilePersister<>(cacheFileSystem, pathResolver, jsonParser, REFRESH_AFTER_DAYS, TimeUnit.DAYS, cacheStats))
+        .refreshOnStale()
         .open();
   }
 
@@ -146,6 +157,14 @@ public class MediaHostRepository {
     }
   }
 
+  public StoreCacheStats cacheStats() {
+    return cacheStats;
+  }
+
+  public SingleFlightStats inFlightStats() {
+    return resolveFlights.stats();
+  }
+
   public void flagLocalUrlParsingAsIncorrect(Link link) {
     Timber.w("Flagging link as incorrectly parsed: %s", link);
     incorrectMediaUrlParsingData.get().flag(link)
@@ -155,8 +174,14 @@ public class MediaHostRepository {
 
   /**
    * Remember to handle {@link ImgurApiRequestRateLimitReachedException}.
+   * <p>
+   * Concurrent calls for the same link (e.g., a pre-fill racing a user tap) share one resolution.
    */
   public Observable<MediaLink> resolveActualLinkIfNeeded(MediaLink unresolvedLink) {
+    return resolveFlights.observable(unresolvedLink, () -> resolveActualLinkIfNeededUnshared(unresolvedLink));
+  }
+
+  private Observable<MediaLink> resolveActualLinkIfNeededUnshared(MediaLink unresolvedLink) {
     return incorrectMediaUrlParsingData.get()
         .isFlagged(unresolvedLink)
         .flatMapSingle(flagged -> {
@@ -218,8 +243,8 @@ public class MediaHostRepository {
    * Remember to handle {@link ImgurApiUploadRateLimitReachedException}.
    */
   @CheckResult
-  public Observable<FileUploadProgressEvent<ImgurUploadResponse>> uploadImage(File image, String mimeType) {
-    return imgurRepository.uploadImage(image, mimeType);
+  public Observable<FileUploadProgressEvent<ImgurUploadResponse>> uploadImage(ImageUpload image) {
+    return imgurRepository.uploadImage(image);
   }
 
   @CheckResult
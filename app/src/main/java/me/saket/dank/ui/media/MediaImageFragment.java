@@ -6,6 +6,7 @@ import android.graphics.Color;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
+import android.util.DisplayMetrics;
 import android.util.Size;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -14,11 +15,14 @@ import android.view.ViewGroup;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.Priority;
+import com.bumptech.glide.RequestBuilder;
 import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy;
 import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.target.DrawableImageViewTarget;
 import com.bumptech.glide.request.target.Target;
 
+import net.dean.jraw.models.SubmissionPreview;
+
 import javax.inject.Inject;
 
 import butterknife.BindView;
@@ -29,8 +33,11 @@ import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.data.ResolvedError;
 import me.saket.dank.di.Dank;
 import me.saket.dank.ui.submission.adapter.ImageWithMultipleVariants;
+import me.saket.dank.urlparser.MediaLink;
+import me.saket.dank.utils.AdaptiveMediaQuality;
 import me.saket.dank.utils.Animations;
 import me.saket.dank.utils.FileSizeUnit;
+import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.Views;
 import me.saket.dank.utils.glide.GlidePaddingTransformation;
 import me.saket.dank.utils.glide.GlideProgressTarget;
@@ -58,6 +65,10 @@ public class MediaImageFragment extends BaseMediaViewerFragment {
 
   @Inject MediaHostRepository mediaHostRepository;
   @Inject Lazy<ErrorResolver> errorResolver;
+  @Inject Lazy<AdaptiveMediaQuality> mediaQuality;
+
+  private MediaAlbumItem mediaAlbumItem;
+  private boolean isShowingHighDefinition;
 
   private enum ScreenState {
     LOADING_IMAGE,
@@ -97,7 +108,7 @@ public class MediaImageFragment extends BaseMediaViewerFragment {
     super.setTitleDescriptionView(titleDescriptionView);
     super.setImageDimmingView(titleDescriptionBackgroundDimmingView);
 
-    calculateUrlAndLoadImage(mediaAlbumItem, true);
+    calculateUrlAndLoadImage(mediaAlbumItem, true, true);
 
     return layout;
   }
@@ -144,11 +155,16 @@ public class MediaImageFragment extends BaseMediaViewerFragment {
       titleDescriptionView.resetScrollY();
       imageView.resetState();
     }
+
+    if (imageView != null && isVisibleToUser && mediaAlbumItem.highDefinitionEnabled() && !isShowingHighDefinition) {
+      // The screen-resolution image stays visible until the high-definition image is ready.
+      calculateUrlAndLoadImage(mediaAlbumItem, false, false);
+    }
   }
 
   @Override
   public void handleMediaItemUpdate(MediaAlbumItem updatedMediaAlbumItem) {
-    calculateUrlAndLoadImage(updatedMediaAlbumItem, false);
+    calculateUrlAndLoadImage(updatedMediaAlbumItem, false, true);
   }
 
   private void moveToScreenState(ScreenState screenState) {
@@ -157,34 +173,32 @@ public class MediaImageFragment extends BaseMediaViewerFragment {
     imageView.setVisibility(screenState == ScreenState.IMAGE_READY ? View.VISIBLE : View.INVISIBLE);
   }
 
-  private void calculateUrlAndLoadImage(MediaAlbumItem mediaAlbumItemToShow, boolean isFirstLoad) {
-    moveToScreenState(ScreenState.LOADING_IMAGE);
+  private void calculateUrlAndLoadImage(MediaAlbumItem mediaAlbumItemToShow, boolean isFirstLoad, boolean showProgress) {
+    mediaAlbumItem = mediaAlbumItemToShow;
+    if (showProgress) {
+      moveToScreenState(ScreenState.LOADING_IMAGE);
+    }
 
     ((MediaFragmentCallbacks) requireActivity()).getRedditSuppliedImages()
         .takeUntil(lifecycle().onDestroyCompletable())
         .subscribe(
             redditImages -> {
-              String imageUrl;
-              if (mediaAlbumItemToShow.highDefinitionEnabled()) {
-                imageUrl = mediaAlbumItemToShow.mediaLink().highQualityUrl();
-
-              } else {
-                String lowQualityUrl = mediaAlbumItemToShow.mediaLink().lowQualityUrl();
-                if (mediaAlbumItemToShow.mediaLink().isGif()) {
-                  imageUrl = lowQualityUrl;
-
-
-                } else {
-                  int deviceDisplayWidth = ((MediaFragmentCallbacks) requireActivity()).getDeviceDisplayWidth();
-                  ImageWithMultipleVariants imageWithMultipleVariants = ImageWithMultipleVariants.Companion.of(redditImages);
-                  imageUrl = imageWithMultipleVariants.findNearestFor(deviceDisplayWidth, lowQualityUrl);
-                }
-              }
-
-              loadImage(mediaAlbumItemToShow, isFirstLoad, imageUrl, false);
+              MediaLink mediaLink = mediaAlbumItemToShow.mediaLink();
+              int deviceDisplayWidth = ((MediaFragmentCallbacks) requireActivity()).getDeviceDisplayWidth();
+
+              // Pages next to the visible page only hold screen-resolution images, like the ones
+              // warmed by MediaAlbumPrefetcher. Their high-definition image gets loaded once they're visible.
+              boolean loadHighDefinition = mediaAlbumItemToShow.highDefinitionEnabled() && getUserVisibleHint();
+              String imageUrl = imageUrl(mediaLink, loadHighDefinition, redditImages, deviceDisplayWidth, mediaQuality.get());
+              String thumbnailUrl = loadHighDefinition
+                  ? imageUrl(mediaLink, false, redditImages, deviceDisplayWidth, mediaQuality.get())
+                  : null;
+              isShowingHighDefinition = imageUrl.equals(mediaLink.highQualityUrl());
+
+              loadImage(mediaAlbumItemToShow, isFirstLoad, imageUrl, thumbnailUrl, false);
               imageView.setOnImageTooLargeExceptionListener(e -> {
                 Timber.e("Failed to draw image: %s, url: %s", e.getMessage(), imageUrl);
-                loadImage(mediaAlbumItemToShow, isFirstLoad, imageUrl, true);
+                loadImage(mediaAlbumItemToShow, isFirstLoad, imageUrl, thumbnailUrl, true);
               });
             }, error -> {
               ResolvedError resolvedError = errorResolver.get().resolve(error);
@@ -192,22 +206,21 @@ public class MediaImageFragment extends BaseMediaViewerFragment {
             });
   }
 
-  private void loadImage(MediaAlbumItem mediaAlbumItemToShow, boolean isFirstLoad, String imageUrl, boolean downSampleToFixError) {
+  private void loadImage(
+      MediaAlbumItem mediaAlbumItemToShow,
+      boolean isFirstLoad,
+      String imageUrl,
+      @Nullable String thumbnailUrl,
+      boolean downSampleToFixError)
+  {
     DrawableImageViewTarget target = new DrawableImageViewTarget(imageView.view());
     ImageLoadProgressTarget<Drawable> targetWithProgress = new ImageLoadProgressTarget<>(target, progressView);
     targetWithProgress.setModel(requireActivity(), imageUrl);
 
     Size deviceDisplaySize = new Size(getResources().getDisplayMetrics().widthPixels, getResources().getDisplayMetrics().heightPixels);
 
-    RequestOptions options = new RequestOptions()
-        .priority(Priority.IMMEDIATE)
-        .transform(new GlidePaddingTransformation(requireActivity(), Color.TRANSPARENT) {
-          @Override
-          public Size getPadding(int imageWidth, int imageHeight) {
-            // Adding a 1px transparent border improves anti-aliasing when rotating image (flick-dismiss).
-            return new Size(1, 1);
-          }
-        });
+    RequestOptions options = displayOptions(requireActivity())
+        .priority(Priority.IMMEDIATE);
     //.apply(new RequestOptions().skipMemoryCache(true).diskCacheStrategy(DiskCacheStrategy.NONE))
 
     // Glide sometimes fails to load even tiny images with a "Failed to draw image: Canvas:
@@ -221,9 +234,15 @@ public class MediaImageFragment extends BaseMediaViewerFragment {
       downscaledOptions = options;
     }
 
+    // Shows the screen-resolution image while the high-definition image loads, if it was already loaded.
+    RequestBuilder<Drawable> thumbnailRequest = thumbnailUrl != null
+        ? Glide.with(this).load(thumbnailUrl).apply(displayOptions(requireActivity()).onlyRetrieveFromCache(true))
+        : null;
+
     Glide.with(this)
         .load(imageUrl)
         .apply(downscaledOptions)
+        .thumbnail(thumbnailRequest)
         .listener(new SimpleRequestListener<Drawable>() {
           @Override
           public void onResourceReady(Drawable drawable) {
@@ -259,7 +278,7 @@ public class MediaImageFragment extends BaseMediaViewerFragment {
 
             ResolvedError resolvedError = errorResolver.get().resolve(e);
             loadErrorStateView.applyFrom(resolvedError);
-            loadErrorStateView.setOnRetryClickListener(o -> calculateUrlAndLoadImage(mediaAlbumItemToShow, isFirstLoad));
+            loadErrorStateView.setOnRetryClickListener(o -> calculateUrlAndLoadImage(mediaAlbumItemToShow, isFirstLoad, true));
 
             if (resolvedError.isUnknown()) {
               Timber.e(e, "Error while loading image: %s", imageUrl);
@@ -269,6 +288,40 @@ public class MediaImageFragment extends BaseMediaViewerFragment {
         .into(targetWithProgress);
   }
 
+  /**
+   * The image that gets shown for <var>mediaLink</var>. Also used by {@link MediaAlbumPrefetcher}.
+   */
+  static String imageUrl(
+      MediaLink mediaLink,
+      boolean highDefinitionEnabled,
+      Optional<SubmissionPreview> redditImages,
+      int deviceDisplayWidth,
+      AdaptiveMediaQuality mediaQuality)
+  {
+    if (highDefinitionEnabled) {
+      return mediaLink.highQualityUrl();
+    }
+
+    String lowQualityUrl = mediaLink.lowQualityUrl();
+    if (mediaLink.isGif()) {
+      return lowQualityUrl;
+    }
+
+    ImageWithMultipleVariants imageWithMultipleVariants = ImageWithMultipleVariants.Companion.of(redditImages);
+    return imageWithMultipleVariants.findNearestFor(deviceDisplayWidth, lowQualityUrl, mediaQuality);
+  }
+
+  /**
+   * Images are decoded at screen resolution. {@link MediaAlbumPrefetcher} uses the same options, so
+   * that the images it prefetches are found in Glide's memory cache.
+   */
+  static RequestOptions displayOptions(Context context) {
+    DisplayMetrics displayMetrics = context.getResources().getDisplayMetrics();
+    return new RequestOptions()
+        .transform(new TransparentBorderTransformation(context))
+        .override(displayMetrics.widthPixels, displayMetrics.heightPixels);
+  }
+
   private void setupFlickGestures(FlickDismissLayout imageContainerView) {
     //noinspection ConstantConditions
     FlickGestureListener flickListener = super.createFlickGestureListener(((FlickGestureListener.GestureCallbacks) getActivity()));
@@ -349,6 +402,32 @@ public class MediaImageFragment extends BaseMediaViewerFragment {
     });
   }
 
+  /**
+   * Adding a 1px transparent border improves anti-aliasing when rotating image (flick-dismiss).
+   * All instances are equal, because Glide's memory cache keys compare transformations.
+   */
+  private static class TransparentBorderTransformation extends GlidePaddingTransformation {
+
+    TransparentBorderTransformation(Context context) {
+      super(context, Color.TRANSPARENT);
+    }
+
+    @Override
+    public Size getPadding(int imageWidth, int imageHeight) {
+      return new Size(1, 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof TransparentBorderTransformation;
+    }
+
+    @Override
+    public int hashCode() {
+      return TransparentBorderTransformation.class.hashCode();
+    }
+  }
+
   private static class ImageLoadProgressTarget<Z> extends GlideProgressTarget<String, Z> {
     private final ProgressWithFileSizeView progressWithFileSizeView;
 
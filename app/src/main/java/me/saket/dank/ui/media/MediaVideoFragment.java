@@ -14,14 +14,18 @@ import com.danikula.videocache.HttpProxyCacheServer;
 import com.devbrackets.android.exomedia.ui.widget.VideoView;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
 import com.jakewharton.rxrelay2.BehaviorRelay;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import dagger.Lazy;
 import me.saket.dank.R;
+import me.saket.dank.cache.CachePreFillStats;
+import me.saket.dank.data.CachePreFillThing;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.data.ResolvedError;
 import me.saket.dank.di.Dank;
@@ -49,6 +53,8 @@ public class MediaVideoFragment extends BaseMediaViewerFragment {
   @Inject Lazy<MediaHostRepository> mediaHostRepository;
   @Inject Lazy<ErrorResolver> errorResolver;
   @Inject HttpProxyCacheServer httpProxyCacheServer;
+  @Inject @Named("dash_videos") Lazy<Cache> dashVideoCache;
+  @Inject Lazy<CachePreFillStats> preFillStats;
 
   private MediaViewerVideoControlsView videoControlsView;
 
@@ -125,7 +131,7 @@ public class MediaVideoFragment extends BaseMediaViewerFragment {
               resolvedError.ifUnknown(() -> Timber.e(error, "Error while trying to get option buttons' height"));
             });
 
-    exoPlayerManager = ExoPlayerManager.newInstance(videoView);
+    exoPlayerManager = ExoPlayerManager.newInstance(videoView, dashVideoCache.get());
     exoPlayerManager.manageLifecycle(lifecycle())
         .ambWith(lifecycle().onDestroyCompletable())
         .subscribe();
@@ -246,6 +252,7 @@ public class MediaVideoFragment extends BaseMediaViewerFragment {
         ? mediaAlbumItem.mediaLink().highQualityUrl()
         : mediaAlbumItem.mediaLink().lowQualityUrl();
     VideoFormat videoFormat = VideoFormat.parse(videoUrl);
+    preFillStats.get().recordUse(CachePreFillThing.VIDEOS, videoUrl);
 
     if (videoFormat.canBeCached()) {
       String cachedVideoUrl = httpProxyCacheServer.getProxyUrl(videoUrl);
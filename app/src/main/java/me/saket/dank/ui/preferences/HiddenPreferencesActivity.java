@@ -10,6 +10,7 @@ import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.design.widget.Snackbar;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.widget.Toolbar;
 import android.view.View;
 import android.view.ViewGroup;
@@ -29,6 +30,7 @@ import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.R;
+import me.saket.dank.cache.CachePreFiller;
 import me.saket.dank.data.LinkMetadataRepository;
 import me.saket.dank.di.Dank;
 import me.saket.dank.notifs.CheckUnreadMessagesJobService;
@@ -41,6 +43,7 @@ import me.saket.dank.ui.submission.SubmissionRepository;
 import me.saket.dank.ui.subscriptions.SubscriptionRepository;
 import me.saket.dank.ui.user.messages.CachedMessage;
 import me.saket.dank.urlparser.UrlParser;
+import me.saket.dank.utils.Intents;
 import me.saket.dank.utils.RxUtils;
 import me.saket.dank.utils.Views;
 import me.saket.dank.utils.markdown.Markdown;
@@ -66,6 +69,7 @@ public class HiddenPreferencesActivity extends DankPullCollapsibleActivity {
   @Inject Lazy<Markdown> markdown;
   @Inject Lazy<MediaHostRepository> mediaHostRepository;
   @Inject Lazy<AppShortcutRepository> appShortcutRepository;
+  @Inject Lazy<CachePreFiller> cachePreFiller;
   @Inject @Named("walkthroughs") Lazy<SharedPreferences> sharedPreferences;
 
   public static void start(Context context) {
@@ -180,6 +184,18 @@ public class HiddenPreferencesActivity extends DankPullCollapsibleActivity {
               error -> Timber.e(error, "Couldn't recycle database rows"));
     });
 
+    addButton("Show pre-fill report", o -> {
+      String report = cachePreFiller.get().report();
+      Timber.i(report);
+      new AlertDialog.Builder(this)
+          .setTitle("Pre-fill report")
+          .setMessage(report)
+          .setPositiveButton("Share", (dialog, which) -> {
+            startActivity(Intents.createForSharingUrl(this, "Pre-fill report", report));
+          })
+          .show();
+    });
+
     addButton("Reset walkthroughs", o -> {
       sharedPreferences.get().edit()
           .clear()
@@ -31,6 +31,7 @@ public class DataUsagePreferencesConstructor implements UserPreferencesConstruct
   private final Preference<NetworkStrategy> commentsPreFetchNetworkStrategyPref;
   private final Preference<NetworkStrategy> linksPreFetchNetworkStrategyPref;
   private final Preference<NetworkStrategy> imagesPreFetchNetworkStrategyPref;
+  private final Preference<NetworkStrategy> videosPreFetchNetworkStrategyPref;
 
   @Inject
   public DataUsagePreferencesConstructor(
@@ -42,7 +43,8 @@ public class DataUsagePreferencesConstructor implements UserPreferencesConstruct
       @Named("auto_play_videos") Preference<NetworkStrategy> autoPlayVideosNetworkStrategyPref,
       @Named("comments_prefetch") Preference<NetworkStrategy> commentsPreFetchNetworkStrategyPref,
       @Named("links_prefetch") Preference<NetworkStrategy> linksPreFetchNetworkStrategyPref,
-      @Named("images_prefetch") Preference<NetworkStrategy> imagesPreFetchNetworkStrategyPref)
+      @Named("images_prefetch") Preference<NetworkStrategy> imagesPreFetchNetworkStrategyPref,
+      @Named("videos_prefetch") Preference<NetworkStrategy> videosPreFetchNetworkStrategyPref)
   {
     this.messagesPollFrequencyPref = messagesPollFrequencyPref;
     this.messagesPollNetworkStrategyPref = messagesPollNetworkStrategyPref;
@@ -53,6 +55,7 @@ public class DataUsagePreferencesConstructor implements UserPreferencesConstruct
     this.commentsPreFetchNetworkStrategyPref = commentsPreFetchNetworkStrategyPref;
     this.linksPreFetchNetworkStrategyPref = linksPreFetchNetworkStrategyPref;
     this.imagesPreFetchNetworkStrategyPref = imagesPreFetchNetworkStrategyPref;
+    this.videosPreFetchNetworkStrategyPref = videosPreFetchNetworkStrategyPref;
   }
 
   @Override
@@ -111,6 +114,11 @@ public class DataUsagePreferencesConstructor implements UserPreferencesConstruct
         c.getString(imagesPreFetchNetworkStrategyPref.get().displayNameRes),
         (clickHandler, event) -> clickHandler.show(networkStrategyPopup(imagesPreFetchNetworkStrategyPref), event.itemViewHolder())));
 
+    uiModels.add(UiModel.create(
+        c.getString(R.string.userprefs_prefetch_videos),
+        c.getString(videosPreFetchNetworkStrategyPref.get().displayNameRes),
+        (clickHandler, event) -> clickHandler.show(networkStrategyPopup(videosPreFetchNetworkStrategyPref), event.itemViewHolder())));
+
     return uiModels;
   }
 
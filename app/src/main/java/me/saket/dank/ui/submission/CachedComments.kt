@@ -0,0 +1,232 @@
+package me.saket.dank.ui.submission
+
+import android.arch.persistence.room.Entity
+import android.arch.persistence.room.Index
+import com.squareup.moshi.JsonAdapter
+import com.squareup.moshi.Types
+import me.saket.dank.data.BinaryJson
+import me.saket.dank.data.BinaryJsonAdapter
+import me.saket.dank.utils.DankSubmissionRequest
+import net.dean.jraw.JrawUtils
+import net.dean.jraw.databind.Enveloped
+import net.dean.jraw.models.Listing
+import net.dean.jraw.models.NestedIdentifiable
+import java.util.ArrayDeque
+
+/**
+ * One row per comment (or "load more" placeholder) of a cached comment tree, so that loading
+ * more comments only has to insert the new children instead of rewriting the entire thread.
+ *
+ * [body] is the comment's own JSON with its replies stripped out, encoded as [BinaryJson]
+ * (rows saved before that hold JSON text). It's intentionally the last column so that SQLite
+ * does not have to read its overflow pages for queries that only need the tree structure.
+ * Rows are compared by the contents of [body].
+ */
+@Entity(
+    primaryKeys = ["request", "rowId"],
+    indices = [
+      Index("request", "parentRowId", "sortPosition"),
+      Index("request", "rootSortPosition")])
+data class CachedComment(
+    val request: DankSubmissionRequest,
+
+    /** Full-name of the comment. "Load more" rows use [CommentTreeRows.moreRowIdFor]. */
+    val rowId: String,
+
+    /** Full-name of the parent comment or the submission. */
+    val parentRowId: String,
+
+    /** Top-level comments have a depth of 1, same as [net.dean.jraw.tree.CommentNode.depth]. */
+    val depth: Int,
+
+    /** Position among siblings. */
+    val sortPosition: Int,
+
+    /** [sortPosition] of the top-level comment this row belongs to. Used for paging. */
+    val rootSortPosition: Int,
+
+    val body: ByteArray
+) {
+
+  override fun equals(other: Any?): Boolean {
+    return other is CachedComment
+        && other.request == request
+        && other.rowId == rowId
+        && other.parentRowId == parentRowId
+        && other.depth == depth
+        && other.sortPosition == sortPosition
+        && other.rootSortPosition == rootSortPosition
+        && other.body.contentEquals(body)
+  }
+
+  override fun hashCode(): Int {
+    var result = request.hashCode()
+    result = 31 * result + rowId.hashCode()
+    result = 31 * result + parentRowId.hashCode()
+    result = 31 * result + depth
+    result = 31 * result + sortPosition
+    result = 31 * result + rootSortPosition
+    result = 31 * result + body.contentHashCode()
+    return result
+  }
+}
+
+/**
+ * Converts a comment [Listing] to and from [CachedComment] rows. Both directions operate on
+ * the listing's JSON tree rather than JRAW's models so that every field survives the round
+ * trip, exactly like it did when the entire listing was stored as a single blob.
+ */
+object CommentTreeRows {
+
+  private const val KIND = "kind"
+  private const val DATA = "data"
+  private const val CHILDREN = "children"
+  private const val REPLIES = "replies"
+  private const val NAME = "name"
+  private const val KIND_MORE = "more"
+
+  private val listingAdapter: JsonAdapter<Listing<NestedIdentifiable>> by lazy {
+    val type = Types.newParameterizedType(Listing::class.java, NestedIdentifiable::class.java)
+    JrawUtils.moshi.adapter<Listing<NestedIdentifiable>>(type, Enveloped::class.java).serializeNulls()
+  }
+
+  private val jsonValueAdapter: JsonAdapter<Any> by lazy {
+    JrawUtils.moshi.adapter(Any::class.java).serializeNulls()
+  }
+
+  data class Normalized(
+      /** The root listing with its children stripped out. */
+      val envelope: String,
+      val rows: List<CachedComment>
+  )
+
+  /**
+   * A parent can only have one "load more" child, so it's keyed by its
+   * parent instead of its own name, which isn't unique for "continue this thread" items.
+   */
+  fun moreRowIdFor(parentRowId: String): String {
+    return "more_$parentRowId"
+  }
+
+  fun normalize(request: DankSubmissionRequest, submissionFullName: String, replies: Listing<NestedIdentifiable>): Normalized {
+    @Suppress("UNCHECKED_CAST")
+    val listingJson = listingAdapter.toJsonValue(replies) as Map<String, Any?>
+
+    val rows = ArrayList<CachedComment>()
+    flatten(request, childrenOf(listingJson), submissionFullName, 1, -1, rows)
+    return Normalized(jsonValueAdapter.toJson(withChildren(listingJson, emptyList())), rows)
+  }
+
+  /**
+   * Rows belonging to the subtree of <var>parentRowId</var>, excluding the parent itself.
+   */
+  fun subtreeOf(parentRowId: String, rows: List<CachedComment>): List<CachedComment> {
+    val rowsByParent = rows.groupBy { it.parentRowId }
+    val subtree = ArrayList<CachedComment>()
+    val pendingParents = ArrayDeque<String>()
+    pendingParents.add(parentRowId)
+
+    while (pendingParents.isNotEmpty()) {
+      val children = rowsByParent[pendingParents.removeFirst()] ?: continue
+      subtree.addAll(children)
+      children.forEach { pendingParents.add(it.rowId) }
+    }
+    return subtree
+  }
+
+  /**
+   * @param rows in any order.
+   */
+  fun denormalize(envelope: String, submissionFullName: String, rows: List<CachedComment>): Listing<NestedIdentifiable> {
+    @Suppress("UNCHECKED_CAST")
+    val listingJson = jsonValueAdapter.fromJson(envelope) as Map<String, Any?>
+    val rowsByParent = rows
+        .groupBy { it.parentRowId }
+        .mapValues { (_, siblings) -> siblings.sortedBy { it.sortPosition } }
+
+    val children = inflate(submissionFullName, rowsByParent, listingJson)
+    return listingAdapter.fromJsonValue(withChildren(listingJson, children))!!
+  }
+
+  private fun flatten(
+      request: DankSubmissionRequest,
+      children: List<Any?>,
+      parentRowId: String,
+      depth: Int,
+      parentRootSortPosition: Int,
+      rows: MutableList<CachedComment>
+  ) {
+    children.forEachIndexed { index, child ->
+      val rootSortPosition = if (depth == 1) index else parentRootSortPosition
+      @Suppress("UNCHECKED_CAST")
+      val childJson = child as Map<String, Any?>
+      val data = dataOf(childJson)
+
+      val rowId = when {
+        childJson[KIND] == KIND_MORE -> moreRowIdFor(parentRowId)
+        else -> data[NAME] as String
+      }
+
+      @Suppress("UNCHECKED_CAST")
+      val repliesJson = data[REPLIES] as? Map<String, Any?>
+      val childWithoutReplies = when (repliesJson) {
+        null -> childJson
+        else -> withData(childJson, withReplies(data, withChildren(repliesJson, emptyList())))
+      }
+
+      rows.add(CachedComment(request, rowId, parentRowId, depth, index, rootSortPosition, BinaryJson.encode(childWithoutReplies)))
+
+      if (repliesJson != null) {
+        flatten(request, childrenOf(repliesJson), rowId, depth + 1, rootSortPosition, rows)
+      }
+    }
+  }
+
+  private fun inflate(parentRowId: String, rowsByParent: Map<String, List<CachedComment>>, rootListingJson: Map<String, Any?>): List<Any?> {
+    val siblings = rowsByParent[parentRowId] ?: return emptyList()
+
+    return siblings.map { row ->
+      val childJson = bodyOf(row)
+      val grandChildren = inflate(row.rowId, rowsByParent, rootListingJson)
+
+      if (grandChildren.isEmpty()) {
+        childJson
+      } else {
+        val data = dataOf(childJson)
+
+        // Comments that had no replies when they were first saved may have gained
+        // some after loading more comments. Borrow the root listing's envelope for them.
+        @Suppress("UNCHECKED_CAST")
+        val repliesEnvelope = data[REPLIES] as? Map<String, Any?> ?: withChildren(rootListingJson, emptyList())
+        withData(childJson, withReplies(data, withChildren(repliesEnvelope, grandChildren)))
+      }
+    }
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  private fun bodyOf(row: CachedComment): Map<String, Any?> {
+    return when {
+      BinaryJson.isBinary(row.body) -> BinaryJson.decode(row.body)
+      else -> jsonValueAdapter.fromJson(BinaryJsonAdapter.legacyJson(row.body))
+    } as Map<String, Any?>
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  private fun dataOf(thingJson: Map<String, Any?>) = thingJson[DATA] as Map<String, Any?>
+
+  @Suppress("UNCHECKED_CAST")
+  private fun childrenOf(listingJson: Map<String, Any?>) = dataOf(listingJson)[CHILDREN] as List<Any?>? ?: emptyList()
+
+  private fun withData(thingJson: Map<String, Any?>, data: Map<String, Any?>): Map<String, Any?> {
+    return LinkedHashMap(thingJson).apply { put(DATA, data) }
+  }
+
+  private fun withReplies(data: Map<String, Any?>, replies: Any?): Map<String, Any?> {
+    return LinkedHashMap(data).apply { put(REPLIES, replies) }
+  }
+
+  private fun withChildren(listingJson: Map<String, Any?>, children: List<Any?>): Map<String, Any?> {
+    val data = LinkedHashMap(dataOf(listingJson)).apply { put(CHILDREN, children) }
+    return withData(listingJson, data)
+  }
+}
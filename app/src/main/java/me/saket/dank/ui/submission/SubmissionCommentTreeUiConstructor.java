@@ -8,6 +8,7 @@ import android.content.Context;
 import android.support.annotation.CheckResult;
 import android.support.annotation.ColorInt;
 import android.support.annotation.ColorRes;
+import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.text.style.ForegroundColorSpan;
 
@@ -22,10 +23,14 @@ import net.dean.jraw.tree.CommentNode;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 
 import dagger.Lazy;
+import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.Scheduler;
 import kotlin.Triple;
@@ -66,10 +71,16 @@ public class SubmissionCommentTreeUiConstructor {
   public static final CollapsedCommentIds COLLAPSED_COMMENT_IDS = new CollapsedCommentIds(50);
   private static final InFlightLoadMoreIds IN_FLIGHT_LOAD_MORE_IDS = new InFlightLoadMoreIds();
 
+  /**
+   * Roughly a screenful of rows. These get rendered before the comment tree is shown.
+   */
+  private static final int MARKDOWNS_TO_PRE_RENDER_BEFORE_FIRST_EMISSION = 15;
+
   private final Lazy<ReplyRepository> replyRepository;
   private final Lazy<VotingManager> votingManager;
   private final Lazy<Markdown> markdown;
   private final Lazy<UserSessionRepository> userSessionRepository;
+  private final RemoteCommentRowCache remoteCommentRowCache = new RemoteCommentRowCache();
 
   /** Contribution IDs for which inline replies are active. */
   static class ActiveReplyIds extends RxHashSet<String> {
@@ -168,6 +179,100 @@ public class SubmissionCommentTreeUiConstructor {
     }
   }
 
+  /**
+   * Remote comment rows from the last emission, keyed by comment full-name. A row is reused as long as
+   * none of the inputs that went into building it have changed, so that collapsing a comment, voting or
+   * toggling a reply only rebuilds the rows it affects instead of re-parsing markdown for the entire
+   * thread. Reusing the same instances also lets {@link me.saket.dank.utils.SplicedDiffResult} skip
+   * equality checks for unchanged rows.
+   */
+  static class RemoteCommentRowCache {
+    /**
+     * Rows that haven't been rebuilt for a while have most likely scrolled off or been
+     * collapsed, so only a window of the most recently used rows is kept in memory.
+     */
+    private static final int MAX_ROWS = 1500;
+
+    private final Map<String, CachedRow> rows = new LinkedHashMap<String, CachedRow>(MAX_ROWS, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedRow> eldest) {
+        return size() > MAX_ROWS;
+      }
+    };
+    private String submissionFullName;
+
+    static class CachedRow {
+      final Comment comment;
+      final boolean isCollapsed;
+      final boolean isFocused;
+      final VoteDirection voteDirection;
+      final int score;
+      final int childCommentsCount;
+      final long timestampMinute;
+      final SubmissionRemoteComment.UiModel uiModel;
+
+      CachedRow(
+          Comment comment,
+          boolean isCollapsed,
+          boolean isFocused,
+          VoteDirection voteDirection,
+          int score,
+          int childCommentsCount,
+          long timestampMinute,
+          SubmissionRemoteComment.UiModel uiModel)
+      {
+        this.comment = comment;
+        this.isCollapsed = isCollapsed;
+        this.isFocused = isFocused;
+        this.voteDirection = voteDirection;
+        this.score = score;
+        this.childCommentsCount = childCommentsCount;
+        this.timestampMinute = timestampMinute;
+        this.uiModel = uiModel;
+      }
+
+      boolean matches(
+          Comment comment,
+          boolean isCollapsed,
+          boolean isFocused,
+          VoteDirection voteDirection,
+          int score,
+          int childCommentsCount,
+          long timestampMinute)
+      {
+        // Comparing the comment by reference because a new tree gets
+        // deserialized every time the thread is refreshed or saved.
+        return this.comment == comment
+            && this.isCollapsed == isCollapsed
+            && this.isFocused == isFocused
+            && this.voteDirection == voteDirection
+            && this.score == score
+            && this.childCommentsCount == childCommentsCount
+            && this.timestampMinute == timestampMinute;
+      }
+    }
+
+    /**
+     * Drops all cached rows if the submission has changed. Rows of
+     * the same submission get overridden as they are rebuilt.
+     */
+    void resetIfSubmissionChanged(Submission submission) {
+      if (!submission.getFullName().equals(submissionFullName)) {
+        submissionFullName = submission.getFullName();
+        rows.clear();
+      }
+    }
+
+    @Nullable
+    CachedRow get(Comment comment) {
+      return rows.get(comment.getFullName());
+    }
+
+    void put(CachedRow row) {
+      rows.put(row.comment.getFullName(), row);
+    }
+  }
+
   @Inject
   public SubmissionCommentTreeUiConstructor(
       Lazy<ReplyRepository> replyRepository,
@@ -215,9 +320,21 @@ public class SubmissionCommentTreeUiConstructor {
 
     Observable<Object> voteChanges = votingManager.get().streamChanges();
 
+    // Comments on the first screen get rendered in parallel before the tree is constructed so that
+    // constructComments() only has to read them from the cache. The rest are rendered after the
+    // tree is shown. Rendering is cancelled when a new tree arrives.
+    Observable<SubmissionAndComments> preRenderedSubmissionDatum = submissionDatum
+        .switchMap(submissionData -> {
+          List<String> markdowns = markdownsToPreRender(submissionData);
+          int firstScreenCount = Math.min(markdowns.size(), MARKDOWNS_TO_PRE_RENDER_BEFORE_FIRST_EMISSION);
+          Completable firstScreen = markdown.get().preRender(markdowns.subList(0, firstScreenCount));
+          Completable remaining = markdown.get().preRender(markdowns.subList(firstScreenCount, markdowns.size()));
+          return firstScreen.andThen(Observable.just(submissionData).concatWith(remaining.<SubmissionAndComments>toObservable()));
+        });
+
     return CombineLatestWithLog
         .from(
-            O.of("submission and root comments", submissionDatum),
+            O.of("submission and root comments", preRenderedSubmissionDatum),
             O.of("pendingSyncRepliesMap", pendingSyncRepliesMaps),
             O.of("focusedComment", focusedComments),
             O.of("row-visibility", rowVisibilityChanges),
@@ -234,6 +351,33 @@ public class SubmissionCommentTreeUiConstructor {
         .as(immutable());
   }
 
+  /**
+   * Self-text and bodies of all comments that aren't hidden under a collapsed parent.
+   */
+  private static List<String> markdownsToPreRender(SubmissionAndComments submissionData) {
+    List<String> markdowns = new ArrayList<>(submissionData.getComments().map(node -> node.totalSize()).orElse(0) + 1);
+
+    Submission submission = submissionData.getSubmission();
+    if (submission.isSelfPost() && !Strings.isNullOrEmpty(submission.getSelfText())) {
+      markdowns.add(submission.getSelfText());
+    }
+    submissionData.getComments().ifPresent(rootNode -> collectVisibleCommentBodies(rootNode, markdowns));
+    return markdowns;
+  }
+
+  private static void collectVisibleCommentBodies(CommentNode parentNode, List<String> markdowns) {
+    //noinspection unchecked
+    List<CommentNode> childNodes = parentNode.getReplies();
+    for (int i = 0; i < childNodes.size(); i++) {  // Intentionally avoiding thrashing Iterator objects.
+      CommentNode childNode = childNodes.get(i);
+      markdowns.add(((Comment) childNode.getSubject()).getBody());
+
+      if (!COLLAPSED_COMMENT_IDS.isCollapsed(childNode.getSubject())) {
+        collectVisibleCommentBodies(childNode, markdowns);
+      }
+    }
+  }
+
   private static String keyFor(Identifiable contribution) {
     // We're doing an exhaustive check here just to make sure
     // there's no unknown data model being passed.
@@ -348,6 +492,8 @@ public class SubmissionCommentTreeUiConstructor {
       totalRowsSize += 1;
     }
 
+    remoteCommentRowCache.resetIfSubmissionChanged(submissionData.getSubmission());
+
     totalRowsSize += submissionData
         .getComments()
         .map(node -> node.totalSize())
@@ -460,11 +606,24 @@ public class SubmissionCommentTreeUiConstructor {
       boolean isFocused)
   {
     Comment comment = (Comment) commentNode.getSubject();
-    Optional<String> authorFlairText = comment.getAuthorFlairText() != null ? Optional.ofNullable(comment.getAuthorFlairText()) : Optional.empty();
     long createdTimeMillis = comment.getCreated().getTime();
     VoteDirection pendingOrDefaultVoteDirection = votingManager.get().getPendingOrDefaultVote(comment, comment.getVote());
-
     int commentScore = votingManager.get().getScoreAfterAdjustingPendingVote(comment);
+
+    // TODO: getTotalSize() is buggy. See: https://github.com/thatJavaNerd/JRAW/issues/189
+    int childCommentsCount = commentNode.totalSize();
+
+    // Relative timestamps in bylines only need to be refreshed once a minute.
+    long timestampMinute = TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+
+    RemoteCommentRowCache.CachedRow cachedRow = remoteCommentRowCache.get(comment);
+    if (cachedRow != null
+        && cachedRow.matches(comment, isCollapsed, isFocused, pendingOrDefaultVoteDirection, commentScore, childCommentsCount, timestampMinute))
+    {
+      return cachedRow.uiModel;
+    }
+
+    Optional<String> authorFlairText = comment.getAuthorFlairText() != null ? Optional.ofNullable(comment.getAuthorFlairText()) : Optional.empty();
     Optional<Integer> commentScoreIfNotHidden;
     if (comment.isScoreHidden()) {
       commentScoreIfNotHidden = Optional.empty();
@@ -474,9 +633,6 @@ public class SubmissionCommentTreeUiConstructor {
 
     boolean isAuthorOP = comment.getAuthor().equalsIgnoreCase(submissionAuthor);
 
-    // TODO: getTotalSize() is buggy. See: https://github.com/thatJavaNerd/JRAW/issues/189
-    int childCommentsCount = commentNode.totalSize();
-
     CharSequence byline = constructCommentByline(
         context,
         comment.getAuthor(),
@@ -497,7 +653,7 @@ public class SubmissionCommentTreeUiConstructor {
         ? R.color.submission_comment_background_focused
         : R.color.submission_comment_background;
 
-    return SubmissionRemoteComment.UiModel.builder()
+    SubmissionRemoteComment.UiModel uiModel = SubmissionRemoteComment.UiModel.builder()
         .adapterId(JrawUtils2.generateAdapterId(commentNode.getSubject()))
         .bylineTextColor(color(context,
             isCollapsed
@@ -517,6 +673,17 @@ public class SubmissionCommentTreeUiConstructor {
         .byline(byline, commentScore)
         .body(commentBody)
         .build();
+
+    remoteCommentRowCache.put(new RemoteCommentRowCache.CachedRow(
+        comment,
+        isCollapsed,
+        isFocused,
+        pendingOrDefaultVoteDirection,
+        commentScore,
+        childCommentsCount,
+        timestampMinute,
+        uiModel));
+    return uiModel;
   }
 
   /**
@@ -2,6 +2,7 @@ package me.saket.dank.ui.submission
 
 import android.arch.persistence.room.Dao
 import android.arch.persistence.room.Entity
+import android.arch.persistence.room.Index
 import android.arch.persistence.room.Insert
 import android.arch.persistence.room.OnConflictStrategy
 import android.arch.persistence.room.PrimaryKey
@@ -9,20 +10,23 @@ import android.arch.persistence.room.Query
 import android.arch.persistence.room.Transaction
 import android.arch.persistence.room.TypeConverter
 import com.squareup.moshi.JsonAdapter
-import com.squareup.moshi.Types
 import io.reactivex.Flowable
+import me.saket.dank.data.BinaryJson
+import me.saket.dank.data.BinaryJsonAdapter
 import me.saket.dank.di.StorageModule
 import me.saket.dank.utils.DankSubmissionRequest
 import me.saket.dank.utils.Optional
 import net.dean.jraw.JrawUtils
-import net.dean.jraw.databind.Enveloped
-import net.dean.jraw.models.Listing
-import net.dean.jraw.models.NestedIdentifiable
 import net.dean.jraw.models.Submission
 import net.dean.jraw.tree.CommentTreeSettings
 import net.dean.jraw.tree.RootCommentNode
 
-@Entity
+/**
+ * [saveTimeMillis] gets updated every time the submission is saved again, so it doubles
+ * as the version of [submission]. It's indexed along with [id] so that [CachedSubmissionVersion]
+ * can be read without touching the overflow pages of [submission]'s JSON.
+ */
+@Entity(indices = [Index("id", "saveTimeMillis")])
 data class CachedSubmission(
     @PrimaryKey
     val id: String,
@@ -31,12 +35,25 @@ data class CachedSubmission(
     val saveTimeMillis: Long
 )
 
+/**
+ * Slim projection of a submission list's rows, used for finding the submissions whose JSON
+ * has to be parsed again instead of parsing the entire list on every change.
+ */
+data class CachedSubmissionVersion(
+    val id: String,
+    val saveTimeMillis: Long
+)
+
+/**
+ * Comments of a submission are stored as [CachedComment] rows. This only
+ * marks their presence and acts as the root of their tree.
+ */
 @Entity
 data class CachedSubmissionComments(
     val submissionId: String,
 
-    @field:[Enveloped()]
-    val replies: Listing<NestedIdentifiable>,
+    /** Root listing of the comments, without its children. */
+    val repliesEnvelope: String,
 
     @PrimaryKey
     val request: DankSubmissionRequest,
@@ -44,22 +61,74 @@ data class CachedSubmissionComments(
     val saveTimeMillis: Long
 )
 
-data class CachedSubmissionAndComments(
+data class CachedSubmissionAndCommentsRow(
     val id: String,
     val submission: Submission,
-    val replies: Listing<NestedIdentifiable>?,
-    val request: DankSubmissionRequest?
+    val repliesEnvelope: String?,
+    val request: DankSubmissionRequest?,
+    val commentsSaveTimeMillis: Long?
 ) {
 
-  fun comments(): Optional<RootCommentNode> {
-    if (replies == null || request == null) {
-      return Optional.empty()
+  fun hasComments(): Boolean {
+    return repliesEnvelope != null && request != null
+  }
+}
+
+/**
+ * Comment tree is rebuilt from its [CachedComment] rows only when it's first requested, and
+ * only includes the first [topLevelCommentLimit] top-level comments along with their replies.
+ * Equality only depends on the submission, the comments' save time and the limit.
+ */
+class CachedSubmissionAndComments(
+    private val row: CachedSubmissionAndCommentsRow,
+    val topLevelCommentLimit: Int,
+    commentRowsLoader: (DankSubmissionRequest, Int) -> List<CachedComment>
+) {
+
+  val id: String
+    get() = row.id
+
+  val submission: Submission
+    get() = row.submission
+
+  val request: DankSubmissionRequest?
+    get() = row.request
+
+  private val comments: Optional<RootCommentNode> by lazy {
+    if (!row.hasComments()) {
+      Optional.empty<RootCommentNode>()
+    } else {
+      val request = row.request!!
+      val commentRows = commentRowsLoader(request, topLevelCommentLimit)
+      val replies = CommentTreeRows.denormalize(row.repliesEnvelope!!, submission.fullName, commentRows)
+      Optional.of(RootCommentNode(submission, replies, CommentTreeSettings(submission.id, request.commentSort().mode())))
     }
-    return Optional.of(RootCommentNode(submission, replies, CommentTreeSettings(submission.id, request.commentSort().mode())))
+  }
+
+  fun comments(): Optional<RootCommentNode> {
+    return comments
+  }
+
+  override fun equals(other: Any?): Boolean {
+    return other is CachedSubmissionAndComments && other.row == row && other.topLevelCommentLimit == topLevelCommentLimit
+  }
+
+  override fun hashCode(): Int {
+    return 31 * row.hashCode() + topLevelCommentLimit
+  }
+
+  override fun toString(): String {
+    return "CachedSubmissionAndComments(row=$row, topLevelCommentLimit=$topLevelCommentLimit)"
   }
 }
 
-@Entity(primaryKeys = ["id", "subredditName", "sortingAndTimePeriod"])
+/**
+ * The index covers [CachedSubmissionDao.submissionVersionsInFolderAsc], so listing a folder
+ * in order does not need a sort or a lookup of the table's rows.
+ */
+@Entity(
+    primaryKeys = ["id", "subredditName", "sortingAndTimePeriod"],
+    indices = [Index("subredditName", "sortingAndTimePeriod", "saveTimeMillis", "id")])
 data class CachedSubmissionId2 constructor(
     val id: String,
     val subredditName: String,
@@ -70,8 +139,15 @@ data class CachedSubmissionId2 constructor(
 @Dao
 interface CachedSubmissionDao {
 
-  @Query("SELECT S.id, S.submission, C.replies, C.request\nFROM cachedsubmission S \nLEFT JOIN cachedsubmissioncomments C \nON (S.id = C.submissionId AND C.request = :request)\nWHERE S.id = :id\n")
-  fun submissionWithComments(id: String, request: DankSubmissionRequest): Flowable<List<CachedSubmissionAndComments>>
+  /**
+   * Emits again when comments are saved or more comments are loaded, because
+   * [CachedSubmissionComments.saveTimeMillis] gets updated along with them.
+   */
+  @Query("SELECT S.id, S.submission, C.repliesEnvelope, C.request, C.saveTimeMillis AS commentsSaveTimeMillis\nFROM cachedsubmission S \nLEFT JOIN cachedsubmissioncomments C \nON (S.id = C.submissionId AND C.request = :request)\nWHERE S.id = :id\n")
+  fun submissionWithComments(id: String, request: DankSubmissionRequest): Flowable<List<CachedSubmissionAndCommentsRow>>
+
+  @Query("SELECT * FROM cachedcomment WHERE request = :request AND rootSortPosition < :topLevelCommentLimit")
+  fun commentRows(request: DankSubmissionRequest, topLevelCommentLimit: Int): List<CachedComment>
 
   @Insert(onConflict = OnConflictStrategy.REPLACE)
   fun saveSubmission(submission: CachedSubmission)
@@ -79,6 +155,38 @@ interface CachedSubmissionDao {
   @Insert(onConflict = OnConflictStrategy.REPLACE)
   fun saveComments(comments: CachedSubmissionComments)
 
+  @Insert(onConflict = OnConflictStrategy.REPLACE)
+  fun saveCommentRows(rows: List<CachedComment>)
+
+  @Query("DELETE FROM cachedcomment WHERE request = :request")
+  fun deleteCommentRows(request: DankSubmissionRequest)
+
+  @Query("DELETE FROM cachedcomment WHERE request = :request AND parentRowId = :parentRowId AND rowId NOT IN (:childRowIds)")
+  fun deleteCommentRowsExcept(request: DankSubmissionRequest, parentRowId: String, childRowIds: List<String>)
+
+  @Query("DELETE FROM cachedcomment WHERE request NOT IN (SELECT request FROM cachedsubmissioncomments)")
+  fun deleteOrphanedCommentRows(): Int
+
+  @Transaction
+  fun saveCommentsAndRows(comments: CachedSubmissionComments, rows: List<CachedComment>) {
+    deleteCommentRows(comments.request)
+    saveCommentRows(rows)
+    saveComments(comments)
+  }
+
+  /**
+   * Saves the subtree of a comment after more of its replies were loaded. Its rows get replaced
+   * because the "load more" row keeps its id across pages while its children and position change.
+   * The "load more" row gets removed once all replies are loaded.
+   */
+  @Transaction
+  fun saveMoreCommentRows(comments: CachedSubmissionComments, parentRowId: String, subtreeRows: List<CachedComment>) {
+    val childRowIds = subtreeRows.filter { it.parentRowId == parentRowId }.map { it.rowId }
+    saveCommentRows(subtreeRows)
+    deleteCommentRowsExcept(comments.request, parentRowId, childRowIds)
+    saveComments(comments)
+  }
+
   @Query("SELECT * FROM cachedsubmissioncomments WHERE saveTimeMillis < :savedBeforeMillis")
   fun countOfSubmissionWithComments(savedBeforeMillis: Long): Flowable<List<CachedSubmissionComments>>
 
@@ -95,10 +203,25 @@ interface CachedSubmissionDao {
   fun deleteAllSubmissionIds()
 
   @Query("DELETE FROM cachedsubmissioncomments WHERE request = :request")
-  fun deleteComments(request: DankSubmissionRequest)
+  fun deleteCommentsRoot(request: DankSubmissionRequest)
+
+  @Transaction
+  fun deleteComments(request: DankSubmissionRequest) {
+    deleteCommentsRoot(request)
+    deleteCommentRows(request)
+  }
 
   @Query("DELETE FROM cachedsubmissioncomments")
-  fun deleteAllComments()
+  fun deleteAllCommentRoots()
+
+  @Query("DELETE FROM cachedcomment")
+  fun deleteAllCommentRows()
+
+  @Transaction
+  fun deleteAllComments() {
+    deleteAllCommentRoots()
+    deleteAllCommentRows()
+  }
 
   @Query("DELETE FROM cachedsubmissionid2 WHERE saveTimeMillis < :savedBeforeMillis")
   fun deleteSubmissionIdsBefore(savedBeforeMillis: Long): Int
@@ -115,45 +238,36 @@ interface CachedSubmissionDao {
     deletedRowCount += deleteSubmissionIdsBefore(savedBeforeMillis)
     deletedRowCount += deleteSubmissionsBefore(savedBeforeMillis)
     deletedRowCount += deleteSubmissionCommentsBefore(savedBeforeMillis)
+    deletedRowCount += deleteOrphanedCommentRows()
     return deletedRowCount
   }
 
-  @Query("SELECT S.submission FROM cachedsubmissionid2 ID\nINNER JOIN cachedsubmission S\nON ID.id = S.id\nWHERE ID.subredditName = :subredditName AND ID.sortingAndTimePeriod = :sortingAndTimePeriod\nORDER BY ID.saveTimeMillis ASC")
-  fun submissionsInFolderAsc(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): Flowable<List<Submission>>
+  @Query("SELECT S.id, S.saveTimeMillis FROM cachedsubmissionid2 ID\nINNER JOIN cachedsubmission S\nON ID.id = S.id\nWHERE ID.subredditName = :subredditName AND ID.sortingAndTimePeriod = :sortingAndTimePeriod\nORDER BY ID.saveTimeMillis ASC")
+  fun submissionVersionsInFolderAsc(subredditName: String, sortingAndTimePeriod: SortingAndTimePeriod): Flowable<List<CachedSubmissionVersion>>
+
+  /**
+   * Callers should keep [ids] under SQLite's limit of 999 variables.
+   */
+  @Query("SELECT * FROM cachedsubmission WHERE id IN (:ids)")
+  fun submissions(ids: List<String>): List<CachedSubmission>
 }
 
+/**
+ * Submissions are stored as [BinaryJson]. Rows saved before that are stored as JSON text
+ * and are still readable.
+ */
 class SubmissionRoomTypeConverter {
 
-  private val adapter by lazy { JrawUtils.adapter<Submission>().serializeNulls() }
+  private val adapter by lazy { BinaryJsonAdapter(JrawUtils.adapter<Submission>().serializeNulls()) }
 
   @TypeConverter
-  fun toJson(submission: Submission): String {
-    return adapter.toJson(submission)
+  fun toBytes(submission: Submission): ByteArray {
+    return adapter.toBytes(submission)
   }
 
   @TypeConverter
-  fun fromJson(json: String): Submission {
-    return adapter.fromJson(json)!!
-  }
-}
-
-class RepliesRoomTypeConverter {
-  private val adapter by lazy {
-    val type = Types.newParameterizedType(Listing::class.java, NestedIdentifiable::class.java)
-    JrawUtils.moshi.adapter<Listing<NestedIdentifiable>>(type, Enveloped::class.java).serializeNulls()
-  }
-
-  @TypeConverter
-  fun toJson(replies: Listing<NestedIdentifiable>): String {
-    return adapter.toJson(replies)
-  }
-
-  @TypeConverter
-  fun fromJson(json: String?): Listing<NestedIdentifiable>? {
-    if (json == null) {
-      return null
-    }
-    return adapter.fromJson(json) as Listing<NestedIdentifiable>
+  fun fromBytes(bytes: ByteArray): Submission {
+    return adapter.fromBytes(bytes)!!
   }
 }
 
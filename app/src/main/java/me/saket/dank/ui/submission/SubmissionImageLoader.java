@@ -23,9 +23,12 @@ import dagger.Lazy;
 import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import me.saket.dank.R;
+import me.saket.dank.cache.CachePreFillStats;
+import me.saket.dank.data.CachePreFillThing;
 import me.saket.dank.ui.preferences.NetworkStrategy;
 import me.saket.dank.ui.submission.adapter.ImageWithMultipleVariants;
 import me.saket.dank.urlparser.MediaLink;
+import me.saket.dank.utils.AdaptiveMediaQuality;
 import me.saket.dank.utils.NetworkStateListener;
 import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.glide.GlidePaddingTransformation;
@@ -35,6 +38,8 @@ public class SubmissionImageLoader {
 
   private final Lazy<Preference<NetworkStrategy>> hdMediaNetworkStrategyPref;
   private final Lazy<NetworkStateListener> networkStateListener;
+  private final CachePreFillStats preFillStats;
+  private final Lazy<AdaptiveMediaQuality> mediaQuality;
 
   private final GlidePaddingTransformation glidePaddingTransformation;
   private final Size deviceDisplaySize;
@@ -43,10 +48,14 @@ public class SubmissionImageLoader {
   public SubmissionImageLoader(
       Application appContext,
       Lazy<NetworkStateListener> networkStateListener,
-      @Named("hd_media_in_submissions") Lazy<Preference<NetworkStrategy>> hdMediaNetworkStrategyPref)
+      @Named("hd_media_in_submissions") Lazy<Preference<NetworkStrategy>> hdMediaNetworkStrategyPref,
+      CachePreFillStats preFillStats,
+      Lazy<AdaptiveMediaQuality> mediaQuality)
   {
+    this.mediaQuality = mediaQuality;
     this.hdMediaNetworkStrategyPref = hdMediaNetworkStrategyPref;
     this.networkStateListener = networkStateListener;
+    this.preFillStats = preFillStats;
 
     Resources res = appContext.getResources();
     deviceDisplaySize = new Size(res.getDisplayMetrics().widthPixels, res.getDisplayMetrics().heightPixels);
@@ -84,10 +93,7 @@ public class SubmissionImageLoader {
       Optional<Scheduler> scheduler,
       RequestOptions options)
   {
-    return hdMediaNetworkStrategyPref.get().asObservable()
-        .switchMap(strategy -> networkStateListener.get().streamNetworkInternetCapability(strategy, scheduler))
-        .firstOrError()
-        .map(canLoadHighDef -> imageUrlSuitableForNetwork(mediaLink, redditPreviews, canLoadHighDef))
+    return imageUrlSuitableForNetwork(mediaLink, redditPreviews, scheduler)
         .flatMap(imageUrl -> loadImage(context, imageUrl, options));
   }
 
@@ -109,6 +115,34 @@ public class SubmissionImageLoader {
     return load(context, mediaLink, Optional.empty(), Optional.empty(), options);
   }
 
+  /**
+   * Like {@link #load(Context, MediaLink, SubmissionPreview, RequestOptions)}, but for pre-filling
+   * the cache. Isn't counted as a use in {@link CachePreFillStats}.
+   *
+   * @return URL of the loaded image.
+   */
+  public Single<String> preFill(Context context, MediaLink mediaLink, @Nullable SubmissionPreview redditPreviews, RequestOptions options) {
+    return imageUrlSuitableForNetwork(mediaLink, Optional.ofNullable(redditPreviews), Optional.empty())
+        .flatMap(imageUrl -> preFillImage(context, imageUrl, options));
+  }
+
+  /**
+   * Like {@link #loadImage(Context, String, RequestOptions)}, but for pre-filling
+   * the cache. Isn't counted as a use in {@link CachePreFillStats}.
+   *
+   * @return <var>imageUrl</var>.
+   */
+  public Single<String> preFillImage(Context context, String imageUrl, RequestOptions options) {
+    return loadImageWithGlide(context, imageUrl, options).map(o -> imageUrl);
+  }
+
+  private Single<String> imageUrlSuitableForNetwork(MediaLink mediaLink, Optional<SubmissionPreview> redditPreviews, Optional<Scheduler> scheduler) {
+    return hdMediaNetworkStrategyPref.get().asObservable()
+        .switchMap(strategy -> networkStateListener.get().streamNetworkInternetCapability(strategy, scheduler))
+        .firstOrError()
+        .map(canLoadHighDef -> imageUrlSuitableForNetwork(mediaLink, redditPreviews, canLoadHighDef));
+  }
+
   private String imageUrlSuitableForNetwork(MediaLink mediaLink, Optional<SubmissionPreview> redditPreviews, boolean canLoadHighDef) {
     if (canLoadHighDef) {
       return mediaLink.highQualityUrl();
@@ -118,7 +152,7 @@ public class SubmissionImageLoader {
       String defaultImageUrl = mediaLink.lowQualityUrl();
       return mediaLink.isGif()
           ? defaultImageUrl
-          : ImageWithMultipleVariants.Companion.of(redditPreviews).findNearestFor(deviceDisplaySize.getWidth(), defaultImageUrl);
+          : ImageWithMultipleVariants.Companion.of(redditPreviews).findNearestFor(deviceDisplaySize.getWidth(), defaultImageUrl, mediaQuality.get());
     }
   }
 
@@ -128,6 +162,11 @@ public class SubmissionImageLoader {
       return Single.just(context.getDrawable(R.drawable.dank_cat));
     }
 
+    return loadImageWithGlide(context, imageUrl, options)
+        .doOnSubscribe(o -> preFillStats.recordUse(CachePreFillThing.IMAGES, imageUrl));
+  }
+
+  private Single<Drawable> loadImageWithGlide(Context context, String imageUrl, RequestOptions options) {
     RequestOptions optionsWithTransform = options.transform(glidePaddingTransformation);
     RequestOptions optionsWithSample = applyDownsamplingStrategy(optionsWithTransform, deviceDisplaySize);
 
@@ -45,6 +45,7 @@ import com.devbrackets.android.exomedia.ui.widget.VideoView;
 import com.f2prateek.rx.preferences2.Preference;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.cache.Cache;
 import com.jakewharton.rxbinding2.view.RxView;
 import com.jakewharton.rxrelay2.BehaviorRelay;
 import com.jakewharton.rxrelay2.PublishRelay;
@@ -138,10 +139,12 @@ import me.saket.dank.urlparser.ImgurAlbumLink;
 import me.saket.dank.urlparser.Link;
 import me.saket.dank.urlparser.MediaLink;
 import me.saket.dank.urlparser.UrlParser;
+import me.saket.dank.utils.AdaptiveMediaQuality;
 import me.saket.dank.utils.Animations;
 import me.saket.dank.utils.DankSubmissionRequest;
 import me.saket.dank.utils.ExoPlayerManager;
 import me.saket.dank.utils.Function0;
+import me.saket.dank.utils.InfiniteScrollListener;
 import me.saket.dank.utils.JrawUtils2;
 import me.saket.dank.utils.Keyboards;
 import me.saket.dank.utils.LinearSmoothScrollerWithVerticalSnapPref;
@@ -173,10 +176,12 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
   private static final String KEY_INLINE_REPLY_ROW_ID = "inlineReplyRowId";
   private static final String KEY_CALLING_SUBREDDIT = "immediateParentSubreddit";
   private static final String KEY_COMMENT_ROW_COUNT = "commentRowCount";
+  private static final String KEY_TOP_LEVEL_COMMENT_LIMIT = "topLevelCommentLimit";
   private static final long COMMENT_LIST_ITEM_CHANGE_ANIM_DURATION = ExpandablePageLayout.DEFAULT_ANIM_DURATION;
   private static final long ACTIVITY_CONTENT_RESIZE_ANIM_DURATION = 300;
   private static final int REQUEST_CODE_PICK_GIF = 98;
   private static final int REQUEST_CODE_FULLSCREEN_REPLY = 99;
+  private static final int TOP_LEVEL_COMMENTS_FIRST_PAGE_SIZE = 20;
 
   @BindView(R.id.submission_toolbar) View toolbar;
   @BindView(R.id.submission_toolbar_close) ImageButton toolbarCloseButton;
@@ -216,6 +221,8 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
   @Inject Lazy<SubmissionImageHolder> contentImageViewHolder;
   @Inject Lazy<ErrorResolver> errorResolver;
   @Inject Lazy<MediaHostRepository> mediaHostRepository;
+  @Inject @Named("dash_videos") Lazy<Cache> dashVideoCache;
+  @Inject Lazy<AdaptiveMediaQuality> mediaQuality;
 
   private BehaviorRelay<DankSubmissionRequest> submissionRequestStream = BehaviorRelay.create();
   private BehaviorRelay<Optional<SubmissionAndComments>> submissionStream = BehaviorRelay.createDefault(Optional.empty());
@@ -227,12 +234,14 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
   private BehaviorRelay<Optional<SubmissionContentLoadError>> mediaContentLoadErrors = BehaviorRelay.createDefault(Optional.empty());
   private BehaviorRelay<Optional<ResolvedError>> commentsLoadErrors = BehaviorRelay.createDefault(Optional.empty());
   private BehaviorRelay<Optional<String>> callingSubreddits = BehaviorRelay.createDefault(Optional.empty());
+  private BehaviorRelay<Integer> topLevelCommentLimitStream = BehaviorRelay.createDefault(TOP_LEVEL_COMMENTS_FIRST_PAGE_SIZE);
 
   private SubmissionPageLayout submissionPageLayout;
   private int deviceDisplayWidth, deviceDisplayHeight;
   private boolean isCommentSheetBeneathImage;
   private SubmissionPageLifecycleStreams lifecycleStreams;
   private int commentRowCountBeforeActivityDestroy = -1;
+  private int topLevelCommentLimitBeforeActivityDestroy = -1;
 
   private Relay<UiEvent> uiEvents = PublishRelay.create();
 
@@ -370,6 +379,7 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
         .map(data -> data.size())
         .orElse(0);
     outState.putInt(KEY_COMMENT_ROW_COUNT, uiModelsSize);
+    outState.putInt(KEY_TOP_LEVEL_COMMENT_LIMIT, topLevelCommentLimitStream.getValue());
 
     //noinspection CodeBlock2Expr
     callingSubreddits.getValue().ifPresent(subredditName -> {
@@ -389,6 +399,7 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
     Optional<String> callingSubreddit = Optional.ofNullable(restoredValues.getString(KEY_CALLING_SUBREDDIT));
 
     commentRowCountBeforeActivityDestroy = restoredValues.getInt(KEY_COMMENT_ROW_COUNT);
+    topLevelCommentLimitBeforeActivityDestroy = restoredValues.getInt(KEY_TOP_LEVEL_COMMENT_LIMIT, -1);
 
     if (willPageExpandAgain && restoredValues.containsKey(KEY_SUBMISSION_REQUEST)) {
       DankSubmissionRequest retainedRequest = restoredValues.getParcelable(KEY_SUBMISSION_REQUEST);
@@ -445,7 +456,7 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
         //.doOnNext(o -> commentsLoadProgressVisibleStream.accept(true))
         //.doOnNext(o -> Timber.d("------------------"))
         .doOnNext(request -> uiEvents.accept(SubmissionRequestChanged.create(request)))
-        .switchMap(submissionRequest -> submissionRepository.submissionWithComments(submissionRequest)
+        .switchMap(submissionRequest -> submissionRepository.submissionWithComments(submissionRequest, topLevelCommentLimitStream)
             //.compose(RxUtils.doOnceOnNext(o -> Timber.d("Submission received")))
             //.doOnNext(o -> Timber.i("%s comments", o.second().getComments().map(node -> node.totalSize())))
             .flatMap(pair -> {
@@ -486,6 +497,21 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
         .takeUntil(lifecycle().onDestroy())
         .subscribe(submissionStream);
 
+    // Page in more top-level comments as the list gets scrolled. The limit is doubled on every
+    // page so that the total work of re-inflating the tree stays linear to the thread's size.
+    InfiniteScrollListener commentsScrollListener = InfiniteScrollListener.create(commentRecyclerView, InfiniteScrollListener.DEFAULT_LOAD_THRESHOLD);
+    commentsScrollListener.emitWhenLoadNeeded()
+        .filter(o -> hasMoreTopLevelCommentsToShow())
+        .takeUntil(lifecycle().onDestroy())
+        .subscribe(o -> {
+          commentsScrollListener.setLoadOngoing(true);
+          topLevelCommentLimitStream.accept(topLevelCommentLimitStream.getValue() * 2);
+        });
+
+    commentsAdapter.dataChanges()
+        .takeUntil(lifecycle().onDestroy())
+        .subscribe(o -> commentsScrollListener.setLoadOngoing(false));
+
     // Adapter data-set.
     submissionUiConstructor
         .stream(
@@ -499,7 +525,7 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
         )
         .subscribeOn(io())
         .toFlowable(BackpressureStrategy.LATEST)
-        .compose(RxDiffUtil.calculateDiff(CommentsItemDiffer.Companion::create))
+        .compose(RxDiffUtil.calculateSplicedDiff(CommentsItemDiffer.Companion::create))
         .observeOn(mainThread())
         .takeUntil(lifecycle().onDestroyFlowable())
         .subscribe(commentsAdapter);
@@ -973,7 +999,7 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
   }
 
   private void setupContentVideoView() {
-    ExoPlayerManager exoPlayerManager = ExoPlayerManager.newInstance(contentVideoView);
+    ExoPlayerManager exoPlayerManager = ExoPlayerManager.newInstance(contentVideoView, dashVideoCache.get());
     exoPlayerManager.manageLifecycle(lifecycle())
         .ambWith(lifecycle().onDestroyCompletable())
         .subscribe();
@@ -1287,6 +1313,10 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
    * @param callingSubreddit   Subreddit name from where this submission is being open. Empty when being opened from elsewhere.
    */
   public void populateUi(Optional<Submission> optionalSubmission, DankSubmissionRequest submissionRequest, Optional<String> callingSubreddit) {
+    // Start with the first page of comments unless we're restoring the previous limit after a config change.
+    topLevelCommentLimitStream.accept(Math.max(TOP_LEVEL_COMMENTS_FIRST_PAGE_SIZE, topLevelCommentLimitBeforeActivityDestroy));
+    topLevelCommentLimitBeforeActivityDestroy = -1;
+
     // This will load comments and then again update the title, byline and content.
     submissionRequestStream.accept(submissionRequest);
 
@@ -1310,6 +1340,11 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
     }
   }
 
+  private boolean hasMoreTopLevelCommentsToShow() {
+    Optional<RootCommentNode> optionalComments = submissionStream.getValue().flatMap(SubmissionAndComments::getComments);
+    return optionalComments.isPresent() && optionalComments.get().getReplies().size() >= topLevelCommentLimitStream.getValue();
+  }
+
   private void loadSubmissionContent(Submission submission) {
     Single.fromCallable(() -> urlParser.get().parse(submission.getUrl(), submission))
         .subscribeOn(io())
@@ -1332,7 +1367,8 @@ public class SubmissionPageLayout extends ExpandablePageLayout implements Expand
                   int albumContentLinkThumbnailWidth = SubmissionCommentsHeader.getWidthForAlbumContentLinkThumbnail(getContext());
                   String albumCoverImageUrl = redditSuppliedImages.findNearestFor(
                       albumContentLinkThumbnailWidth,
-                      ((ImgurAlbumLink) resolvedLink).coverImageUrl()
+                      ((ImgurAlbumLink) resolvedLink).coverImageUrl(),
+                      mediaQuality.get()
                   );
                   return ((ImgurAlbumLink) resolvedLink).withCoverImageUrl(albumCoverImageUrl);
                 }
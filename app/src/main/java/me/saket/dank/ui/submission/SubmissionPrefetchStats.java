@@ -0,0 +1,86 @@
+package me.saket.dank.ui.submission;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.saket.dank.utils.StatsCounters;
+
+/**
+ * Counters for the next-page prefetches made by {@link SubmissionRepository}. A page counts as
+ * "waited" when the user reached the end of the list before its prefetch had finished.
+ */
+public class SubmissionPrefetchStats {
+
+  private final StatsCounters counters = new StatsCounters("SubmissionPrefetchStats");
+  private final AtomicLong started = counters.add("started");
+  private final AtomicLong used = counters.add("used");
+  private final AtomicLong waited = counters.add("waited");
+  private final AtomicLong dropped = counters.add("dropped");
+  private final AtomicLong failed = counters.add("failed");
+  private final AtomicLong notPrefetched = counters.add("notPrefetched");
+
+  public void recordStarted() {
+    started.incrementAndGet();
+  }
+
+  public void recordUsed(boolean hadFinished) {
+    used.incrementAndGet();
+    if (!hadFinished) {
+      waited.incrementAndGet();
+    }
+  }
+
+  public void recordDropped() {
+    dropped.incrementAndGet();
+  }
+
+  public void recordFailed() {
+    failed.incrementAndGet();
+  }
+
+  public void recordNotPrefetched() {
+    notPrefetched.incrementAndGet();
+  }
+
+  public long startedCount() {
+    return started.get();
+  }
+
+  public long usedCount() {
+    return used.get();
+  }
+
+  /**
+   * Prefetches that were used but hadn't finished by the time the end of the list was reached.
+   */
+  public long waitedCount() {
+    return waited.get();
+  }
+
+  public long droppedCount() {
+    return dropped.get();
+  }
+
+  public long failedCount() {
+    return failed.get();
+  }
+
+  /**
+   * Pages that had to be fetched on demand because nothing was prefetched for them.
+   */
+  public long notPrefetchedCount() {
+    return notPrefetched.get();
+  }
+
+  /**
+   * Fraction of pages that were available before the end of the list was reached.
+   */
+  public double readyRate() {
+    long requests = usedCount() + failedCount() + notPrefetchedCount();
+    return requests == 0 ? 0 : (double) (usedCount() - waitedCount()) / requests;
+  }
+
+  @Override
+  public String toString() {
+    return counters.format("readyRate", readyRate());
+  }
+}
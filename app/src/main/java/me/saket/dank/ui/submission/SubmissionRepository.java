@@ -2,7 +2,9 @@ package me.saket.dank.ui.submission;
 
 import static io.reactivex.schedulers.Schedulers.io;
 
+import android.os.Process;
 import android.support.annotation.CheckResult;
+import android.support.annotation.VisibleForTesting;
 
 import com.google.auto.value.AutoValue;
 import com.jakewharton.rxbinding2.internal.Notification;
@@ -23,9 +25,14 @@ import org.threeten.bp.ZoneId;
 import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -33,9 +40,15 @@ import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
+import kotlin.jvm.functions.Function2;
 import me.saket.dank.BuildConfig;
+import me.saket.dank.cache.CachePreFillStats;
+import me.saket.dank.cache.SingleFlight;
+import me.saket.dank.cache.SingleFlightStats;
 import me.saket.dank.data.AppDatabase;
+import me.saket.dank.data.CachePreFillThing;
 import me.saket.dank.data.ErrorResolver;
 import me.saket.dank.data.FullNameType;
 import me.saket.dank.data.PaginationAnchor;
@@ -49,6 +62,7 @@ import me.saket.dank.ui.subscriptions.SubscriptionRepository;
 import me.saket.dank.utils.Arrays2;
 import me.saket.dank.utils.DankSubmissionRequest;
 import me.saket.dank.utils.Pair;
+import me.saket.dank.utils.Trio;
 import me.saket.dank.vote.VotingManager;
 import me.saket.dank.walkthrough.SyntheticData;
 import me.saket.dank.walkthrough.SyntheticSubmissionAndComments;
@@ -57,6 +71,9 @@ import timber.log.Timber;
 @Singleton
 public class SubmissionRepository {
 
+  private static final int MAX_PREFETCHED_PAGES = 2;
+  private static final int MAX_IDS_PER_QUERY = 500;
+
   private final Lazy<Moshi> moshi;
   @Deprecated private final Lazy<BriteDatabase> database;
   private final Lazy<AppDatabase> roomDatabase;
@@ -66,8 +83,14 @@ public class SubmissionRepository {
   private final Lazy<SubscriptionRepository> subscriptionRepository;
   private final Lazy<SyntheticData> syntheticData;
   private final Lazy<ReplyRepository> replyRepository;
+  private final CachePreFillStats preFillStats;
 
   private Cache<DankSubmissionRequest, CachedSubmissionAndComments> inMemoryCache;
+  private Cache<String, CachedSubmission> parsedSubmissions;
+  private final AtomicReference<PrefetchedPages> prefetchedPages = new AtomicReference<>();
+  private final SubmissionPrefetchStats prefetchStats = new SubmissionPrefetchStats();
+  private final SingleFlight<DankSubmissionRequest, RootCommentNode> threadFetches = new SingleFlight<>("submission_threads");
+  private final Map<DankSubmissionRequest, ThreadFetch> threadFetchesInFlight = new ConcurrentHashMap<>();
 
   @Inject
   public SubmissionRepository(
@@ -79,9 +102,11 @@ public class SubmissionRepository {
       Lazy<ErrorResolver> errorResolver,
       Lazy<SubscriptionRepository> subscriptionRepository,
       Lazy<ReplyRepository> replyRepository,
-      Lazy<SyntheticData> syntheticData)
+      Lazy<SyntheticData> syntheticData,
+      CachePreFillStats preFillStats)
   {
     this.database = briteDatabase;
+    this.preFillStats = preFillStats;
     this.moshi = moshi;
     this.roomDatabase = roomDatabase;
     this.reddit = reddit;
@@ -95,18 +120,65 @@ public class SubmissionRepository {
         .expireAfterAccess(1, TimeUnit.HOURS)
         .maximumSize(100)
         .build();
+
+    // Not capped by size, because a folder keeps growing as it's scrolled and a cap smaller than it
+    // would re-parse the folder on every emission. Folders that aren't being shown expire instead.
+    parsedSubmissions = CacheBuilder.newBuilder()
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .build();
   }
 
 // ======== SUBMISSION WITH COMMENTS ======== //
 
+  /**
+   * Get from DB or from the network if not present in DB, with all comments.
+   *
+   * @see #submissionWithComments(DankSubmissionRequest, Observable)
+   */
+  @CheckResult
+  public Observable<Pair<DankSubmissionRequest, SubmissionAndComments>> submissionWithComments(DankSubmissionRequest oldRequest) {
+    return submissionWithComments(oldRequest, Observable.just(Integer.MAX_VALUE));
+  }
+
   /**
    * Get from DB or from the network if not present in DB.
    *
+   * @param topLevelCommentLimits Number of top-level comments (along with their replies) to include in the comment
+   *                              tree. A new tree is emitted every time this changes, so that large threads can be
+   *                              paged in as the user scrolls instead of being inflated entirely up front.
    * @return Pair of an optionally-updated submission request in case remote suggested a
    * different sort for comments and the submission object with comments.
    */
   @CheckResult
-  public Observable<Pair<DankSubmissionRequest, SubmissionAndComments>> submissionWithComments(DankSubmissionRequest oldRequest) {
+  public Observable<Pair<DankSubmissionRequest, SubmissionAndComments>> submissionWithComments(
+      DankSubmissionRequest oldRequest,
+      Observable<Integer> topLevelCommentLimits)
+  {
+    return submissionWithComments(oldRequest, topLevelCommentLimits, FetchPriority.USER)
+        .doOnSubscribe(o -> preFillStats.recordUse(CachePreFillThing.COMMENTS, oldRequest.id()));
+  }
+
+  /**
+   * Like {@link #submissionWithComments(DankSubmissionRequest)}, but fetches at a background priority.
+   * Opening the same thread while it's being fetched here promotes the fetch instead of starting another one.
+   */
+  @CheckResult
+  public Observable<Pair<DankSubmissionRequest, SubmissionAndComments>> preFillSubmissionWithComments(DankSubmissionRequest request) {
+    return submissionWithComments(request, Observable.just(Integer.MAX_VALUE), FetchPriority.PRE_FILL);
+  }
+
+  /**
+   * Counts thread fetches that were issued and the duplicate ones that were avoided.
+   */
+  public SingleFlightStats threadFetchStats() {
+    return threadFetches.stats();
+  }
+
+  private Observable<Pair<DankSubmissionRequest, SubmissionAndComments>> submissionWithComments(
+      DankSubmissionRequest oldRequest,
+      Observable<Integer> topLevelCommentLimits,
+      FetchPriority priority)
+  {
     if (oldRequest.id().equalsIgnoreCase(SyntheticData.SUBMISSION_ID_FOR_GESTURE_WALKTHROUGH)) {
       //Timber.i("Returning from Synthetic.");
       return syntheticSubmissionForGesturesWalkthrough()
@@ -120,7 +192,7 @@ public class SubmissionRepository {
           .toObservable();
     }
 
-    Observable<Pair<DankSubmissionRequest, CachedSubmissionAndComments>> dbStream = getFromDbOrFetchSubmissionWithComments(oldRequest)
+    Observable<Pair<DankSubmissionRequest, CachedSubmissionAndComments>> dbStream = getFromDbOrFetchSubmissionWithComments(oldRequest, topLevelCommentLimits, priority)
         .take(1)
         .flatMap(submissionWithComments -> {
           // The aim is to always load comments in the sort mode suggested by a subreddit. In case we
@@ -135,13 +207,13 @@ public class SubmissionRepository {
                 .commentSort(suggestedSort, SelectedBy.SUBMISSION_SUGGESTED)
                 .build();
 
-            return getFromDbOrFetchSubmissionWithComments(newRequest)
+            return getFromDbOrFetchSubmissionWithComments(newRequest, topLevelCommentLimits, priority)
                 .map(submissions -> Pair.create(newRequest, submissions));
 
           } else {
             //Timber.i("Returning from DB with the same sort again");
             // We're calling getOrFetch() again to receive a refreshing Observable.
-            return getFromDbOrFetchSubmissionWithComments(oldRequest)
+            return getFromDbOrFetchSubmissionWithComments(oldRequest, topLevelCommentLimits, priority)
                 .startWith(submissionWithComments)
                 .map(submissions -> Pair.create(oldRequest, submissions))
                 //.compose(RxUtils.doOnceOnNext(o -> Timber.i("Returned from memory")))
@@ -170,9 +242,13 @@ public class SubmissionRepository {
    * Get from DB or from the network if not present in DB.
    */
   @CheckResult
-  private Observable<CachedSubmissionAndComments> getFromDbOrFetchSubmissionWithComments(DankSubmissionRequest request) {
+  private Observable<CachedSubmissionAndComments> getFromDbOrFetchSubmissionWithComments(
+      DankSubmissionRequest request,
+      Observable<Integer> topLevelCommentLimits,
+      FetchPriority priority)
+  {
     // This stream is intentionally not shared. I don't know why, but the network call was blocking the DB stream.
-    Observable<List<CachedSubmissionAndComments>> dbStream = roomDatabase.get()
+    Observable<List<CachedSubmissionAndCommentsRow>> dbStream = roomDatabase.get()
         .submissionDao()
         .submissionWithComments(request.id(), request)
         .toObservable();
@@ -180,64 +256,135 @@ public class SubmissionRepository {
     Completable refreshCompletable = dbStream
         .observeOn(io())
         .map(Arrays2::firstOrEmpty)
-        .filter(optionalSubmission -> optionalSubmission.isEmpty() || optionalSubmission.get().comments().isEmpty())
-        .flatMapCompletable(o -> {
-          Single<RootCommentNode> cachedNetworkStream = reddit.get().submissions()
-              .fetch(request)
-              .cache();
-
-          Completable saveCompletable = cachedNetworkStream
-              .map(node -> {
-                Submission submission = node.getSubject();
-                CachedSubmissionComments cachedComments = new CachedSubmissionComments(
-                    submission.getId(),
-                    node.getChildren(),
-                    request,
-                    System.currentTimeMillis());
-                CachedSubmission cachedSubmission = new CachedSubmission(
-                    submission.getId(),
-                    submission,
-                    submission.getSubreddit(),
-                    System.currentTimeMillis());
-                return Pair.create(cachedSubmission, cachedComments);
-              })
-              .flatMapCompletable(this::saveSubmissionData);
+        .filter(optionalSubmission -> optionalSubmission.isEmpty() || !optionalSubmission.get().hasComments())
+        .flatMapCompletable(o -> fetchAndSaveSubmissionWithComments(request, priority));
 
-          Completable removeStaleSyncedLocalReplies = cachedNetworkStream
-              .map(node -> node.getSubject())
-              .map(ParentThread::of)
-              .flatMapCompletable(replyRepository.get()::removeSyncPendingPostedReplies);
+    Observable<CachedSubmissionAndCommentsRow> dbRows = dbStream
+        .flatMap(dbItems -> dbItems.isEmpty() ? Observable.empty() : Observable.just(dbItems.get(0)));
 
-          return saveCompletable.mergeWith(removeStaleSyncedLocalReplies);
-        });
-
-    return dbStream
-        .flatMap(dbItems -> dbItems.isEmpty() ? Observable.empty() : Observable.just(dbItems.get(0)))
+    return withTopLevelCommentLimits(dbRows, topLevelCommentLimits, this::commentRows, io())
         .mergeWith(refreshCompletable.toObservable());
   }
 
-  private Completable saveSubmissionData(Pair<CachedSubmission, CachedSubmissionComments> submissionData) {
+  /**
+   * Comment rows are read from the DB when the comment tree gets built downstream. Limits are
+   * emitted on the main thread when the comment list is scrolled, so everything after them is
+   * moved to <var>dbScheduler</var>.
+   */
+  @VisibleForTesting
+  static Observable<CachedSubmissionAndComments> withTopLevelCommentLimits(
+      Observable<CachedSubmissionAndCommentsRow> dbRows,
+      Observable<Integer> topLevelCommentLimits,
+      Function2<DankSubmissionRequest, Integer, List<CachedComment>> commentRowsLoader,
+      Scheduler dbScheduler)
+  {
+    return Observable
+        .combineLatest(
+            dbRows,
+            topLevelCommentLimits.distinctUntilChanged(),
+            (row, limit) -> new CachedSubmissionAndComments(row, limit, commentRowsLoader))
+        .observeOn(dbScheduler);
+  }
+
+  /**
+   * Concurrent fetches of the same request share one network call and DB write. This happens when
+   * the pre-filler and the UI open the same thread, or when the UI resubscribes after switching to
+   * the suggested sort.
+   */
+  private Completable fetchAndSaveSubmissionWithComments(DankSubmissionRequest request, FetchPriority priority) {
+    return Completable.defer(() -> {
+      if (priority == FetchPriority.USER) {
+        ThreadFetch inFlightFetch = threadFetchesInFlight.get(request);
+        if (inFlightFetch != null && inFlightFetch.promote()) {
+          threadFetches.stats().recordPromoted();
+        }
+      }
+
+      ThreadFetch fetch = new ThreadFetch(priority);
+      return threadFetches
+          .single(request, () -> fetchAndSaveSubmissionWithCommentsUnshared(request, fetch)
+              .doOnSubscribe(o -> threadFetchesInFlight.put(request, fetch))
+              .doFinally(() -> threadFetchesInFlight.remove(request, fetch)))
+          .toCompletable();
+    });
+  }
+
+  private Single<RootCommentNode> fetchAndSaveSubmissionWithCommentsUnshared(DankSubmissionRequest request, ThreadFetch fetch) {
+    return reddit.get().submissions()
+        .fetch(request)
+        .doOnSubscribe(o -> fetch.onStart())
+        .flatMap(node -> {
+          Submission submission = node.getSubject();
+          CommentTreeRows.Normalized normalizedComments = CommentTreeRows.INSTANCE.normalize(
+              request,
+              submission.getFullName(),
+              node.getChildren());
+          CachedSubmissionComments cachedComments = new CachedSubmissionComments(
+              submission.getId(),
+              normalizedComments.getEnvelope(),
+              request,
+              System.currentTimeMillis());
+          CachedSubmission cachedSubmission = new CachedSubmission(
+              submission.getId(),
+              submission,
+              submission.getSubreddit(),
+              System.currentTimeMillis());
+
+          Completable saveCompletable = saveSubmissionData(Trio.create(cachedSubmission, cachedComments, normalizedComments.getRows()));
+          Completable removeStaleSyncedLocalReplies = replyRepository.get().removeSyncPendingPostedReplies(ParentThread.of(submission));
+
+          return saveCompletable
+              .mergeWith(removeStaleSyncedLocalReplies)
+              .andThen(Single.just(node));
+        })
+        .doFinally(() -> fetch.onFinish());
+  }
+
+  private Completable saveSubmissionData(Trio<CachedSubmission, CachedSubmissionComments, List<CachedComment>> submissionData) {
     return Completable.fromAction(() -> {
       CachedSubmission cachedSubmission = submissionData.first();
       CachedSubmissionComments cachedSubmissionComments = submissionData.second();
+      List<CachedComment> commentRows = submissionData.third();
 
-      roomDatabase.get().submissionDao().saveSubmission(cachedSubmission);
-      roomDatabase.get().submissionDao().saveComments(cachedSubmissionComments);
+      roomDatabase.get().runInTransaction(() -> {
+        roomDatabase.get().submissionDao().saveSubmission(cachedSubmission);
+        roomDatabase.get().submissionDao().saveCommentsAndRows(cachedSubmissionComments, commentRows);
+      });
     });
   }
 
-  private Completable saveSubmissionComments(SubmissionAndComments submissionData, DankSubmissionRequest request) {
+  /**
+   * Saves only the subtree of <var>loadedCommentNode</var>, whose children were just fetched.
+   */
+  private Completable saveMoreSubmissionComments(
+      SubmissionAndComments submissionData,
+      DankSubmissionRequest request,
+      CommentNode loadedCommentNode)
+  {
     return Completable.fromAction(() -> {
+      Submission submission = submissionData.getSubmission();
       //noinspection ConstantConditions
+      CommentTreeRows.Normalized normalizedComments = CommentTreeRows.INSTANCE.normalize(
+          request,
+          submission.getFullName(),
+          submissionData.getComments().get().getChildren());
+
+      String parentRowId = loadedCommentNode.getSubject().getFullName();
+      List<CachedComment> subtreeRows = CommentTreeRows.INSTANCE.subtreeOf(parentRowId, normalizedComments.getRows());
+
       CachedSubmissionComments cachedSubmissionComments = new CachedSubmissionComments(
-          submissionData.getSubmission().getId(),
-          submissionData.getComments().get().getChildren(),
+          submission.getId(),
+          normalizedComments.getEnvelope(),
           request,
           System.currentTimeMillis());
-      roomDatabase.get().submissionDao().saveComments(cachedSubmissionComments);
+      roomDatabase.get().submissionDao().saveMoreCommentRows(cachedSubmissionComments, parentRowId, subtreeRows);
     });
   }
 
+  private List<CachedComment> commentRows(DankSubmissionRequest request, int topLevelCommentLimit) {
+    return roomDatabase.get().submissionDao().commentRows(request, topLevelCommentLimit);
+  }
+
   @CheckResult
   public Completable loadAndSaveMoreComments(SubmissionAndComments submissionData, DankSubmissionRequest request, CommentNode commentNode) {
     if (!commentNode.getSettings().getSubmissionId().equals(submissionData.getSubmission().getId())) {
@@ -246,7 +393,7 @@ public class SubmissionRepository {
 
     //noinspection unchecked
     return ((Single<SubmissionAndComments>) reddit.get().submissions().fetchMoreComments(submissionData, commentNode))
-        .flatMapCompletable(updatedSubmissionData -> saveSubmissionComments(updatedSubmissionData, request));
+        .flatMapCompletable(updatedSubmissionData -> saveMoreSubmissionComments(updatedSubmissionData, request, commentNode));
   }
 
   public Completable clearCachedSubmissionComments(DankSubmissionRequest request) {
@@ -274,14 +421,53 @@ public class SubmissionRepository {
 
 // ======== SUBMISSION LIST (W/O COMMENTS) ======== //
 
+  /**
+   * Every save to the submission tables re-runs this query, so only the versions of the rows are read
+   * from the DB. Only the submissions that are new or were saved again since the last emission are
+   * read and parsed again from their JSON.
+   */
   @CheckResult
   public Observable<List<Submission>> submissions(CachedSubmissionFolder folder) {
     return roomDatabase.get()
         .submissionDao()
-        .submissionsInFolderAsc(folder.subredditName(), folder.sortingAndTimePeriod())
+        .submissionVersionsInFolderAsc(folder.subredditName(), folder.sortingAndTimePeriod())
+        .map(this::submissionsOfVersions)
         .toObservable();
   }
 
+  private List<Submission> submissionsOfVersions(List<CachedSubmissionVersion> versions) {
+    // Entries are read from parsedSubmissions only once, because putting the stale ones
+    // back can evict the fresh ones.
+    Map<String, CachedSubmission> submissionsById = new HashMap<>(versions.size());
+    List<String> staleIds = new ArrayList<>();
+    for (CachedSubmissionVersion version : versions) {
+      CachedSubmission parsedSubmission = parsedSubmissions.getIfPresent(version.getId());
+      if (parsedSubmission == null || parsedSubmission.getSaveTimeMillis() != version.getSaveTimeMillis()) {
+        staleIds.add(version.getId());
+      } else {
+        submissionsById.put(version.getId(), parsedSubmission);
+      }
+    }
+
+    for (int start = 0; start < staleIds.size(); start += MAX_IDS_PER_QUERY) {
+      List<String> idsToLoad = staleIds.subList(start, Math.min(start + MAX_IDS_PER_QUERY, staleIds.size()));
+      for (CachedSubmission loadedSubmission : roomDatabase.get().submissionDao().submissions(idsToLoad)) {
+        submissionsById.put(loadedSubmission.getId(), loadedSubmission);
+        parsedSubmissions.put(loadedSubmission.getId(), loadedSubmission);
+      }
+    }
+
+    List<Submission> submissions = new ArrayList<>(versions.size());
+    for (CachedSubmissionVersion version : versions) {
+      CachedSubmission cachedSubmission = submissionsById.get(version.getId());
+      // Can be null if the submission got deleted after its version was read.
+      if (cachedSubmission != null) {
+        submissions.add(cachedSubmission.getSubmission());
+      }
+    }
+    return Collections.unmodifiableList(submissions);
+  }
+
   /**
    * @return Operates on the main thread.
    */
@@ -293,9 +479,12 @@ public class SubmissionRepository {
             .fromCallable(() -> {
               PaginationAnchor nextAnchor = anchor;
               int savedSubmissionCount = 0;
+              Iterator<FetchResult> stagedPages = takePrefetchedPages(folder, anchor).iterator();
 
               while (true) {
-                FetchResult fetchResult = fetchSubmissionsFromRemoteWithAnchor(folder, nextAnchor);
+                FetchResult fetchResult = stagedPages.hasNext()
+                    ? stagedPages.next()
+                    : fetchSubmissionsFromRemoteWithAnchor(folder, nextAnchor);
                 votingManager.get().removePendingVotesForFetchedSubmissions(fetchResult.fetchedSubmissions()).subscribe();
                 //Timber.i("Found %s submissions on remote", fetchResult.fetchedSubmissions().size());
 
@@ -308,8 +497,11 @@ public class SubmissionRepository {
                 }
 
                 //Timber.i("%s distinct items not enough", distinctNewItems.size());
-                Submission lastFetchedSubmission = fetchResult.fetchedSubmissions().get(fetchResult.fetchedSubmissions().size() - 1);
-                nextAnchor = PaginationAnchor.create(lastFetchedSubmission.getFullName());
+                nextAnchor = anchorAfter(fetchResult);
+              }
+
+              if (stagedPages.hasNext()) {
+                restagePrefetchedPages(folder, stagedPages);
               }
               //Timber.i("Fetched %s submissions", distinctNewItems.size());
               return savedSubmissionCount;
@@ -356,6 +548,98 @@ public class SubmissionRepository {
         .startWith(SubmissionPaginationResult.inFlight());
   }
 
+  /**
+   * Fetch the next page (or pages) of <var>folder</var> in the background so that they're ready by the time
+   * the user reaches the end of the list. Fetched pages are only kept in memory until
+   * {@link #loadAndSaveMoreSubmissions(CachedSubmissionFolder)} consumes them and are never saved to the DB
+   * on their own, so a prefetch that the user never scrolls to doesn't show up in the list.
+   */
+  @CheckResult
+  public Completable prefetchMoreSubmissions(CachedSubmissionFolder folder, int pageCount) {
+    return lastPaginationAnchor(folder)
+        .flatMapCompletable(anchor -> Completable.fromAction(() -> {
+          PrefetchedPages existingPages = this.prefetchedPages.get();
+          if (existingPages != null && existingPages.isFor(folder, anchor)) {
+            return;
+          }
+
+          int pagesToFetch = Math.min(pageCount, MAX_PREFETCHED_PAGES);
+          PrefetchedPages pages = new PrefetchedPages(folder, anchor, fetchSubmissionsFromRemote(folder, anchor, pagesToFetch));
+          if (!this.prefetchedPages.compareAndSet(existingPages, pages)) {
+            // Another prefetch won the race.
+            return;
+          }
+          if (existingPages != null) {
+            prefetchStats.recordDropped();
+          }
+          prefetchStats.recordStarted();
+          pages.start();
+        }));
+  }
+
+  /**
+   * Drop prefetched pages that don't belong to <var>currentFolder</var>, e.g., when the sorting or the
+   * subreddit changes.
+   */
+  public void dropStalePrefetchedSubmissions(CachedSubmissionFolder currentFolder) {
+    PrefetchedPages existingPages = prefetchedPages.get();
+    if (existingPages != null && !existingPages.folder.equals(currentFolder) && prefetchedPages.compareAndSet(existingPages, null)) {
+      prefetchStats.recordDropped();
+    }
+  }
+
+  public SubmissionPrefetchStats prefetchStats() {
+    return prefetchStats;
+  }
+
+  /**
+   * Blocks if the prefetch is still ongoing.
+   *
+   * @return Empty if nothing was prefetched for <var>anchor</var> or if the prefetch failed.
+   */
+  private List<FetchResult> takePrefetchedPages(CachedSubmissionFolder folder, PaginationAnchor anchor) {
+    PrefetchedPages pages = prefetchedPages.getAndSet(null);
+    if (pages == null) {
+      prefetchStats.recordNotPrefetched();
+      return Collections.emptyList();
+    }
+
+    if (!pages.isFor(folder, anchor)) {
+      prefetchStats.recordDropped();
+      prefetchStats.recordNotPrefetched();
+      return Collections.emptyList();
+    }
+
+    boolean hadFinished = pages.hasFinished();
+    try {
+      List<FetchResult> fetchResults = pages.results.blockingGet();
+      prefetchStats.recordUsed(hadFinished);
+      return fetchResults;
+
+    } catch (RuntimeException e) {
+      // Fetch again on demand so that the error, if any, gets reported the usual way.
+      prefetchStats.recordFailed();
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Pages left over after enough submissions were saved are kept for the next pagination.
+   */
+  private void restagePrefetchedPages(CachedSubmissionFolder folder, Iterator<FetchResult> remainingPages) {
+    List<FetchResult> pages = new ArrayList<>(MAX_PREFETCHED_PAGES);
+    while (remainingPages.hasNext()) {
+      pages.add(remainingPages.next());
+    }
+
+    PaginationAnchor nextAnchor = lastPaginationAnchor(folder).blockingGet();
+    PrefetchedPages restagedPages = new PrefetchedPages(folder, nextAnchor, Single.just(pages));
+    restagedPages.start();
+    if (!prefetchedPages.compareAndSet(null, restagedPages)) {
+      prefetchStats.recordDropped();
+    }
+  }
+
   /**
    * Create a PaginationAnchor from the last cached submission under <var>folder</var>.
    */
@@ -394,6 +678,33 @@ public class SubmissionRepository {
     return FetchResult.create(submissions, subredditPaginator.hasNext());
   }
 
+  /**
+   * Fetch up to <var>pageCount</var> consecutive pages starting at <var>anchor</var>, without saving them.
+   */
+  @CheckResult
+  private Single<List<FetchResult>> fetchSubmissionsFromRemote(CachedSubmissionFolder folder, PaginationAnchor anchor, int pageCount) {
+    return Single.fromCallable(() -> {
+      List<FetchResult> pages = new ArrayList<>(pageCount);
+      PaginationAnchor nextAnchor = anchor;
+
+      while (pages.size() < pageCount) {
+        FetchResult fetchResult = fetchSubmissionsFromRemoteWithAnchor(folder, nextAnchor);
+        pages.add(fetchResult);
+
+        if (!fetchResult.hasMoreItems() || fetchResult.fetchedSubmissions().isEmpty()) {
+          break;
+        }
+        nextAnchor = anchorAfter(fetchResult);
+      }
+      return Collections.unmodifiableList(pages);
+    });
+  }
+
+  private static PaginationAnchor anchorAfter(FetchResult fetchResult) {
+    Submission lastFetchedSubmission = fetchResult.fetchedSubmissions().get(fetchResult.fetchedSubmissions().size() - 1);
+    return PaginationAnchor.create(lastFetchedSubmission.getFullName());
+  }
+
   /**
    * Note: This will ignore duplicates.
    *
@@ -454,11 +765,23 @@ public class SubmissionRepository {
   }
 
   public Completable clearCachedSubmissionLists() {
-    return Completable.fromAction(() -> roomDatabase.get().submissionDao().deleteAllSubmissionIds());
+    return Completable.fromAction(() -> {
+      dropPrefetchedSubmissions();
+      roomDatabase.get().submissionDao().deleteAllSubmissionIds();
+    });
   }
 
   public Completable clearCachedSubmissionLists(String subredditName) {
-    return Completable.fromAction(() -> roomDatabase.get().submissionDao().deleteSubmissionIdsInSubredit(subredditName));
+    return Completable.fromAction(() -> {
+      dropPrefetchedSubmissions();
+      roomDatabase.get().submissionDao().deleteSubmissionIdsInSubredit(subredditName);
+    });
+  }
+
+  private void dropPrefetchedSubmissions() {
+    if (prefetchedPages.getAndSet(null) != null) {
+      prefetchStats.recordDropped();
+    }
   }
 
   /**
@@ -497,6 +820,57 @@ public class SubmissionRepository {
         .andThen(Single.fromCallable(() -> roomDatabase.get().submissionDao().deleteAllSubmissionRelatedRows(millisBeforeNow)));
   }
 
+  private enum FetchPriority {
+    USER,
+    PRE_FILL
+  }
+
+  /**
+   * Pre-fill fetches run at a background thread priority so that they don't compete with the UI.
+   * Promoting a fetch restores its thread's default priority if it has already started.
+   */
+  private static class ThreadFetch {
+    private static final int NOT_STARTED = -1;
+
+    private FetchPriority priority;
+    private int threadId = NOT_STARTED;
+
+    ThreadFetch(FetchPriority priority) {
+      this.priority = priority;
+    }
+
+    synchronized void onStart() {
+      threadId = Process.myTid();
+      if (priority == FetchPriority.PRE_FILL) {
+        Process.setThreadPriority(threadId, Process.THREAD_PRIORITY_BACKGROUND);
+      }
+    }
+
+    /**
+     * @return false if this fetch was already running at the user's priority.
+     */
+    synchronized boolean promote() {
+      if (priority == FetchPriority.USER) {
+        return false;
+      }
+      priority = FetchPriority.USER;
+      if (threadId != NOT_STARTED) {
+        Process.setThreadPriority(threadId, Process.THREAD_PRIORITY_DEFAULT);
+      }
+      return true;
+    }
+
+    /**
+     * Scheduler threads are pooled, so their priority is restored for the next task.
+     */
+    synchronized void onFinish() {
+      if (threadId != NOT_STARTED && priority == FetchPriority.PRE_FILL) {
+        Process.setThreadPriority(threadId, Process.THREAD_PRIORITY_DEFAULT);
+      }
+      threadId = NOT_STARTED;
+    }
+  }
+
   @AutoValue
   abstract static class SaveResult {
     public abstract List<Object> savedItems();
@@ -506,6 +880,38 @@ public class SubmissionRepository {
     }
   }
 
+  /**
+   * Pages fetched ahead of time by {@link #prefetchMoreSubmissions(CachedSubmissionFolder, int)}.
+   */
+  private static class PrefetchedPages {
+    final CachedSubmissionFolder folder;
+    final PaginationAnchor anchor;
+    final Single<List<FetchResult>> results;
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    PrefetchedPages(CachedSubmissionFolder folder, PaginationAnchor anchor, Single<List<FetchResult>> fetch) {
+      this.folder = folder;
+      this.anchor = anchor;
+      this.results = fetch
+          .doOnEvent((o, error) -> finished.set(true))
+          .cache();
+    }
+
+    void start() {
+      results
+          .subscribeOn(io())
+          .subscribe(o -> {}, error -> {});
+    }
+
+    boolean isFor(CachedSubmissionFolder folder, PaginationAnchor anchor) {
+      return this.folder.equals(folder) && this.anchor.equals(anchor);
+    }
+
+    boolean hasFinished() {
+      return finished.get();
+    }
+  }
+
   @AutoValue
   abstract static class FetchResult {
 
@@ -25,6 +25,8 @@ import io.reactivex.Observable;
 import io.reactivex.ObservableSource;
 import io.reactivex.Single;
 import io.reactivex.functions.Function;
+import me.saket.dank.cache.CachePreFillStats;
+import me.saket.dank.data.CachePreFillThing;
 import me.saket.dank.ui.UiEvent;
 import me.saket.dank.ui.preferences.NetworkStrategy;
 import me.saket.dank.ui.submission.events.SubmissionVideoLoadStarted;
@@ -50,6 +52,7 @@ public class SubmissionVideoHolder {
   private final Lazy<NetworkStateListener> networkStateListener;
   private final Lazy<Preference<NetworkStrategy>> hdMediaNetworkStrategy;
   private final Lazy<Preference<NetworkStrategy>> autoPlayVideosNetworkStrategy;
+  private final Lazy<CachePreFillStats> preFillStats;
 
   private Relay<UiEvent> uiEvents;
   private ExoPlayerManager exoPlayerManager;
@@ -66,12 +69,14 @@ public class SubmissionVideoHolder {
       Lazy<HttpProxyCacheServer> httpProxyCacheServer,
       Lazy<NetworkStateListener> networkStateListener,
       @Named("hd_media_in_submissions") Lazy<Preference<NetworkStrategy>> hdMediaNetworkStrategy,
-      @Named("auto_play_videos") Lazy<Preference<NetworkStrategy>> autoPlayVideosNetworkStrategy)
+      @Named("auto_play_videos") Lazy<Preference<NetworkStrategy>> autoPlayVideosNetworkStrategy,
+      Lazy<CachePreFillStats> preFillStats)
   {
     this.httpProxyCacheServer = httpProxyCacheServer;
     this.networkStateListener = networkStateListener;
     this.hdMediaNetworkStrategy = hdMediaNetworkStrategy;
     this.autoPlayVideosNetworkStrategy = autoPlayVideosNetworkStrategy;
+    this.preFillStats = preFillStats;
   }
 
   /**
@@ -227,6 +232,7 @@ public class SubmissionVideoHolder {
       });
 
       VideoFormat videoFormat = VideoFormat.parse(videoUrl);
+      preFillStats.get().recordUse(CachePreFillThing.VIDEOS, videoUrl);
       if (videoFormat.canBeCached()) {
         String cachedVideoUrl = httpProxyCacheServer.get().getProxyUrl(videoUrl);
         exoPlayerManager.setVideoUriToPlayInLoop(cachedVideoUrl, videoFormat);
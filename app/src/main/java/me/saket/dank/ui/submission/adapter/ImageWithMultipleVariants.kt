@@ -2,6 +2,7 @@ package me.saket.dank.ui.submission.adapter
 
 import android.text.Html
 import me.saket.dank.urlparser.UrlParser
+import me.saket.dank.utils.AdaptiveMediaQuality
 import me.saket.dank.utils.Optional
 import net.dean.jraw.models.SubmissionPreview
 import java.util.NoSuchElementException
@@ -51,6 +52,17 @@ class ImageWithMultipleVariants private constructor(private val optionalRedditPr
     }
   }
 
+  /**
+   * Like [findNearestFor], but for a width that's reduced on slow connections.
+   */
+  fun findNearestFor(preferredWidth: Int, mediaQuality: AdaptiveMediaQuality): String {
+    return findNearestFor(mediaQuality.imageWidthFor(preferredWidth))
+  }
+
+  fun findNearestFor(preferredWidth: Int, defaultValue: String, mediaQuality: AdaptiveMediaQuality): String {
+    return findNearestFor(mediaQuality.imageWidthFor(preferredWidth), defaultValue)
+  }
+
   companion object {
 
     fun of(redditSuppliedImages: SubmissionPreview?): ImageWithMultipleVariants {
@@ -1,7 +1,6 @@
 package me.saket.dank.ui.submission.adapter;
 
 import android.support.annotation.CheckResult;
-import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
@@ -28,6 +27,7 @@ import me.saket.dank.utils.Arrays2;
 import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.RecyclerViewArrayAdapter;
+import me.saket.dank.utils.SplicedDiffResult;
 
 /**
  * Steps for creating a new view type:
@@ -38,7 +38,7 @@ import me.saket.dank.utils.RecyclerViewArrayAdapter;
  * 4. Update {@link CommentsItemDiffer}.
  */
 public class SubmissionCommentsAdapter extends RecyclerViewArrayAdapter<SubmissionScreenUiModel, RecyclerView.ViewHolder>
-    implements Consumer<Pair<List<SubmissionScreenUiModel>, DiffUtil.DiffResult>>
+    implements Consumer<Pair<List<SubmissionScreenUiModel>, SplicedDiffResult>>
 {
 
   public static final long ID_COMMENT_OPTIONS = -95;
@@ -102,7 +102,7 @@ public class SubmissionCommentsAdapter extends RecyclerViewArrayAdapter<Submissi
   }
 
   @Override
-  public void accept(Pair<List<SubmissionScreenUiModel>, DiffUtil.DiffResult> pair) {
+  public void accept(Pair<List<SubmissionScreenUiModel>, SplicedDiffResult> pair) {
     updateData(pair.first());
     pair.second().dispatchUpdatesTo(this);
   }
@@ -45,6 +45,7 @@ import me.saket.dank.urlparser.RedditSubmissionLink;
 import me.saket.dank.urlparser.RedditSubredditLink;
 import me.saket.dank.urlparser.RedditUserLink;
 import me.saket.dank.urlparser.UrlParser;
+import me.saket.dank.utils.AdaptiveMediaQuality;
 import me.saket.dank.utils.Colors;
 import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.Pair;
@@ -65,11 +66,18 @@ public class SubmissionContentLinkUiConstructor {
   private final LinkMetadataRepository linkMetadataRepository;
   private final BitmapPool bitmapPool;
   private final Lazy<ErrorResolver> errorResolver;
+  private final Lazy<AdaptiveMediaQuality> mediaQuality;
   private final Map<Target, Drawable> targetsToDispose = new HashMap<>(8);
 
   @Inject
-  public SubmissionContentLinkUiConstructor(LinkMetadataRepository linkMetadataRepository, BitmapPool bitmapPool, Lazy<ErrorResolver> errorResolver) {
+  public SubmissionContentLinkUiConstructor(
+      LinkMetadataRepository linkMetadataRepository,
+      BitmapPool bitmapPool,
+      Lazy<ErrorResolver> errorResolver,
+      Lazy<AdaptiveMediaQuality> mediaQuality)
+  {
     this.linkMetadataRepository = linkMetadataRepository;
+    this.mediaQuality = mediaQuality;
     this.bitmapPool = bitmapPool;
     this.errorResolver = errorResolver;
   }
@@ -381,7 +389,7 @@ public class SubmissionContentLinkUiConstructor {
         .flatMap(hasRedditSuppliedImages -> {
           if (hasRedditSuppliedImages) {
             int thumbnailWidth = SubmissionCommentsHeader.getWidthForAlbumContentLinkThumbnail(context);
-            return Observable.just(redditSuppliedThumbnails.findNearestFor(thumbnailWidth));
+            return Observable.just(redditSuppliedThumbnails.findNearestFor(thumbnailWidth, mediaQuality.get()));
           } else {
             return fallbackThumbnailUrlStream
                 .flatMap(optionalUrl -> optionalUrl.isPresent() ? Observable.just(optionalUrl.get()) : Observable.empty());
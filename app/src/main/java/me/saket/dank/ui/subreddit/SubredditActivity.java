@@ -19,7 +19,7 @@ import android.os.Parcelable;
 import android.support.annotation.Nullable;
 import android.support.transition.TransitionManager;
 import android.support.transition.TransitionSet;
-import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -30,12 +30,14 @@ import android.widget.TextView;
 import com.f2prateek.rx.preferences2.Preference;
 import com.github.zagum.expandicon.ExpandIconView;
 import com.jakewharton.rxbinding2.internal.Notification;
+import com.jakewharton.rxbinding2.support.v7.widget.RxRecyclerView;
 import com.jakewharton.rxrelay2.BehaviorRelay;
 import com.jakewharton.rxrelay2.PublishRelay;
 import com.jakewharton.rxrelay2.Relay;
 
 import net.dean.jraw.models.Submission;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -79,6 +81,7 @@ import me.saket.dank.ui.subreddit.events.SubmissionOpenInNewTabSwipeEvent;
 import me.saket.dank.ui.subreddit.events.SubmissionOptionSwipeEvent;
 import me.saket.dank.ui.subreddit.events.SubredditScreenCreateEvent;
 import me.saket.dank.ui.subreddit.uimodels.SubmissionItemDiffer;
+import me.saket.dank.ui.subreddit.uimodels.SubmissionRowChanges;
 import me.saket.dank.ui.subreddit.uimodels.SubredditScreenUiModel;
 import me.saket.dank.ui.subreddit.uimodels.SubredditUiConstructor;
 import me.saket.dank.ui.subscriptions.SubredditPickerSheetView;
@@ -92,8 +95,8 @@ import me.saket.dank.utils.InfiniteScroller;
 import me.saket.dank.utils.Keyboards;
 import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.Pair;
-import me.saket.dank.utils.RxDiffUtil;
 import me.saket.dank.utils.RxUtils;
+import me.saket.dank.utils.SplicedDiffResult;
 import me.saket.dank.utils.itemanimators.SubmissionCommentsItemAnimator;
 import me.saket.dank.vote.VotingManager;
 import me.saket.dank.widgets.DankToolbar;
@@ -517,7 +520,7 @@ public class SubredditActivity extends DankPullCollapsibleActivity
         CachedSubmissionFolder::new
     );
 
-    Relay<SubmissionPaginationResult> paginationResults = BehaviorRelay.createDefault(SubmissionPaginationResult.idle());
+    BehaviorRelay<SubmissionPaginationResult> paginationResults = BehaviorRelay.createDefault(SubmissionPaginationResult.idle());
     Relay<Optional<List<Submission>>> cachedSubmissionStream = BehaviorRelay.createDefault(Optional.empty());
 
     // Pagination.
@@ -532,6 +535,20 @@ public class SubredditActivity extends DankPullCollapsibleActivity
         )
         .subscribe(paginationResults);
 
+    // Speculative prefetching of the next page(s), so that fast scrollers don't have to wait on the network.
+    submissionFolderStream
+        .observeOn(mainThread())
+        .takeUntil(lifecycle().onDestroy())
+        .doOnNext(folder -> submissionRepository.dropStalePrefetchedSubmissions(folder))
+        .switchMap(folder -> InfiniteScroller.streamPrefetchRequests(submissionRecyclerView)
+            .filter(o -> !paginationResults.getValue().isInFlight())
+            .observeOn(io())
+            .flatMap(pageCount -> submissionRepository.prefetchMoreSubmissions(folder, pageCount)
+                .onErrorComplete()
+                .toObservable())
+        )
+        .subscribe();
+
     // The DB stream and the network stream were previously independent, but were later merged together.
     // This was done because the submissions used to show up for a second before getting cleared off.
 
@@ -581,11 +598,25 @@ public class SubredditActivity extends DankPullCollapsibleActivity
         .subscribeOn(io())
         .share();
 
-    Observable<Pair<List<SubredditScreenUiModel.SubmissionRowUiModel>, DiffUtil.DiffResult>> adapterUpdates = sharedUiModels
-        .map(SubredditScreenUiModel::rowUiModels)
+    // When no rows were added, removed or moved, only the rows that were rebuilt need to be diffed.
+    // Rows are diffed against the last list sent to the adapter, so known changes can only be used if
+    // the emission they were calculated against wasn't dropped by backpressure.
+    Pair<List<SubredditScreenUiModel.SubmissionRowUiModel>, SplicedDiffResult> initialPair = Pair.createNullable(Collections.emptyList(), null);
+    Observable<Pair<List<SubredditScreenUiModel.SubmissionRowUiModel>, SplicedDiffResult>> adapterUpdates = sharedUiModels
         .observeOn(io())
         .toFlowable(BackpressureStrategy.LATEST)
-        .compose(RxDiffUtil.calculateDiff(SubmissionItemDiffer::create))
+        .scan(initialPair, (latestPair, uiModel) -> {
+          List<SubredditScreenUiModel.SubmissionRowUiModel> oldRows = latestPair.first();
+          List<SubredditScreenUiModel.SubmissionRowUiModel> newRows = uiModel.rowUiModels();
+          SubmissionItemDiffer differ = SubmissionItemDiffer.create(oldRows, newRows);
+
+          Optional<SubmissionRowChanges> rowChanges = uiModel.rowChanges();
+          SplicedDiffResult diffResult = rowChanges.isPresent() && rowChanges.get().previousRows() == oldRows
+              ? SplicedDiffResult.ofChangedPositions(oldRows, newRows, rowChanges.get().changedPositions(), differ)
+              : SplicedDiffResult.calculate(oldRows, newRows, differ);
+          return Pair.create(newRows, diffResult);
+        })
+        .skip(1)  // Initial value is dummy.
         .toObservable()
         .observeOn(mainThread());
 
@@ -633,7 +664,14 @@ public class SubredditActivity extends DankPullCollapsibleActivity
         .takeUntil(lifecycle().onDestroy())
         .subscribe(toolbarRefreshVisibilityStream);
 
-    // Cache pre-fill.
+    // Cache pre-fill, starting with the submissions around the visible ones.
+    Observable.merge(RxRecyclerView.scrollEvents(submissionRecyclerView), submissionsAdapter.dataChanges())
+        .map(o -> (LinearLayoutManager) submissionRecyclerView.getLayoutManager())
+        .takeUntil(lifecycle().onDestroy())
+        .subscribe(layoutManager -> cachePreFiller.updateVisibleRange(
+            submissionsAdapter.submissionIndexOf(layoutManager.findFirstVisibleItemPosition()),
+            submissionsAdapter.submissionIndexOf(layoutManager.findLastVisibleItemPosition())));
+
     int submissionAlbumLinkThumbnailWidth = SubmissionCommentsHeader.getWidthForAlbumContentLinkThumbnail(this);
 
     submissionFolderStream
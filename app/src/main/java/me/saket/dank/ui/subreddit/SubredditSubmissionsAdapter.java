@@ -2,7 +2,6 @@ package me.saket.dank.ui.subreddit;
 
 import android.annotation.SuppressLint;
 import android.support.annotation.CheckResult;
-import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
@@ -24,11 +23,12 @@ import me.saket.dank.ui.subreddit.uimodels.SubredditSubmissionPagination;
 import me.saket.dank.utils.InfinitelyScrollableRecyclerViewAdapter;
 import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.RecyclerViewArrayAdapter;
+import me.saket.dank.utils.SplicedDiffResult;
 import me.saket.dank.walkthrough.SubmissionGestureWalkthroughProceedEvent;
 import me.saket.dank.walkthrough.SubmissionGesturesWalkthrough;
 
 public class SubredditSubmissionsAdapter extends RecyclerViewArrayAdapter<SubmissionRowUiModel, RecyclerView.ViewHolder>
-    implements Consumer<Pair<List<SubmissionRowUiModel>, DiffUtil.DiffResult>>, InfinitelyScrollableRecyclerViewAdapter
+    implements Consumer<Pair<List<SubmissionRowUiModel>, SplicedDiffResult>>, InfinitelyScrollableRecyclerViewAdapter
 {
 
   public static final int ADAPTER_ID_PAGINATION_FOOTER = -99;
@@ -96,6 +96,17 @@ public class SubredditSubmissionsAdapter extends RecyclerViewArrayAdapter<Submis
     return itemCount;
   }
 
+  /**
+   * Index of the submission at <var>adapterPosition</var> in the list of submissions,
+   * which doesn't include the gestures walkthrough row.
+   */
+  public int submissionIndexOf(int adapterPosition) {
+    if (getItemCount() > 0 && getItem(0).type() == SubmissionRowUiModel.Type.GESTURES_WALKTHROUGH) {
+      return Math.max(0, adapterPosition - 1);
+    }
+    return adapterPosition;
+  }
+
   @Override
   public int getItemViewType(int position) {
     return getItem(position).type().ordinal();
@@ -123,7 +134,7 @@ public class SubredditSubmissionsAdapter extends RecyclerViewArrayAdapter<Submis
   }
 
   @Override
-  public void accept(Pair<List<SubmissionRowUiModel>, DiffUtil.DiffResult> pair) {
+  public void accept(Pair<List<SubmissionRowUiModel>, SplicedDiffResult> pair) {
     findCollidingIds(pair.first());
 
     updateData(pair.first());
@@ -0,0 +1,27 @@
+package me.saket.dank.ui.subreddit.uimodels;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.List;
+
+import me.saket.dank.ui.subreddit.uimodels.SubredditScreenUiModel.SubmissionRowUiModel;
+
+/**
+ * Rows that were rebuilt since {@link #previousRows()} were emitted, for updates that didn't add,
+ * remove or move any rows. For instance, a vote or a bookmark.
+ */
+@AutoValue
+public abstract class SubmissionRowChanges {
+
+  /**
+   * Compared by reference, so that these changes are only used if the previous rows were
+   * the last ones that were shown.
+   */
+  public abstract List<SubmissionRowUiModel> previousRows();
+
+  public abstract List<Integer> changedPositions();
+
+  public static SubmissionRowChanges create(List<SubmissionRowUiModel> previousRows, List<Integer> changedPositions) {
+    return new AutoValue_SubmissionRowChanges(previousRows, changedPositions);
+  }
+}
@@ -48,6 +48,11 @@ public abstract class SubredditScreenUiModel {
 
   public abstract List<SubmissionRowUiModel> rowUiModels();
 
+  /**
+   * Present if {@link #rowUiModels()} only has changes in some rows since the last emission.
+   */
+  public abstract Optional<SubmissionRowChanges> rowChanges();
+
   public static Builder builder() {
     return new AutoValue_SubredditScreenUiModel.Builder();
   }
@@ -64,6 +69,8 @@ public abstract class SubredditScreenUiModel {
 
     public abstract Builder emptyState(Optional<EmptyState> emptyState);
 
+    public abstract Builder rowChanges(Optional<SubmissionRowChanges> changes);
+
     public abstract SubredditScreenUiModel build();
   }
 }
@@ -2,6 +2,7 @@ package me.saket.dank.ui.subreddit.uimodels;
 
 import android.content.Context;
 import android.support.annotation.CheckResult;
+import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
 import android.text.Html;
 import android.text.style.ForegroundColorSpan;
@@ -14,12 +15,16 @@ import net.dean.jraw.models.SubmissionPreview;
 import net.dean.jraw.models.VoteDirection;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import dagger.Lazy;
+import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.functions.BiFunction;
 import me.saket.dank.R;
@@ -32,12 +37,14 @@ import me.saket.dank.ui.submission.SubredditNotFoundException;
 import me.saket.dank.ui.submission.adapter.ImageWithMultipleVariants;
 import me.saket.dank.ui.subreddit.SubmissionPaginationResult;
 import me.saket.dank.ui.subreddit.SubmissionThumbnailTypeMinusNsfw;
+import me.saket.dank.urlparser.UrlParser;
 import me.saket.dank.utils.JrawUtils2;
 import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.Pair;
 import me.saket.dank.utils.Strings;
 import me.saket.dank.utils.Themes;
 import me.saket.dank.utils.Truss;
+import me.saket.dank.utils.markdown.Markdown;
 import me.saket.dank.vote.VotingManager;
 import me.saket.dank.walkthrough.SubmissionGesturesWalkthrough;
 
@@ -53,12 +60,157 @@ public class SubredditUiConstructor {
   private final Preference<Boolean> showThumbnailsPref;
   private final ErrorResolver errorResolver;
   private final Lazy<BookmarksRepository> bookmarksRepository;
+  private final Lazy<Markdown> markdown;
+  private final Lazy<UrlParser> urlParser;
+  private final SubmissionRowCache submissionRowCache = new SubmissionRowCache();
+
+  /**
+   * Submission rows from the last emission, keyed by submission full-name. A row is reused as long as none
+   * of the inputs that went into building it have changed, so that a vote, a bookmark or a new page only
+   * rebuilds the rows it affects. Rebuilt rows are also reported as {@link SubmissionRowChanges}, so that
+   * the list doesn't have to be diffed when none of its rows were added, removed or moved.
+   */
+  static class SubmissionRowCache {
+    /**
+     * Rows that haven't been rebuilt for a while have most likely
+     * been dropped from the list, so only the latest ones are kept.
+     */
+    private static final int MAX_ROWS = 1000;
+
+    private final Map<String, CachedRow> rows = new LinkedHashMap<String, CachedRow>(MAX_ROWS, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedRow> eldest) {
+        return size() > MAX_ROWS;
+      }
+    };
+    private List<SubredditScreenUiModel.SubmissionRowUiModel> lastEmittedRows = Collections.emptyList();
+
+    static class CachedRow {
+      final Submission submission;
+      final int score;
+      final VoteDirection voteDirection;
+      final boolean isSaved;
+      final int pendingSyncReplyCount;
+      final RowPreferences preferences;
+      final SubredditSubmission.UiModel uiModel;
+
+      CachedRow(
+          Submission submission,
+          int score,
+          VoteDirection voteDirection,
+          boolean isSaved,
+          int pendingSyncReplyCount,
+          RowPreferences preferences,
+          SubredditSubmission.UiModel uiModel)
+      {
+        this.submission = submission;
+        this.score = score;
+        this.voteDirection = voteDirection;
+        this.isSaved = isSaved;
+        this.pendingSyncReplyCount = pendingSyncReplyCount;
+        this.preferences = preferences;
+        this.uiModel = uiModel;
+      }
+
+      boolean matches(
+          Submission submission,
+          int score,
+          VoteDirection voteDirection,
+          boolean isSaved,
+          int pendingSyncReplyCount,
+          RowPreferences preferences)
+      {
+        // Comparing the submission by reference because SubmissionRepository
+        // only parses submissions again when they're saved again.
+        return this.submission == submission
+            && this.score == score
+            && this.voteDirection == voteDirection
+            && this.isSaved == isSaved
+            && this.pendingSyncReplyCount == pendingSyncReplyCount
+            && this.preferences.equals(preferences);
+      }
+    }
+
+    @Nullable
+    CachedRow get(Submission submission) {
+      return rows.get(submission.getFullName());
+    }
+
+    void put(CachedRow row) {
+      rows.put(row.submission.getFullName(), row);
+    }
+
+    /**
+     * @return Positions of rows that aren't the same instances as in the last emission, if no rows were
+     * added, removed or moved since then.
+     */
+    Optional<SubmissionRowChanges> changesSinceLastEmission(List<SubredditScreenUiModel.SubmissionRowUiModel> newRows) {
+      List<SubredditScreenUiModel.SubmissionRowUiModel> previousRows = lastEmittedRows;
+      lastEmittedRows = newRows;
+
+      if (previousRows.isEmpty() || previousRows.size() != newRows.size()) {
+        return Optional.empty();
+      }
+
+      List<Integer> changedPositions = new ArrayList<>(4);
+      for (int i = 0; i < newRows.size(); i++) {  // Intentionally avoiding thrashing Iterator objects.
+        SubredditScreenUiModel.SubmissionRowUiModel previousRow = previousRows.get(i);
+        SubredditScreenUiModel.SubmissionRowUiModel newRow = newRows.get(i);
+        if (previousRow.adapterId() != newRow.adapterId()) {
+          return Optional.empty();
+        }
+        if (previousRow != newRow) {
+          changedPositions.add(i);
+        }
+      }
+      return Optional.of(SubmissionRowChanges.create(previousRows, changedPositions));
+    }
+  }
+
+  /**
+   * User preferences that affect submission rows. Read once for every emission instead of once for every row.
+   */
+  static class RowPreferences {
+    final boolean showCommentCountInByline;
+    final boolean showNsfwContent;
+    final boolean showThumbnails;
+
+    RowPreferences(boolean showCommentCountInByline, boolean showNsfwContent, boolean showThumbnails) {
+      this.showCommentCountInByline = showCommentCountInByline;
+      this.showNsfwContent = showNsfwContent;
+      this.showThumbnails = showThumbnails;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof RowPreferences)) {
+        return false;
+      }
+      RowPreferences that = (RowPreferences) o;
+      return showCommentCountInByline == that.showCommentCountInByline
+          && showNsfwContent == that.showNsfwContent
+          && showThumbnails == that.showThumbnails;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = showCommentCountInByline ? 1 : 0;
+      result = 31 * result + (showNsfwContent ? 1 : 0);
+      result = 31 * result + (showThumbnails ? 1 : 0);
+      return result;
+    }
+  }
 
   @Inject
   public SubredditUiConstructor(
       VotingManager votingManager,
       ErrorResolver errorResolver,
       Lazy<BookmarksRepository> bookmarksRepository,
+      Lazy<Markdown> markdown,
+      Lazy<UrlParser> urlParser,
       Lazy<SubmissionGesturesWalkthrough> gesturesWalkthrough,
       @Named("comment_count_in_submission_list_byline") Preference<Boolean> showCommentCountInByline,
       @Named("show_nsfw_content") Preference<Boolean> showNsfwContent,
@@ -67,6 +219,8 @@ public class SubredditUiConstructor {
     this.votingManager = votingManager;
     this.errorResolver = errorResolver;
     this.bookmarksRepository = bookmarksRepository;
+    this.markdown = markdown;
+    this.urlParser = urlParser;
     this.gesturesWalkthrough = gesturesWalkthrough;
     this.showCommentCountInByline = showCommentCountInByline;
     this.showNsfwContent = showNsfwContent;
@@ -91,7 +245,7 @@ public class SubredditUiConstructor {
     Observable<Boolean> sharedFullscreenProgressVisibilities = fullscreenProgressVisibilities(cachedSubmissionLists, paginationResults)
         .share();
 
-    return Observable.combineLatest(
+    Observable<SubredditScreenUiModel> uiModels = Observable.combineLatest(
         sharedFullscreenProgressVisibilities.distinctUntilChanged(),
         fullscreenErrors(cachedSubmissionLists, paginationResults).distinctUntilChanged(),
         fullscreenEmptyStates(cachedSubmissionLists, paginationResults).distinctUntilChanged(),
@@ -111,6 +265,10 @@ public class SubredditUiConstructor {
         {
           int rowCount = optPagination.map(p -> 1).orElse(0) + optCachedSubs.map(subs -> subs.size()).orElse(0);
           List<SubredditScreenUiModel.SubmissionRowUiModel> rowUiModels = new ArrayList<>(rowCount);
+          RowPreferences rowPreferences = new RowPreferences(
+              showCommentCountInByline.get(),
+              showNsfwContent.get(),
+              showThumbnailsPref.get());
 
           optCachedSubs.ifPresent(cachedSubs -> {
             optWalkthroughRow.ifPresent(walkthroughUiModel -> {
@@ -119,7 +277,7 @@ public class SubredditUiConstructor {
 
             for (Submission submission : cachedSubs) {
               int pendingSyncReplyCount = 0;  // TODO v2:  Get this from database.
-              rowUiModels.add(submissionUiModel(context, submission, pendingSyncReplyCount));
+              rowUiModels.add(submissionUiModel(context, submission, pendingSyncReplyCount, rowPreferences));
             }
           });
           optPagination.ifPresent(pagination -> rowUiModels.add(pagination));
@@ -130,8 +288,37 @@ public class SubredditUiConstructor {
               .emptyState(optEmptyState)
               .toolbarRefreshVisible(toolbarRefreshVisible)
               .rowUiModels(rowUiModels)
+              .rowChanges(submissionRowCache.changesSinceLastEmission(rowUiModels))
               .build();
         });
+
+    Observable<List<Submission>> submissionLists = cachedSubmissionLists
+        .filter(Optional::isPresent)
+        .map(Optional::get);
+
+    // Self-texts are rendered ahead of time so that they're ready when a submission is opened.
+    Observable<SubredditScreenUiModel> selfTextPreRendering = submissionLists
+        .switchMap(submissions -> markdown.get()
+            .preRender(selfTexts(submissions))
+            .<SubredditScreenUiModel>toObservable());
+
+    // Content links are parsed ahead of time for opening submissions and their thumbnails.
+    Observable<SubredditScreenUiModel> contentLinkParsing = submissionLists
+        .switchMap(submissions -> Completable.fromAction(() -> urlParser.get().parseAll(submissions))
+            .onErrorComplete()
+            .<SubredditScreenUiModel>toObservable());
+
+    return Observable.merge(uiModels, selfTextPreRendering, contentLinkParsing);
+  }
+
+  private static List<String> selfTexts(List<Submission> submissions) {
+    List<String> selfTexts = new ArrayList<>();
+    for (Submission submission : submissions) {
+      if (submission.isSelfPost() && !Strings.isNullOrEmpty(submission.getSelfText())) {
+        selfTexts.add(submission.getSelfText());
+      }
+    }
+    return selfTexts;
   }
 
   private Observable<Boolean> fullscreenProgressVisibilities(
@@ -234,10 +421,46 @@ public class SubredditUiConstructor {
   private SubredditSubmission.UiModel submissionUiModel(
       Context c,
       Submission submission,
-      Integer pendingSyncReplyCount)
+      int pendingSyncReplyCount,
+      RowPreferences preferences)
   {
     int submissionScore = votingManager.getScoreAfterAdjustingPendingVote(submission);
     VoteDirection voteDirection = votingManager.getPendingOrDefaultVote(submission, submission.getVote());
+    boolean isSaved = bookmarksRepository.get().isSaved(submission);
+
+    SubmissionRowCache.CachedRow cachedRow = submissionRowCache.get(submission);
+    if (cachedRow != null && cachedRow.matches(submission, submissionScore, voteDirection, isSaved, pendingSyncReplyCount, preferences)) {
+      return cachedRow.uiModel;
+    }
+
+    SubredditSubmission.UiModel uiModel = createSubmissionUiModel(
+        c,
+        submission,
+        submissionScore,
+        voteDirection,
+        isSaved,
+        pendingSyncReplyCount,
+        preferences);
+    submissionRowCache.put(new SubmissionRowCache.CachedRow(
+        submission,
+        submissionScore,
+        voteDirection,
+        isSaved,
+        pendingSyncReplyCount,
+        preferences,
+        uiModel));
+    return uiModel;
+  }
+
+  private SubredditSubmission.UiModel createSubmissionUiModel(
+      Context c,
+      Submission submission,
+      int submissionScore,
+      VoteDirection voteDirection,
+      boolean isSaved,
+      int pendingSyncReplyCount,
+      RowPreferences preferences)
+  {
     int postedAndPendingCommentCount = submission.getCommentCount() + pendingSyncReplyCount;
 
     Truss titleBuilder = new Truss();
@@ -253,7 +476,7 @@ public class SubredditUiConstructor {
     bylineBuilder.append(c.getString(R.string.subreddit_name_r_prefix, submission.getSubreddit()).toUpperCase(Locale.ENGLISH));
     bylineBuilder.append(" \u00b7 ");
     bylineBuilder.append(submission.getAuthor().toUpperCase(Locale.ENGLISH));
-    if (showCommentCountInByline.get()) {
+    if (preferences.showCommentCountInByline) {
       bylineBuilder.append(" \u00b7 ");
       bylineBuilder.append(c.getString(
           R.string.subreddit_submission_item_byline_comment_count,
@@ -269,14 +492,14 @@ public class SubredditUiConstructor {
     SubmissionThumbnailTypeMinusNsfw thumbnailType = SubmissionThumbnailTypeMinusNsfw.Companion.parse(submission);
     Optional<SubredditSubmission.UiModel.Thumbnail> thumbnail;
 
-    if (!showThumbnailsPref.get()) {
+    if (!preferences.showThumbnails) {
       thumbnail = Optional.empty();
 
     } else if (thumbnailType == SubmissionThumbnailTypeMinusNsfw.NONE) {
       thumbnail = Optional.empty();
 
     } else {
-      if (submission.isNsfw() && !showNsfwContent.get()) {
+      if (submission.isNsfw() && !preferences.showNsfwContent) {
         thumbnail = Optional.of(
             thumbnailForStaticImage(c)
                 .staticRes(Optional.of(R.drawable.ic_visibility_off_24dp))
@@ -329,7 +552,7 @@ public class SubredditUiConstructor {
       case URL_REMOTE_THUMBNAIL:
         // Don't want to display NSFW content if it's disabled on thumbnail click.
         // Might get flagged by Play Store's automatic review thing.
-        isThumbnailClickable = !submission.isSelfPost() && (!submission.isNsfw() || showNsfwContent.get());
+        isThumbnailClickable = !submission.isSelfPost() && (!submission.isNsfw() || preferences.showNsfwContent);
         break;
 
       case UNKNOWN:
@@ -354,7 +577,7 @@ public class SubredditUiConstructor {
         .title(titleBuilder.build(), Pair.create(submissionScore, voteDirection))
         .byline(bylineBuilder.build(), postedAndPendingCommentCount)
         .backgroundDrawableRes(rowBackgroundResource)
-        .isSaved(bookmarksRepository.get().isSaved(submission))
+        .isSaved(isSaved)
         .build();
   }
 
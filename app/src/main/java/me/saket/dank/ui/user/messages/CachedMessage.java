@@ -9,8 +9,11 @@ import com.squareup.moshi.JsonAdapter;
 import net.dean.jraw.models.Message;
 
 import java.io.IOException;
+import java.util.Map;
 
 import io.reactivex.functions.Function;
+import me.saket.dank.data.BinaryJson;
+import me.saket.dank.data.BinaryJsonAdapter;
 import me.saket.dank.data.MoshiAdapter;
 import me.saket.dank.utils.Cursors;
 import me.saket.dank.utils.Optional;
@@ -73,11 +76,11 @@ public abstract class CachedMessage {
   public ContentValues toContentValues(MoshiAdapter moshiAdapter) {
     ContentValues values = new ContentValues(4);
     values.put(COLUMN_FULLNAME, fullname());
-    String json = moshiAdapter.create(Message.class).toJson(message());
-    if (!json.contains("distinguished")) {
+    Object jsonValue = moshiAdapter.create(Message.class).toJsonValue(message());
+    if (!containsKey(jsonValue, "distinguished")) {
       throw new AssertionError("Invalid json serialization");
     }
-    values.put(COLUMN_MESSAGE, json);
+    values.put(COLUMN_MESSAGE, BinaryJson.encode(jsonValue));
     values.put(COLUMN_LATEST_MESSAGE_TIME, latestMessageTimestamp());
     values.put(COLUMN_FOLDER, folder().name());
     return values;
@@ -96,17 +99,40 @@ public abstract class CachedMessage {
     return cursor -> Optional.of(messageFromCursor(moshiAdapter).apply(cursor));
   }
 
+  /**
+   * Messages are stored as {@link BinaryJson} blobs. Rows saved before that hold JSON text.
+   */
   public static Function<Cursor, Message> messageFromCursor(MoshiAdapter moshiAdapter) {
     return cursor -> {
       JsonAdapter<Message> adapter = moshiAdapter.create(Message.class);
+      int messageColumnIndex = cursor.getColumnIndexOrThrow(COLUMN_MESSAGE);
       try {
-        return adapter.fromJson(Cursors.string(cursor, COLUMN_MESSAGE));
+        if (cursor.getType(messageColumnIndex) == Cursor.FIELD_TYPE_BLOB) {
+          return new BinaryJsonAdapter<>(adapter).fromBytes(cursor.getBlob(messageColumnIndex));
+        } else {
+          return adapter.fromJson(cursor.getString(messageColumnIndex));
+        }
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
     };
   }
 
+  private static boolean containsKey(Object jsonValue, String key) {
+    if (jsonValue instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) jsonValue;
+      if (map.containsKey(key)) {
+        return true;
+      }
+      for (Object value : map.values()) {
+        if (containsKey(value, key)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   public static CachedMessage create(String fullName, Message message, long latestMessageTimestamp, InboxFolder folder) {
     return new AutoValue_CachedMessage(fullName, message, latestMessageTimestamp, folder);
   }
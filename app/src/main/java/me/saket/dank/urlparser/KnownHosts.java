@@ -0,0 +1,96 @@
+package me.saket.dank.urlparser;
+
+/**
+ * Maps hosts of websites that {@link UrlParser} understands to the parsing they need.
+ * <p>
+ * Every known domain has two labels, so identifying a host only needs to look at its last two
+ * labels. Domains are bucketed by length, leaving at most a few region comparisons per host and
+ * no allocations, instead of a chain of <code>contains()</code> checks over the entire host.
+ */
+class KnownHosts {
+
+  enum Website {
+    REDDIT,
+    REDDIT_SHORT,
+    IMGUR,
+    GFYCAT,
+    GIPHY,
+    STREAMABLE,
+    REDDIT_UPLOADS,
+    UNKNOWN,
+  }
+
+  private static final String[] DOMAINS = {
+      "reddit.com",
+      "redd.it",
+      "imgur.com",
+      "bildgur.de",
+      "gfycat.com",
+      "giphy.com",
+      "streamable.com",
+      "reddituploads.com",
+      "redditmedia.com",
+  };
+
+  private static final Website[] WEBSITES = {
+      Website.REDDIT,
+      Website.REDDIT_SHORT,
+      Website.IMGUR,
+      Website.IMGUR,
+      Website.GFYCAT,
+      Website.GIPHY,
+      Website.STREAMABLE,
+      Website.REDDIT_UPLOADS,
+      Website.REDDIT_UPLOADS,
+  };
+
+  /**
+   * Indices of {@link #DOMAINS}, bucketed by domain length.
+   */
+  private static final int[][] DOMAINS_BY_LENGTH;
+
+  static {
+    int maxLength = 0;
+    for (String domain : DOMAINS) {
+      maxLength = Math.max(maxLength, domain.length());
+    }
+
+    int[] counts = new int[maxLength + 1];
+    for (String domain : DOMAINS) {
+      counts[domain.length()]++;
+    }
+
+    DOMAINS_BY_LENGTH = new int[maxLength + 1][];
+    for (int length = 0; length <= maxLength; length++) {
+      DOMAINS_BY_LENGTH[length] = new int[counts[length]];
+      counts[length] = 0;
+    }
+    for (int i = 0; i < DOMAINS.length; i++) {
+      int length = DOMAINS[i].length();
+      DOMAINS_BY_LENGTH[length][counts[length]++] = i;
+    }
+  }
+
+  /**
+   * A host matches a domain if it is the domain itself or any of its subdomains. E.g., both
+   * "i.imgur.com" and "imgur.com" are {@link Website#IMGUR}, but "notimgur.com" isn't.
+   */
+  static Website identify(String host) {
+    int lastDot = host.lastIndexOf('.');
+    if (lastDot <= 0) {
+      return Website.UNKNOWN;
+    }
+    int domainStart = host.lastIndexOf('.', lastDot - 1) + 1;
+    int domainLength = host.length() - domainStart;
+    if (domainLength >= DOMAINS_BY_LENGTH.length) {
+      return Website.UNKNOWN;
+    }
+
+    for (int index : DOMAINS_BY_LENGTH[domainLength]) {
+      if (host.regionMatches(true, domainStart, DOMAINS[index], 0, domainLength)) {
+        return WEBSITES[index];
+      }
+    }
+    return Website.UNKNOWN;
+  }
+}
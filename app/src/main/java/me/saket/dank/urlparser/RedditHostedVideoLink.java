@@ -5,6 +5,8 @@ import static junit.framework.Assert.assertEquals;
 import android.os.Parcelable;
 
 import com.google.auto.value.AutoValue;
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
 
 import me.saket.dank.utils.VideoFormat;
 
@@ -44,4 +46,8 @@ public abstract class RedditHostedVideoLink extends MediaLink implements Parcela
     assertEquals(true, VideoFormat.parse(dashPlaylistUrl) == VideoFormat.DASH);
     return new AutoValue_RedditHostedVideoLink(unparsedUrl, dashPlaylistUrl, directVideoUrlWithoutAudio);
   }
+
+  public static JsonAdapter<RedditHostedVideoLink> jsonAdapter(Moshi moshi) {
+    return new AutoValue_RedditHostedVideoLink.MoshiJsonAdapter(moshi);
+  }
 }
@@ -8,8 +8,15 @@ import com.nytimes.android.external.cache3.Cache;
 
 import net.dean.jraw.models.Submission;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.inject.Inject;
 import javax.inject.Named;
 
@@ -33,13 +40,22 @@ import okhttp3.HttpUrl;
  */
 public class UrlParser {
 
+  /**
+   * Pages with fewer uncached URLs than this are parsed on the calling thread.
+   */
+  private static final int MIN_URLS_FOR_PARALLEL_PARSING = 24;
+  private static final int URLS_PER_PARALLEL_TASK = 8;
+  private static final int MAX_PARALLEL_PARSING_THREADS = 3;
+
   private final Cache<String, Link> cache;
   private final UrlParserConfig config;
+  private final UrlParserCacheStats cacheStats;
 
   @Inject
-  public UrlParser(@Named("url_parser") Cache<String, Link> cache, UrlParserConfig config) {
+  public UrlParser(@Named("url_parser") Cache<String, Link> cache, UrlParserConfig config, UrlParserCacheStats cacheStats) {
     this.cache = cache;
     this.config = config;
+    this.cacheStats = cacheStats;
   }
 
   /**
@@ -48,11 +64,7 @@ public class UrlParser {
    * @return null if the url couldn't be identified. A class implementing {@link Link} otherwise.
    */
   public Link parse(String url) {
-    try {
-      return cache.get(url, () -> parseInternal(url, Optional.empty()));
-    } catch (ExecutionException e) {
-      throw Exceptions.propagate(e);
-    }
+    return getOrParse(url, Optional.empty());
   }
 
   /**
@@ -61,8 +73,100 @@ public class UrlParser {
    * @return null if the url couldn't be identified. A class implementing {@link Link} otherwise.
    */
   public Link parse(String url, Submission submission) {
+    return getOrParse(url, Optional.of(submission));
+  }
+
+  /**
+   * Determine types of the content urls of an entire page of submissions in one go. Identical urls
+   * are parsed once and large pages are parsed in parallel.
+   *
+   * @return Links in the same order as <var>submissions</var>.
+   */
+  public List<Link> parseAll(List<Submission> submissions) {
+    Map<String, Link> linksByUrl = new HashMap<>(submissions.size());
+    List<Submission> uncachedSubmissions = new ArrayList<>();
+
+    for (Submission submission : submissions) {
+      String url = submission.getUrl();
+      if (linksByUrl.containsKey(url)) {
+        continue;
+      }
+      Link cachedLink = cache.getIfPresent(url);
+      if (cachedLink != null) {
+        cacheStats.recordHit();
+      } else {
+        cacheStats.recordMiss();
+        uncachedSubmissions.add(submission);
+      }
+      linksByUrl.put(url, cachedLink);
+    }
+
+    Link[] parsedLinks = new Link[uncachedSubmissions.size()];
+    ParseTask parseTask = new ParseTask(uncachedSubmissions, parsedLinks, 0, parsedLinks.length);
+    if (parsedLinks.length < MIN_URLS_FOR_PARALLEL_PARSING) {
+      parseTask.parseSequentially();
+    } else {
+      ParsingPool.INSTANCE.invoke(parseTask);
+    }
+    for (int i = 0; i < parsedLinks.length; i++) {
+      linksByUrl.put(uncachedSubmissions.get(i).getUrl(), parsedLinks[i]);
+    }
+
+    List<Link> links = new ArrayList<>(submissions.size());
+    for (Submission submission : submissions) {
+      links.add(linksByUrl.get(submission.getUrl()));
+    }
+    return links;
+  }
+
+  private static class ParsingPool {
+    static final ForkJoinPool INSTANCE = new ForkJoinPool(
+        Math.max(1, Math.min(MAX_PARALLEL_PARSING_THREADS, Runtime.getRuntime().availableProcessors() - 1)));
+  }
+
+  private class ParseTask extends RecursiveAction {
+    private final List<Submission> submissions;
+    private final Link[] parsedLinks;
+    private final int start;
+    private final int end;
+
+    ParseTask(List<Submission> submissions, Link[] parsedLinks, int start, int end) {
+      this.submissions = submissions;
+      this.parsedLinks = parsedLinks;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= URLS_PER_PARALLEL_TASK) {
+        parseSequentially();
+      } else {
+        int middle = (start + end) >>> 1;
+        invokeAll(
+            new ParseTask(submissions, parsedLinks, start, middle),
+            new ParseTask(submissions, parsedLinks, middle, end));
+      }
+    }
+
+    void parseSequentially() {
+      for (int i = start; i < end; i++) {
+        Submission submission = submissions.get(i);
+        parsedLinks[i] = parseInternal(submission.getUrl(), Optional.of(submission));
+      }
+    }
+  }
+
+  private Link getOrParse(String url, Optional<Submission> submission) {
+    Link cachedLink = cache.getIfPresent(url);
+    if (cachedLink != null) {
+      cacheStats.recordHit();
+      return cachedLink;
+    }
+
+    cacheStats.recordMiss();
     try {
-      return cache.get(url, () -> parseInternal(url, Optional.of(submission)));
+      return cache.get(url, () -> parseInternal(url, submission));
     } catch (ExecutionException e) {
       throw Exceptions.propagate(e);
     }
@@ -80,17 +184,18 @@ public class UrlParser {
     Uri linkURI = Uri.parse(url);
     String urlDomain = linkURI.getHost() != null ? linkURI.getHost() : "";
     String urlPath = linkURI.getPath() != null ? linkURI.getPath() : "";  // Path is the part of the URL without the domain. E.g.,: /something/image.jpg.
+    KnownHosts.Website website = KnownHosts.identify(urlDomain);
 
-    Matcher subredditMatcher = config.subredditPattern().matcher(urlPath);
-    if (subredditMatcher.matches()) {
+    Matcher subredditMatcher = matchPath(config.subredditPattern(), urlPath, 'r');
+    if (subredditMatcher != null) {
       parsedLink = RedditSubredditLink.create(url, subredditMatcher.group(1));
 
     } else {
-      Matcher userMatcher = config.userPattern().matcher(urlPath);
-      if (userMatcher.matches()) {
+      Matcher userMatcher = matchPath(config.userPattern(), urlPath, 'u');
+      if (userMatcher != null) {
         parsedLink = RedditUserLink.create(url, userMatcher.group(1));
 
-      } else if (urlDomain.endsWith("reddit.com")) {
+      } else if (website == KnownHosts.Website.REDDIT) {
         Matcher submissionOrCommentMatcher = config.submissionOrCommentPattern().matcher(urlPath);
         if (submissionOrCommentMatcher.matches()) {
           String subredditName = submissionOrCommentMatcher.group(2);
@@ -120,7 +225,7 @@ public class UrlParser {
           }
         }
 
-      } else if (urlDomain.endsWith("redd.it")) {
+      } else if (website == KnownHosts.Website.REDDIT_SHORT) {
         Optional<String> urlSubdomain = Urls.subdomain(linkURI);
         if (urlSubdomain.isPresent() && urlSubdomain.get().equals("v")) {
           parsedLink = createRedditHostedVideoLink(url, submission);
@@ -133,7 +238,7 @@ public class UrlParser {
           parsedLink = RedditSubmissionLink.create(url, submissionId, null);
 
         } else {
-          parsedLink = parseNonRedditUrl(url);
+          parsedLink = parseNonRedditUrl(url, linkURI, website);
         }
 
       } else {
@@ -147,7 +252,7 @@ public class UrlParser {
           return parseInternal("https://reddit.com" + url, submission);
 
         } else {
-          parsedLink = parseNonRedditUrl(url);
+          parsedLink = parseNonRedditUrl(url, linkURI, website);
         }
       }
     }
@@ -156,19 +261,30 @@ public class UrlParser {
     return parsedLink;
   }
 
-  private Link parseNonRedditUrl(String url) {
-    Uri linkURI = Uri.parse(url);
+  /**
+   * The subreddit and user patterns can only match paths whose first segment starts with 'r' and
+   * 'u' respectively, so this avoids running their regexes for most URLs.
+   */
+  @Nullable
+  private static Matcher matchPath(Pattern pattern, String urlPath, char firstSegmentStart) {
+    int segmentStart = urlPath.startsWith("/") ? 1 : 0;
+    if (urlPath.length() <= segmentStart || urlPath.charAt(segmentStart) != firstSegmentStart) {
+      return null;
+    }
+    Matcher matcher = pattern.matcher(urlPath);
+    return matcher.matches() ? matcher : null;
+  }
 
-    String urlDomain = linkURI.getHost() != null ? linkURI.getHost() : "";
+  private Link parseNonRedditUrl(String url, Uri linkURI, KnownHosts.Website website) {
     String urlPath = linkURI.getPath() != null ? linkURI.getPath() : "";
 
-    if ((urlDomain.contains("imgur.com") || urlDomain.contains("bildgur.de"))) {
+    if (website == KnownHosts.Website.IMGUR) {
       if (isUnsupportedImgurLink(urlPath)) {
         // These are links that Imgur no longer uses so Dank does not expect them either.
         return ExternalLink.create(url);
 
       } else {
-        Matcher albumUrlMatcher = config.imgurAlbumPattern().matcher(Uri.parse(url).getPath());
+        Matcher albumUrlMatcher = config.imgurAlbumPattern().matcher(urlPath);
         // matches() is important or else groups don't get formed.
         if (albumUrlMatcher.matches()) {
           String albumId = albumUrlMatcher.group(1);
@@ -181,16 +297,16 @@ public class UrlParser {
         }
       }
 
-    } else if (urlDomain.contains("gfycat.com")) {
+    } else if (website == KnownHosts.Website.GFYCAT) {
       return createGfycatLink(linkURI);
 
-    } else if (urlDomain.contains("giphy.com")) {
+    } else if (website == KnownHosts.Website.GIPHY) {
       return createGiphyLink(linkURI);
 
-    } else if (urlDomain.contains("streamable.com")) {
+    } else if (website == KnownHosts.Website.STREAMABLE) {
       return createUnresolvedStreamableLink(linkURI);
 
-    } else if (urlDomain.contains("reddituploads.com") || urlDomain.contains("redditmedia.com")) {
+    } else if (website == KnownHosts.Website.REDDIT_UPLOADS) {
       // Reddit sends HTML-escaped URLs for reddituploads.com. Decode them again.
       //noinspection deprecation
       String htmlUnescapedUrl = org.jsoup.parser.Parser.unescapeEntities(url, true);
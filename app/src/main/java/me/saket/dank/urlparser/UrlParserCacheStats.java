@@ -0,0 +1,58 @@
+package me.saket.dank.urlparser;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import me.saket.dank.utils.StatsCounters;
+
+/**
+ * Counters for {@link UrlParser}'s cache of parsed links.
+ */
+@Singleton
+public class UrlParserCacheStats {
+
+  private final StatsCounters counters = new StatsCounters("UrlParserCacheStats");
+  private final AtomicLong hits = counters.add("hits");
+  private final AtomicLong misses = counters.add("misses");
+  private final AtomicLong evictions = counters.add("evictions");
+
+  @Inject
+  public UrlParserCacheStats() {
+  }
+
+  public void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  public void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  public void recordEviction() {
+    evictions.incrementAndGet();
+  }
+
+  public long hitCount() {
+    return hits.get();
+  }
+
+  public long missCount() {
+    return misses.get();
+  }
+
+  public long evictionCount() {
+    return evictions.get();
+  }
+
+  public float hitRate() {
+    long hitCount = hits.get();
+    long requestCount = hitCount + misses.get();
+    return requestCount == 0 ? 1f : (float) hitCount / requestCount;
+  }
+
+  @Override
+  public String toString() {
+    return counters.format("hitRate", hitRate());
+  }
+}
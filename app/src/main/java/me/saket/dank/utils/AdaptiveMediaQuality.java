@@ -0,0 +1,30 @@
+package me.saket.dank.utils;
+
+import android.support.annotation.Px;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import me.saket.dank.ui.submission.adapter.ImageWithMultipleVariants;
+
+/**
+ * Picks image variants for the current bandwidth, using {@link BandwidthEstimator}
+ * and a {@link MediaQualityPolicy}. See {@link ImageWithMultipleVariants#findNearestFor(int, AdaptiveMediaQuality)}.
+ */
+@Singleton
+public class AdaptiveMediaQuality {
+
+  private final BandwidthEstimator bandwidthEstimator;
+  private final MediaQualityPolicy policy;
+
+  @Inject
+  public AdaptiveMediaQuality(BandwidthEstimator bandwidthEstimator, MediaQualityPolicy policy) {
+    this.bandwidthEstimator = bandwidthEstimator;
+    this.policy = policy;
+  }
+
+  @Px
+  public int imageWidthFor(@Px int preferredWidth) {
+    return policy.imageWidth(preferredWidth, bandwidthEstimator.bitsPerSecond());
+  }
+}
@@ -0,0 +1,114 @@
+package me.saket.dank.utils;
+
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import me.saket.dank.data.FileSize;
+import me.saket.dank.utils.okhttp.OkHttpBandwidthSamplingInterceptor;
+import timber.log.Timber;
+
+/**
+ * Estimates the bandwidth available to a single download from recently downloaded response bodies,
+ * sampled by {@link OkHttpBandwidthSamplingInterceptor}. Parallel downloads share the network, so this
+ * is closer to the speed of one download than the speed of the network.
+ */
+@Singleton
+public class BandwidthEstimator {
+
+  public static final long NO_ESTIMATE = -1;
+
+  private static final int MAX_SAMPLES = 20;
+
+  /**
+   * Samples older than this are ignored because the network could have changed since.
+   */
+  private static final long MAX_SAMPLE_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  /**
+   * Smaller responses are dominated by latency rather than bandwidth.
+   */
+  private static final long MIN_SAMPLE_BYTES = (long) FileSize.create(16, FileSizeUnit.KB).bytes();
+
+  private final Callable<Long> clock;
+  private final ArrayDeque<Sample> samples = new ArrayDeque<>(MAX_SAMPLES);
+
+  @Inject
+  public BandwidthEstimator() {
+    this(System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  BandwidthEstimator(Callable<Long> clock) {
+    this.clock = clock;
+  }
+
+  private static class Sample {
+    private final long bytes;
+    private final long durationMillis;
+    private final long timeMillis;
+
+    Sample(long bytes, long durationMillis, long timeMillis) {
+      this.bytes = bytes;
+      this.durationMillis = durationMillis;
+      this.timeMillis = timeMillis;
+    }
+  }
+
+  /**
+   * @param durationMillis Time taken for reading <var>bytes</var>.
+   */
+  public void addSample(long bytes, long durationMillis) {
+    if (bytes < MIN_SAMPLE_BYTES || durationMillis <= 0) {
+      return;
+    }
+
+    synchronized (samples) {
+      if (samples.size() == MAX_SAMPLES) {
+        samples.removeFirst();
+      }
+      samples.addLast(new Sample(bytes, durationMillis, now()));
+    }
+  }
+
+  /**
+   * Throughput of all recent samples together, so that larger downloads weigh more.
+   *
+   * @return {@link #NO_ESTIMATE} if nothing large enough was downloaded recently.
+   */
+  public long bitsPerSecond() {
+    long oldestValidTimeMillis = now() - MAX_SAMPLE_AGE_MILLIS;
+    long totalBytes = 0;
+    long totalDurationMillis = 0;
+
+    synchronized (samples) {
+      for (Iterator<Sample> iterator = samples.iterator(); iterator.hasNext(); ) {
+        Sample sample = iterator.next();
+        if (sample.timeMillis < oldestValidTimeMillis) {
+          iterator.remove();
+          continue;
+        }
+        totalBytes += sample.bytes;
+        totalDurationMillis += sample.durationMillis;
+      }
+    }
+
+    return totalDurationMillis == 0
+        ? NO_ESTIMATE
+        : totalBytes * 8 * 1000 / totalDurationMillis;
+  }
+
+  private long now() {
+    try {
+      return clock.call();
+    } catch (Exception e) {
+      Timber.e(e, "Couldn't read time");
+      return System.currentTimeMillis();
+    }
+  }
+}
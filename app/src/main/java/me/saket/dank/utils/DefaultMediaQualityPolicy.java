@@ -0,0 +1,28 @@
+package me.saket.dank.utils;
+
+import javax.inject.Inject;
+
+/**
+ * Loads smaller images on slow connections. The tiers are coarse on purpose, so that a pre-filled
+ * image and the one loaded later when it's shown are the same variant even if the estimate drifts.
+ */
+public class DefaultMediaQualityPolicy implements MediaQualityPolicy {
+
+  static final long SLOW_BITS_PER_SECOND = 1_500_000;
+  static final long MODERATE_BITS_PER_SECOND = 5_000_000;
+
+  @Inject
+  public DefaultMediaQualityPolicy() {
+  }
+
+  @Override
+  public int imageWidth(int preferredWidth, long bitsPerSecond) {
+    if (bitsPerSecond == BandwidthEstimator.NO_ESTIMATE || bitsPerSecond >= MODERATE_BITS_PER_SECOND) {
+      return preferredWidth;
+    } else if (bitsPerSecond >= SLOW_BITS_PER_SECOND) {
+      return preferredWidth * 3 / 4;
+    } else {
+      return preferredWidth / 2;
+    }
+  }
+}
@@ -19,28 +19,36 @@ import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource
 import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSourceFactory;
 import com.google.android.exoplayer2.util.Util;
 
 import io.reactivex.Completable;
 import io.reactivex.exceptions.Exceptions;
 import io.reactivex.functions.Consumer;
 import me.saket.dank.R;
+import me.saket.dank.cache.VideoPreFiller;
 import me.saket.dank.utils.lifecycle.LifecycleStreams;
 
 public class ExoPlayerManager {
 
   private final VideoView playerView;
   private final ExoTextureVideoView textureVideoView;
+  private final Cache dashVideoCache;
   private Bitmap cachedBitmapForFrameCapture;
   private boolean audioFocusHandlingDisabled;
 
   @SuppressWarnings("unchecked")
-  public static ExoPlayerManager newInstance(VideoView playerView) {
-    return new ExoPlayerManager(playerView);
+  public static ExoPlayerManager newInstance(VideoView playerView, Cache dashVideoCache) {
+    return new ExoPlayerManager(playerView, dashVideoCache);
   }
 
-  public ExoPlayerManager(VideoView playerView) {
+  /**
+   * @param dashVideoCache DASH videos are played through this cache, which {@link VideoPreFiller} also fills.
+   */
+  public ExoPlayerManager(VideoView playerView, Cache dashVideoCache) {
     this.playerView = playerView;
+    this.dashVideoCache = dashVideoCache;
     this.textureVideoView = playerView.findViewById(R.id.exomedia_video_view);
   }
 
@@ -75,22 +83,25 @@ public class ExoPlayerManager {
     }
 
     Uri videoURI = Uri.parse(videoUrl);
-    MediaSource source = createMediaSource(videoURI, videoFormat);
+    MediaSource source = createMediaSource(videoUrl, videoURI, videoFormat);
     MediaSource loopingSource = new LoopingMediaSource(source);
     playerView.setVideoURI(videoURI, loopingSource);
   }
 
-  private MediaSource createMediaSource(Uri videoURI, VideoFormat videoFormat) {
+  private MediaSource createMediaSource(String videoUrl, Uri videoURI, VideoFormat videoFormat) {
     // Produces DataSource instances through which media data is loaded.
     DataSource.Factory dataSourceFactory = new DefaultDataSourceFactory(
         playerView.getContext(),
         Util.getUserAgent(playerView.getContext(), playerView.getContext().getPackageName()));
 
     switch (videoFormat) {
-      case DASH:
+      case DASH: {
+        DataSource.Factory cachedDataSourceFactory = new CacheDataSourceFactory(dashVideoCache, dataSourceFactory);
         return new DashMediaSource
-            .Factory(new DefaultDashChunkSource.Factory(dataSourceFactory), dataSourceFactory)
+            .Factory(new DefaultDashChunkSource.Factory(cachedDataSourceFactory), cachedDataSourceFactory)
+            .setManifestParser(VideoPreFiller.dashManifestParser(videoUrl))
             .createMediaSource(videoURI);
+      }
 
       case SMOOTH_STREAMING:
         return new SsMediaSource
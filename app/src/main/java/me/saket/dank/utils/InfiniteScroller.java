@@ -2,6 +2,7 @@ package me.saket.dank.utils;
 
 
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 
@@ -16,6 +17,19 @@ public class InfiniteScroller {
 
   public static final float DEFAULT_SCROLL_THRESHOLD = 0.65f;
 
+  /**
+   * Prefetching starts when the paging threshold is these many items away...
+   */
+  private static final int PREFETCH_DISTANCE_ITEMS = 10;
+  /**
+   * ...or is going to be reached within this duration at the current scroll velocity.
+   */
+  private static final long PREFETCH_LEAD_TIME_MILLIS = 2_500;
+  /**
+   * Two pages are prefetched when the paging threshold is going to be reached sooner than this.
+   */
+  private static final long FAST_SCROLL_LEAD_TIME_MILLIS = 1_000;
+
   private RecyclerView recyclerView;
   private float scrollThreshold;
 
@@ -23,6 +37,16 @@ public class InfiniteScroller {
     return new InfiniteScroller(recyclerView, DEFAULT_SCROLL_THRESHOLD).streamPagingRequest();
   }
 
+  /**
+   * Like {@link #streamPagingRequests(RecyclerView)}, but emits ahead of the paging threshold based on the
+   * distance to it and the scroll velocity.
+   *
+   * @return Number of pages worth prefetching: 2 when the user is scrolling fast and 1 otherwise.
+   */
+  public static Observable<Integer> streamPrefetchRequests(RecyclerView recyclerView) {
+    return new InfiniteScroller(recyclerView, DEFAULT_SCROLL_THRESHOLD).streamPrefetchRequest();
+  }
+
   private InfiniteScroller(RecyclerView recyclerView, float scrollThreshold) {
     this.recyclerView = recyclerView;
     this.scrollThreshold = scrollThreshold;
@@ -68,6 +92,58 @@ public class InfiniteScroller {
         .cast(Object.class);
   }
 
+  public Observable<Integer> streamPrefetchRequest() {
+    return Observable.<Integer>create(emitter -> {
+      if (Looper.myLooper() != Looper.getMainLooper()) {
+        throw new IllegalStateException("Expected to be called on the main thread but was " + Thread.currentThread().getName());
+      }
+
+      final RecyclerView.OnScrollListener sl = new RecyclerView.OnScrollListener() {
+        private long lastScrollTimeMillis;
+        private int lastRequestedDatasetCount = -1;
+
+        @Override
+        public void onScrolled(RecyclerView rv, int dx, int dy) {
+          long nowMillis = SystemClock.uptimeMillis();
+          long millisSinceLastScroll = nowMillis - lastScrollTimeMillis;
+          lastScrollTimeMillis = nowMillis;
+
+          if (dy <= 0 || !(recyclerView.getAdapter() instanceof InfinitelyScrollableRecyclerViewAdapter) || rv.getChildCount() == 0) {
+            return;
+          }
+
+          int adapterDatasetCount = ((InfinitelyScrollableRecyclerViewAdapter) recyclerView.getAdapter()).getItemCountMinusDecorators();
+          if (adapterDatasetCount == lastRequestedDatasetCount) {
+            return;
+          }
+
+          int position = getLastVisibleItemPosition(recyclerView);
+          int updatePosition = (int) ((adapterDatasetCount - 1) * scrollThreshold);
+          int itemsUntilUpdate = updatePosition - position;
+          if (updatePosition == 0 || itemsUntilUpdate < 0) {
+            // Paging has already been requested.
+            return;
+          }
+
+          long millisUntilUpdate = Long.MAX_VALUE;
+          if (millisSinceLastScroll > 0) {
+            int itemHeight = Math.max(1, rv.getChildAt(rv.getChildCount() - 1).getHeight());
+            float pixelsPerMilli = (float) dy / millisSinceLastScroll;
+            millisUntilUpdate = (long) (itemsUntilUpdate * itemHeight / pixelsPerMilli);
+          }
+
+          if (itemsUntilUpdate <= PREFETCH_DISTANCE_ITEMS || millisUntilUpdate <= PREFETCH_LEAD_TIME_MILLIS) {
+            lastRequestedDatasetCount = adapterDatasetCount;
+            emitter.onNext(millisUntilUpdate <= FAST_SCROLL_LEAD_TIME_MILLIS ? 2 : 1);
+          }
+        }
+      };
+
+      recyclerView.addOnScrollListener(sl);
+      emitter.setCancellable(() -> recyclerView.removeOnScrollListener(sl));
+    });
+  }
+
   private int getLastVisibleItemPosition(RecyclerView recyclerView) {
     if (recyclerView.getLayoutManager() instanceof LinearLayoutManager) {
       LinearLayoutManager linearLayoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
@@ -0,0 +1,16 @@
+package me.saket.dank.utils;
+
+import android.support.annotation.Px;
+
+/**
+ * Decides media quality for an estimated bandwidth. Used through {@link AdaptiveMediaQuality}.
+ */
+public interface MediaQualityPolicy {
+
+  /**
+   * @param bitsPerSecond Estimated bandwidth, or {@link BandwidthEstimator#NO_ESTIMATE}.
+   * @return Width of the image variant to load in place of <var>preferredWidth</var>.
+   */
+  @Px
+  int imageWidth(@Px int preferredWidth, long bitsPerSecond);
+}
@@ -59,6 +59,14 @@ public class NetworkStateListener {
         : capabilities;
   }
 
+  /**
+   * @return Type of the active network, like "WIFI" or "MOBILE", or "NONE" if there isn't one.
+   */
+  public String activeNetworkTypeName() {
+    NetworkInfo activeNetworkInfo = connectivityManager.getActiveNetworkInfo();
+    return activeNetworkInfo == null ? "NONE" : activeNetworkInfo.getTypeName();
+  }
+
   @CheckResult
   @VisibleForTesting
   Observable<NetworkState> streamInternetCapableNetworkStateChanges() {
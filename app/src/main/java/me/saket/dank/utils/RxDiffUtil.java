@@ -37,4 +37,21 @@ public class RxDiffUtil {
         })
         .skip(1);  // Initial value is dummy.
   }
+
+  /**
+   * Like {@link #calculateDiff(BiFunction)}, but only runs DiffUtil on the region that
+   * changed between two lists. See {@link SplicedDiffResult}.
+   */
+  public static <T> FlowableTransformer<List<T>, Pair<List<T>, SplicedDiffResult>> calculateSplicedDiff(
+      BiFunction<List<T>, List<T>, SimpleDiffUtilsCallbacks<T>> diffCallbacks)
+  {
+    Pair<List<T>, SplicedDiffResult> initialPair = Pair.createNullable(Collections.emptyList(), null);
+    return upstream -> upstream
+        .scan(initialPair, (latestPair, nextItems) -> {
+          SimpleDiffUtilsCallbacks<T> callbacks = diffCallbacks.apply(latestPair.first(), nextItems);
+          SplicedDiffResult result = SplicedDiffResult.calculate(latestPair.first(), nextItems, callbacks);
+          return Pair.create(nextItems, result);
+        })
+        .skip(1);  // Initial value is dummy.
+  }
 }
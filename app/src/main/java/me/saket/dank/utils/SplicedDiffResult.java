@@ -0,0 +1,212 @@
+package me.saket.dank.utils;
+
+import android.support.annotation.Nullable;
+import android.support.v7.util.AdapterListUpdateCallback;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Alternative to {@link DiffUtil.DiffResult} for lists where most updates touch a single contiguous
+ * region, like a collapsed comment subtree or a toggled reply field. Rows with the same identity at
+ * the start and end of both lists are only checked for content changes, so a full {@link DiffUtil}
+ * pass is only run on the (usually tiny) region between them.
+ */
+public class SplicedDiffResult {
+
+  private final int oldListSize;
+  private final int newListSize;
+  private final int prefixSize;
+  private final int suffixSize;
+  private final List<ChangedRow> changedRows;
+  @Nullable private final DiffUtil.DiffResult middleDiffResult;
+  private final int middleRemovedCount;
+  private final int middleInsertedCount;
+
+  /**
+   * A row that kept its identity but whose contents changed. Position is in the old list.
+   */
+  private static class ChangedRow {
+    final int oldPosition;
+    @Nullable final Object payload;
+
+    ChangedRow(int oldPosition, @Nullable Object payload) {
+      this.oldPosition = oldPosition;
+      this.payload = payload;
+    }
+  }
+
+  private SplicedDiffResult(
+      int oldListSize,
+      int newListSize,
+      int prefixSize,
+      int suffixSize,
+      List<ChangedRow> changedRows,
+      @Nullable DiffUtil.DiffResult middleDiffResult)
+  {
+    this.oldListSize = oldListSize;
+    this.newListSize = newListSize;
+    this.prefixSize = prefixSize;
+    this.suffixSize = suffixSize;
+    this.changedRows = changedRows;
+    this.middleDiffResult = middleDiffResult;
+    this.middleRemovedCount = oldListSize - prefixSize - suffixSize;
+    this.middleInsertedCount = newListSize - prefixSize - suffixSize;
+  }
+
+  public static <T> SplicedDiffResult calculate(List<T> oldItems, List<T> newItems, SimpleDiffUtilsCallbacks<T> callbacks) {
+    int oldSize = oldItems.size();
+    int newSize = newItems.size();
+    int maxPrefixOrSuffix = Math.min(oldSize, newSize);
+
+    int prefixSize = 0;
+    while (prefixSize < maxPrefixOrSuffix && callbacks.areItemsTheSame(oldItems.get(prefixSize), newItems.get(prefixSize))) {
+      prefixSize++;
+    }
+
+    int suffixSize = 0;
+    while (suffixSize < maxPrefixOrSuffix - prefixSize
+        && callbacks.areItemsTheSame(oldItems.get(oldSize - 1 - suffixSize), newItems.get(newSize - 1 - suffixSize)))
+    {
+      suffixSize++;
+    }
+
+    List<ChangedRow> changedRows = new ArrayList<>(4);
+    for (int i = 0; i < prefixSize; i++) {  // Intentionally avoiding thrashing Iterator objects.
+      addIfChanged(changedRows, callbacks, oldItems.get(i), newItems.get(i), i);
+    }
+    for (int i = 0; i < suffixSize; i++) {
+      int oldPosition = oldSize - 1 - i;
+      addIfChanged(changedRows, callbacks, oldItems.get(oldPosition), newItems.get(newSize - 1 - i), oldPosition);
+    }
+
+    List<T> oldMiddle = oldItems.subList(prefixSize, oldSize - suffixSize);
+    List<T> newMiddle = newItems.subList(prefixSize, newSize - suffixSize);
+
+    // A pure insertion or removal can be dispatched as-is. Only mixed
+    // regions need DiffUtil to find moved or changed rows inside them.
+    DiffUtil.DiffResult middleDiffResult = null;
+    if (!oldMiddle.isEmpty() && !newMiddle.isEmpty()) {
+      middleDiffResult = DiffUtil.calculateDiff(new SimpleDiffUtilsCallbacks<T>(oldMiddle, newMiddle) {
+        @Override
+        public boolean areItemsTheSame(T oldItem, T newItem) {
+          return callbacks.areItemsTheSame(oldItem, newItem);
+        }
+
+        @Override
+        protected boolean areContentsTheSame(T oldItem, T newItem) {
+          return callbacks.areContentsTheSame(oldItem, newItem);
+        }
+
+        @Nullable
+        @Override
+        public Object getChangePayload(T oldItem, T newItem) {
+          return callbacks.getChangePayload(oldItem, newItem);
+        }
+      }, true);
+    }
+
+    return new SplicedDiffResult(oldSize, newSize, prefixSize, suffixSize, changedRows, middleDiffResult);
+  }
+
+  /**
+   * For updates where the caller already knows that no rows were added, removed or moved, and which rows
+   * were rebuilt. Only those rows are checked for content changes.
+   */
+  public static <T> SplicedDiffResult ofChangedPositions(
+      List<T> oldItems,
+      List<T> newItems,
+      List<Integer> changedPositions,
+      SimpleDiffUtilsCallbacks<T> callbacks)
+  {
+    if (oldItems.size() != newItems.size()) {
+      throw new IllegalArgumentException("Rows were added or removed. Old size: " + oldItems.size() + ", new size: " + newItems.size());
+    }
+
+    int size = newItems.size();
+    List<ChangedRow> changedRows = new ArrayList<>(changedPositions.size());
+    for (int i = 0; i < changedPositions.size(); i++) {
+      int position = changedPositions.get(i);
+      addIfChanged(changedRows, callbacks, oldItems.get(position), newItems.get(position), position);
+    }
+    return new SplicedDiffResult(size, size, size, 0, changedRows, null);
+  }
+
+  private static <T> void addIfChanged(List<ChangedRow> changedRows, SimpleDiffUtilsCallbacks<T> callbacks, T oldItem, T newItem, int oldPosition) {
+    if (oldItem != newItem && !callbacks.areContentsTheSame(oldItem, newItem)) {
+      changedRows.add(new ChangedRow(oldPosition, callbacks.getChangePayload(oldItem, newItem)));
+    }
+  }
+
+  public void dispatchUpdatesTo(RecyclerView.Adapter adapter) {
+    dispatchUpdatesTo(new AdapterListUpdateCallback(adapter));
+  }
+
+  public void dispatchUpdatesTo(ListUpdateCallback callback) {
+    // Changes are dispatched first, while their old positions are still valid.
+    for (int i = 0; i < changedRows.size(); i++) {
+      ChangedRow changedRow = changedRows.get(i);
+      callback.onChanged(changedRow.oldPosition, 1, changedRow.payload);
+    }
+
+    if (middleDiffResult != null) {
+      middleDiffResult.dispatchUpdatesTo(new OffsetListUpdateCallback(callback, prefixSize));
+    } else if (middleRemovedCount > 0) {
+      callback.onRemoved(prefixSize, middleRemovedCount);
+    } else if (middleInsertedCount > 0) {
+      callback.onInserted(prefixSize, middleInsertedCount);
+    }
+  }
+
+  /**
+   * Number of rows that were only checked for content changes and didn't need diffing.
+   */
+  public int splicedRowCount() {
+    return prefixSize + suffixSize;
+  }
+
+  @Override
+  public String toString() {
+    return "SplicedDiffResult{"
+        + "oldSize=" + oldListSize
+        + ", newSize=" + newListSize
+        + ", prefix=" + prefixSize
+        + ", suffix=" + suffixSize
+        + ", changed=" + changedRows.size()
+        + ", middleDiffed=" + (middleDiffResult != null)
+        + '}';
+  }
+
+  private static class OffsetListUpdateCallback implements ListUpdateCallback {
+    private final ListUpdateCallback delegate;
+    private final int offset;
+
+    OffsetListUpdateCallback(ListUpdateCallback delegate, int offset) {
+      this.delegate = delegate;
+      this.offset = offset;
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+      delegate.onInserted(position + offset, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+      delegate.onRemoved(position + offset, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+      delegate.onMoved(fromPosition + offset, toPosition + offset);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+      delegate.onChanged(position + offset, count, payload);
+    }
+  }
+}
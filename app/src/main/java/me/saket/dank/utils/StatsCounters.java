@@ -0,0 +1,66 @@
+package me.saket.dank.utils;
+
+import android.support.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters for the *Stats classes, so that they only have to declare what they count.
+ * Counters are printed in the order they were added. They should only be added during construction.
+ */
+public class StatsCounters {
+
+  private final String name;
+  private final Map<String, AtomicLong> counters = new LinkedHashMap<>();
+
+  /**
+   * @param name Printed around the counters. Null for stats that get printed inside other stats.
+   */
+  public StatsCounters(@Nullable String name) {
+    this.name = name;
+  }
+
+  public AtomicLong add(String counterName) {
+    AtomicLong counter = new AtomicLong();
+    counters.put(counterName, counter);
+    return counter;
+  }
+
+  /**
+   * @param namesAndValues Derived values like hit rates, as pairs of names and values.
+   *                       They're printed after the counters.
+   */
+  public String format(Object... namesAndValues) {
+    StringBuilder builder = new StringBuilder();
+    if (name != null) {
+      builder.append(name).append('{');
+    }
+
+    String separator = "";
+    for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+      builder.append(separator).append(entry.getKey()).append('=').append(entry.getValue().get());
+      separator = ", ";
+    }
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      Object value = namesAndValues[i + 1];
+      String formattedValue = value instanceof Float || value instanceof Double
+          ? String.format(Locale.ENGLISH, "%.2f", value)
+          : String.valueOf(value);
+      builder.append(separator).append(namesAndValues[i]).append('=').append(formattedValue);
+      separator = ", ";
+    }
+
+    if (name != null) {
+      builder.append('}');
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public String toString() {
+    return format();
+  }
+}
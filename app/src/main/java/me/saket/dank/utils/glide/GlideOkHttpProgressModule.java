@@ -12,7 +12,9 @@ import com.bumptech.glide.module.LibraryGlideModule;
 import java.io.InputStream;
 import java.util.concurrent.TimeUnit;
 
+import me.saket.dank.di.Dank;
 import me.saket.dank.di.RootModule;
+import me.saket.dank.utils.okhttp.OkHttpBandwidthSamplingInterceptor;
 import me.saket.dank.utils.okhttp.OkHttpResponseBodyWithProgress;
 import me.saket.dank.utils.okhttp.OkHttpResponseReadProgressListener;
 import okhttp3.Interceptor;
@@ -28,7 +30,8 @@ public class GlideOkHttpProgressModule extends LibraryGlideModule {
     OkHttpClient.Builder builder = new OkHttpClient.Builder()
         .connectTimeout(RootModule.NETWORK_CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
         .readTimeout(RootModule.NETWORK_READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
-        .addNetworkInterceptor(createInterceptor(new OkHttpProgressListenersRepository()));
+        .addNetworkInterceptor(createInterceptor(new OkHttpProgressListenersRepository()))
+        .addNetworkInterceptor(new OkHttpBandwidthSamplingInterceptor(Dank.dependencyInjector().bandwidthEstimator()));
 
     //if (BuildConfig.DEBUG) {
     //  HttpLoggingInterceptor logging = new HttpLoggingInterceptor(message -> Timber.tag("Glide").d(message));
@@ -4,6 +4,9 @@ import net.dean.jraw.models.Comment;
 import net.dean.jraw.models.Message;
 import net.dean.jraw.models.Submission;
 
+import java.util.List;
+
+import io.reactivex.Completable;
 import me.saket.dank.reply.PendingSyncReply;
 
 /**
@@ -33,5 +36,11 @@ public interface Markdown {
 
   String stripMarkdown(Message message);
 
+  /**
+   * Renders <var>markdowns</var> in parallel on a background pool and caches them, so that
+   * they're available without parsing when they're shown. Failures are ignored.
+   */
+  Completable preRender(List<String> markdowns);
+
   void clearCache();
 }
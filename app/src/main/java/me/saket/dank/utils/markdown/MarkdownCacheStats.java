@@ -0,0 +1,68 @@
+package me.saket.dank.utils.markdown;
+
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import me.saket.dank.utils.StatsCounters;
+
+/**
+ * Counters for the rendered markdown cache. Pre-renders are counted separately so that they
+ * don't get mistaken for misses on the UI path.
+ */
+@Singleton
+public class MarkdownCacheStats {
+
+  private final StatsCounters counters = new StatsCounters("MarkdownCacheStats");
+  private final AtomicLong hits = counters.add("hits");
+  private final AtomicLong misses = counters.add("misses");
+  private final AtomicLong evictions = counters.add("evictions");
+  private final AtomicLong preRenders = counters.add("preRenders");
+
+  @Inject
+  public MarkdownCacheStats() {
+  }
+
+  public void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  public void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  public void recordEviction() {
+    evictions.incrementAndGet();
+  }
+
+  public void recordPreRender() {
+    preRenders.incrementAndGet();
+  }
+
+  public long hitCount() {
+    return hits.get();
+  }
+
+  public long missCount() {
+    return misses.get();
+  }
+
+  public long evictionCount() {
+    return evictions.get();
+  }
+
+  public long preRenderCount() {
+    return preRenders.get();
+  }
+
+  public float hitRate() {
+    long hitCount = hits.get();
+    long requestCount = hitCount + misses.get();
+    return requestCount == 0 ? 1f : (float) hitCount / requestCount;
+  }
+
+  @Override
+  public String toString() {
+    return counters.format("hitRate", hitRate());
+  }
+}
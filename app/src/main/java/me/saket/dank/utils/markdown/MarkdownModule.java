@@ -2,16 +2,22 @@ package me.saket.dank.utils.markdown;
 
 import android.app.Application;
 import android.support.v4.content.ContextCompat;
+import android.text.Spanned;
 
 import com.nytimes.android.external.cache3.Cache;
 import com.nytimes.android.external.cache3.CacheBuilder;
+import com.nytimes.android.external.cache3.RemovalListener;
 
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.R;
 import me.saket.dank.markdownhints.MarkdownHintOptions;
 import me.saket.dank.markdownhints.MarkdownSpanPool;
@@ -23,6 +29,10 @@ import ru.noties.markwon.spans.SpannableTheme;
 @Module
 public class MarkdownModule {
 
+  private static final long CACHE_MAX_WEIGHT = 2_000_000;
+  private static final int SPAN_WEIGHT = 40;
+  private static final int MAX_PRE_RENDERING_THREADS = 3;
+
   @Provides
   Markdown markdown(MarkwonBasedMarkdownRenderer renderer) {
     return renderer;
@@ -57,15 +67,49 @@ public class MarkdownModule {
         .build();
   }
 
+  /**
+   * Weighed by char count and span count, which is roughly what a rendered
+   * {@link Spanned} costs in memory. Each span is counted as {@link #SPAN_WEIGHT} chars.
+   */
   @Provides
   @Singleton
   @Named("markwon_spans_renderer")
-  static Cache<String, CharSequence> markdownCache() {
+  static Cache<String, CharSequence> markdownCache(MarkdownCacheStats stats) {
     return CacheBuilder.newBuilder()
+        .maximumWeight(CACHE_MAX_WEIGHT)
+        .weigher((String markdown, CharSequence rendered) -> {
+          int spanCount = rendered instanceof Spanned
+              ? ((Spanned) rendered).getSpans(0, rendered.length(), Object.class).length
+              : 0;
+          return markdown.length() + rendered.length() + spanCount * SPAN_WEIGHT;
+        })
+        .removalListener((RemovalListener<String, CharSequence>) notification -> {
+          if (notification.wasEvicted()) {
+            stats.recordEviction();
+          }
+        })
         .expireAfterAccess(1, TimeUnit.HOURS)
         .build();
   }
 
+  /**
+   * Parsing is CPU bound, so using a fixed pool that leaves a core free for the UI thread.
+   */
+  @Provides
+  @Singleton
+  @Named("markdown_pre_rendering")
+  static Scheduler preRenderingScheduler() {
+    int threadCount = Math.max(1, Math.min(MAX_PRE_RENDERING_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+    AtomicInteger threadNumber = new AtomicInteger();
+
+    return Schedulers.from(Executors.newFixedThreadPool(threadCount, runnable -> {
+      Thread thread = new Thread(runnable, "markdown-pre-rendering-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }));
+  }
+
   @Provides
   static SpannableConfiguration spannableConfiguration(Application appContext, MarkdownHintOptions options) {
     return SpannableConfiguration.builder(appContext)
@@ -17,6 +17,7 @@ import org.commonmark.node.Visitor;
 import org.commonmark.parser.Parser;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.Stack;
 import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
@@ -24,12 +25,16 @@ import java.util.regex.Pattern;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.exceptions.Exceptions;
 import me.saket.dank.BuildConfig;
 import me.saket.dank.markdownhints.MarkdownHintOptions;
 import me.saket.dank.reply.PendingSyncReply;
 import me.saket.dank.utils.Preconditions;
 import me.saket.dank.utils.markdown.Markdown;
+import me.saket.dank.utils.markdown.MarkdownCacheStats;
 import ru.noties.markwon.SpannableBuilder;
 import ru.noties.markwon.SpannableConfiguration;
 import ru.noties.markwon.tasklist.TaskListExtension;
@@ -40,12 +45,20 @@ public class MarkwonBasedMarkdownRenderer implements Markdown {
   private static final Pattern LINK_MARKDOWN_PATTERN = Pattern.compile("\\[([^\\]]*)\\]\\(([^)\"]*)\\)");
   private static final Pattern LINK_WITH_SPACE_MARKDOWN_PATTERN = Pattern.compile("\\[([^\\]]*)\\]\\s+\\(([^)\"]*)\\)");
   private static final Pattern HEADING_WITHOUT_SPACE_MARKDOWN_PATTERN = Pattern.compile("(#{1,6})\\s{0}((?:(?!\\\\n).)*)");
-  private static final Pattern POTENTIALLY_INVALID_SPOILER_MARKDOWN_PATTERN = Pattern.compile("\\[([^\\]]*)\\]\\((.*?)\"+(.*?(?<!\\\\))\"+\\)");
+  static final Pattern POTENTIALLY_INVALID_SPOILER_MARKDOWN_PATTERN = Pattern.compile("\\[([^\\]]*)\\]\\((.*?)\"+(.*?(?<!\\\\))\"+\\)");
 
   private final MarkdownHintOptions markdownOptions;
   private final Cache<String, CharSequence> cache;
   private final Parser parser;
   private final SpannableConfiguration configuration;
+  private final MarkdownCacheStats cacheStats;
+  private final Scheduler preRenderingScheduler;
+  private final ThreadLocal<RedditMarkdownPreprocessor> preprocessors = new ThreadLocal<RedditMarkdownPreprocessor>() {
+    @Override
+    protected RedditMarkdownPreprocessor initialValue() {
+      return new RedditMarkdownPreprocessor();
+    }
+  };
 
   @Inject
   public MarkwonBasedMarkdownRenderer(
@@ -53,11 +66,15 @@ public class MarkwonBasedMarkdownRenderer implements Markdown {
       AutoRedditLinkExtension autoRedditLinkExtension,
       EmptyListItemHandlerExtension emptyListItemHandlerExtension,
       MarkdownHintOptions markdownOptions,
-      @Named("markwon_spans_renderer") Cache<String, CharSequence> cache)
+      @Named("markwon_spans_renderer") Cache<String, CharSequence> cache,
+      MarkdownCacheStats cacheStats,
+      @Named("markdown_pre_rendering") Scheduler preRenderingScheduler)
   {
     this.markdownOptions = markdownOptions;
     this.cache = cache;
     this.configuration = configuration;
+    this.cacheStats = cacheStats;
+    this.preRenderingScheduler = preRenderingScheduler;
 
     this.parser = new Parser.Builder()
         .extensions(Arrays.asList(
@@ -71,19 +88,10 @@ public class MarkwonBasedMarkdownRenderer implements Markdown {
         .build();
   }
 
-  // TODO: it's important to call these typo-fixing methods in correct order.
-  // Write a test to ensure that. Ensure ordering and integration of all.
   private SpannableStringBuilder parseMarkdown(String markdown) {
     // Convert '&lgt;' to '<', etc.
     markdown = org.jsoup.parser.Parser.unescapeEntities(markdown, true);
-    markdown = fixInvalidTables(markdown);
-    markdown = fixInvalidHeadings(markdown);
-    markdown = removeSpaceBetweenLinkLabelAndUrl(markdown);
-    markdown = escapeSpacesInLinkUrls(markdown);
-    markdown = fixInvalidSpoilers(markdown);
-
-    // WARNING: this should be at the end.
-    markdown = new SuperscriptMarkdownToHtml().convert(markdown);
+    markdown = preprocess(markdown);
 
     // It's better **not** to re-use the visitor between multiple calls.
     SpannableBuilder builder = new SpannableBuilder();
@@ -94,14 +102,52 @@ public class MarkwonBasedMarkdownRenderer implements Markdown {
     return (SpannableStringBuilder) builder.text();
   }
 
+  /**
+   * Fixes tables, headings, links, spoilers and superscripts in one pass. See {@link RedditMarkdownPreprocessor}.
+   */
+  @VisibleForTesting
+  String preprocess(String markdown) {
+    try {
+      return preprocessors.get().process(markdown);
+    } catch (Throwable e) {
+      Timber.e(e, "Couldn't pre-process: %s", markdown);
+      return markdown;
+    }
+  }
+
+  /**
+   * The fix-ups that {@link RedditMarkdownPreprocessor} replaced, in the order they used to run.
+   * Used as a reference for checking its output.
+   */
+  @VisibleForTesting
+  String preprocessUsingRegexes(String markdown) {
+    markdown = fixInvalidTables(markdown);
+    markdown = fixInvalidHeadings(markdown);
+    markdown = removeSpaceBetweenLinkLabelAndUrl(markdown);
+    markdown = escapeSpacesInLinkUrls(markdown);
+    markdown = fixInvalidSpoilers(markdown);
+
+    // WARNING: this should be at the end.
+    return new SuperscriptMarkdownToHtml().convert(markdown);
+  }
+
   CharSequence getOrParse(String markdown) {
+    CharSequence cached = cache.getIfPresent(markdown);
+    if (cached != null) {
+      cacheStats.recordHit();
+      return cached;
+    }
+
+    cacheStats.recordMiss();
+    return getOrParseUncounted(markdown);
+  }
+
+  private CharSequence getOrParseUncounted(String markdown) {
     Callable<CharSequence> valueSeeder = () -> parseMarkdown(markdown);
 
     try {
-      // TODO: remove.
-      if (BuildConfig.DEBUG) {
-        return valueSeeder.call();
-      }
+      // Concurrent loads of the same key are merged by the cache, so a
+      // pre-render that's in flight won't get parsed again on the UI path.
       return cache.get(markdown, valueSeeder);
     } catch (Exception e) {
       // Should never happen.
@@ -109,6 +155,21 @@ public class MarkwonBasedMarkdownRenderer implements Markdown {
     }
   }
 
+  @Override
+  public Completable preRender(List<String> markdowns) {
+    return Observable.fromIterable(markdowns)
+        .distinct()
+        .filter(markdown -> cache.getIfPresent(markdown) == null)
+        .flatMapCompletable(markdown -> Completable
+            .fromAction(() -> {
+              getOrParseUncounted(markdown);
+              cacheStats.recordPreRender();
+            })
+            .subscribeOn(preRenderingScheduler)
+            .doOnError(error -> Timber.e(error, "Couldn't pre-render: %s", markdown))
+            .onErrorComplete());
+  }
+
   @Override
   public CharSequence parse(PendingSyncReply reply) {
     return getOrParse(reply.body());
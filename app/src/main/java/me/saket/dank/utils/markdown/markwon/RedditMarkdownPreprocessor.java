@@ -0,0 +1,396 @@
+package me.saket.dank.utils.markdown.markwon;
+
+import java.util.regex.Matcher;
+
+/**
+ * Fixes Reddit-flavored markdown that commonmark can't parse, in a single pass over the text.
+ * Produces the same output as running {@link MarkwonBasedMarkdownRenderer#fixInvalidTables(String)},
+ * {@link MarkwonBasedMarkdownRenderer#fixInvalidHeadings(String)},
+ * {@link MarkwonBasedMarkdownRenderer#removeSpaceBetweenLinkLabelAndUrl(String)},
+ * {@link MarkwonBasedMarkdownRenderer#escapeSpacesInLinkUrls(String)},
+ * {@link MarkwonBasedMarkdownRenderer#fixInvalidSpoilers(String)} and
+ * {@link MarkwonBasedMarkdownRenderer.SuperscriptMarkdownToHtml} in that order, except:
+ * <p>
+ * - Headings are only fixed at the start of a line, so "#1" or URL fragments don't get a space.
+ * - Every link gets fixed. The regex loops used stale match offsets after their first edit.
+ * <p>
+ * Not thread-safe. The output buffer is reused across calls.
+ */
+class RedditMarkdownPreprocessor {
+
+  private static final int MAX_HEADING_LEVEL = 6;
+  private static final int MAX_RETAINED_BUFFER_CAPACITY = 16 * 1024;
+  private static final String SUPERSCRIPT_START = "<sup>";
+  private static final String SUPERSCRIPT_END = "</sup>";
+  private static final String ESCAPED_SPACE = "%20";
+
+  private final Matcher spoilerMatcher = MarkwonBasedMarkdownRenderer.POTENTIALLY_INVALID_SPOILER_MARKDOWN_PATTERN.matcher("");
+  private StringBuilder output = new StringBuilder();
+
+  private String input;
+
+  /** Output position where the current heading's text starts, or -1 when not inside a heading. */
+  private int headingTextStart;
+  /** Input position where the current heading's text ends. */
+  private int headingTextEnd;
+
+  /**
+   * A link that fails to match at one '[' also fails at every other '[' before the same ']',
+   * so the result is remembered to avoid rescanning the label for nested brackets.
+   */
+  private int cachedCloseBracket;
+  private int cachedLinkEnd;
+  private int nextQuote;
+  private int spoilerSearchStart;
+
+  /** Input position of the closing '|' of the last "|:--:|" table cell that was fixed. */
+  private int lastFixedCenterCellEnd;
+
+  private int openSuperscripts;
+  private boolean pendingBackslash;
+
+  String process(String markdown) {
+    input = markdown;
+    headingTextStart = -1;
+    headingTextEnd = -1;
+    cachedCloseBracket = -1;
+    cachedLinkEnd = -1;
+    nextQuote = -1;
+    spoilerSearchStart = 0;
+    lastFixedCenterCellEnd = -1;
+    openSuperscripts = 0;
+    pendingBackslash = false;
+    spoilerMatcher.reset(markdown);
+    output.ensureCapacity(markdown.length() + markdown.length() / 8);
+
+    int length = markdown.length();
+    int position = 0;
+    while (position < length) {
+      if (headingTextStart != -1 && position == headingTextEnd) {
+        endHeading();
+      }
+
+      char c = markdown.charAt(position);
+      if (c == '#' && headingTextStart == -1 && isAtLineStart(position)) {
+        position = startHeading(position);
+
+      } else if (c == '[') {
+        int tokenEnd = appendLinkOrSpoiler(position);
+        if (tokenEnd == -1) {
+          append(c);
+          position++;
+        } else {
+          position = tokenEnd;
+        }
+
+      } else if (c == '-') {
+        position = appendTableDashes(position);
+
+      } else {
+        append(c);
+        position++;
+      }
+    }
+
+    if (headingTextStart != -1) {
+      endHeading();
+    }
+    if (pendingBackslash) {
+      pendingBackslash = false;
+      output.append('\\');
+    }
+    closeSuperscripts();
+
+    String processed = output.toString();
+    if (output.capacity() > MAX_RETAINED_BUFFER_CAPACITY) {
+      output = new StringBuilder();
+    } else {
+      output.setLength(0);
+    }
+    input = null;
+    spoilerMatcher.reset("");
+    return processed;
+  }
+
+  /**
+   * Output goes through here so that '^' is converted to superscript tags the same way
+   * {@link MarkwonBasedMarkdownRenderer.SuperscriptMarkdownToHtml} does on the fixed text.
+   */
+  private void append(char c) {
+    if (pendingBackslash) {
+      pendingBackslash = false;
+      if (c == 'n') {
+        // Escaped new line.
+        closeSuperscripts();
+      }
+      output.append('\\');
+    }
+
+    if (c == '\\') {
+      pendingBackslash = true;
+    } else if (c == '^') {
+      openSuperscripts++;
+      output.append(SUPERSCRIPT_START);
+    } else {
+      if (Character.isWhitespace(c)) {
+        closeSuperscripts();
+      }
+      output.append(c);
+    }
+  }
+
+  private void append(CharSequence text, int start, int end) {
+    for (int i = start; i < end; i++) {
+      append(text.charAt(i));
+    }
+  }
+
+  private void closeSuperscripts() {
+    for (; openSuperscripts > 0; openSuperscripts--) {
+      output.append(SUPERSCRIPT_END);
+    }
+  }
+
+// ======== HEADINGS ======== //
+
+  private boolean isAtLineStart(int position) {
+    int i = position - 1;
+    while (i >= 0 && isHeadingIndentation(input.charAt(i))) {
+      i--;
+    }
+    return i < 0 || isLineTerminator(input.charAt(i)) || isEscapedNewLineEnd(i);
+  }
+
+  /**
+   * Spaces and block quote markers.
+   */
+  private static boolean isHeadingIndentation(char c) {
+    return c == ' ' || c == '\t' || c == '>';
+  }
+
+  /**
+   * Same as the characters that '.' does not match in a regex.
+   */
+  private static boolean isLineTerminator(char c) {
+    return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  /**
+   * Reddit occasionally sends new lines as a literal "\n".
+   */
+  private boolean isEscapedNewLineEnd(int position) {
+    return position > 0 && input.charAt(position) == 'n' && input.charAt(position - 1) == '\\';
+  }
+
+  private boolean isEscapedNewLineStart(int position) {
+    return input.charAt(position) == '\\' && position + 1 < input.length() && input.charAt(position + 1) == 'n';
+  }
+
+  /**
+   * Ensures a space between '#' and heading text. Whitespace around
+   * the text is trimmed, which is finished by {@link #endHeading()}.
+   */
+  private int startHeading(int position) {
+    int length = input.length();
+    int hashesEnd = position;
+    while (hashesEnd < length && hashesEnd - position < MAX_HEADING_LEVEL && input.charAt(hashesEnd) == '#') {
+      hashesEnd++;
+    }
+
+    headingTextEnd = hashesEnd;
+    while (headingTextEnd < length && !isLineTerminator(input.charAt(headingTextEnd)) && !isEscapedNewLineStart(headingTextEnd)) {
+      headingTextEnd++;
+    }
+
+    append(input, position, hashesEnd);
+    append(' ');
+    headingTextStart = output.length();
+
+    int textStart = hashesEnd;
+    while (textStart < headingTextEnd && input.charAt(textStart) <= ' ') {
+      textStart++;
+    }
+    return textStart;
+  }
+
+  private void endHeading() {
+    if (!pendingBackslash) {
+      int end = output.length();
+      while (end > headingTextStart && output.charAt(end - 1) <= ' ') {
+        end--;
+      }
+      output.setLength(end);
+    }
+    headingTextStart = -1;
+  }
+
+// ======== LINKS AND SPOILERS ======== //
+
+  /**
+   * @return End position of the link or spoiler starting at <var>openBracket</var>, or -1 if none was appended.
+   */
+  private int appendLinkOrSpoiler(int openBracket) {
+    int tokenLimit = headingTextStart != -1 ? headingTextEnd : input.length();
+
+    if (cachedCloseBracket <= openBracket) {
+      cachedCloseBracket = input.indexOf(']', openBracket + 1);
+      if (cachedCloseBracket == -1) {
+        cachedCloseBracket = input.length();
+        cachedLinkEnd = -1;
+      } else {
+        cachedLinkEnd = findLinkEnd(cachedCloseBracket);
+      }
+    }
+
+    int closeBracket = cachedCloseBracket;
+    if (closeBracket >= tokenLimit) {
+      return -1;
+    }
+    int linkEnd = cachedLinkEnd != -1 && cachedLinkEnd <= tokenLimit ? cachedLinkEnd : -1;
+
+    // A spoiler match is looked for even when a link was found, because the regex that fixed
+    // spoilers didn't search again until the end of whatever it had matched.
+    if (openBracket >= spoilerSearchStart && mayBeSpoiler(closeBracket)) {
+      spoilerMatcher.region(openBracket, tokenLimit);
+
+      if (spoilerMatcher.lookingAt()) {
+        spoilerSearchStart = spoilerMatcher.end();
+        String spoilerUrl = spoilerMatcher.group(2).trim();
+
+        if (linkEnd == -1 && RedditSpoilerLinkVisitor.isValidSpoilerUrl(spoilerUrl)) {
+          append('[');
+          append(input, spoilerMatcher.start(1), spoilerMatcher.end(1));
+          append(']');
+          append('(');
+          append('/');
+          append('s');
+          append(' ');
+          append('"');
+          append(input, spoilerMatcher.start(3), spoilerMatcher.end(3));
+          append('"');
+          append(')');
+          return spoilerMatcher.end();
+        }
+      }
+    }
+
+    if (linkEnd == -1) {
+      return -1;
+    }
+
+    append(input, openBracket, closeBracket + 1);
+    append('(');
+    int urlStart = input.indexOf('(', closeBracket);
+    for (int i = urlStart + 1; i < linkEnd - 1; i++) {
+      char c = input.charAt(i);
+      if (isRegexWhitespace(c)) {
+        append(ESCAPED_SPACE, 0, ESCAPED_SPACE.length());
+      } else {
+        append(c);
+      }
+    }
+    append(')');
+    return linkEnd;
+  }
+
+  /**
+   * Matches "](url)", with optional spaces before "(". The url can't contain quotes.
+   *
+   * @return End position of the link, or -1 if it isn't a valid link.
+   */
+  private int findLinkEnd(int closeBracket) {
+    int length = input.length();
+    int i = closeBracket + 1;
+    while (i < length && isRegexWhitespace(input.charAt(i))) {
+      i++;
+    }
+    if (i >= length || input.charAt(i) != '(') {
+      return -1;
+    }
+
+    for (i++; i < length; i++) {
+      char c = input.charAt(i);
+      if (c == ')') {
+        return i + 1;
+      }
+      if (c == '"') {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  private boolean mayBeSpoiler(int closeBracket) {
+    if (nextQuote < closeBracket) {
+      nextQuote = input.indexOf('"', closeBracket);
+      if (nextQuote == -1) {
+        nextQuote = input.length();
+      }
+    }
+    return closeBracket + 1 < input.length()
+        && input.charAt(closeBracket + 1) == '('
+        && nextQuote < input.length();
+  }
+
+  /**
+   * Same as "\s" in a regex.
+   */
+  private static boolean isRegexWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+
+// ======== TABLES ======== //
+
+  /**
+   * Markwon needs at-least three dashes for table headers. Appends the run
+   * of dashes starting at <var>position</var>, with more dashes if needed.
+   */
+  private int appendTableDashes(int position) {
+    int length = input.length();
+    int runEnd = position;
+    while (runEnd < length && input.charAt(runEnd) == '-') {
+      runEnd++;
+    }
+
+    int dashCount = runEnd - position;
+    char before = charAt(position - 1);
+    char beforeBefore = charAt(position - 2);
+    char after = charAt(runEnd);
+    char afterAfter = charAt(runEnd + 1);
+
+    int fixedDashCount = dashCount;
+    if (before == ':') {
+      if (dashCount == 2 && after == '|') {
+        // ":--|"
+        fixedDashCount = 3;
+
+      } else if (dashCount == 2 && beforeBefore == '|' && after == ':' && afterAfter == '|'
+          && lastFixedCenterCellEnd != position - 2)
+      {
+        // "|:--:|". Adjacent cells share their '|', so a cell right after a fixed one gets skipped.
+        fixedDashCount = 3;
+        lastFixedCenterCellEnd = runEnd + 1;
+      }
+
+      if (beforeBefore == '|' && fixedDashCount >= 2) {
+        // "|:--"
+        fixedDashCount++;
+      }
+
+    } else if (before == '|' && (dashCount == 1 || dashCount == 2) && after == ':') {
+      // "|--:" and "|-:"
+      fixedDashCount = 3;
+    }
+
+    for (int i = 0; i < fixedDashCount; i++) {
+      append('-');
+    }
+    return runEnd;
+  }
+
+  private char charAt(int position) {
+    return position >= 0 && position < input.length()
+        ? input.charAt(position)
+        : Character.MIN_VALUE;
+  }
+}
@@ -0,0 +1,132 @@
+package me.saket.dank.utils.okhttp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import me.saket.dank.utils.StatsCounters;
+
+/**
+ * Per-host counters for the HTTP cache, recorded by {@link OkHttpCacheStatsInterceptor}.
+ */
+@Singleton
+public class HttpCacheStats {
+
+  private final ConcurrentHashMap<String, HostStats> statsByHost = new ConcurrentHashMap<>();
+
+  @Inject
+  public HttpCacheStats() {
+  }
+
+  public static class HostStats {
+    private final StatsCounters counters = new StatsCounters(null);
+    private final AtomicLong hits = counters.add("hits");
+    private final AtomicLong revalidations = counters.add("revalidations");
+    private final AtomicLong misses = counters.add("misses");
+    private final AtomicLong staleOnErrors = counters.add("staleOnErrors");
+    private final AtomicLong savedBytes = counters.add("savedBytes");
+
+    /**
+     * Served from the cache without touching the network.
+     */
+    public long hitCount() {
+      return hits.get();
+    }
+
+    /**
+     * Served from the cache after the server confirmed it was unchanged (HTTP 304).
+     */
+    public long revalidationCount() {
+      return revalidations.get();
+    }
+
+    public long missCount() {
+      return misses.get();
+    }
+
+    /**
+     * Served from the cache, stale, because the network request failed.
+     */
+    public long staleOnErrorCount() {
+      return staleOnErrors.get();
+    }
+
+    /**
+     * Response bytes that didn't have to be downloaded. Only counts responses whose length was known.
+     */
+    public long savedBytes() {
+      return savedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+      return counters.format();
+    }
+  }
+
+  void recordHit(String host, long bodyBytes) {
+    HostStats stats = statsFor(host);
+    stats.hits.incrementAndGet();
+    recordSavedBytes(stats, bodyBytes);
+  }
+
+  void recordRevalidation(String host, long bodyBytes) {
+    HostStats stats = statsFor(host);
+    stats.revalidations.incrementAndGet();
+    recordSavedBytes(stats, bodyBytes);
+  }
+
+  void recordMiss(String host) {
+    statsFor(host).misses.incrementAndGet();
+  }
+
+  void recordStaleOnError(String host, long bodyBytes) {
+    HostStats stats = statsFor(host);
+    stats.staleOnErrors.incrementAndGet();
+    recordSavedBytes(stats, bodyBytes);
+  }
+
+  private static void recordSavedBytes(HostStats stats, long bodyBytes) {
+    if (bodyBytes > 0) {
+      stats.savedBytes.addAndGet(bodyBytes);
+    }
+  }
+
+  private HostStats statsFor(String host) {
+    HostStats stats = statsByHost.get(host);
+    if (stats == null) {
+      HostStats newStats = new HostStats();
+      stats = statsByHost.putIfAbsent(host, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  public List<String> hosts() {
+    List<String> hosts = new ArrayList<>(statsByHost.keySet());
+    Collections.sort(hosts);
+    return hosts;
+  }
+
+  /**
+   * @return Null if nothing was requested from <var>host</var> yet.
+   */
+  public HostStats forHost(String host) {
+    return statsByHost.get(host);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("HttpCacheStats{");
+    for (String host : hosts()) {
+      builder.append("\n  ").append(host).append(": ").append(statsByHost.get(host));
+    }
+    return builder.append("\n}").toString();
+  }
+}
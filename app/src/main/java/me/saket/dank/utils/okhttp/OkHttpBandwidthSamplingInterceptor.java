@@ -0,0 +1,106 @@
+package me.saket.dank.utils.okhttp;
+
+import java.io.IOException;
+
+import me.saket.dank.utils.BandwidthEstimator;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Measures how long response bodies take to download and reports them to {@link BandwidthEstimator}.
+ * Must be added as a network interceptor so that responses served from the cache aren't measured.
+ */
+public class OkHttpBandwidthSamplingInterceptor implements Interceptor {
+
+  private final BandwidthEstimator bandwidthEstimator;
+
+  public OkHttpBandwidthSamplingInterceptor(BandwidthEstimator bandwidthEstimator) {
+    this.bandwidthEstimator = bandwidthEstimator;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Response response = chain.proceed(chain.request());
+    if (response.body() == null) {
+      return response;
+    }
+    return response.newBuilder()
+        .body(new SampledResponseBody(response.body()))
+        .build();
+  }
+
+  private class SampledResponseBody extends ResponseBody {
+    private final ResponseBody delegate;
+    private BufferedSource bufferedSource;
+
+    SampledResponseBody(ResponseBody delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+      return delegate.contentLength();
+    }
+
+    @Override
+    public BufferedSource source() {
+      if (bufferedSource == null) {
+        bufferedSource = Okio.buffer(sampledSource(delegate.source()));
+      }
+      return bufferedSource;
+    }
+
+    /**
+     * Measured from the first read, so that the server's response time isn't counted. Bodies
+     * that are closed before they're fully read are sampled too, like pre-filled videos.
+     */
+    private Source sampledSource(Source source) {
+      return new ForwardingSource(source) {
+        private long startTimeNanos = -1;
+        private long totalBytesRead;
+        private boolean sampled;
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+          if (startTimeNanos == -1) {
+            startTimeNanos = System.nanoTime();
+          }
+          long bytesRead = super.read(sink, byteCount);
+          if (bytesRead == -1) {
+            sample();
+          } else {
+            totalBytesRead += bytesRead;
+          }
+          return bytesRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+          sample();
+          super.close();
+        }
+
+        private void sample() {
+          if (sampled || startTimeNanos == -1) {
+            return;
+          }
+          sampled = true;
+          long durationMillis = (System.nanoTime() - startTimeNanos) / 1_000_000;
+          bandwidthEstimator.addSample(totalBytesRead, durationMillis);
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package me.saket.dank.utils.okhttp;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Records whether responses were served from the cache, revalidated or fetched. Must be added as an
+ * application interceptor before {@link OkHttpStaleIfErrorInterceptor} so that it sees stale responses.
+ */
+public class OkHttpCacheStatsInterceptor implements Interceptor {
+
+  private final HttpCacheStats stats;
+
+  public OkHttpCacheStatsInterceptor(HttpCacheStats stats) {
+    this.stats = stats;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Response response = chain.proceed(chain.request());
+    String host = chain.request().url().host();
+
+    Response cacheResponse = response.cacheResponse();
+    Response networkResponse = response.networkResponse();
+
+    if (cacheResponse == null) {
+      // Includes requests that weren't cacheable at all.
+      stats.recordMiss(host);
+
+    } else if (networkResponse == null) {
+      if (OkHttpStaleIfErrorInterceptor.isStaleOnError(response)) {
+        stats.recordStaleOnError(host, response.body().contentLength());
+      } else {
+        stats.recordHit(host, response.body().contentLength());
+      }
+
+    } else if (networkResponse.code() == 304) {
+      stats.recordRevalidation(host, response.body().contentLength());
+
+    } else {
+      // Stale copy was replaced by a new response.
+      stats.recordMiss(host);
+    }
+    return response;
+  }
+}
@@ -0,0 +1,41 @@
+package me.saket.dank.utils.okhttp;
+
+import java.io.IOException;
+import java.util.Map;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Makes successful GET responses from APIs that don't send any caching headers cacheable for a fixed
+ * duration per host. Responses that do send caching headers are left untouched. Must be added as a
+ * network interceptor so that OkHttp's cache sees the rewritten headers.
+ */
+public class OkHttpMaxAgeOverrideInterceptor implements Interceptor {
+
+  private final Map<String, Integer> maxAgeSecondsByHost;
+
+  public OkHttpMaxAgeOverrideInterceptor(Map<String, Integer> maxAgeSecondsByHost) {
+    this.maxAgeSecondsByHost = maxAgeSecondsByHost;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    Response response = chain.proceed(request);
+
+    Integer maxAgeSeconds = maxAgeSecondsByHost.get(request.url().host());
+    if (maxAgeSeconds == null || !"GET".equals(request.method()) || !response.isSuccessful()) {
+      return response;
+    }
+    if (response.header("Cache-Control") != null || response.header("Expires") != null) {
+      return response;
+    }
+
+    return response.newBuilder()
+        .header("Cache-Control", "public, max-age=" + maxAgeSeconds)
+        .removeHeader("Pragma")
+        .build();
+  }
+}
@@ -0,0 +1,79 @@
+package me.saket.dank.utils.okhttp;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Serves a stale cached response when a GET request fails with an IO error (e.g., when offline)
+ * or a server error, instead of failing. Should be added as an application interceptor.
+ */
+public class OkHttpStaleIfErrorInterceptor implements Interceptor {
+
+  private static final int MAX_STALE_DAYS = 7;
+  private static final String HEADER_WARNING = "Warning";
+  private static final String WARNING_REVALIDATION_FAILED = "111 - \"Revalidation Failed\"";
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    if (!"GET".equals(request.method()) || request.cacheControl().noStore() || request.cacheControl().onlyIfCached()) {
+      return chain.proceed(request);
+    }
+
+    Response response;
+    try {
+      response = chain.proceed(request);
+    } catch (IOException e) {
+      Response staleResponse = staleResponse(chain, request);
+      if (staleResponse == null) {
+        throw e;
+      }
+      return staleResponse;
+    }
+
+    if (response.code() >= 500) {
+      Response staleResponse = staleResponse(chain, request);
+      if (staleResponse != null) {
+        response.close();
+        return staleResponse;
+      }
+    }
+    return response;
+  }
+
+  /**
+   * @return Null if nothing's cached for <var>request</var>.
+   */
+  private static Response staleResponse(Chain chain, Request request) throws IOException {
+    Request cacheOnlyRequest = request.newBuilder()
+        .cacheControl(new CacheControl.Builder()
+            .onlyIfCached()
+            .maxStale(MAX_STALE_DAYS, TimeUnit.DAYS)
+            .build())
+        .build();
+
+    Response cachedResponse = chain.proceed(cacheOnlyRequest);
+    if (cachedResponse.cacheResponse() == null) {
+      // OkHttp responds with a 504 when an only-if-cached request can't be satisfied.
+      cachedResponse.close();
+      return null;
+    }
+    return cachedResponse.newBuilder()
+        .addHeader(HEADER_WARNING, WARNING_REVALIDATION_FAILED)
+        .build();
+  }
+
+  static boolean isStaleOnError(Response response) {
+    for (String warning : response.headers(HEADER_WARNING)) {
+      if (warning.equals(WARNING_REVALIDATION_FAILED)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
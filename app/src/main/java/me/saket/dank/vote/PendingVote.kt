@@ -0,0 +1,86 @@
+package me.saket.dank.vote
+
+import android.arch.persistence.room.Dao
+import android.arch.persistence.room.Entity
+import android.arch.persistence.room.Insert
+import android.arch.persistence.room.OnConflictStrategy
+import android.arch.persistence.room.PrimaryKey
+import android.arch.persistence.room.Query
+import android.arch.persistence.room.Transaction
+import android.arch.persistence.room.TypeConverter
+import net.dean.jraw.models.VoteDirection
+
+/**
+ * [direction] is shown locally until the contribution is fetched from remote again. It's sent
+ * to remote while it differs from [syncedDirection], which is null if the direction on remote
+ * isn't known.
+ */
+@Entity
+data class PendingVote(
+    @PrimaryKey
+    val fullName: String,
+    val direction: VoteDirection,
+    val syncedDirection: VoteDirection?,
+    val updateTimeMillis: Long
+) {
+
+  fun needsSync(): Boolean {
+    return direction != syncedDirection
+  }
+}
+
+@Dao
+interface PendingVoteDao {
+
+  @Query("SELECT * FROM pendingvote")
+  fun votes(): List<PendingVote>
+
+  /**
+   * Callers should keep [fullNames] under SQLite's limit of 999 variables.
+   */
+  @Query("SELECT * FROM pendingvote WHERE fullName IN (:fullNames)")
+  fun votes(fullNames: List<String>): List<PendingVote>
+
+  @Query("SELECT * FROM pendingvote WHERE syncedDirection IS NULL OR direction != syncedDirection ORDER BY updateTimeMillis ASC")
+  fun unsyncedVotes(): List<PendingVote>
+
+  @Insert(onConflict = OnConflictStrategy.IGNORE)
+  fun saveIfNew(vote: PendingVote)
+
+  @Query("UPDATE pendingvote SET direction = :direction, updateTimeMillis = :updateTimeMillis WHERE fullName = :fullName")
+  fun updateDirection(fullName: String, direction: VoteDirection, updateTimeMillis: Long)
+
+  /**
+   * Keeps the direction that was last synced if the contribution was voted on before.
+   */
+  @Transaction
+  fun saveDirection(fullName: String, direction: VoteDirection, remoteDirection: VoteDirection?, updateTimeMillis: Long) {
+    saveIfNew(PendingVote(fullName, direction, remoteDirection, updateTimeMillis))
+    updateDirection(fullName, direction, updateTimeMillis)
+  }
+
+  @Query("UPDATE pendingvote SET syncedDirection = :syncedDirection WHERE fullName = :fullName")
+  fun markSynced(fullName: String, syncedDirection: VoteDirection)
+
+  /**
+   * Votes that are yet to be sent are kept so that they aren't lost.
+   */
+  @Query("DELETE FROM pendingvote WHERE fullName IN (:fullNames) AND direction = syncedDirection")
+  fun deleteSyncedVotes(fullNames: List<String>): Int
+
+  @Query("DELETE FROM pendingvote")
+  fun deleteAll()
+}
+
+class VoteDirectionRoomTypeConverter {
+
+  @TypeConverter
+  fun toName(direction: VoteDirection?): String? {
+    return direction?.name
+  }
+
+  @TypeConverter
+  fun fromName(name: String?): VoteDirection? {
+    return name?.let { VoteDirectionX.valueOfWithMigration(it) }
+  }
+}
@@ -0,0 +1,124 @@
+package me.saket.dank.vote;
+
+import net.dean.jraw.models.VoteDirection;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressed map of pending vote directions, keyed by a 64-bit hash of contributions' full-names.
+ * Rows look up their votes on every bind, so lookups are O(1) and don't allocate: no boxing, no
+ * entries and no string concatenation for keys. Methods are synchronized because votes are made
+ * from the main thread and read from background threads.
+ */
+class PendingVoteMap {
+
+  private static final long EMPTY_KEY = 0;
+  private static final int INITIAL_CAPACITY = 64;
+  private static final VoteDirection[] DIRECTIONS = VoteDirection.values();
+
+  private long[] keys = new long[INITIAL_CAPACITY];
+  private byte[] directions = new byte[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * FNV-1a over the full-name's characters. A collision between two full-names is unlikely
+   * enough that it's ignored, at worst showing a pending vote on the wrong contribution.
+   */
+  static long keyFor(String fullName) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0, length = fullName.length(); i < length; i++) {
+      hash ^= fullName.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash == EMPTY_KEY ? 1 : hash;
+  }
+
+  /**
+   * @return null if no vote is pending.
+   */
+  synchronized VoteDirection get(String fullName) {
+    int index = indexOf(keyFor(fullName));
+    return keys[index] == EMPTY_KEY ? null : DIRECTIONS[directions[index]];
+  }
+
+  synchronized boolean contains(String fullName) {
+    return keys[indexOf(keyFor(fullName))] != EMPTY_KEY;
+  }
+
+  synchronized void put(String fullName, VoteDirection direction) {
+    long key = keyFor(fullName);
+    int index = indexOf(key);
+    if (keys[index] == EMPTY_KEY) {
+      if ((size + 1) * 4 > keys.length * 3) {
+        resize(keys.length * 2);
+        index = indexOf(key);
+      }
+      keys[index] = key;
+      size++;
+    }
+    directions[index] = (byte) direction.ordinal();
+  }
+
+  synchronized void remove(String fullName) {
+    int index = indexOf(keyFor(fullName));
+    if (keys[index] == EMPTY_KEY) {
+      return;
+    }
+
+    // Backward-shift deletion, so that lookups never need tombstones.
+    int mask = keys.length - 1;
+    int hole = index;
+    int next = (hole + 1) & mask;
+    while (keys[next] != EMPTY_KEY) {
+      int home = slotOf(keys[next]);
+      boolean canFillHole = hole <= next
+          ? (home <= hole || home > next)
+          : (home <= hole && home > next);
+      if (canFillHole) {
+        keys[hole] = keys[next];
+        directions[hole] = directions[next];
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[hole] = EMPTY_KEY;
+    size--;
+  }
+
+  synchronized void clear() {
+    Arrays.fill(keys, EMPTY_KEY);
+    size = 0;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  private int indexOf(long key) {
+    int mask = keys.length - 1;
+    int index = slotOf(key);
+    while (keys[index] != EMPTY_KEY && keys[index] != key) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  private int slotOf(long key) {
+    return (int) (key ^ (key >>> 32)) & (keys.length - 1);
+  }
+
+  private void resize(int newCapacity) {
+    long[] oldKeys = keys;
+    byte[] oldDirections = directions;
+    keys = new long[newCapacity];
+    directions = new byte[newCapacity];
+
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY_KEY) {
+        int index = indexOf(oldKeys[i]);
+        keys[index] = oldKeys[i];
+        directions[index] = oldDirections[i];
+      }
+    }
+  }
+}
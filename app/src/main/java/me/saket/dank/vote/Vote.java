@@ -8,7 +8,6 @@ import net.dean.jraw.models.Submission;
 import net.dean.jraw.models.VoteDirection;
 
 import io.reactivex.Completable;
-import me.saket.dank.reddit.Reddit;
 import me.saket.dank.walkthrough.SyntheticData;
 import timber.log.Timber;
 
@@ -41,19 +40,12 @@ public interface Vote {
     return new AutoValue_Vote_RealVote(contributionToVote, direction);
   }
 
-  Completable sendToRemote(Reddit reddit);
-
   @AutoValue
   abstract class RealVote implements Vote {
 
     @Override
     public Completable saveAndSend(VotingManager votingManager) {
-      return votingManager.voteWithAutoRetry(this);
-    }
-
-    @Override
-    public Completable sendToRemote(Reddit reddit) {
-      return reddit.loggedInUser().vote(contributionToVote(), direction());
+      return votingManager.saveAndSend(this);
     }
   }
 
@@ -62,13 +54,8 @@ public interface Vote {
 
     @Override
     public Completable saveAndSend(VotingManager votingManager) {
-      return votingManager.voteWithAutoRetry(this);
-    }
-
-    @Override
-    public Completable sendToRemote(Reddit reddit) {
       Timber.i("Ignoring voting in synthetic-submission-for-gesture-walkthrough");
-      return Completable.complete();
+      return votingManager.saveWithoutSending(this);
     }
   }
 }
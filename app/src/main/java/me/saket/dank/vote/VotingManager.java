@@ -4,8 +4,10 @@ import android.app.Application;
 import android.content.SharedPreferences;
 import android.os.Looper;
 import android.support.annotation.CheckResult;
+import android.support.annotation.VisibleForTesting;
 
-import com.squareup.moshi.Moshi;
+import com.jakewharton.rxrelay2.PublishRelay;
+import com.jakewharton.rxrelay2.Relay;
 
 import net.dean.jraw.ApiException;
 import net.dean.jraw.http.NetworkException;
@@ -15,103 +17,162 @@ import net.dean.jraw.models.Submission;
 import net.dean.jraw.models.Votable;
 import net.dean.jraw.models.VoteDirection;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Singleton;
 
 import dagger.Lazy;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.BuildConfig;
-import me.saket.dank.di.Dank;
+import me.saket.dank.data.AppDatabase;
+import me.saket.dank.data.ErrorResolver;
+import me.saket.dank.data.ResolvedError;
 import me.saket.dank.reddit.Reddit;
+import me.saket.dank.ui.compose.SimpleIdentifiable;
 import timber.log.Timber;
 
 /**
  * Handles voting on {@link Submission Submissions} & {@link Comment Comments} and storing their values
  * locally, until they're refreshed from remote again.
  * <p>
- * TODO: Clear individual pending votes when they're received from remote.
- * TODO: Do we need to worry about recycling old pending votes because their jobs timed out and expired?
+ * Votes are kept in memory for reads and in {@link PendingVote} rows for sending. They're sent in one
+ * background drain after voting has settled for {@link #COALESCE_WINDOW_MILLIS}, so rapid toggles on
+ * the same contribution result in one request for its final direction, or none if it ends up unchanged.
+ * Votes that couldn't be sent are retried by {@link VoteJobService}.
+ * <p>
+ * TODO: Clear individual pending votes for comments when they're received from remote.
  */
+@Singleton
 public class VotingManager {
 
   private static final int HTTP_CODE_CONTRIBUTION_DELETED = 404;
   public static final int HTTP_CODE_TOO_MANY_REQUESTS = 429;
   private static final String KEY_PENDING_VOTE_ = "pendingVote_";
 
+  private static final long COALESCE_WINDOW_MILLIS = 1_500;
+
+  /**
+   * Reddit allows 60 requests a minute. Votes are spaced out so that a large drain
+   * doesn't use up the budget of requests made by the UI.
+   */
+  private static final long MIN_MILLIS_BETWEEN_VOTES = 1_000;
+
   private final Application appContext;
   private final Lazy<Reddit> reddit;
-  private final Lazy<SharedPreferences> sharedPrefs;
-  private final Lazy<Moshi> moshi;
+  private final Lazy<AppDatabase> database;
+  private final Lazy<ErrorResolver> errorResolver;
+  private final Lazy<SharedPreferences> legacySharedPrefs;
+  private final Scheduler scheduler;
+
+  private final PendingVoteMap pendingVotes = new PendingVoteMap();
+  private final Relay<Object> changes = PublishRelay.create();
+  private final Relay<Object> drainRequests = PublishRelay.create();
+  private final Object writeLock = new Object();
+  private final Object drainLock = new Object();
+  private volatile boolean loaded;
 
   /**
-   * @param appContext Used for scheduling {@link VoteJobService}.
+   * @param appContext        Used for scheduling {@link VoteJobService}.
+   * @param legacySharedPrefs Votes were stored here before {@link PendingVote} existed.
    */
   @Inject
   public VotingManager(
       Application appContext,
       Lazy<Reddit> reddit,
-      @Named("votes") Lazy<SharedPreferences> sharedPrefs,
-      Lazy<Moshi> moshi)
+      Lazy<AppDatabase> database,
+      Lazy<ErrorResolver> errorResolver,
+      @Named("votes") Lazy<SharedPreferences> legacySharedPrefs)
+  {
+    this(appContext, reddit, database, errorResolver, legacySharedPrefs, Schedulers.io());
+  }
+
+  /**
+   * @param scheduler Used for coalescing votes and for spacing out requests. Votes are sent on this scheduler.
+   */
+  @VisibleForTesting
+  VotingManager(
+      Application appContext,
+      Lazy<Reddit> reddit,
+      Lazy<AppDatabase> database,
+      Lazy<ErrorResolver> errorResolver,
+      Lazy<SharedPreferences> legacySharedPrefs,
+      Scheduler scheduler)
   {
     this.appContext = appContext;
     this.reddit = reddit;
-    this.sharedPrefs = sharedPrefs;
-    this.moshi = moshi;
+    this.database = database;
+    this.errorResolver = errorResolver;
+    this.legacySharedPrefs = legacySharedPrefs;
+    this.scheduler = scheduler;
+
+    //noinspection ResultOfMethodCallIgnored
+    drainRequests
+        .debounce(COALESCE_WINDOW_MILLIS, TimeUnit.MILLISECONDS, scheduler)
+        .concatMap(o -> drainPendingVotes()
+            .onErrorReturn(error -> {
+              Timber.e(error, "Couldn't drain pending votes");
+              return false;
+            })
+            .toObservable())
+        .subscribe(allSent -> {
+          if (!allSent) {
+            VoteJobService.scheduleDrain(appContext);
+          }
+        });
   }
 
+  /**
+   * Emits the full-name of contributions whose pending votes change, once the pending votes have been read.
+   */
   @CheckResult
   public Observable<Object> streamChanges() {
-    return Observable.create(emitter -> {
-      SharedPreferences.OnSharedPreferenceChangeListener changeListener = (sharedPreferences, key) -> emitter.onNext(key);
-      sharedPrefs.get().registerOnSharedPreferenceChangeListener(changeListener);
-      emitter.setCancellable(() -> sharedPrefs.get().unregisterOnSharedPreferenceChangeListener(changeListener));
-      changeListener.onSharedPreferenceChanged(sharedPrefs.get(), "");    // Initial value.
-    });
+    return Completable.fromAction(() -> ensureLoaded())
+        .subscribeOn(Schedulers.io())
+        .andThen(changes.startWith(""));    // Initial value.
   }
 
+  /**
+   * The vote is visible to {@link #getPendingOrDefaultVote(Votable, VoteDirection)} immediately after this
+   * is called. It's sent to remote in the background, independent of the returned Completable. This is
+   * important because we don't want the retry logic to sit in the calling Activity/Fragment, which can
+   * get destroyed before the API call returns and we're able to retry.
+   */
   @CheckResult
   public Completable saveAndSend(Vote vote) {
-    // Mark the vote as pending immediately so that getPendingVote() can be used immediately after calling vote().
     markVoteAsPending(vote.contributionToVote(), vote.direction());
 
-    return vote.sendToRemote(reddit.get())
-//        .doOnSubscribe(o -> Timber.i("Voting for %s…", contributionToVote.fullName()()))
-//        .doOnComplete(() -> Timber.i("Voting done for %s", contributionToVote.fullName()()))
-        ;
+    return Completable.fromAction(() -> {
+      persistPendingVote(vote.contributionToVote());
+      drainRequests.accept(vote.contributionToVote().getFullName());
+    });
   }
 
   /**
-   * Used when we want to fire a vote and forget about the API call. This is important because we
-   * don't want the retry logic to sit in the calling Activity/Fragment, which can get destroyed
-   * before the API call returns and we're able to retry.
+   * Like {@link #saveAndSend(Vote)}, but for votes that aren't supposed to reach remote.
    */
   @CheckResult
-  public Completable voteWithAutoRetry(Vote vote) {
-    return saveAndSend(vote)
-        .onErrorComplete(error -> {
-          boolean shouldComplete;
-          // TODO: Reddit replies with 400 bad request for archived submissions.
-
-          if (isTooManyRequestsError(error) || !Dank.errors().resolve(error).isUnknown()) {
-            // If unknown, this will most probably be network/Reddit errors. Swallow the error and attempt retries later.
-            Timber.i("Voting failed for %s. Will retry again later. Error: %s", vote.contributionToVote().getFullName(), error.getMessage());
-            VoteJobService.scheduleRetry(appContext, vote.contributionToVote(), vote.direction(), moshi.get());
-            shouldComplete = true;
-
-          } else {
-            shouldComplete = error instanceof NetworkException
-                && ((NetworkException) error).getRes().getCode() == HTTP_CODE_CONTRIBUTION_DELETED;
-          }
+  public Completable saveWithoutSending(Vote vote) {
+    markVoteAsPending(vote.contributionToVote(), vote.direction());
 
-          return shouldComplete;
-        });
+    return Completable.fromAction(() -> {
+      String fullName = persistPendingVote(vote.contributionToVote());
+      database.get().pendingVoteDao().markSynced(fullName, vote.direction());
+    });
   }
 
   /**
    * TODO: Remove pending votes for comments.
-   * Assuming the server as the source of truth, remove pending vote for submissions that were fetched from remote.
+   * Assuming the server as the source of truth, remove pending vote for submissions that were fetched from
+   * remote. Votes that haven't been sent yet are kept so that they aren't lost.
    */
   @CheckResult
   public Completable removePendingVotesForFetchedSubmissions(List<Submission> submissionsFromRemote) {
@@ -120,33 +181,171 @@ public class VotingManager {
         throw new IllegalStateException(
             "Expected to be called on a background thread but was " + Thread.currentThread().getName());
       }
+      ensureLoaded();
 
-      SharedPreferences.Editor sharedPrefsEditor = sharedPrefs.get().edit();
+      List<String> fullNames = new ArrayList<>(submissionsFromRemote.size());
       for (Submission submission : submissionsFromRemote) {
         if (isVotePending(submission)) {
-          //Timber.i("Removing stale pending vote for %s", ((Submission) submission).getTitle());
-          sharedPrefsEditor.remove(keyFor(submission));
+          fullNames.add(submission.getFullName());
+        }
+      }
+      if (fullNames.isEmpty()) {
+        return;
+      }
+
+      List<String> removedFullNames = new ArrayList<>(fullNames.size());
+      synchronized (writeLock) {
+        PendingVoteDao dao = database.get().pendingVoteDao();
+        for (PendingVote vote : dao.votes(fullNames)) {
+          // Votes made after this row was saved are newer and are kept.
+          if (!vote.needsSync() && vote.getDirection() == pendingVotes.get(vote.getFullName())) {
+            pendingVotes.remove(vote.getFullName());
+            removedFullNames.add(vote.getFullName());
+          }
         }
+        dao.deleteSyncedVotes(fullNames);
+      }
+      for (String fullName : removedFullNames) {
+        changes.accept(fullName);
       }
-      sharedPrefsEditor.apply();
     });
   }
 
   public <T extends Votable & Identifiable> VoteDirection getPendingOrDefaultVote(T votableContribution, VoteDirection defaultValue) {
-    String voteEnumString = sharedPrefs.get().getString(keyFor(votableContribution), defaultValue.name());
-    return VoteDirectionX.valueOfWithMigration(voteEnumString);
+    VoteDirection pendingDirection = pendingVotes.get(votableContribution.getFullName());
+    return pendingDirection != null ? pendingDirection : defaultValue;
   }
 
-//  public boolean isVotePending(Identifiable votableContribution) {
-//    return sharedPrefs.get().contains(keyFor(votableContribution));
-//  }
-
   public boolean isVotePending(Identifiable identifiable) {
-    return sharedPrefs.get().contains(keyFor(identifiable));
+    return pendingVotes.contains(identifiable.getFullName());
   }
 
   private void markVoteAsPending(Identifiable votableContribution, VoteDirection voteDirection) {
-    sharedPrefs.get().edit().putString(keyFor(votableContribution), voteDirection.name()).apply();
+    pendingVotes.put(votableContribution.getFullName(), voteDirection);
+    changes.accept(votableContribution.getFullName());
+  }
+
+  /**
+   * Writes the latest in-memory direction so that writes racing on different threads can't leave an older one behind.
+   *
+   * @return full-name of the contribution.
+   */
+  private String persistPendingVote(Identifiable contribution) {
+    ensureLoaded();
+    String fullName = contribution.getFullName();
+    VoteDirection remoteDirection = contribution instanceof Votable
+        ? ((Votable) contribution).getVote()
+        : null;
+
+    synchronized (writeLock) {
+      VoteDirection direction = pendingVotes.get(fullName);
+      if (direction != null) {
+        database.get().pendingVoteDao().saveDirection(fullName, direction, remoteDirection, System.currentTimeMillis());
+      }
+    }
+    return fullName;
+  }
+
+  /**
+   * Reads pending votes from the DB, and moves over votes that were stored in shared preferences.
+   */
+  private void ensureLoaded() {
+    if (loaded) {
+      return;
+    }
+
+    synchronized (writeLock) {
+      if (loaded) {
+        return;
+      }
+
+      PendingVoteDao dao = database.get().pendingVoteDao();
+      Map<String, ?> legacyVotes = legacySharedPrefs.get().getAll();
+      if (!legacyVotes.isEmpty()) {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, ?> entry : legacyVotes.entrySet()) {
+          if (entry.getKey().startsWith(KEY_PENDING_VOTE_) && entry.getValue() instanceof String) {
+            String fullName = entry.getKey().substring(KEY_PENDING_VOTE_.length());
+            VoteDirection direction = VoteDirectionX.valueOfWithMigration((String) entry.getValue());
+            // Whether these were sent is unknown. Voting again is harmless.
+            dao.saveDirection(fullName, direction, null, now);
+          }
+        }
+        legacySharedPrefs.get().edit().clear().apply();
+      }
+
+      for (PendingVote vote : dao.votes()) {
+        // Votes made before loading finished are newer.
+        if (!pendingVotes.contains(vote.getFullName())) {
+          pendingVotes.put(vote.getFullName(), vote.getDirection());
+        }
+      }
+      loaded = true;
+    }
+  }
+
+  /**
+   * Sends all votes that haven't been synced with remote yet, oldest first. Stops at the first error that's
+   * worth retrying, which is left to {@link VoteJobService}.
+   *
+   * @return false if some votes are yet to be sent.
+   */
+  @CheckResult
+  Single<Boolean> drainPendingVotes() {
+    return Single
+        .fromCallable(() -> {
+          ensureLoaded();
+          return database.get().pendingVoteDao().unsyncedVotes();
+        })
+        .flatMap(unsyncedVotes -> Observable.fromIterable(unsyncedVotes)
+            // Starts at most one vote every MIN_MILLIS_BETWEEN_VOTES.
+            .zipWith(Observable.interval(0, MIN_MILLIS_BETWEEN_VOTES, TimeUnit.MILLISECONDS, scheduler), (vote, o) -> vote.getFullName())
+            .concatMap(fullName -> Single.fromCallable(() -> sendIfUnsynced(fullName, unsyncedVotes.size())).toObservable())
+            .takeUntil(sent -> !sent)
+            .all(sent -> sent));
+  }
+
+  /**
+   * Reads the vote again because it may have changed or been sent by another drain since the drain started.
+   *
+   * @return false if the vote should be retried later.
+   */
+  private boolean sendIfUnsynced(String fullName, int unsyncedVoteCount) {
+    synchronized (drainLock) {
+      PendingVoteDao dao = database.get().pendingVoteDao();
+      List<PendingVote> votes = dao.votes(Collections.singletonList(fullName));
+      if (votes.isEmpty() || !votes.get(0).needsSync()) {
+        return true;
+      }
+
+      PendingVote vote = votes.get(0);
+      Identifiable contribution = SimpleIdentifiable.Companion.from(vote.getFullName());
+      Throwable error = reddit.get().loggedInUser().vote(contribution, vote.getDirection()).blockingGet();
+
+      if (error == null) {
+        dao.markSynced(vote.getFullName(), vote.getDirection());
+
+      } else if (isTooManyRequestsError(error)) {
+        Timber.i("Received 429-too-many-requests. Will retry %s votes later.", unsyncedVoteCount);
+        return false;
+
+      } else if (isHttpCode(error, HTTP_CODE_CONTRIBUTION_DELETED)) {
+        dao.markSynced(vote.getFullName(), vote.getDirection());
+
+      } else {
+        ResolvedError resolvedError = errorResolver.get().resolve(error);
+        if (resolvedError.isNetworkError() || resolvedError.isRedditServerError() || resolvedError.isUnknown()) {
+          // If unknown, this will most probably be network/Reddit errors. Attempt retries later.
+          Timber.i("Voting failed for %s. Will retry again later. Error: %s", vote.getFullName(), error.getMessage());
+          return false;
+        }
+
+        // TODO: Reddit replies with 400 bad request for archived submissions.
+        Timber.w("Dropping vote for %s. Error: %s", vote.getFullName(), error.getMessage());
+        dao.markSynced(vote.getFullName(), vote.getDirection());
+      }
+      return true;
+    }
   }
 
   @CheckResult
@@ -155,23 +354,26 @@ public class VotingManager {
       throw new IllegalStateException();
     }
 
-    return Completable.fromAction(() ->
-        // VotingManager uses a dedicated shared prefs file so we can safely clear everything.
-        sharedPrefs.get().edit().clear().apply()
-    );
+    return Completable.fromAction(() -> {
+      synchronized (writeLock) {
+        database.get().pendingVoteDao().deleteAll();
+        legacySharedPrefs.get().edit().clear().apply();
+        pendingVotes.clear();
+      }
+      changes.accept("");
+    });
   }
 
   /**
    * Get <var>thing</var>'s score assuming that any pending vote has been synced with remote.
    */
   public <T extends Votable & Identifiable> int getScoreAfterAdjustingPendingVote(T votableContribution) {
-    if (!isVotePending(votableContribution)) {
+    VoteDirection pendingVoteDirection = pendingVotes.get(votableContribution.getFullName());
+    if (pendingVoteDirection == null) {
       return votableContribution.getScore();
     }
 
     VoteDirection actualVoteDirection = votableContribution.getVote();
-    VoteDirection pendingVoteDirection = getPendingOrDefaultVote(votableContribution, actualVoteDirection);
-
     if (actualVoteDirection == pendingVoteDirection) {
       return votableContribution.getScore();
     }
@@ -188,7 +390,7 @@ public class VotingManager {
 
       default:
       case NONE:
-        switch (votableContribution.getVote()) {
+        switch (actualVoteDirection) {
           case UP:
             resultingScore -= 1;
             break;
@@ -207,14 +409,6 @@ public class VotingManager {
     return resultingScore;
   }
 
-  private String keyFor(String contributionFullName) {
-    return KEY_PENDING_VOTE_ + contributionFullName;
-  }
-
-  private String keyFor(Identifiable contribution) {
-    return keyFor(contribution.getFullName());
-  }
-
   public static boolean isTooManyRequestsError(Throwable error) {
     return isHttpCode(error, HTTP_CODE_TOO_MANY_REQUESTS);
   }
@@ -0,0 +1,62 @@
+package me.saket.dank;
+
+import java.util.Locale;
+
+/**
+ * Timing loop for the benchmarks in unit tests. Benchmarks are ignored because timings are
+ * meaningless on shared CI machines. Run them manually from the IDE.
+ */
+public class Benchmark {
+
+  public interface Operation {
+    /**
+     * @return Anything computed by the operation, so that the JIT can't skip it.
+     */
+    Object run(int iteration) throws Exception;
+  }
+
+  private static volatile int blackhole;
+
+  private Benchmark() {
+  }
+
+  /**
+   * @return Average time taken by one run of <var>operation</var>, after warming up.
+   */
+  public static long nanosPerRun(int warmupIterations, int measuredIterations, Operation operation) throws Exception {
+    int sink = 0;
+    for (int i = 0; i < warmupIterations; i++) {
+      sink += System.identityHashCode(operation.run(i));
+    }
+
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < measuredIterations; i++) {
+      sink += System.identityHashCode(operation.run(i));
+    }
+    long nanosPerRun = (System.nanoTime() - startNanos) / measuredIterations;
+
+    blackhole = sink;
+    return nanosPerRun;
+  }
+
+  /**
+   * Prints something like "Comment bodies: regexes 42 us, single pass 12 us (3.5x)".
+   */
+  public static void report(String name, String baselineName, long baselineNanos, String candidateName, long candidateNanos) {
+    System.out.println(String.format(
+        Locale.ENGLISH,
+        "%s: %s %s, %s %s (%.1fx)",
+        name,
+        baselineName,
+        formatNanos(baselineNanos),
+        candidateName,
+        formatNanos(candidateNanos),
+        (float) baselineNanos / candidateNanos));
+  }
+
+  private static String formatNanos(long nanos) {
+    return nanos < 10_000
+        ? String.format(Locale.ENGLISH, "%d ns", nanos)
+        : String.format(Locale.ENGLISH, "%d us", nanos / 1_000);
+  }
+}
@@ -0,0 +1,58 @@
+package me.saket.dank.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import me.saket.dank.data.CachePreFillThing;
+
+public class CachePreFillStatsTest {
+
+  private CachePreFillStats stats;
+
+  @Before
+  public void setUp() {
+    stats = new CachePreFillStats();
+  }
+
+  @Test
+  public void firstUseOfPreFilledResourceShouldCountAsHit() {
+    stats.recordPreFilled(CachePreFillThing.IMAGES, "https://i.redd.it/a.jpg", 1_000, 300, "WIFI");
+    stats.recordPreFilled(CachePreFillThing.IMAGES, "https://i.redd.it/b.jpg", 4_000, 900, "WIFI");
+
+    stats.recordUse(CachePreFillThing.IMAGES, "https://i.redd.it/a.jpg");
+    stats.recordUse(CachePreFillThing.IMAGES, "https://i.redd.it/a.jpg");
+
+    CachePreFillStats.ThingStats imageStats = stats.forThing(CachePreFillThing.IMAGES);
+    assertThat(imageStats.preFilledCount()).isEqualTo(2);
+    assertThat(imageStats.hitCount()).isEqualTo(1);
+    assertThat(imageStats.hitRatio()).isWithin(0.001).of(0.5);
+    assertThat(imageStats.bytesSpent()).isEqualTo(5_000);
+    assertThat(imageStats.bytesUsed()).isEqualTo(1_000);
+
+    //noinspection ConstantConditions
+    assertThat(stats.forNetwork("WIFI").timeSavedMillis()).isEqualTo(300);
+  }
+
+  @Test
+  public void useWithoutPreFillShouldCountAsOneMiss() {
+    stats.recordUse(CachePreFillThing.COMMENTS, "abc");
+    stats.recordUse(CachePreFillThing.COMMENTS, "abc");
+
+    assertThat(stats.forThing(CachePreFillThing.COMMENTS).missCount()).isEqualTo(1);
+    assertThat(stats.forThing(CachePreFillThing.COMMENTS).hitCount()).isEqualTo(0);
+    assertThat(stats.forThing(CachePreFillThing.IMAGES).missCount()).isEqualTo(0);
+    assertThat(stats.networkTypes()).isEmpty();
+  }
+
+  @Test
+  public void preFilledResourcesThatWereNeverUsedShouldBeCountedWhenForgotten() {
+    stats.recordPreFilled(CachePreFillThing.LINK_METADATA, "https://example.com", 0, 100, null);
+    for (int i = 0; i < 2_000; i++) {
+      stats.recordUse(CachePreFillThing.IMAGES, "https://i.redd.it/" + i + ".jpg");
+    }
+
+    assertThat(stats.forThing(CachePreFillThing.LINK_METADATA).unusedForgottenCount()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,97 @@
+package me.saket.dank.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Completable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.CompletableSubject;
+import me.saket.dank.data.CachePreFillThing;
+
+public class PrefetchSchedulerTest {
+
+  private PrefetchScheduler scheduler;
+  private List<Integer> startedPositions;
+
+  @Before
+  public void setUp() {
+    scheduler = new PrefetchScheduler(Schedulers.trampoline(), () -> 0L);
+    startedPositions = new ArrayList<>();
+  }
+
+  @Test
+  public void shouldRunTasksClosestToVisibleRowsFirst_withBoundedConcurrency() {
+    scheduler.updateVisibleRange(10, 15);
+
+    List<CompletableSubject> tasks = new ArrayList<>();
+    int[] positions = { 2, 25, 16, 8, 50 };
+    for (int position : positions) {
+      CompletableSubject task = CompletableSubject.create();
+      tasks.add(task);
+      scheduler.schedule(CachePreFillThing.COMMENTS, position, trackStart(position, task)).test();
+    }
+
+    // Comments run two at a time.
+    assertThat(startedPositions).containsExactly(2, 25).inOrder();
+
+    tasks.get(0).onComplete();
+    tasks.get(1).onComplete();
+
+    // 16 is 1 row below, 8 is 2 rows above (counted double) and 40 is too far below.
+    assertThat(startedPositions).containsExactly(2, 25, 16, 8).inOrder();
+  }
+
+  @Test
+  public void shouldDropTasksForRowsThatWereScrolledFarPast() {
+    CompletableSubject runningTask = CompletableSubject.create();
+    TestObserver<Void> runningObserver = scheduler.schedule(CachePreFillThing.IMAGES, 0, runningTask).test();
+
+    scheduler.updateVisibleRange(PrefetchScheduler.CANCEL_DISTANCE_ROWS + 5, PrefetchScheduler.CANCEL_DISTANCE_ROWS + 10);
+
+    runningObserver.assertComplete();
+    assertThat(runningTask.hasObservers()).isFalse();
+
+    TestObserver<Void> pendingObserver = scheduler.schedule(CachePreFillThing.IMAGES, 1, trackStart(1, Completable.never())).test();
+    pendingObserver.assertComplete();
+    assertThat(startedPositions).isEmpty();
+  }
+
+  @Test
+  public void shouldStartTasksForRowsThatComeWithinLookahead() {
+    int farPosition = PrefetchScheduler.LOOKAHEAD_ROWS + 20;
+    TestObserver<Void> observer = scheduler.schedule(CachePreFillThing.LINK_METADATA, farPosition, trackStart(farPosition, Completable.complete())).test();
+
+    observer.assertNotComplete();
+    assertThat(startedPositions).isEmpty();
+
+    scheduler.updateVisibleRange(20, 25);
+
+    observer.assertComplete();
+    assertThat(startedPositions).containsExactly(farPosition);
+  }
+
+  @Test
+  public void shouldDropPendingTasksOnceByteBudgetIsSpent() {
+    long[] receivedBytes = { 0 };
+    scheduler = new PrefetchScheduler(Schedulers.trampoline(), () -> receivedBytes[0]);
+
+    CompletableSubject runningTask = CompletableSubject.create();
+    scheduler.schedule(CachePreFillThing.COMMENTS, 0, runningTask).test();
+    receivedBytes[0] = Long.MAX_VALUE / 2;
+    runningTask.onComplete();
+
+    TestObserver<Void> observer = scheduler.schedule(CachePreFillThing.COMMENTS, 1, trackStart(1, Completable.never())).test();
+    observer.assertComplete();
+    assertThat(startedPositions).isEmpty();
+  }
+
+  private Completable trackStart(int position, Completable task) {
+    return task.doOnSubscribe(o -> startedPositions.add(position));
+  }
+}
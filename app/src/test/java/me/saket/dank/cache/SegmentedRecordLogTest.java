@@ -0,0 +1,139 @@
+package me.saket.dank.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+public class SegmentedRecordLogTest {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int SEGMENT_SIZE = 1024;
+  private static final int MAX_SIZE = SEGMENT_SIZE * 4;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File directory;
+  private SegmentedRecordLog recordLog;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = temporaryFolder.newFolder();
+    recordLog = new SegmentedRecordLog(directory, MAX_SIZE, SEGMENT_SIZE);
+  }
+
+  @Test
+  public void readsShouldReturnTheLatestWrite() throws IOException {
+    recordLog.put("key", bytes("first"));
+    recordLog.put("key", bytes("second"));
+
+    assertThat(string(recordLog.get("key"))).isEqualTo("second");
+    assertThat(recordLog.get("missing")).isNull();
+  }
+
+  @Test
+  public void indexShouldBeRebuiltWhenReopened() throws IOException {
+    recordLog.put("kept", bytes("value"));
+    recordLog.put("overwritten", bytes("old"));
+    recordLog.put("overwritten", bytes("new"));
+    recordLog.put("removed", bytes("value"));
+    recordLog.remove("removed");
+    long writeTimeMillis = recordLog.writeTimeMillis("kept");
+
+    SegmentedRecordLog reopenedLog = new SegmentedRecordLog(directory, MAX_SIZE, SEGMENT_SIZE);
+
+    assertThat(string(reopenedLog.get("kept"))).isEqualTo("value");
+    assertThat(string(reopenedLog.get("overwritten"))).isEqualTo("new");
+    assertThat(reopenedLog.contains("removed")).isFalse();
+    assertThat(reopenedLog.writeTimeMillis("kept")).isEqualTo(writeTimeMillis);
+  }
+
+  @Test
+  public void tornWriteShouldBeDiscardedWhenReopened() throws IOException {
+    recordLog.put("intact", bytes("value"));
+    recordLog.put("torn", bytes("value"));
+    long tornValueOffset = recordLog.sizeBytes() - "value".length() - 4;
+
+    try (RandomAccessFile segmentFile = new RandomAccessFile(directory.listFiles()[0], "rw")) {
+      segmentFile.seek(tornValueOffset);
+      segmentFile.write(0);
+    }
+    SegmentedRecordLog reopenedLog = new SegmentedRecordLog(directory, MAX_SIZE, SEGMENT_SIZE);
+
+    assertThat(string(reopenedLog.get("intact"))).isEqualTo("value");
+    assertThat(reopenedLog.contains("torn")).isFalse();
+  }
+
+  @Test
+  public void compactionShouldOnlyKeepLiveRecords() throws IOException {
+    byte[] value = new byte[100];
+    for (int i = 0; i < 20; i++) {
+      recordLog.put("overwritten", value);
+    }
+    recordLog.put("kept", bytes("value"));
+    recordLog.put("removed", value);
+    recordLog.remove("removed");
+
+    assertThat(recordLog.needsCompaction()).isTrue();
+    recordLog.compact();
+
+    assertThat(recordLog.needsCompaction()).isFalse();
+    assertThat(recordLog.segmentCount()).isLessThan(3);
+    assertThat(string(recordLog.get("kept"))).isEqualTo("value");
+    assertThat(recordLog.get("overwritten")).isEqualTo(value);
+
+    SegmentedRecordLog reopenedLog = new SegmentedRecordLog(directory, MAX_SIZE, SEGMENT_SIZE);
+    assertThat(string(reopenedLog.get("kept"))).isEqualTo("value");
+    assertThat(reopenedLog.contains("removed")).isFalse();
+  }
+
+  @Test
+  public void leastRecentlyUsedSegmentShouldBeEvictedWhenFull() throws IOException, InterruptedException {
+    // Three records fit in a segment.
+    byte[] value = new byte[300];
+    for (int i = 0; i < 6; i++) {
+      recordLog.put("key_" + i, value);
+    }
+    Thread.sleep(5);
+    recordLog.get("key_0");
+    Thread.sleep(5);
+
+    for (int i = 6; i < 15; i++) {
+      recordLog.put("key_" + i, value);
+    }
+
+    assertThat(recordLog.sizeBytes()).isAtMost((long) MAX_SIZE);
+    assertThat(recordLog.contains("key_0")).isTrue();
+    assertThat(recordLog.contains("key_3")).isFalse();
+    assertThat(recordLog.contains("key_14")).isTrue();
+
+    SegmentedRecordLog reopenedLog = new SegmentedRecordLog(directory, MAX_SIZE, SEGMENT_SIZE);
+    assertThat(reopenedLog.contains("key_3")).isFalse();
+    assertThat(reopenedLog.keys("key_")).containsExactlyElementsIn(recordLog.keys("key_"));
+  }
+
+  @Test
+  public void keysShouldBeListedByPrefix() throws IOException {
+    recordLog.put("links/1", bytes("a"));
+    recordLog.put("links/2", bytes("b"));
+    recordLog.put("users/1", bytes("c"));
+
+    assertThat(recordLog.keys("links/")).containsExactly("links/1", "links/2");
+    assertThat(recordLog.keys("")).hasSize(3);
+  }
+
+  private static byte[] bytes(String string) {
+    return string.getBytes(UTF_8);
+  }
+
+  private static String string(byte[] bytes) {
+    return bytes == null ? null : new String(bytes, UTF_8);
+  }
+}
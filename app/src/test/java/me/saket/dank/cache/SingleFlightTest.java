@@ -0,0 +1,113 @@
+package me.saket.dank.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.SingleSubject;
+
+public class SingleFlightTest {
+
+  private SingleFlight<String, String> singleFlight;
+  private AtomicInteger requestCount;
+
+  @Before
+  public void setUp() {
+    singleFlight = new SingleFlight<>("test");
+    requestCount = new AtomicInteger();
+  }
+
+  @Test
+  public void concurrentCallsForSameKeyShouldShareOneRequest() {
+    SingleSubject<String> response = SingleSubject.create();
+
+    TestObserver<String> first = singleFlight.single("key", () -> countRequest(response)).test();
+    TestObserver<String> second = singleFlight.single("key", () -> countRequest(response)).test();
+    response.onSuccess("value");
+
+    first.assertValue("value");
+    second.assertValue("value");
+    assertThat(requestCount.get()).isEqualTo(1);
+    assertThat(singleFlight.stats().issuedCount()).isEqualTo(1);
+    assertThat(singleFlight.stats().coalescedCount()).isEqualTo(1);
+    assertThat(singleFlight.inFlightCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void differentKeysShouldNotShareRequests() {
+    singleFlight.single("key1", () -> countRequest(SingleSubject.create())).test();
+    singleFlight.single("key2", () -> countRequest(SingleSubject.create())).test();
+
+    assertThat(requestCount.get()).isEqualTo(2);
+    assertThat(singleFlight.stats().coalescedCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void finishedRequestsShouldNotBeReused() {
+    singleFlight.single("key", () -> countRequest(Single.just("first"))).test().assertValue("first");
+    singleFlight.single("key", () -> countRequest(Single.just("second"))).test().assertValue("second");
+
+    assertThat(requestCount.get()).isEqualTo(2);
+    assertThat(singleFlight.stats().issuedCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void requestShouldOnlyBeCancelledWhenLastSubscriberLeaves() {
+    AtomicInteger disposeCount = new AtomicInteger();
+    PublishSubject<String> response = PublishSubject.create();
+    Observable<String> request = response.doOnDispose(() -> disposeCount.incrementAndGet());
+
+    Disposable first = singleFlight.observable("key", () -> request).subscribe();
+    TestObserver<String> second = singleFlight.observable("key", () -> request).test();
+
+    first.dispose();
+    assertThat(disposeCount.get()).isEqualTo(0);
+
+    response.onNext("value");
+    second.assertValue("value");
+
+    second.dispose();
+    assertThat(disposeCount.get()).isEqualTo(1);
+    assertThat(singleFlight.stats().cancelledCount()).isEqualTo(1);
+    assertThat(singleFlight.inFlightCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void latecomersShouldReceiveLatestValue() {
+    PublishSubject<String> response = PublishSubject.create();
+
+    singleFlight.observable("key", () -> response).test();
+    response.onNext("value");
+
+    singleFlight.observable("key", () -> response).test().assertValue("value");
+  }
+
+  @Test
+  public void errorsShouldBeSharedButNotCached() {
+    SingleSubject<String> response = SingleSubject.create();
+
+    TestObserver<String> first = singleFlight.single("key", () -> countRequest(response)).test();
+    TestObserver<String> second = singleFlight.single("key", () -> countRequest(response)).test();
+    response.onError(new RuntimeException());
+
+    first.assertError(RuntimeException.class);
+    second.assertError(RuntimeException.class);
+    assertThat(singleFlight.stats().cancelledCount()).isEqualTo(0);
+
+    singleFlight.single("key", () -> countRequest(Single.just("value"))).test().assertValue("value");
+    assertThat(requestCount.get()).isEqualTo(2);
+  }
+
+  private Single<String> countRequest(Single<String> request) {
+    requestCount.incrementAndGet();
+    return request;
+  }
+}
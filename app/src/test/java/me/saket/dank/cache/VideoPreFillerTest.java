@@ -0,0 +1,90 @@
+package me.saket.dank.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.Period;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ DashManifest.class })
+public class VideoPreFillerTest {
+
+  @Test
+  public void initialVideoTrack_shouldBeHighestBitrateUnderLimit() {
+    Representation low = track(400_000);
+    Representation medium = track(800_000);
+    Representation high = track(1_600_000);
+
+    assertThat(VideoPreFiller.initialVideoTrack(Arrays.asList(high, low, medium), 800_000)).isSameAs(medium);
+    assertThat(VideoPreFiller.initialVideoTrack(Arrays.asList(high, low, medium), 799_999)).isSameAs(low);
+  }
+
+  @Test
+  public void initialVideoTrack_shouldBeLowestBitrate_whenAllAreAboveLimit() {
+    Representation medium = track(1_200_000);
+    Representation high = track(1_600_000);
+
+    assertThat(VideoPreFiller.initialVideoTrack(Arrays.asList(high, medium), 800_000)).isSameAs(medium);
+    assertThat(VideoPreFiller.initialVideoTrack(Collections.emptyList(), 800_000)).isNull();
+  }
+
+  @Test
+  public void representationsToPreFill_shouldBeAllAudioTracksAndOneVideoTrack() {
+    Representation lowVideo = track(400_000);
+    Representation highVideo = track(1_600_000);
+    Representation audio = track(128_000);
+    DashManifest manifest = manifest(
+        adaptationSet(C.TRACK_TYPE_VIDEO, lowVideo, highVideo),
+        adaptationSet(C.TRACK_TYPE_AUDIO, audio),
+        adaptationSet(C.TRACK_TYPE_TEXT, track(1_000)));
+
+    List<Representation> representations = VideoPreFiller.representationsToPreFill(manifest, 800_000);
+
+    assertThat(representations).containsExactly(lowVideo, audio);
+  }
+
+  @Test
+  public void representationsToPreFill_shouldBeEmpty_whenManifestHasNoPeriods() {
+    DashManifest manifest = mock(DashManifest.class);
+    when(manifest.getPeriodCount()).thenReturn(0);
+
+    assertThat(VideoPreFiller.representationsToPreFill(manifest, 800_000)).isEmpty();
+  }
+
+  private static Representation track(int bitrate) {
+    Format format = Format.createVideoSampleFormat(null, null, null, bitrate, Format.NO_VALUE, 0, 0, Format.NO_VALUE, null, null);
+    Representation representation = mock(Representation.class);
+    Whitebox.setInternalState(representation, "format", format);
+    return representation;
+  }
+
+  private static AdaptationSet adaptationSet(int trackType, Representation... representations) {
+    AdaptationSet adaptationSet = mock(AdaptationSet.class);
+    Whitebox.setInternalState(adaptationSet, "type", trackType);
+    Whitebox.setInternalState(adaptationSet, "representations", Arrays.asList(representations));
+    return adaptationSet;
+  }
+
+  private static DashManifest manifest(AdaptationSet... adaptationSets) {
+    DashManifest manifest = mock(DashManifest.class);
+    when(manifest.getPeriodCount()).thenReturn(1);
+    when(manifest.getPeriod(0)).thenReturn(new Period(null, 0, Arrays.asList(adaptationSets)));
+    return manifest;
+  }
+}
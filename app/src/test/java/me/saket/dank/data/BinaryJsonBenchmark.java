@@ -0,0 +1,73 @@
+package me.saket.dank.data;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import me.saket.dank.Benchmark;
+import okio.Okio;
+
+/**
+ * Compares {@link BinaryJson} against the JSON text that Moshi used to write for cached threads. Both sides
+ * go through JSON value trees, so the time spent by JRAW's adapters in binding models isn't included.
+ */
+@Ignore("Benchmark")
+public class BinaryJsonBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 2_000;
+  private static final int MEASURED_ITERATIONS = 10_000;
+
+  private final JsonAdapter<Object> jsonAdapter = new Moshi.Builder().build().adapter(Object.class).serializeNulls();
+
+  @Test
+  public void cachedThreads() throws Exception {
+    List<Object> threads = threads();
+    List<String> jsonTexts = new ArrayList<>();
+    List<byte[]> binaries = new ArrayList<>();
+    long jsonBytes = 0;
+    long binaryBytes = 0;
+
+    for (Object thread : threads) {
+      String jsonText = jsonAdapter.toJson(thread);
+      byte[] binary = BinaryJson.encode(thread);
+      jsonTexts.add(jsonText);
+      binaries.add(binary);
+      jsonBytes += jsonText.getBytes(StandardCharsets.UTF_8).length;
+      binaryBytes += binary.length;
+    }
+
+    long jsonEncodeNanos = measure(i -> jsonAdapter.toJson(threads.get(i % threads.size())));
+    long binaryEncodeNanos = measure(i -> BinaryJson.encode(threads.get(i % threads.size())));
+    long jsonDecodeNanos = measure(i -> jsonAdapter.fromJson(jsonTexts.get(i % jsonTexts.size())));
+    long binaryDecodeNanos = measure(i -> BinaryJson.decode(binaries.get(i % binaries.size())));
+
+    System.out.println(String.format(
+        Locale.ENGLISH,
+        "Threads: %d. Size: JSON %d bytes, binary %d bytes (%.2fx)",
+        threads.size(), jsonBytes, binaryBytes, (float) binaryBytes / jsonBytes));
+    Benchmark.report("Encode per thread", "JSON", jsonEncodeNanos, "binary", binaryEncodeNanos);
+    Benchmark.report("Decode per thread", "JSON", jsonDecodeNanos, "binary", binaryDecodeNanos);
+  }
+
+  /**
+   * Each thread is a submission listing followed by its comment listing, same as Reddit's API sends them.
+   */
+  @SuppressWarnings("unchecked")
+  private List<Object> threads() throws Exception {
+    try (InputStream stream = BinaryJsonBenchmark.class.getClassLoader().getResourceAsStream("binaryjson/threads.json")) {
+      return (List<Object>) jsonAdapter.fromJson(Okio.buffer(Okio.source(stream)));
+    }
+  }
+
+  private static long measure(Benchmark.Operation operation) throws Exception {
+    return Benchmark.nanosPerRun(WARMUP_ITERATIONS, MEASURED_ITERATIONS, operation);
+  }
+}
@@ -0,0 +1,77 @@
+package me.saket.dank.data;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BinaryJsonTest {
+
+  @Test
+  public void decodingShouldReturnTheEncodedValue() throws IOException {
+    Map<String, Object> data = new LinkedHashMap<>();
+    data.put("author", "saket");
+    data.put("distinguished", null);
+    data.put("is_self", true);
+    data.put("over_18", false);
+    data.put("score", -42L);
+    data.put("ups", Long.MAX_VALUE);
+    data.put("created_utc", 1519971200.0);
+    data.put("upvote_ratio", 0.94);
+    data.put("title", "Ünïcödé, emojis 😀 and a long title that does not fit in the string table at all");
+    data.put("mod_reports", Collections.emptyList());
+    data.put("media_embed", Collections.emptyMap());
+    data.put("children", Arrays.asList("t1_a", null, 1L, 2.5));
+
+    Map<String, Object> thing = new LinkedHashMap<>();
+    thing.put("kind", "t3");
+    thing.put("data", data);
+
+    assertThat(BinaryJson.decode(BinaryJson.encode(thing))).isEqualTo(thing);
+  }
+
+  @Test
+  public void repeatedStringsShouldOnlyBeWrittenOnce() {
+    List<Object> authors = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      authors.add("AutoModerator");
+    }
+
+    int encodedSize = BinaryJson.encode(authors).length;
+    assertThat(encodedSize).isLessThan("AutoModerator".length() + 100 * 2 + 10);
+  }
+
+  @Test
+  public void jsonTextShouldNotBeMistakenForBinary() {
+    assertThat(BinaryJson.isBinary("{\"kind\":\"t3\"}".getBytes(StandardCharsets.UTF_8))).isFalse();
+    assertThat(BinaryJson.isBinary("[]".getBytes(StandardCharsets.UTF_8))).isFalse();
+    assertThat(BinaryJson.isBinary(BinaryJson.encode(Collections.emptyMap()))).isTrue();
+  }
+
+  @Test(expected = IOException.class)
+  public void unknownVersionsShouldBeRejected() throws IOException {
+    byte[] encoded = BinaryJson.encode("value");
+    encoded[1] = BinaryJson.VERSION + 1;
+    BinaryJson.decode(encoded);
+  }
+
+  @Test(expected = IOException.class)
+  public void truncatedValuesShouldBeRejected() throws IOException {
+    byte[] encoded = BinaryJson.encode(Collections.singletonMap("key", "value"));
+    BinaryJson.decode(Arrays.copyOf(encoded, encoded.length - 2));
+  }
+
+  @Test
+  public void legacyJsonShouldIgnoreTrailingNullCharacter() {
+    byte[] blob = "{\"kind\":\"t3\"}\u0000".getBytes(StandardCharsets.UTF_8);
+    assertThat(BinaryJsonAdapter.legacyJson(blob)).isEqualTo("{\"kind\":\"t3\"}");
+  }
+}
@@ -0,0 +1,115 @@
+package me.saket.dank.notifs;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import me.saket.dank.notifs.ResumableDownloader.ContentRange;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+public class ResumableDownloaderTest {
+
+  private static final String URL = "https://i.redd.it/abc.gif";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void shouldParseContentRange() {
+    ContentRange range = ContentRange.parse("bytes 100-199/1000");
+
+    //noinspection ConstantConditions
+    assertThat(range.start()).isEqualTo(100);
+    assertThat(range.end()).isEqualTo(199);
+    assertThat(range.totalLength()).isEqualTo(1000);
+  }
+
+  @Test
+  public void shouldParseContentRangeWithUnknownLength() {
+    ContentRange range = ContentRange.parse("bytes 0-99/*");
+
+    //noinspection ConstantConditions
+    assertThat(range.totalLength()).isEqualTo(PendingMediaDownload.UNKNOWN_LENGTH);
+  }
+
+  @Test
+  public void shouldRejectUnsatisfiedContentRange() {
+    assertThat(ContentRange.parse("bytes */1000")).isNull();
+    assertThat(ContentRange.parse(null)).isNull();
+  }
+
+  @Test
+  public void shouldNotSplitSmallFiles() {
+    assertThat(ResumableDownloader.chunkCountFor(PendingMediaDownload.UNKNOWN_LENGTH)).isEqualTo(1);
+    assertThat(ResumableDownloader.chunkCountFor(ResumableDownloader.MIN_BYTES_FOR_CHUNKS - 1)).isEqualTo(1);
+    assertThat(ResumableDownloader.chunkCountFor(ResumableDownloader.MIN_BYTES_FOR_CHUNKS)).isEqualTo(2);
+    assertThat(ResumableDownloader.chunkCountFor(ResumableDownloader.MIN_BYTES_FOR_CHUNKS * 10)).isEqualTo(ResumableDownloader.MAX_CHUNKS);
+  }
+
+  @Test
+  public void shouldSplitIntoContiguousChunks() {
+    List<ContentRange> chunks = ResumableDownloader.chunkRanges(1001, 3);
+
+    assertThat(chunks).hasSize(3);
+    assertThat(chunks.get(0).start()).isEqualTo(0);
+    assertThat(chunks.get(0).end()).isEqualTo(332);
+    assertThat(chunks.get(1).start()).isEqualTo(333);
+    assertThat(chunks.get(1).end()).isEqualTo(665);
+    assertThat(chunks.get(2).start()).isEqualTo(666);
+    assertThat(chunks.get(2).end()).isEqualTo(1000);
+  }
+
+  @Test
+  public void resumingWithoutValidator_shouldStartOver() throws Exception {
+    File destination = temporaryFolder.newFile("abc.gif");
+    try (BufferedSink sink = Okio.buffer(Okio.sink(destination))) {
+      sink.writeUtf8("stale");
+    }
+    PendingMediaDownload download = new PendingMediaDownload(URL, null, 11, null, 1, 0);
+
+    AtomicReference<Request> sentRequest = new AtomicReference<>();
+    OkHttpClient okHttpClient = mock(OkHttpClient.class);
+    when(okHttpClient.newCall(any(Request.class))).thenAnswer(invocation -> {
+      Request request = (Request) invocation.getArguments()[0];
+      sentRequest.set(request);
+      Call call = mock(Call.class);
+      when(call.execute()).thenReturn(new Response.Builder()
+          .request(request)
+          .protocol(Protocol.HTTP_1_1)
+          .code(206)
+          .message("Partial Content")
+          .header("Content-Range", "bytes 0-10/11")
+          .body(ResponseBody.create(MediaType.parse("image/gif"), "fresh bytes"))
+          .build());
+      return call;
+    });
+
+    new ResumableDownloader(okHttpClient)
+        .download(URL, download, destination, savedDownload -> {})
+        .test()
+        .assertComplete();
+
+    assertThat(sentRequest.get().header("Range")).isEqualTo("bytes=0-");
+    assertThat(sentRequest.get().header("If-Range")).isNull();
+    try (BufferedSource source = Okio.buffer(Okio.source(destination))) {
+      assertThat(source.readUtf8()).isEqualTo("fresh bytes");
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package me.saket.dank.ui.media;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class ImageUploadCompressorTest {
+
+  @Test
+  public void shouldSubsampleWithoutGoingBelowMaxDimension() {
+    assertThat(ImageUploadCompressor.inSampleSize(4000, 3000, 1600)).isEqualTo(2);
+    assertThat(ImageUploadCompressor.inSampleSize(3000, 4000, 1600)).isEqualTo(2);
+    assertThat(ImageUploadCompressor.inSampleSize(3200, 100, 1600)).isEqualTo(2);
+    assertThat(ImageUploadCompressor.inSampleSize(12800, 9600, 1600)).isEqualTo(8);
+  }
+
+  @Test
+  public void shouldNotSubsampleSmallImages() {
+    assertThat(ImageUploadCompressor.inSampleSize(3000, 2000, 2560)).isEqualTo(1);
+    assertThat(ImageUploadCompressor.inSampleSize(800, 600, 1600)).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldScaleLongerSideToMaxDimension() {
+    assertThat(ImageUploadCompressor.scaleToFit(2000, 1500, 1600)).isWithin(0.001f).of(0.8f);
+    assertThat(ImageUploadCompressor.scaleToFit(1500, 2000, 1600)).isWithin(0.001f).of(0.8f);
+    assertThat(ImageUploadCompressor.scaleToFit(1000, 500, 1600)).isEqualTo(1f);
+  }
+}
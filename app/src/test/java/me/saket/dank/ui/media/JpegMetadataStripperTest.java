@@ -0,0 +1,184 @@
+package me.saket.dank.ui.media;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+public class JpegMetadataStripperTest {
+
+  private static final int ORIENTATION_NORMAL = 1;
+  private static final int ORIENTATION_ROTATE_90 = 6;
+
+  private static final int TAG_MAKE = 0x010F;
+  private static final int TAG_MODEL = 0x0110;
+  private static final int TAG_DATE_TIME = 0x0132;
+  private static final int TAG_BODY_SERIAL_NUMBER = 0xA431;
+  private static final int TAG_GPS_LATITUDE_REF = 0x0001;
+
+  @Test
+  public void shouldRemoveAllMetadata() throws IOException {
+    byte[] jpeg = cameraJpeg();
+
+    byte[] stripped = strip(jpeg, ORIENTATION_ROTATE_90);
+
+    String strippedText = new String(stripped, StandardCharsets.ISO_8859_1);
+    assertThat(strippedText).doesNotContain("Canon");
+    assertThat(strippedText).doesNotContain("EOS 5D");
+    assertThat(strippedText).doesNotContain("SN-12345");
+    assertThat(strippedText).doesNotContain("2018:01:02 03:04:05");
+    assertThat(strippedText).doesNotContain("North");
+    assertThat(strippedText).doesNotContain("x:xmpmeta");
+    assertThat(strippedText).doesNotContain("Photoshop 3.0");
+    assertThat(strippedText).doesNotContain("Shot on a phone");
+    assertThat(strippedText).doesNotContain("MPF");
+  }
+
+  @Test
+  public void shouldKeepOnlyOrientationInExif() throws IOException {
+    byte[] stripped = strip(cameraJpeg(), ORIENTATION_ROTATE_90);
+
+    byte[] onlyOrientation = segment(0xE1, tiff(ORIENTATION_ROTATE_90));
+    assertThat(indexOf(stripped, onlyOrientation)).isGreaterThan(0);
+    assertThat(indexOf(stripped, "Exif\0\0".getBytes(StandardCharsets.US_ASCII)))
+        .isEqualTo(indexOf(stripped, onlyOrientation) + 4);
+  }
+
+  @Test
+  public void shouldNotWriteExif_whenOrientationIsNormal() throws IOException {
+    byte[] stripped = strip(cameraJpeg(), ORIENTATION_NORMAL);
+
+    assertThat(indexOf(stripped, "Exif".getBytes(StandardCharsets.US_ASCII))).isEqualTo(-1);
+  }
+
+  @Test
+  public void shouldKeepImageAndColorProfile() throws IOException {
+    byte[] stripped = strip(cameraJpeg(), ORIENTATION_ROTATE_90);
+
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(stripped));
+    assertThat(image.getWidth()).isEqualTo(64);
+    assertThat(image.getHeight()).isEqualTo(48);
+    assertThat(indexOf(stripped, "ICC_PROFILE\0".getBytes(StandardCharsets.US_ASCII))).isGreaterThan(0);
+    assertThat(stripped[stripped.length - 2]).isEqualTo((byte) 0xFF);
+    assertThat(stripped[stripped.length - 1]).isEqualTo((byte) 0xD9);
+  }
+
+  @Test(expected = IOException.class)
+  public void shouldThrow_whenFileIsNotJpeg() throws IOException {
+    strip("\u0089PNG\r\n".getBytes(StandardCharsets.ISO_8859_1), ORIENTATION_NORMAL);
+  }
+
+  private static byte[] strip(byte[] jpeg, int exifOrientation) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    JpegMetadataStripper.strip(new ByteArrayInputStream(jpeg), output, exifOrientation);
+    return output.toByteArray();
+  }
+
+  /**
+   * A JPEG with the kinds of metadata that cameras and editors write, and
+   * a second image appended after it like multi-picture files have.
+   */
+  private static byte[] cameraJpeg() throws IOException {
+    BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", encoded);
+    byte[] plainJpeg = encoded.toByteArray();
+
+    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    jpeg.write(plainJpeg, 0, 2);
+    jpeg.write(segment(0xE1, exif()));
+    jpeg.write(segment(0xE1, ascii("http://ns.adobe.com/xap/1.0/\0<x:xmpmeta/>")));
+    jpeg.write(segment(0xE2, ascii("ICC_PROFILE\0\1\1profile")));
+    jpeg.write(segment(0xE2, ascii("MPF\0")));
+    jpeg.write(segment(0xED, ascii("Photoshop 3.0\0")));
+    jpeg.write(segment(0xFE, ascii("Shot on a phone")));
+    jpeg.write(plainJpeg, 2, plainJpeg.length - 2);
+    jpeg.write(new byte[] { (byte) 0xFF, (byte) 0xD8 });
+    jpeg.write(segment(0xE1, exif()));
+    jpeg.write(new byte[] { (byte) 0xFF, (byte) 0xD9 });
+    return jpeg.toByteArray();
+  }
+
+  /**
+   * Big-endian TIFF with camera tags and a location tag in a single IFD.
+   */
+  private static byte[] exif() throws IOException {
+    String[][] asciiTags = {
+        { String.valueOf(TAG_MAKE), "Canon" },
+        { String.valueOf(TAG_MODEL), "EOS 5D" },
+        { String.valueOf(TAG_DATE_TIME), "2018:01:02 03:04:05" },
+        { String.valueOf(TAG_BODY_SERIAL_NUMBER), "SN-12345" },
+        { String.valueOf(TAG_GPS_LATITUDE_REF), "North" },
+    };
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(ascii("Exif\0\0"));
+    out.writeShort(0x4D4D);
+    out.writeShort(42);
+    out.writeInt(8);
+
+    int valuesOffset = 8 + 2 + asciiTags.length * 12 + 4;
+    out.writeShort(asciiTags.length);
+    for (String[] tag : asciiTags) {
+      out.writeShort(Integer.parseInt(tag[0]));
+      out.writeShort(2);
+      out.writeInt(tag[1].length() + 1);
+      out.writeInt(valuesOffset);
+      valuesOffset += tag[1].length() + 1;
+    }
+    out.writeInt(0);
+    for (String[] tag : asciiTags) {
+      out.write(ascii(tag[1] + "\0"));
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] tiff(int orientation) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(ascii("Exif\0\0"));
+    out.writeShort(0x4D4D);
+    out.writeShort(42);
+    out.writeInt(8);
+    out.writeShort(1);
+    out.writeShort(0x0112);
+    out.writeShort(3);
+    out.writeInt(1);
+    out.writeShort(orientation);
+    out.writeShort(0);
+    out.writeInt(0);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] segment(int marker, byte[] payload) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.write(0xFF);
+    out.write(marker);
+    out.writeShort(payload.length + 2);
+    out.write(payload);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  private static int indexOf(byte[] bytes, byte[] target) {
+    for (int i = 0; i <= bytes.length - target.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + target.length), target)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
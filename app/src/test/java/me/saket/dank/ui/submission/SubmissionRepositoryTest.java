@@ -0,0 +1,51 @@
+package me.saket.dank.ui.submission;
+
+import static org.powermock.api.mockito.PowerMockito.mock;
+
+import net.dean.jraw.models.Submission;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Submission.class })
+public class SubmissionRepositoryTest {
+
+  private final ExecutorService mainThread = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "main"));
+  private final ExecutorService dbThread = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "db"));
+
+  @After
+  public void tearDown() {
+    mainThread.shutdownNow();
+    dbThread.shutdownNow();
+  }
+
+  @Test
+  public void shouldNotBuildCommentTreeOnThreadThatEmitsCommentLimit() throws Exception {
+    CachedSubmissionAndCommentsRow row = new CachedSubmissionAndCommentsRow("id", mock(Submission.class), null, null, null);
+    PublishSubject<Integer> topLevelCommentLimits = PublishSubject.create();
+
+    TestObserver<String> emissionThreads = SubmissionRepository
+        .withTopLevelCommentLimits(Observable.just(row), topLevelCommentLimits, (request, limit) -> Collections.emptyList(), Schedulers.from(dbThread))
+        .map(o -> Thread.currentThread().getName())
+        .test();
+
+    // "Load more comments" emits from the main thread.
+    mainThread.submit(() -> topLevelCommentLimits.onNext(40)).get();
+
+    emissionThreads.awaitCount(1);
+    emissionThreads.assertValue("db");
+  }
+}
@@ -26,22 +26,32 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.schedulers.Schedulers;
+import me.saket.dank.cache.CachePreFillStats;
 import me.saket.dank.cache.CachePreFiller;
+import me.saket.dank.cache.CompletedPreFillDao;
+import me.saket.dank.cache.PrefetchScheduler;
+import me.saket.dank.cache.VideoPreFiller;
+import me.saket.dank.data.AppDatabase;
 import me.saket.dank.data.CachePreFillThing;
 import me.saket.dank.data.LinkMetadataRepository;
 import me.saket.dank.ui.preferences.NetworkStrategy;
 import me.saket.dank.ui.submission.SubmissionImageLoader;
 import me.saket.dank.urlparser.ExternalLink;
+import me.saket.dank.urlparser.Link;
 import me.saket.dank.urlparser.LinkMetadata;
 import me.saket.dank.ui.media.MediaHostRepository;
 import me.saket.dank.ui.submission.SubmissionRepository;
 import me.saket.dank.urlparser.UrlParser;
+import me.saket.dank.utils.AdaptiveMediaQuality;
+import me.saket.dank.utils.BandwidthEstimator;
+import me.saket.dank.utils.DefaultMediaQualityPolicy;
 import me.saket.dank.utils.NetworkStateListener;
 import me.saket.dank.utils.Optional;
 import me.saket.dank.utils.RxUtils;
@@ -60,6 +70,9 @@ public class CachePreFillerShould {
   @Mock UrlParser urlParser;
   @Mock HashMap<CachePreFillThing, Preference<NetworkStrategy>> networkStrategies;
   @Mock SubmissionImageLoader imageLoader;
+  @Mock VideoPreFiller videoPreFiller;
+  @Mock AppDatabase database;
+  @Mock CompletedPreFillDao completedPreFillDao;
 
   private CachePreFiller cachePreFiller;
   private static final Size DISPLAY_SIZE = new Size(1280, 1920);
@@ -67,6 +80,8 @@ public class CachePreFillerShould {
   @Before
   public void setUp() throws Exception {
     PowerMockito.mockStatic(Uri.class);
+    when(database.completedPreFillDao()).thenReturn(completedPreFillDao);
+
     //noinspection ConstantConditions
     cachePreFiller = new CachePreFiller(
         null,
@@ -76,7 +91,11 @@ public class CachePreFillerShould {
         linkMetadataRepo,
         () -> urlParser,
         () -> imageLoader,
-        () -> Schedulers.computation(),
+        () -> videoPreFiller,
+        () -> new AdaptiveMediaQuality(new BandwidthEstimator(), new DefaultMediaQualityPolicy()),
+        () -> new PrefetchScheduler(Schedulers.computation(), () -> 0L),
+        () -> database,
+        new CachePreFillStats(),
         () -> networkStrategies);
 
     PowerMockito.mockStatic(RxUtils.class);
@@ -107,8 +126,8 @@ public class CachePreFillerShould {
         .assertNotComplete();
 
     verify(mediaHostRepo, never()).resolveActualLinkIfNeeded(any());
-    verify(linkMetadataRepo, never()).unfurl(any());
-    verify(submissionRepo, never()).submissionWithComments(any());
+    verify(linkMetadataRepo, never()).preFill(any());
+    verify(submissionRepo, never()).preFillSubmissionWithComments(any());
   }
 
   @Test
@@ -130,9 +149,11 @@ public class CachePreFillerShould {
 
     when(networkStateListener.streamNetworkInternetCapability(NetworkStrategy.WIFI_ONLY, Optional.empty())).thenReturn(Observable.just(true));
 
-    when(linkMetadataRepo.unfurl(any())).thenReturn(Single.just(mock(LinkMetadata.class)));
+    when(linkMetadataRepo.preFill(any())).thenReturn(Single.just(mock(LinkMetadata.class)));
 
-    when(urlParser.parse(any(), any())).thenReturn(ExternalLink.create(url));
+    ExternalLink link = ExternalLink.create(url);
+    when(urlParser.parse(any(), any())).thenReturn(link);
+    when(urlParser.parseAll(any())).thenReturn(Arrays.<Link>asList(link, link));
 
     //noinspection ConstantConditions
     cachePreFiller.preFillInParallelThreads(submissions, 160)
@@ -140,6 +161,6 @@ public class CachePreFillerShould {
         .assertNoErrors()
         .assertComplete();
 
-    verify(linkMetadataRepo, times(1)).unfurl(any());
+    verify(linkMetadataRepo, times(1)).preFill(any());
   }
 }
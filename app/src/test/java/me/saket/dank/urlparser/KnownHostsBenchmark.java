@@ -0,0 +1,36 @@
+package me.saket.dank.urlparser;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.functions.Function;
+import me.saket.dank.Benchmark;
+
+/**
+ * Compares {@link KnownHosts} against the chain of <code>contains()</code> checks it replaced.
+ */
+@Ignore("Benchmark")
+public class KnownHostsBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 200_000;
+  private static final int MEASURED_ITERATIONS = 2_000_000;
+
+  @Test
+  public void redditUrlHosts() throws Exception {
+    List<String> hosts = new ArrayList<>();
+    for (String url : KnownHostsTest.redditUrls()) {
+      hosts.add(KnownHostsTest.host(url));
+    }
+
+    long containsNanos = measure(hosts, KnownHostsTest::identifyUsingContainsChecks);
+    long dispatchNanos = measure(hosts, KnownHosts::identify);
+    Benchmark.report("Hosts", "contains() checks", containsNanos, "dispatch table", dispatchNanos);
+  }
+
+  private static long measure(List<String> hosts, Function<String, KnownHosts.Website> identifier) throws Exception {
+    return Benchmark.nanosPerRun(WARMUP_ITERATIONS, MEASURED_ITERATIONS, i -> identifier.apply(hosts.get(i % hosts.size())));
+  }
+}
@@ -0,0 +1,79 @@
+package me.saket.dank.urlparser;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+
+public class KnownHostsTest {
+
+  @Test
+  public void shouldIdentifyTheSameWebsitesAsTheContainsChecksItReplaced() throws IOException {
+    for (String url : redditUrls()) {
+      String host = host(url);
+      if (host.contains("notreddit")) {
+        // The old endsWith() check mistook this for reddit.com.
+        continue;
+      }
+      assertThat(KnownHosts.identify(host)).named(host).isEqualTo(identifyUsingContainsChecks(host));
+    }
+  }
+
+  @Test
+  public void shouldOnlyMatchEntireDomainLabels() {
+    assertThat(KnownHosts.identify("www.reddit.com")).isEqualTo(KnownHosts.Website.REDDIT);
+    assertThat(KnownHosts.identify("I.Imgur.com")).isEqualTo(KnownHosts.Website.IMGUR);
+    assertThat(KnownHosts.identify("notreddit.com")).isEqualTo(KnownHosts.Website.UNKNOWN);
+    assertThat(KnownHosts.identify("com")).isEqualTo(KnownHosts.Website.UNKNOWN);
+    assertThat(KnownHosts.identify("")).isEqualTo(KnownHosts.Website.UNKNOWN);
+  }
+
+  static KnownHosts.Website identifyUsingContainsChecks(String host) {
+    if (host.endsWith("reddit.com")) {
+      return KnownHosts.Website.REDDIT;
+    } else if (host.endsWith("redd.it")) {
+      return KnownHosts.Website.REDDIT_SHORT;
+    } else if (host.contains("imgur.com") || host.contains("bildgur.de")) {
+      return KnownHosts.Website.IMGUR;
+    } else if (host.contains("gfycat.com")) {
+      return KnownHosts.Website.GFYCAT;
+    } else if (host.contains("giphy.com")) {
+      return KnownHosts.Website.GIPHY;
+    } else if (host.contains("streamable.com")) {
+      return KnownHosts.Website.STREAMABLE;
+    } else if (host.contains("reddituploads.com") || host.contains("redditmedia.com")) {
+      return KnownHosts.Website.REDDIT_UPLOADS;
+    } else {
+      return KnownHosts.Website.UNKNOWN;
+    }
+  }
+
+  @SuppressWarnings("ConstantConditions")
+  static String host(String url) {
+    return HttpUrl.parse(url).host();
+  }
+
+  static List<String> redditUrls() throws IOException {
+    List<String> urls = new ArrayList<>();
+    try (InputStream stream = KnownHostsTest.class.getClassLoader().getResourceAsStream("urlparser/reddit_urls.txt");
+         BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)))
+    {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isEmpty()) {
+          urls.add(line);
+        }
+      }
+    }
+    return urls;
+  }
+}
@@ -0,0 +1,48 @@
+package me.saket.dank.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class BandwidthEstimatorTest {
+
+  private BandwidthEstimator estimator;
+  private long nowMillis;
+
+  @Before
+  public void setUp() {
+    nowMillis = 0;
+    estimator = new BandwidthEstimator(() -> nowMillis);
+  }
+
+  @Test
+  public void shouldWeighSamplesByTheirSize() {
+    // 1 MB in 1s and 100 KB in 1s.
+    estimator.addSample(1_000_000, 1_000);
+    estimator.addSample(100_000, 1_000);
+
+    assertThat(estimator.bitsPerSecond()).isEqualTo(1_100_000 * 8 / 2);
+  }
+
+  @Test
+  public void shouldIgnoreSmallResponses() {
+    estimator.addSample(2_000, 1_000);
+
+    assertThat(estimator.bitsPerSecond()).isEqualTo(BandwidthEstimator.NO_ESTIMATE);
+  }
+
+  @Test
+  public void shouldForgetOldSamples() {
+    estimator.addSample(1_000_000, 1_000);
+    nowMillis += TimeUnit.MINUTES.toMillis(10);
+    estimator.addSample(500_000, 1_000);
+
+    assertThat(estimator.bitsPerSecond()).isEqualTo(500_000 * 8);
+
+    nowMillis += TimeUnit.MINUTES.toMillis(10);
+    assertThat(estimator.bitsPerSecond()).isEqualTo(BandwidthEstimator.NO_ESTIMATE);
+  }
+}
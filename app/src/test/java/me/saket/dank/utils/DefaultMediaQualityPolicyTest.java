@@ -0,0 +1,18 @@
+package me.saket.dank.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class DefaultMediaQualityPolicyTest {
+
+  private final DefaultMediaQualityPolicy policy = new DefaultMediaQualityPolicy();
+
+  @Test
+  public void shouldLoadSmallerImagesOnSlowerConnections() {
+    assertThat(policy.imageWidth(1080, BandwidthEstimator.NO_ESTIMATE)).isEqualTo(1080);
+    assertThat(policy.imageWidth(1080, DefaultMediaQualityPolicy.MODERATE_BITS_PER_SECOND)).isEqualTo(1080);
+    assertThat(policy.imageWidth(1080, DefaultMediaQualityPolicy.SLOW_BITS_PER_SECOND)).isEqualTo(810);
+    assertThat(policy.imageWidth(1080, DefaultMediaQualityPolicy.SLOW_BITS_PER_SECOND - 1)).isEqualTo(540);
+  }
+}
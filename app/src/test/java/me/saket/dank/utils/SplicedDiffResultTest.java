@@ -0,0 +1,132 @@
+package me.saket.dank.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SplicedDiffResultTest {
+
+  @Test
+  public void collapsingASubtreeShouldDispatchASingleRemoval() {
+    List<String> oldItems = Arrays.asList("a", "b", "b1", "b2", "c");
+    List<String> newItems = Arrays.asList("a", "b", "c");
+
+    assertEquals(Arrays.asList("removed 2,2"), dispatch(oldItems, newItems));
+  }
+
+  @Test
+  public void expandingASubtreeShouldDispatchASingleInsertion() {
+    List<String> oldItems = Arrays.asList("a", "b", "c");
+    List<String> newItems = Arrays.asList("a", "b", "b1", "b2", "c");
+
+    assertEquals(Arrays.asList("inserted 2,2"), dispatch(oldItems, newItems));
+  }
+
+  @Test
+  public void contentChangesOutsideTheSplicedRegionShouldUseOldPositions() {
+    List<String> oldItems = Arrays.asList("a", "b", "b1", "c");
+    List<String> newItems = Arrays.asList("a:voted", "b", "c:voted");
+
+    assertEquals(Arrays.asList("changed 0", "changed 3", "removed 2,1"), dispatch(oldItems, newItems));
+  }
+
+  @Test
+  public void mixedChangesShouldBeDiffedWithinTheMiddleRegion() {
+    List<String> oldItems = Arrays.asList("a", "x", "y", "c");
+    List<String> newItems = Arrays.asList("a", "z", "c");
+
+    List<String> updates = dispatch(oldItems, newItems);
+    List<String> replayed = new ArrayList<>(oldItems);
+    for (String update : updates) {
+      String[] parts = update.split("[ ,]");
+      if (parts[0].equals("removed")) {
+        for (int i = 0; i < Integer.parseInt(parts[2]); i++) {
+          replayed.remove(Integer.parseInt(parts[1]));
+        }
+      } else if (parts[0].equals("inserted")) {
+        for (int i = 0; i < Integer.parseInt(parts[2]); i++) {
+          replayed.add(Integer.parseInt(parts[1]) + i, "?");
+        }
+      }
+    }
+    assertEquals(newItems.size(), replayed.size());
+    assertEquals("a", replayed.get(0));
+    assertEquals("c", replayed.get(2));
+  }
+
+  @Test
+  public void identicalListsShouldDispatchNothing() {
+    List<String> items = Arrays.asList("a", "b", "c");
+    assertEquals(new ArrayList<String>(), dispatch(items, new ArrayList<>(items)));
+  }
+
+  @Test
+  public void knownChangedPositionsShouldOnlyDispatchRowsWhoseContentsChanged() {
+    List<String> oldItems = Arrays.asList("a", "b", "c", "d");
+    List<String> newItems = Arrays.asList("a", "b:voted", "c", "d:saved");
+
+    SplicedDiffResult result = SplicedDiffResult.ofChangedPositions(
+        oldItems,
+        newItems,
+        Arrays.asList(1, 2, 3),
+        new IdAndContentCallbacks(oldItems, newItems));
+
+    assertEquals(Arrays.asList("changed 1", "changed 3"), dispatch(result));
+  }
+
+  private static List<String> dispatch(List<String> oldItems, List<String> newItems) {
+    return dispatch(SplicedDiffResult.calculate(oldItems, newItems, new IdAndContentCallbacks(oldItems, newItems)));
+  }
+
+  private static List<String> dispatch(SplicedDiffResult result) {
+    List<String> updates = new ArrayList<>();
+    result
+        .dispatchUpdatesTo(new ListUpdateCallback() {
+          @Override
+          public void onInserted(int position, int count) {
+            updates.add("inserted " + position + "," + count);
+          }
+
+          @Override
+          public void onRemoved(int position, int count) {
+            updates.add("removed " + position + "," + count);
+          }
+
+          @Override
+          public void onMoved(int fromPosition, int toPosition) {
+            updates.add("moved " + fromPosition + "," + toPosition);
+          }
+
+          @Override
+          public void onChanged(int position, int count, Object payload) {
+            updates.add("changed " + position);
+          }
+        });
+    return updates;
+  }
+
+  /**
+   * Items are "id:content" strings.
+   */
+  private static class IdAndContentCallbacks extends SimpleDiffUtilsCallbacks<String> {
+    IdAndContentCallbacks(List<String> oldItems, List<String> newItems) {
+      super(oldItems, newItems);
+    }
+
+    @Override
+    public boolean areItemsTheSame(String oldItem, String newItem) {
+      return oldItem.split(":")[0].equals(newItem.split(":")[0]);
+    }
+
+    @Override
+    protected boolean areContentsTheSame(String oldItem, String newItem) {
+      return oldItem.equals(newItem);
+    }
+  }
+}
@@ -25,6 +25,7 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -47,6 +48,7 @@ import me.saket.dank.urlparser.RedditUserLink;
 import me.saket.dank.urlparser.StreamableUnresolvedLink;
 import me.saket.dank.urlparser.UnresolvedMediaLink;
 import me.saket.dank.urlparser.UrlParser;
+import me.saket.dank.urlparser.UrlParserCacheStats;
 import me.saket.dank.urlparser.UrlParserConfig;
 
 @RunWith(PowerMockRunner.class)
@@ -64,7 +66,7 @@ public class UrlParserTest {
 
   @Before
   public void setUp() {
-    urlParser = new UrlParser(CacheBuilder.newBuilder().build(), new UrlParserConfig());
+    urlParser = new UrlParser(CacheBuilder.newBuilder().build(), new UrlParserConfig(), new UrlParserCacheStats());
 
     PowerMockito.mockStatic(Uri.class);
 
@@ -480,6 +482,32 @@ public class UrlParserTest {
     assertThat(((StreamableUnresolvedLink) parsedLink).videoId()).isEqualTo("jawcl");
   }
 
+  @Test
+  public void parseAll_shouldReturnLinksInSubmissionOrder() {
+    String[] urls = {
+        "http://streamable.com/jawcl",
+        "https://i.imgur.com/cuPUfRY.gif",
+        "http://streamable.com/jawcl",
+        "https://www.reddit.com/comments/656e5z",
+    };
+
+    List<Submission> submissions = new ArrayList<>();
+    for (String url : urls) {
+      Submission submission = mock(Submission.class);
+      when(submission.getUrl()).thenReturn(url);
+      submissions.add(submission);
+    }
+
+    List<Link> parsedLinks = urlParser.parseAll(submissions);
+
+    assertThat(parsedLinks).hasSize(urls.length);
+    assertThat(parsedLinks.get(0)).isInstanceOf(StreamableUnresolvedLink.class);
+    assertThat(parsedLinks.get(1)).isInstanceOf(ImgurLink.class);
+    assertThat(parsedLinks.get(2)).isSameAs(parsedLinks.get(0));
+    assertThat(parsedLinks.get(3)).isInstanceOf(RedditSubmissionLink.class);
+    assertThat(urlParser.parse(urls[1])).isSameAs(parsedLinks.get(1));
+  }
+
   // TODO: Extract this into an @Rule.
   public static Uri createMockUriFor(String url) {
     Uri mockUri = mock(Uri.class);
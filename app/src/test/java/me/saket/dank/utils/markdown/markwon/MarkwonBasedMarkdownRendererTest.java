@@ -8,7 +8,9 @@ import com.nytimes.android.external.cache3.Cache;
 import org.junit.Before;
 import org.junit.Test;
 
+import io.reactivex.schedulers.Schedulers;
 import me.saket.dank.markdownhints.MarkdownHintOptions;
+import me.saket.dank.utils.markdown.MarkdownCacheStats;
 import ru.noties.markwon.SpannableConfiguration;
 
 public class MarkwonBasedMarkdownRendererTest {
@@ -23,7 +25,9 @@ public class MarkwonBasedMarkdownRendererTest {
         mock(AutoRedditLinkExtension.class),
         mock(EmptyListItemHandlerExtension.class),
         mock(MarkdownHintOptions.class),
-        mock(Cache.class));
+        mock(Cache.class),
+        new MarkdownCacheStats(),
+        Schedulers.trampoline());
   }
 
   @Test
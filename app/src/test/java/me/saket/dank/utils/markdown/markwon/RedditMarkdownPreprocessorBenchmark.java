@@ -0,0 +1,75 @@
+package me.saket.dank.utils.markdown.markwon;
+
+import static org.mockito.Mockito.mock;
+
+import com.nytimes.android.external.cache3.Cache;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import me.saket.dank.Benchmark;
+import me.saket.dank.markdownhints.MarkdownHintOptions;
+import me.saket.dank.utils.markdown.MarkdownCacheStats;
+import ru.noties.markwon.SpannableConfiguration;
+
+/**
+ * Compares {@link RedditMarkdownPreprocessor} against the regex fix-ups it replaced.
+ */
+@Ignore("Benchmark")
+public class RedditMarkdownPreprocessorBenchmark {
+
+  private static final int WARMUP_ITERATIONS = 5_000;
+  private static final int MEASURED_ITERATIONS = 20_000;
+  private static final int LINKS_IN_LONG_COMMENT = 200;
+
+  @Test
+  public void commentBodies() throws Exception {
+    MarkwonBasedMarkdownRenderer renderer = renderer();
+    List<String> bodies = RedditMarkdownPreprocessorTest.commentBodies();
+
+    long regexNanos = measure(bodies, renderer::preprocessUsingRegexes);
+    long singlePassNanos = measure(bodies, renderer::preprocess);
+    report("Comment bodies", regexNanos, singlePassNanos);
+  }
+
+  @Test
+  public void longCommentWithManyLinks() throws Exception {
+    MarkwonBasedMarkdownRenderer renderer = renderer();
+
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < LINKS_IN_LONG_COMMENT; i++) {
+      body.append(String.format(Locale.ENGLISH, "%d. [Source ^%d](https://example.com/%d) is worth a read.\n\n", i, i, i));
+    }
+    List<String> bodies = Collections.singletonList(body.toString());
+
+    long regexNanos = measure(bodies, renderer::preprocessUsingRegexes);
+    long singlePassNanos = measure(bodies, renderer::preprocess);
+    report("Long comment", regexNanos, singlePassNanos);
+  }
+
+  private static long measure(List<String> bodies, Function<String, String> preprocessor) throws Exception {
+    return Benchmark.nanosPerRun(WARMUP_ITERATIONS, MEASURED_ITERATIONS, i -> preprocessor.apply(bodies.get(i % bodies.size())));
+  }
+
+  private static void report(String name, long regexNanos, long singlePassNanos) {
+    Benchmark.report(name, "regexes", regexNanos, "single pass", singlePassNanos);
+  }
+
+  private static MarkwonBasedMarkdownRenderer renderer() {
+    //noinspection unchecked
+    return new MarkwonBasedMarkdownRenderer(
+        mock(SpannableConfiguration.class),
+        mock(AutoRedditLinkExtension.class),
+        mock(EmptyListItemHandlerExtension.class),
+        mock(MarkdownHintOptions.class),
+        mock(Cache.class),
+        new MarkdownCacheStats(),
+        Schedulers.trampoline());
+  }
+}
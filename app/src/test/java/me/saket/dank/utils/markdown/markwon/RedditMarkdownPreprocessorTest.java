@@ -0,0 +1,76 @@
+package me.saket.dank.utils.markdown.markwon;
+
+import static junit.framework.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import com.nytimes.android.external.cache3.Cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import io.reactivex.schedulers.Schedulers;
+import me.saket.dank.markdownhints.MarkdownHintOptions;
+import me.saket.dank.utils.markdown.MarkdownCacheStats;
+import ru.noties.markwon.SpannableConfiguration;
+
+public class RedditMarkdownPreprocessorTest {
+
+  private MarkwonBasedMarkdownRenderer renderer;
+
+  @Before
+  public void setUp() {
+    //noinspection unchecked
+    renderer = new MarkwonBasedMarkdownRenderer(
+        mock(SpannableConfiguration.class),
+        mock(AutoRedditLinkExtension.class),
+        mock(EmptyListItemHandlerExtension.class),
+        mock(MarkdownHintOptions.class),
+        mock(Cache.class),
+        new MarkdownCacheStats(),
+        Schedulers.trampoline());
+  }
+
+  @Test
+  public void outputShouldMatchRegexFixups() throws IOException {
+    for (String body : commentBodies()) {
+      assertEquals(body, renderer.preprocessUsingRegexes(body), renderer.preprocess(body));
+    }
+  }
+
+  @Test
+  public void headingsShouldOnlyBeFixedAtLineStart() {
+    String markdown = "#Fixed\n\n> ##Quoted\n\nSee #1234 and [notes](https://example.com/changelog#v2)";
+    String expected = "# Fixed\n\n> ## Quoted\n\nSee #1234 and [notes](https://example.com/changelog#v2)";
+
+    assertEquals(expected, renderer.preprocess(markdown));
+  }
+
+  @Test
+  public void allLinksShouldBeFixed() {
+    String markdown = "[a] (https://a.com/x y) then [b](https://b.com/z w)";
+    String expected = "[a](https://a.com/x%20y) then [b](https://b.com/z%20w)";
+
+    assertEquals(expected, renderer.preprocess(markdown));
+  }
+
+  /**
+   * Comment bodies in test resources, separated by "=====" lines.
+   */
+  static List<String> commentBodies() throws IOException {
+    try (InputStream stream = RedditMarkdownPreprocessorTest.class.getClassLoader().getResourceAsStream("markdown/comment_bodies.txt")) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int read; (read = stream.read(buffer)) != -1; ) {
+        bytes.write(buffer, 0, read);
+      }
+      return Arrays.asList(new String(bytes.toByteArray(), Charset.forName("UTF-8")).split("\n=====\n"));
+    }
+  }
+}
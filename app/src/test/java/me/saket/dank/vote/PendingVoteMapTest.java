@@ -0,0 +1,71 @@
+package me.saket.dank.vote;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import net.dean.jraw.models.VoteDirection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class PendingVoteMapTest {
+
+  private PendingVoteMap map;
+
+  @Before
+  public void setUp() {
+    map = new PendingVoteMap();
+  }
+
+  @Test
+  public void putShouldReplaceEarlierDirection() {
+    map.put("t3_abc", VoteDirection.UP);
+    map.put("t3_abc", VoteDirection.NONE);
+
+    assertThat(map.get("t3_abc")).isEqualTo(VoteDirection.NONE);
+    assertThat(map.contains("t3_abc")).isTrue();
+    assertThat(map.get("t1_abc")).isNull();
+    assertThat(map.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void removeShouldOnlyRemoveItsKey() {
+    map.put("t3_abc", VoteDirection.UP);
+    map.put("t1_def", VoteDirection.DOWN);
+
+    map.remove("t3_abc");
+    map.remove("t3_missing");
+
+    assertThat(map.contains("t3_abc")).isFalse();
+    assertThat(map.get("t1_def")).isEqualTo(VoteDirection.DOWN);
+    assertThat(map.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldMatchHashMapAcrossResizesAndRemovals() {
+    Map<String, VoteDirection> expected = new HashMap<>();
+    Random random = new Random(42);
+    VoteDirection[] directions = VoteDirection.values();
+
+    for (int i = 0; i < 20_000; i++) {
+      String fullName = "t3_" + Integer.toString(random.nextInt(2_000), 36);
+      if (random.nextInt(3) == 0) {
+        map.remove(fullName);
+        expected.remove(fullName);
+      } else {
+        VoteDirection direction = directions[random.nextInt(directions.length)];
+        map.put(fullName, direction);
+        expected.put(fullName, direction);
+      }
+    }
+
+    assertThat(map.size()).isEqualTo(expected.size());
+    for (int i = 0; i < 2_000; i++) {
+      String fullName = "t3_" + Integer.toString(i, 36);
+      assertThat(map.get(fullName)).isEqualTo(expected.get(fullName));
+    }
+  }
+}
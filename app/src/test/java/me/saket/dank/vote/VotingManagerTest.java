@@ -0,0 +1,219 @@
+package me.saket.dank.vote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.Application;
+import android.content.SharedPreferences;
+
+import net.dean.jraw.models.Identifiable;
+import net.dean.jraw.models.VoteDirection;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import me.saket.dank.data.AppDatabase;
+import me.saket.dank.data.ErrorResolver;
+import me.saket.dank.reddit.Reddit;
+import me.saket.dank.ui.compose.SimpleIdentifiable;
+
+public class VotingManagerTest {
+
+  private static final String FULL_NAME = "t3_abc";
+
+  @Rule public MockitoRule mockitoRule = MockitoJUnit.rule();
+
+  @Mock Application appContext;
+  @Mock Reddit reddit;
+  @Mock Reddit.LoggedInUser loggedInUser;
+  @Mock AppDatabase database;
+  @Mock SharedPreferences legacySharedPrefs;
+
+  private final TestScheduler scheduler = new TestScheduler();
+  private final FakePendingVoteDao dao = new FakePendingVoteDao();
+  private VotingManager votingManager;
+
+  @Before
+  public void setUp() {
+    when(reddit.loggedInUser()).thenReturn(loggedInUser);
+    when(loggedInUser.vote(any(Identifiable.class), any(VoteDirection.class))).thenReturn(Completable.complete());
+    when(database.pendingVoteDao()).thenReturn(dao);
+
+    votingManager = new VotingManager(
+        appContext,
+        () -> reddit,
+        () -> database,
+        () -> new ErrorResolver(),
+        () -> legacySharedPrefs,
+        scheduler);
+  }
+
+  @Test
+  public void rapidToggles_shouldBeSentAsOneRequest_afterVotingSettles() {
+    vote(VoteDirection.UP);
+    scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+    vote(VoteDirection.DOWN);
+    scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+    vote(VoteDirection.UP);
+
+    scheduler.advanceTimeBy(1_499, TimeUnit.MILLISECONDS);
+    verify(loggedInUser, never()).vote(any(Identifiable.class), any(VoteDirection.class));
+
+    scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+    verify(loggedInUser, times(1)).vote(any(Identifiable.class), any(VoteDirection.class));
+    verify(loggedInUser).vote(SimpleIdentifiable.Companion.from(FULL_NAME), VoteDirection.UP);
+    assertThat(dao.unsyncedVotes()).isEmpty();
+  }
+
+  @Test
+  public void togglingBackToRemoteDirection_shouldNotSendAnyRequest() {
+    SimpleVotable upvoted = new SimpleVotable(1, VoteDirection.UP, FULL_NAME, "abc");
+    votingManager.saveAndSend(Vote.create(upvoted, VoteDirection.NONE)).subscribe();
+    votingManager.saveAndSend(Vote.create(upvoted, VoteDirection.UP)).subscribe();
+
+    scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+    verify(loggedInUser, never()).vote(any(Identifiable.class), any(VoteDirection.class));
+  }
+
+  @Test
+  public void failedDrain_shouldKeepVoteForRetrying() {
+    when(loggedInUser.vote(any(Identifiable.class), any(VoteDirection.class))).thenReturn(Completable.error(new SocketTimeoutException()));
+    dao.saveDirection(FULL_NAME, VoteDirection.UP, null, 0);
+    dao.saveDirection("t3_def", VoteDirection.DOWN, null, 1);
+
+    TestObserver<Boolean> drainObserver = votingManager.drainPendingVotes().test();
+    scheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+    drainObserver.assertValue(false);
+    verify(loggedInUser, times(1)).vote(any(Identifiable.class), any(VoteDirection.class));
+    assertThat(dao.unsyncedVotes()).hasSize(2);
+  }
+
+  @Test
+  public void drain_shouldSpaceOutRequests() {
+    dao.saveDirection("t3_1", VoteDirection.UP, null, 0);
+    dao.saveDirection("t3_2", VoteDirection.UP, null, 1);
+    dao.saveDirection("t3_3", VoteDirection.UP, null, 2);
+
+    TestObserver<Boolean> drainObserver = votingManager.drainPendingVotes().test();
+    scheduler.triggerActions();
+    verify(loggedInUser, times(1)).vote(any(Identifiable.class), any(VoteDirection.class));
+
+    scheduler.advanceTimeBy(999, TimeUnit.MILLISECONDS);
+    verify(loggedInUser, times(1)).vote(any(Identifiable.class), any(VoteDirection.class));
+
+    scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+    verify(loggedInUser, times(2)).vote(any(Identifiable.class), any(VoteDirection.class));
+
+    scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+    verify(loggedInUser, times(3)).vote(any(Identifiable.class), any(VoteDirection.class));
+    drainObserver.assertValue(true);
+  }
+
+  private void vote(VoteDirection direction) {
+    votingManager.saveAndSend(Vote.create(SimpleIdentifiable.Companion.from(FULL_NAME), direction)).subscribe();
+  }
+
+  /**
+   * Same queries as the Room DAO, kept in memory.
+   */
+  private static class FakePendingVoteDao implements PendingVoteDao {
+
+    private final Map<String, PendingVote> rows = new LinkedHashMap<>();
+
+    @Override
+    public List<PendingVote> votes() {
+      return new ArrayList<>(rows.values());
+    }
+
+    @Override
+    public List<PendingVote> votes(List<String> fullNames) {
+      List<PendingVote> votes = new ArrayList<>();
+      for (String fullName : fullNames) {
+        if (rows.containsKey(fullName)) {
+          votes.add(rows.get(fullName));
+        }
+      }
+      return votes;
+    }
+
+    @Override
+    public List<PendingVote> unsyncedVotes() {
+      List<PendingVote> votes = new ArrayList<>();
+      for (PendingVote vote : rows.values()) {
+        if (vote.needsSync()) {
+          votes.add(vote);
+        }
+      }
+      Collections.sort(votes, (first, second) -> Long.compare(first.getUpdateTimeMillis(), second.getUpdateTimeMillis()));
+      return votes;
+    }
+
+    @Override
+    public void saveIfNew(PendingVote vote) {
+      if (!rows.containsKey(vote.getFullName())) {
+        rows.put(vote.getFullName(), vote);
+      }
+    }
+
+    @Override
+    public void updateDirection(String fullName, VoteDirection direction, long updateTimeMillis) {
+      PendingVote vote = rows.get(fullName);
+      if (vote != null) {
+        rows.put(fullName, new PendingVote(fullName, direction, vote.getSyncedDirection(), updateTimeMillis));
+      }
+    }
+
+    @Override
+    public void saveDirection(String fullName, VoteDirection direction, VoteDirection remoteDirection, long updateTimeMillis) {
+      saveIfNew(new PendingVote(fullName, direction, remoteDirection, updateTimeMillis));
+      updateDirection(fullName, direction, updateTimeMillis);
+    }
+
+    @Override
+    public void markSynced(String fullName, VoteDirection syncedDirection) {
+      PendingVote vote = rows.get(fullName);
+      if (vote != null) {
+        rows.put(fullName, new PendingVote(fullName, vote.getDirection(), syncedDirection, vote.getUpdateTimeMillis()));
+      }
+    }
+
+    @Override
+    public int deleteSyncedVotes(List<String> fullNames) {
+      int deleted = 0;
+      for (String fullName : fullNames) {
+        PendingVote vote = rows.get(fullName);
+        if (vote != null && !vote.needsSync()) {
+          rows.remove(fullName);
+          deleted++;
+        }
+      }
+      return deleted;
+    }
+
+    @Override
+    public void deleteAll() {
+      rows.clear();
+    }
+  }
+}
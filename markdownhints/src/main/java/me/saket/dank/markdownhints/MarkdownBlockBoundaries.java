@@ -0,0 +1,238 @@
+package me.saket.dank.markdownhints;
+
+import com.vladsch.flexmark.ast.Node;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Offsets of the top-level blocks found in the last parse, kept in sync with edits. Used for
+ * re-parsing only the blocks that were touched by an edit instead of the entire text.
+ */
+class MarkdownBlockBoundaries {
+
+  /**
+   * Re-parsing a region this big isn't going to be much faster than parsing everything.
+   */
+  private static final float MAX_PARTIAL_REGION_FRACTION = 0.6f;
+
+  private final List<Block> blocks = new ArrayList<>();
+  private boolean isKnown;
+  private int dirtyStart = -1;
+  private int dirtyEnd = -1;
+
+  private static class Block {
+    int start;
+    int end;
+
+    Block(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  static class Region {
+    final int start;
+    final int end;
+    final boolean isEntireText;
+
+    Region(int start, int end, boolean isEntireText) {
+      this.start = start;
+      this.end = end;
+      this.isEntireText = isEntireText;
+    }
+
+    @Override
+    public String toString() {
+      return "Region{" + start + ".." + end + (isEntireText ? ", entire text" : "") + '}';
+    }
+  }
+
+  boolean hasDirtyRegion() {
+    return !isKnown || dirtyStart != -1;
+  }
+
+  /**
+   * Called when <var>removedLength</var> characters starting at <var>start</var> are replaced by
+   * <var>insertedLength</var> characters. Blocks touched by the edit are dropped and marked dirty.
+   */
+  void onTextReplaced(int start, int removedLength, int insertedLength) {
+    int oldEnd = start + removedLength;
+    int delta = insertedLength - removedLength;
+
+    int newDirtyStart = start;
+    int newDirtyEnd = start + insertedLength;
+    if (dirtyStart != -1) {
+      newDirtyStart = Math.min(newDirtyStart, shift(dirtyStart, start, oldEnd, delta));
+      newDirtyEnd = Math.max(newDirtyEnd, shift(dirtyEnd, start, oldEnd, delta));
+    }
+
+    Iterator<Block> iterator = blocks.iterator();
+    while (iterator.hasNext()) {
+      Block block = iterator.next();
+      if (block.end <= start) {
+        continue;
+      }
+      if (block.start > oldEnd) {
+        block.start += delta;
+        block.end += delta;
+        continue;
+      }
+      newDirtyStart = Math.min(newDirtyStart, shift(block.start, start, oldEnd, delta));
+      newDirtyEnd = Math.max(newDirtyEnd, shift(block.end, start, oldEnd, delta));
+      iterator.remove();
+    }
+
+    dirtyStart = newDirtyStart;
+    dirtyEnd = newDirtyEnd;
+  }
+
+  private static int shift(int position, int editStart, int editOldEnd, int delta) {
+    if (position <= editStart) {
+      return position;
+    }
+    if (position >= editOldEnd) {
+      return position + delta;
+    }
+    return editOldEnd + delta;
+  }
+
+  /**
+   * The dirty region extended by one untouched block on each side, because an edit can merge
+   * blocks or change the meaning of its neighbours (e.g., "---" turns the previous paragraph into
+   * a heading), and then extended to the nearest blank lines so that the region parses the same
+   * way on its own as it would as part of the entire text.
+   */
+  Region regionToParse(CharSequence text) {
+    int length = text.length();
+    if (!isKnown || dirtyStart == -1) {
+      return new Region(0, length, true);
+    }
+
+    int start = Math.min(dirtyStart, length);
+    int end = Math.min(dirtyEnd, length);
+
+    Block blockBefore = null;
+    Block blockAfter = null;
+    for (Block block : blocks) {
+      if (block.end <= start) {
+        blockBefore = block;
+      } else if (block.start >= end && blockAfter == null) {
+        blockAfter = block;
+      }
+    }
+    if (blockBefore != null) {
+      start = blockBefore.start;
+    }
+    if (blockAfter != null) {
+      end = Math.min(blockAfter.end, length);
+    }
+
+    start = blankLineBoundaryBefore(text, start);
+    end = blankLineBoundaryAfter(text, end);
+
+    // Fenced code blocks can contain blank lines.
+    boolean tooLarge = end - start > length * MAX_PARTIAL_REGION_FRACTION;
+    if (tooLarge || containsCodeFence(text, start, end)) {
+      return new Region(0, length, true);
+    }
+    return new Region(start, end, false);
+  }
+
+  /**
+   * @param document parsed from the text within <var>region</var>.
+   */
+  void onRegionParsed(Region region, Node document) {
+    if (region.isEntireText) {
+      blocks.clear();
+
+    } else {
+      Iterator<Block> iterator = blocks.iterator();
+      while (iterator.hasNext()) {
+        Block block = iterator.next();
+        if (block.start < region.end && block.end > region.start) {
+          iterator.remove();
+        }
+      }
+    }
+
+    int insertIndex = 0;
+    while (insertIndex < blocks.size() && blocks.get(insertIndex).start < region.start) {
+      insertIndex++;
+    }
+    Node child = document.getFirstChild();
+    while (child != null) {
+      blocks.add(insertIndex++, new Block(child.getStartOffset() + region.start, child.getEndOffset() + region.start));
+      child = child.getNext();
+    }
+
+    isKnown = true;
+    dirtyStart = -1;
+    dirtyEnd = -1;
+  }
+
+  static int blankLineBoundaryBefore(CharSequence text, int position) {
+    int lineStart = lineStartOf(text, position);
+    while (lineStart > 0) {
+      int previousLineStart = lineStartOf(text, lineStart - 1);
+      if (isBlank(text, previousLineStart, lineStart - 1)) {
+        return lineStart;
+      }
+      lineStart = previousLineStart;
+    }
+    return 0;
+  }
+
+  static int blankLineBoundaryAfter(CharSequence text, int position) {
+    int length = text.length();
+    int lineStart = lineStartOf(text, position);
+    while (lineStart < length) {
+      int lineEnd = lineEndOf(text, lineStart);
+      if (isBlank(text, lineStart, lineEnd)) {
+        return Math.max(lineStart, position);
+      }
+      lineStart = lineEnd + 1;
+    }
+    return length;
+  }
+
+  private static int lineStartOf(CharSequence text, int position) {
+    int i = Math.min(position, text.length()) - 1;
+    while (i >= 0 && text.charAt(i) != '\n') {
+      i--;
+    }
+    return i + 1;
+  }
+
+  private static int lineEndOf(CharSequence text, int lineStart) {
+    int i = lineStart;
+    while (i < text.length() && text.charAt(i) != '\n') {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isBlank(CharSequence text, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean containsCodeFence(CharSequence text, int start, int end) {
+    int consecutiveBackticks = 0;
+    int consecutiveTildes = 0;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      consecutiveBackticks = c == '`' ? consecutiveBackticks + 1 : 0;
+      consecutiveTildes = c == '~' ? consecutiveTildes + 1 : 0;
+      if (consecutiveBackticks == 3 || consecutiveTildes == 3) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
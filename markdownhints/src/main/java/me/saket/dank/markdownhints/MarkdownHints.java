@@ -1,7 +1,11 @@
 package me.saket.dank.markdownhints;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
 import android.text.Editable;
 import android.text.Spannable;
+import android.text.TextUtils;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.LeadingMarginSpan;
 import android.text.style.StrikethroughSpan;
@@ -18,6 +22,7 @@ import com.vladsch.flexmark.util.sequence.SubSequence;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import me.saket.dank.markdownhints.spans.HeadingSpanWithLevel;
 import me.saket.dank.markdownhints.spans.HorizontalRuleSpan;
@@ -28,6 +33,8 @@ import timber.log.Timber;
 
 /**
  * Usage: EditText#addTextChangedListener(new MarkdownHints(EditText, HighlightOptions, SpanPool));
+ * <p>
+ * Only the blocks touched by an edit are re-parsed and re-highlighted, see {@link MarkdownBlockBoundaries}.
  */
 public class MarkdownHints extends SimpleTextWatcher {
 
@@ -52,6 +59,22 @@ public class MarkdownHints extends SimpleTextWatcher {
   private final Parser parser;
   private final MarkdownNodeTreeVisitor markdownNodeTreeVisitor;
   private final MarkdownHintsSpanWriter markdownHintsSpanWriter;
+  private final MarkdownBlockBoundaries blockBoundaries = new MarkdownBlockBoundaries();
+  private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+  private final Runnable debouncedParse = new Runnable() {
+    @Override
+    public void run() {
+      parseDirtyRegionInBackground();
+    }
+  };
+
+  @Nullable private Executor backgroundExecutor;
+  private long debounceMillis;
+
+  /**
+   * Incremented on every text change so that background parses of stale text can be dropped.
+   */
+  private int textGeneration;
 
   public static void enableLogging() {
     Timber.plant(new Timber.DebugTree());
@@ -68,24 +91,90 @@ public class MarkdownHints extends SimpleTextWatcher {
         .build();
   }
 
+  /**
+   * Parse on <var>executor</var> once the text has stopped changing for <var>debounceMillis</var>,
+   * instead of on the main thread after every keystroke. Spans are still applied on the main thread.
+   */
+  public MarkdownHints parseInBackground(Executor executor, long debounceMillis) {
+    this.backgroundExecutor = executor;
+    this.debounceMillis = debounceMillis;
+    return this;
+  }
+
+  @Override
+  public void onTextChanged(CharSequence s, int start, int before, int count) {
+    blockBoundaries.onTextReplaced(start, before, count);
+  }
+
   @Override
   public void afterTextChanged(Editable editable) {
+    textGeneration++;
+
+    if (backgroundExecutor == null) {
+      MarkdownBlockBoundaries.Region region = blockBoundaries.regionToParse(editable);
+      Node markdownRootNode = parser.parse(SubSequence.of(TextUtils.substring(editable, region.start, region.end)));
+      applyHints(editable, region, markdownRootNode);
+
+    } else {
+      mainThreadHandler.removeCallbacks(debouncedParse);
+      mainThreadHandler.postDelayed(debouncedParse, debounceMillis);
+    }
+  }
+
+  private void parseDirtyRegionInBackground() {
+    if (!blockBoundaries.hasDirtyRegion()) {
+      return;
+    }
+
+    Editable editable = editText.getText();
+    final MarkdownBlockBoundaries.Region region = blockBoundaries.regionToParse(editable);
+    final String regionText = TextUtils.substring(editable, region.start, region.end);
+    final int generation = textGeneration;
+
+    //noinspection ConstantConditions
+    backgroundExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final Node markdownRootNode = parser.parse(SubSequence.of(regionText));
+
+        mainThreadHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            // The region is still marked dirty if the text has changed since,
+            // so it'll get included in the parse that's already scheduled.
+            if (generation == textGeneration) {
+              applyHints(editText.getText(), region, markdownRootNode);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  private void applyHints(Editable editable, MarkdownBlockBoundaries.Region region, Node markdownRootNode) {
     editText.removeTextChangedListener(this);
 
     // We'll see stale styling if previous spans aren't removed.
-    removeHintSpans(editable);
+    removeHintSpans(editable, region.start, region.end);
 
-    Node markdownRootNode = parser.parse(SubSequence.of(editable));
-    markdownHintsSpanWriter.setText(editable);
+    markdownHintsSpanWriter.setText(editable, region.start);
     markdownNodeTreeVisitor.visit(markdownRootNode, markdownHintsSpanWriter);
+    blockBoundaries.onRegionParsed(region, markdownRootNode);
 
     editText.addTextChangedListener(this);
   }
 
-  private void removeHintSpans(Spannable spannable) {
-    Object[] spans = spannable.getSpans(0, spannable.length(), Object.class);
+  /**
+   * Removes spans that lie entirely within [start, end). Spans of untouched
+   * blocks that only share a boundary with this region are left alone.
+   */
+  private void removeHintSpans(Spannable spannable, int start, int end) {
+    Object[] spans = spannable.getSpans(start, end, Object.class);
     for (Object span : spans) {
-      if (SUPPORTED_MARKDOWN_SPANS.contains(span.getClass())) {
+      if (SUPPORTED_MARKDOWN_SPANS.contains(span.getClass())
+          && spannable.getSpanStart(span) >= start
+          && spannable.getSpanEnd(span) <= end)
+      {
         spannable.removeSpan(span);
         spanPool.recycle(span);
       }
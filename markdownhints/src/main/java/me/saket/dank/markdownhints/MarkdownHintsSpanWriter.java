@@ -9,9 +9,18 @@ import android.text.Spanned;
 public class MarkdownHintsSpanWriter {
 
   private Editable editable;
+  private int offset;
 
   public void setText(Editable editable) {
+    setText(editable, 0);
+  }
+
+  /**
+   * @param offset Added to the position of every span. Used when only a part of the text was parsed.
+   */
+  public void setText(Editable editable, int offset) {
     this.editable = editable;
+    this.offset = offset;
   }
 
   /** Starts {@code span} at the current position in the builder. */
@@ -19,7 +28,7 @@ public class MarkdownHintsSpanWriter {
     if (!MarkdownHints.SUPPORTED_MARKDOWN_SPANS.contains(span.getClass())) {
       throw new IllegalArgumentException("Span not supported: " + span.getClass());
     }
-    editable.setSpan(span, start, end, Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
+    editable.setSpan(span, start + offset, end + offset, Spanned.SPAN_INCLUSIVE_EXCLUSIVE);
     return this;
   }
 }
@@ -0,0 +1,83 @@
+package me.saket.dank.markdownhints;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.sequence.SubSequence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MarkdownBlockBoundariesTest {
+
+  private static final String TEXT = "First paragraph.\n\nSecond paragraph.\n\nThird paragraph.\n\nFourth paragraph.\n\n"
+      + "Fifth paragraph.\n\nSixth paragraph.\n\nSeventh paragraph.";
+
+  private MarkdownBlockBoundaries boundaries;
+  private Parser parser;
+  private StringBuilder text;
+
+  @Before
+  public void setUp() {
+    boundaries = new MarkdownBlockBoundaries();
+    parser = Parser.builder().build();
+    text = new StringBuilder(TEXT);
+  }
+
+  @Test
+  public void firstParseShouldCoverEntireText() {
+    MarkdownBlockBoundaries.Region region = boundaries.regionToParse(text);
+
+    assertTrue(region.isEntireText);
+    assertEquals(0, region.start);
+    assertEquals(text.length(), region.end);
+  }
+
+  @Test
+  public void editShouldOnlyReparseTouchedBlockAndItsNeighbours() {
+    parse(boundaries.regionToParse(text));
+
+    insert(TEXT.indexOf("Fourth") + 1, "x");
+    MarkdownBlockBoundaries.Region region = boundaries.regionToParse(text);
+
+    assertFalse(region.isEntireText);
+    assertEquals(text.indexOf("Third"), region.start);
+    assertEquals(text.indexOf("Fifth") + "Fifth paragraph.\n".length(), region.end);
+  }
+
+  @Test
+  public void blocksAfterAnEditShouldBeShifted() {
+    parse(boundaries.regionToParse(text));
+    insert(TEXT.indexOf("First"), "A longer ");
+    parse(boundaries.regionToParse(text));
+
+    insert(text.indexOf("Sixth") + 1, "x");
+    MarkdownBlockBoundaries.Region region = boundaries.regionToParse(text);
+
+    assertFalse(region.isEntireText);
+    assertEquals(text.indexOf("Fifth"), region.start);
+    assertEquals(text.length(), region.end);
+  }
+
+  @Test
+  public void codeFencesShouldCauseAFullReparse() {
+    parse(boundaries.regionToParse(text));
+
+    insert(TEXT.indexOf("Fourth"), "```\n");
+    MarkdownBlockBoundaries.Region region = boundaries.regionToParse(text);
+
+    assertTrue(region.isEntireText);
+  }
+
+  private void insert(int position, String insertedText) {
+    text.insert(position, insertedText);
+    boundaries.onTextReplaced(position, 0, insertedText.length());
+  }
+
+  private void parse(MarkdownBlockBoundaries.Region region) {
+    String regionText = text.substring(region.start, region.end);
+    boundaries.onRegionParsed(region, parser.parse(SubSequence.of(regionText)));
+  }
+}